@@ -68,6 +68,8 @@ public class ManagedLedgerConfig {
     private DigestType digestType = DigestType.CRC32C;
     private byte[] password = "".getBytes(Charsets.UTF_8);
     private boolean unackedRangesOpenCacheSetEnabled = true;
+    private boolean persistIndividualAckAsBitmap = false;
+    private int maxCursorDeltasPerSnapshot = 0;
     private Class<? extends EnsemblePlacementPolicy>  bookKeeperEnsemblePlacementPolicyClassName;
     private Map<String, Object> bookKeeperEnsemblePlacementPolicyProperties;
     private LedgerOffloader ledgerOffloader = NullLedgerOffloader.INSTANCE;
@@ -481,6 +483,47 @@ public class ManagedLedgerConfig {
         this.maxUnackedRangesToPersistInZk = maxUnackedRangesToPersistInZk;
     }
 
+    /**
+     * @return whether the individually deleted messages are persisted in the cursor ledger as per-ledger bitmaps
+     *         instead of a list of ranges
+     */
+    public boolean isPersistIndividualAckAsBitmap() {
+        return persistIndividualAckAsBitmap;
+    }
+
+    /**
+     * Persist the individually deleted messages in the cursor ledger as per-ledger bitmaps. The bitmaps are not
+     * limited by {@link #getMaxUnackedRangesToPersist()}, and their size depends on the span of the acknowledgment
+     * holes rather than on their number.
+     *
+     * @param persistIndividualAckAsBitmap
+     *            whether to persist the individually deleted messages as bitmaps
+     */
+    public ManagedLedgerConfig setPersistIndividualAckAsBitmap(boolean persistIndividualAckAsBitmap) {
+        this.persistIndividualAckAsBitmap = persistIndividualAckAsBitmap;
+        return this;
+    }
+
+    /**
+     * @return the max number of delta entries appended to the cursor ledger between two full snapshots
+     */
+    public int getMaxCursorDeltasPerSnapshot() {
+        return maxCursorDeltasPerSnapshot;
+    }
+
+    /**
+     * Set the max number of delta entries appended to the cursor ledger between two full snapshots of the cursor
+     * state. A delta only contains the mark-delete position and the ranges acknowledged since the previous entry,
+     * and the cursor recovery replays the deltas on top of the last full snapshot.
+     *
+     * @param maxCursorDeltasPerSnapshot
+     *            the max number of deltas per snapshot, 0 to always persist full snapshots
+     */
+    public ManagedLedgerConfig setMaxCursorDeltasPerSnapshot(int maxCursorDeltasPerSnapshot) {
+        this.maxCursorDeltasPerSnapshot = maxCursorDeltasPerSnapshot;
+        return this;
+    }
+
     /**
      * Get ledger offloader which will be used to offload ledgers to longterm storage.
      *
@@ -37,6 +37,17 @@ public class ManagedLedgerFactoryConfig {
     private int numManagedLedgerWorkerThreads = Runtime.getRuntime().availableProcessors();
     private int numManagedLedgerSchedulerThreads = Runtime.getRuntime().availableProcessors();
 
+    /**
+     * Class name of the {@link org.apache.bookkeeper.mledger.impl.EntryCacheEvictionPolicy} used to free space when
+     * the cache is full.
+     */
+    private String cacheEvictionPolicyClassName = "org.apache.bookkeeper.mledger.impl.EntryCacheDefaultEvictionPolicy";
+
+    /**
+     * Number of entries ahead of each active cursor that the cursor-aware eviction policy tries to keep in cache.
+     */
+    private int cacheEvictionReadAheadEntries = 1000;
+
     /**
      * Frequency of cache eviction triggering. Default is 100 times per second.
      */
@@ -47,11 +58,28 @@ public class ManagedLedgerFactoryConfig {
      */
     private long cacheEvictionTimeThresholdMillis = 1000;
 
+    /**
+     * Number of entries to prefetch after a read that missed the cache, so that the next read of a backlogged cursor
+     * is not going to BookKeeper. Set to 0 to disable the read-ahead.
+     */
+    private int cacheReadAheadEntries = 0;
+
     /**
      * Whether we should make a copy of the entry payloads when inserting in cache
      */
     private boolean copyEntriesInCache = false;
 
+    /**
+     * Whether the entry cache should append entries into large pooled direct-memory segments, with a compact index
+     * per ledger, instead of keeping one cache node per entry. Segments are evicted as a whole.
+     */
+    private boolean useSegmentedEntryCache = false;
+
+    /**
+     * Size of the direct-memory segments allocated by the segmented entry cache
+     */
+    private int entryCacheSegmentSize = 1024 * 1024;
+
     /**
      * Whether trace managed ledger task execution time
      */
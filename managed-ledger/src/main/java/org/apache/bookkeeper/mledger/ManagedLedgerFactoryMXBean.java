@@ -47,6 +47,16 @@ public interface ManagedLedgerFactoryMXBean {
      */
     double getCacheMissesRate();
 
+    /**
+     * Get the fraction of the entries read that were served by the cache.
+     */
+    double getCacheHitsRatio();
+
+    /**
+     * Get the name of the eviction policy used by the cache.
+     */
+    String getCacheEvictionPolicy();
+
     /**
      * Get the amount of data is retrieved from the cache in byte/s.
      */
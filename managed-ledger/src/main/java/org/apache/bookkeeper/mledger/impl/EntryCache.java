@@ -18,6 +18,7 @@
  */
 package org.apache.bookkeeper.mledger.impl;
 
+import java.util.List;
 import org.apache.bookkeeper.client.api.ReadHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
@@ -54,6 +55,17 @@ public interface EntryCache extends Comparable<EntryCache> {
      */
     void invalidateEntries(PositionImpl lastPosition);
 
+    /**
+     * Remove from cache the entries in the range between the two positions.
+     *
+     * @param firstPosition
+     *            the position of the first entry to be invalidated (inclusive)
+     * @param lastPosition
+     *            the position of the last entry to be invalidated (non-inclusive)
+     * @return a pair containing the number of entries removed and their total size
+     */
+    Pair<Integer, Long> invalidateEntriesInRange(PositionImpl firstPosition, PositionImpl lastPosition);
+
     void invalidateEntriesBeforeTimestamp(long timestamp);
 
     /**
@@ -115,6 +127,13 @@ public interface EntryCache extends Comparable<EntryCache> {
      */
     void asyncReadEntry(ReadHandle lh, PositionImpl position, ReadEntryCallback callback, Object ctx);
 
+    /**
+     * Get the read positions of the active cursors of the managed ledger using this cache.
+     *
+     * @return the read positions, sorted from the slowest to the fastest reader
+     */
+    List<PositionImpl> getActiveCursorsReadPositions();
+
     /**
      * Get the total size in bytes of all the entries stored in this cache.
      *
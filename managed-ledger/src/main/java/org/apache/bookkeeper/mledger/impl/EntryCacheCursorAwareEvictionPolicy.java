@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Eviction policy that takes into account where the active cursors are reading.
+ *
+ * <p/>The eviction is done in 3 steps, stopping as soon as enough space was freed:
+ * <ol>
+ * <li>Drop the entries that were already read by all the active cursors, and the caches that have no active cursor
+ * <li>Drop the entries that are behind a faster cursor, but outside the read-ahead window of the slower cursor that
+ * will read them next. The window of entries right ahead of each lagging cursor is preserved.
+ * <li>Fall back to the {@link EntryCacheDefaultEvictionPolicy} for the remaining size
+ * </ol>
+ */
+public class EntryCacheCursorAwareEvictionPolicy implements EntryCacheEvictionPolicy {
+
+    private int readAheadEntries = 1000;
+    private final EntryCacheEvictionPolicy fallbackPolicy = new EntryCacheDefaultEvictionPolicy();
+
+    @Override
+    public void initialize(ManagedLedgerFactoryConfig config) {
+        this.readAheadEntries = config.getCacheEvictionReadAheadEntries();
+    }
+
+    @Override
+    public void doEviction(List<EntryCache> caches, long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        checkArgument(!caches.isEmpty());
+
+        long evictedBehindReaders = 0;
+        long evictedAheadOfWindow = 0;
+
+        // 1. Entries that no active cursor is going to read anymore
+        for (EntryCache cache : caches) {
+            List<PositionImpl> readPositions = cache.getActiveCursorsReadPositions();
+            long sizeBefore = cache.getSize();
+            if (readPositions.isEmpty()) {
+                cache.clear();
+            } else {
+                cache.invalidateEntries(readPositions.get(0));
+            }
+            evictedBehindReaders += sizeBefore - cache.getSize();
+        }
+
+        // 2. Entries that are far from the next cursor that will read them
+        if (evictedBehindReaders < sizeToFree) {
+            for (EntryCache cache : caches) {
+                List<PositionImpl> readPositions = cache.getActiveCursorsReadPositions();
+
+                // The entries after the fastest reader are always preserved
+                for (int i = 0; i < readPositions.size() - 1; i++) {
+                    PositionImpl laggingReader = readPositions.get(i);
+                    PositionImpl windowEnd = PositionImpl.get(laggingReader.getLedgerId(),
+                            laggingReader.getEntryId() + readAheadEntries);
+                    Pair<Integer, Long> evicted = cache.invalidateEntriesInRange(windowEnd, readPositions.get(i + 1));
+                    evictedAheadOfWindow += evicted.getRight();
+
+                    if (evictedBehindReaders + evictedAheadOfWindow >= sizeToFree) {
+                        break;
+                    }
+                }
+
+                if (evictedBehindReaders + evictedAheadOfWindow >= sizeToFree) {
+                    break;
+                }
+            }
+        }
+
+        long remainingSizeToFree = sizeToFree - evictedBehindReaders - evictedAheadOfWindow;
+        if (remainingSizeToFree > 0) {
+            fallbackPolicy.doEviction(caches, remainingSizeToFree);
+        }
+
+        log.info("Completed cursor-aware cache eviction. Removed {} Mb behind readers, {} Mb outside read-ahead windows",
+                evictedBehindReaders / EntryCacheManager.MB, evictedAheadOfWindow / EntryCacheManager.MB);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheCursorAwareEvictionPolicy.class);
+}
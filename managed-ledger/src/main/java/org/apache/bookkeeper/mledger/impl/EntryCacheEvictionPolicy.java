@@ -19,12 +19,22 @@
 package org.apache.bookkeeper.mledger.impl;
 
 import java.util.List;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
 
 /**
  * Cache eviction policy abstraction interface.
  *
  */
 public interface EntryCacheEvictionPolicy {
+    /**
+     * Initialize the policy with the managed ledger factory configuration.
+     *
+     * @param config
+     *            the factory configuration
+     */
+    default void initialize(ManagedLedgerFactoryConfig config) {
+    }
+
     /**
      * Perform the cache eviction of at least sizeToFree bytes on the supplied list of caches.
      *
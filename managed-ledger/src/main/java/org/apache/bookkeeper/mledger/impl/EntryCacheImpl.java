@@ -19,7 +19,6 @@
 package org.apache.bookkeeper.mledger.impl;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
 
 import com.google.common.collect.Lists;
@@ -32,7 +31,6 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.bookkeeper.client.api.BKException;
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.client.api.ReadHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
@@ -52,6 +50,7 @@ public class EntryCacheImpl implements EntryCache {
     private final ManagedLedgerImpl ml;
     private final RangeCache<PositionImpl, EntryImpl> entries;
     private final boolean copyEntries;
+    private final PendingReadsManager pendingReads;
 
     private static final double MB = 1024 * 1024;
 
@@ -60,6 +59,7 @@ public class EntryCacheImpl implements EntryCache {
         this.ml = ml;
         this.entries = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
         this.copyEntries = copyEntries;
+        this.pendingReads = new PendingReadsManager(manager, ml, this);
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Initialized managed-ledger entry cache", ml.getName());
@@ -165,6 +165,22 @@ public class EntryCacheImpl implements EntryCache {
         manager.entriesRemoved(sizeRemoved);
     }
 
+    @Override
+    public Pair<Integer, Long> invalidateEntriesInRange(PositionImpl firstPosition, PositionImpl lastPosition) {
+        if (firstPosition.compareTo(lastPosition) >= 0) {
+            return Pair.of(0, (long) 0);
+        }
+
+        Pair<Integer, Long> removed = entries.removeRange(firstPosition, lastPosition, false);
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated entries from {} to {} - Entries removed: {} - Size removed: {}", ml.getName(),
+                    firstPosition, lastPosition, removed.getLeft(), removed.getRight());
+        }
+
+        manager.entriesRemoved(removed.getRight());
+        return removed;
+    }
+
     @Override
     public void invalidateAllEntries(long ledgerId) {
         final PositionImpl firstPosition = PositionImpl.get(ledgerId, 0);
@@ -287,6 +303,7 @@ public class EntryCacheImpl implements EntryCache {
                 log.debug("[{}] Ledger {} -- Found in cache entries: {}-{}", ml.getName(), ledgerId, firstEntry,
                         lastEntry);
             }
+            pendingReads.entriesReadFromCache(lh, firstEntry, lastEntry);
 
             callback.readEntriesComplete((List) entriesToReturn, ctx);
 
@@ -296,62 +313,22 @@ public class EntryCacheImpl implements EntryCache {
             }
 
             // Read all the entries from bookkeeper
-            lh.readAsync(firstEntry, lastEntry).whenCompleteAsync(
-                    (ledgerEntries, exception) -> {
-                        if (exception != null) {
-                            if (exception instanceof BKException
-                                && ((BKException)exception).getCode() == BKException.Code.TooManyRequestsException) {
-                                callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
-                            } else {
-                                ml.invalidateLedgerHandle(lh, exception);
-                                ManagedLedgerException mlException = createManagedLedgerException(exception);
-                                callback.readEntriesFailed(mlException, ctx);
-                            }
-                            return;
-                        }
-
-                        checkNotNull(ml.getName());
-                        checkNotNull(ml.getExecutor());
-
-                        try {
-                            // We got the entries, we need to transform them to a List<> type
-                            long totalSize = 0;
-                            final List<EntryImpl> entriesToReturn
-                                = Lists.newArrayListWithExpectedSize(entriesToRead);
-                            for (LedgerEntry e : ledgerEntries) {
-                                EntryImpl entry = EntryImpl.create(e);
-
-                                entriesToReturn.add(entry);
-                                totalSize += entry.getLength();
-                            }
-
-                            manager.mlFactoryMBean.recordCacheMiss(entriesToReturn.size(), totalSize);
-                            ml.getMBean().addReadEntriesSample(entriesToReturn.size(), totalSize);
-
-                            callback.readEntriesComplete((List) entriesToReturn, ctx);
-                        } finally {
-                            ledgerEntries.close();
-                        }
-                    }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception->{
-                    	  if (exception instanceof BKException
-                                  && ((BKException)exception).getCode() == BKException.Code.TooManyRequestsException) {
-                                  callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
-                              } else {
-                                  ml.invalidateLedgerHandle(lh, exception);
-                                  ManagedLedgerException mlException = createManagedLedgerException(exception);
-                                  callback.readEntriesFailed(mlException, ctx);
-                              }
-                    	return null;
-                    });
+            pendingReads.readEntries(lh, firstEntry, lastEntry, callback, ctx);
         }
     }
 
     @Override
     public void clear() {
+        pendingReads.clear();
         long removedSize = entries.clear();
         manager.entriesRemoved(removedSize);
     }
 
+    @Override
+    public List<PositionImpl> getActiveCursorsReadPositions() {
+        return ml.getActiveCursorsReadPositions();
+    }
+
     @Override
     public long getSize() {
         return entries.getSize();
@@ -25,6 +25,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import io.netty.buffer.ByteBuf;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
@@ -37,6 +38,7 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,7 +55,7 @@ public class EntryCacheManager {
 
     private final AtomicBoolean evictionInProgress = new AtomicBoolean(false);
 
-    private final ManagedLedgerFactoryImpl mlFactory;
+    protected final ManagedLedgerFactoryImpl mlFactory;
     protected final ManagedLedgerFactoryMBeanImpl mlFactoryMBean;
 
     protected static final double MB = 1024 * 1024;
@@ -67,11 +69,26 @@ public class EntryCacheManager {
         this.maxSize = factory.getConfig().getMaxCacheSize();
         this.evictionTriggerThreshold = (long) (maxSize * evictionTriggerThresholdPercent);
         this.cacheEvictionWatermak = factory.getConfig().getCacheEvictionWatermark();
-        this.evictionPolicy = new EntryCacheDefaultEvictionPolicy();
+        this.evictionPolicy = createEvictionPolicy(factory.getConfig());
         this.mlFactory = factory;
         this.mlFactoryMBean = factory.mbean;
 
-        log.info("Initialized managed-ledger entry cache of {} Mb", maxSize / MB);
+        log.info("Initialized managed-ledger entry cache of {} Mb with eviction policy {}", maxSize / MB,
+                evictionPolicy.getClass().getSimpleName());
+    }
+
+    private static EntryCacheEvictionPolicy createEvictionPolicy(ManagedLedgerFactoryConfig config) {
+        String className = config.getCacheEvictionPolicyClassName();
+        EntryCacheEvictionPolicy policy;
+        try {
+            Class<?> policyClass = Class.forName(className);
+            policy = (EntryCacheEvictionPolicy) policyClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Invalid entry cache eviction policy: " + className, e);
+        }
+
+        policy.initialize(config);
+        return policy;
     }
 
     public EntryCache getEntryCache(ManagedLedgerImpl ml) {
@@ -80,7 +97,7 @@ public class EntryCacheManager {
             return new EntryCacheDisabled(ml);
         }
 
-        EntryCache newEntryCache = new EntryCacheImpl(this, ml, mlFactory.getConfig().isCopyEntriesInCache());
+        EntryCache newEntryCache = newEntryCache(ml);
         EntryCache currentEntryCache = caches.putIfAbsent(ml.getName(), newEntryCache);
         if (currentEntryCache != null) {
             return currentEntryCache;
@@ -89,6 +106,13 @@ public class EntryCacheManager {
         }
     }
 
+    /**
+     * Create the cache instance that will hold the entries of a single managed ledger.
+     */
+    protected EntryCache newEntryCache(ManagedLedgerImpl ml) {
+        return new EntryCacheImpl(this, ml, mlFactory.getConfig().isCopyEntriesInCache());
+    }
+
     void removeEntryCache(String name) {
         EntryCache entryCache = caches.remove(name);
         if (entryCache == null) {
@@ -150,6 +174,10 @@ public class EntryCacheManager {
         return maxSize;
     }
 
+    public EntryCacheEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
     public void clear() {
         caches.values().forEach(EntryCache::clear);
     }
@@ -175,6 +203,11 @@ public class EntryCacheManager {
         public void invalidateEntries(PositionImpl lastPosition) {
         }
 
+        @Override
+        public Pair<Integer, Long> invalidateEntriesInRange(PositionImpl firstPosition, PositionImpl lastPosition) {
+            return Pair.of(0, (long) 0);
+        }
+
         @Override
         public void invalidateAllEntries(long ledgerId) {
         }
@@ -252,6 +285,11 @@ public class EntryCacheManager {
                     }, ml.getExecutor().chooseThread(ml.getName()));
         }
 
+        @Override
+        public List<PositionImpl> getActiveCursorsReadPositions() {
+            return Collections.emptyList();
+        }
+
         @Override
         public long getSize() {
             return 0;
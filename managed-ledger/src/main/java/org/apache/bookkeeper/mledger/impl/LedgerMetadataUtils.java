@@ -36,14 +36,25 @@ public final class LedgerMetadataUtils {
             = "managed-ledger".getBytes(StandardCharsets.UTF_8);
     private static final byte[] METADATA_PROPERTY_COMPONENT_COMPACTED_LEDGER
             = "compacted-ledger".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METADATA_PROPERTY_COMPONENT_COMPACTED_LEDGER_INDEX
+            = "compacted-ledger-index".getBytes(StandardCharsets.UTF_8);
     private static final byte[] METADATA_PROPERTY_COMPONENT_SCHEMA
             = "schema".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METADATA_PROPERTY_COMPONENT_DELAYED_INDEX_BUCKET
+            = "delayed-index-bucket".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METADATA_PROPERTY_COMPONENT_DEDUPLICATION_SNAPSHOT
+            = "deduplication-snapshot".getBytes(StandardCharsets.UTF_8);
 
     private static final String METADATA_PROPERTY_MANAGED_LEDGER_NAME = "pulsar/managed-ledger";
     private static final String METADATA_PROPERTY_CURSOR_NAME = "pulsar/cursor";
     private static final String METADATA_PROPERTY_COMPACTEDTOPIC = "pulsar/compactedTopic";
     private static final String METADATA_PROPERTY_COMPACTEDTO = "pulsar/compactedTo";
+    private static final String METADATA_PROPERTY_COMPACTEDINDEX = "pulsar/compactedIndexLedger";
     private static final String METADATA_PROPERTY_SCHEMAID = "pulsar/schemaId";
+    private static final String METADATA_PROPERTY_DELAYED_INDEX_BUCKET_TOPIC = "pulsar/delayedIndexBucketTopic";
+    private static final String METADATA_PROPERTY_DELAYED_INDEX_BUCKET_SUBSCRIPTION =
+            "pulsar/delayedIndexBucketSubscription";
+    private static final String METADATA_PROPERTY_DEDUPLICATION_SNAPSHOT_TOPIC = "pulsar/deduplicationSnapshotTopic";
 
     /**
      * Build base metadata for every ManagedLedger.
@@ -85,6 +96,49 @@ public final class LedgerMetadataUtils {
         );
     }
 
+    /**
+     * Build additional metadata for a CompactedLedger with an index ledger.
+     *
+     * @param compactedTopic reference to the compacted topic.
+     * @param compactedToMessageId last mesasgeId.
+     * @param indexLedgerId id of the ledger holding the index of the compacted ledger.
+     * @return an immutable map which describes the compacted ledger
+     */
+    public static Map<String, byte[]> buildMetadataForCompactedLedger(String compactedTopic,
+                                                                      byte[] compactedToMessageId,
+                                                                      long indexLedgerId) {
+        return ImmutableMap.<String, byte[]>builder()
+                .putAll(buildMetadataForCompactedLedger(compactedTopic, compactedToMessageId))
+                .put(METADATA_PROPERTY_COMPACTEDINDEX,
+                        Long.toString(indexLedgerId).getBytes(StandardCharsets.UTF_8))
+                .build();
+    }
+
+    /**
+     * Get the id of the index ledger of a CompactedLedger.
+     *
+     * @param metadata the custom metadata of the compacted ledger.
+     * @return the id of the index ledger, or -1 if the compacted ledger has no index
+     */
+    public static long getCompactedLedgerIndexLedgerId(Map<String, byte[]> metadata) {
+        byte[] indexLedgerId = metadata.get(METADATA_PROPERTY_COMPACTEDINDEX);
+        return indexLedgerId == null ? -1L : Long.parseLong(new String(indexLedgerId, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Build additional metadata for the index ledger of a CompactedLedger.
+     *
+     * @param compactedTopic reference to the compacted topic.
+     * @return an immutable map which describes the index ledger
+     */
+    public static Map<String, byte[]> buildMetadataForCompactedLedgerIndex(String compactedTopic) {
+        return ImmutableMap.of(
+                METADATA_PROPERTY_APPLICATION, METADATA_PROPERTY_APPLICATION_PULSAR,
+                METADATA_PROPERTY_COMPONENT, METADATA_PROPERTY_COMPONENT_COMPACTED_LEDGER_INDEX,
+                METADATA_PROPERTY_COMPACTEDTOPIC, compactedTopic.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
     /**
      * Build additional metadata for a Schema
      *
@@ -99,6 +153,36 @@ public final class LedgerMetadataUtils {
         );
     }
 
+    /**
+     * Build additional metadata for a delayed delivery index bucket.
+     *
+     * @param topicName the topic that owns the bucket
+     * @param subscriptionName the subscription that owns the bucket
+     * @return an immutable map which describes the bucket
+     */
+    public static Map<String, byte[]> buildMetadataForDelayedIndexBucket(String topicName, String subscriptionName) {
+        return ImmutableMap.of(
+                METADATA_PROPERTY_APPLICATION, METADATA_PROPERTY_APPLICATION_PULSAR,
+                METADATA_PROPERTY_COMPONENT, METADATA_PROPERTY_COMPONENT_DELAYED_INDEX_BUCKET,
+                METADATA_PROPERTY_DELAYED_INDEX_BUCKET_TOPIC, topicName.getBytes(StandardCharsets.UTF_8),
+                METADATA_PROPERTY_DELAYED_INDEX_BUCKET_SUBSCRIPTION, subscriptionName.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    /**
+     * Build additional metadata for a ledger storing the deduplication state of a topic.
+     *
+     * @param topicName the topic that owns the deduplication state
+     * @return an immutable map which describes the deduplication snapshot
+     */
+    public static Map<String, byte[]> buildMetadataForDeduplicationSnapshot(String topicName) {
+        return ImmutableMap.of(
+                METADATA_PROPERTY_APPLICATION, METADATA_PROPERTY_APPLICATION_PULSAR,
+                METADATA_PROPERTY_COMPONENT, METADATA_PROPERTY_COMPONENT_DEDUPLICATION_SNAPSHOT,
+                METADATA_PROPERTY_DEDUPLICATION_SNAPSHOT_TOPIC, topicName.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
     private LedgerMetadataUtils() {}
 
 }
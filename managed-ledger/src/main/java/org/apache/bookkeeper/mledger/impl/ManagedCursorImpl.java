@@ -44,12 +44,14 @@ import io.netty.util.concurrent.FastThreadLocal;
 import java.time.Clock;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -163,6 +165,13 @@ public class ManagedCursorImpl implements ManagedCursor {
     };
     private final LongPairRangeSet<PositionImpl> individualDeletedMessages;
 
+    // Individually deleted messages added since the last entry appended to the cursor ledger, only tracked when the
+    // cursor persists deltas
+    private final LongPairRangeSet<PositionImpl> individualDeletedMessagesDelta;
+    // Cursor ledger holding the last full snapshot, and number of deltas appended after it
+    private long deltaSnapshotLedgerId = -1;
+    private int deltasSinceSnapshot = 0;
+
     // Maintain the deletion status for batch messages
     // (ledgerId, entryId) -> deletion indexes
     private final ConcurrentSkipListMap<PositionImpl, BitSetRecyclable> batchDeletedIndexes;
@@ -242,6 +251,13 @@ public class ManagedCursorImpl implements ManagedCursor {
         this.individualDeletedMessages = config.isUnackedRangesOpenCacheSetEnabled()
                 ? new ConcurrentOpenLongPairRangeSet<>(4096, positionRangeConverter)
                 : new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        if (config.getMaxCursorDeltasPerSnapshot() > 0) {
+            this.individualDeletedMessagesDelta = config.isUnackedRangesOpenCacheSetEnabled()
+                    ? new ConcurrentOpenLongPairRangeSet<>(4096, positionRangeConverter)
+                    : new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        } else {
+            this.individualDeletedMessagesDelta = null;
+        }
         if (config.isDeletionAtBatchIndexLevelEnabled()) {
             this.batchDeletedIndexes = new ConcurrentSkipListMap<>();
         } else {
@@ -380,26 +396,13 @@ public class ManagedCursorImpl implements ManagedCursor {
                     return;
                 }
 
-                Map<String, Long> recoveredProperties = Collections.emptyMap();
-                if (positionInfo.getPropertiesCount() > 0) {
-                    // Recover properties map
-                    recoveredProperties = Maps.newHashMap();
-                    for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
-                        LongProperty property = positionInfo.getProperties(i);
-                        recoveredProperties.put(property.getName(), property.getValue());
-                    }
-                }
-
-                PositionImpl position = new PositionImpl(positionInfo);
-                if (positionInfo.getIndividualDeletedMessagesCount() > 0) {
-                    recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
-                }
-                if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null
-                    && positionInfo.getBatchedEntryDeletionIndexInfoCount() > 0) {
-                    recoverBatchDeletedIndexes(positionInfo.getBatchedEntryDeletionIndexInfoList());
+                if (positionInfo.getDeltaSequence() > 0) {
+                    // The last entry only has the changes since the last full snapshot
+                    recoverFromDeltas(lh, positionInfo, callback);
+                } else {
+                    recoverFromPositionInfos(lh, Collections.singletonList(positionInfo));
+                    callback.operationComplete();
                 }
-                recoveredCursor(position, recoveredProperties, lh);
-                callback.operationComplete();
             }, null);
         };
         try {
@@ -411,38 +414,162 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    private void recoverFromDeltas(LedgerHandle lh, PositionInfo lastDelta, VoidCallback callback) {
+        long lastEntryInLedger = lh.getLastAddConfirmed();
+        long snapshotEntryId = lastEntryInLedger - lastDelta.getDeltaSequence();
+        if (snapshotEntryId < 0) {
+            log.warn("[{}] Full snapshot of cursor {} not found in metadata ledger {}, only recovering the last delta",
+                    ledger.getName(), name, lh.getId());
+            recoverFromPositionInfos(lh, Collections.singletonList(lastDelta));
+            callback.operationComplete();
+            return;
+        }
+
+        lh.asyncReadEntries(snapshotEntryId, lastEntryInLedger, (rc, lh1, seq, ctx) -> {
+            if (isBkErrorNotRecoverable(rc)) {
+                log.error("[{}] Error reading snapshot from metadata ledger {} for consumer {}: {}", ledger.getName(),
+                        lh.getId(), name, BKException.getMessage(rc));
+                // The last delta still has a valid mark-delete position
+                recoverFromPositionInfos(lh, Collections.singletonList(lastDelta));
+                callback.operationComplete();
+                return;
+            } else if (rc != BKException.Code.OK) {
+                log.warn("[{}] Error reading snapshot from metadata ledger {} for consumer {}: {}", ledger.getName(),
+                        lh.getId(), name, BKException.getMessage(rc));
+                callback.operationFailed(createManagedLedgerException(rc));
+                return;
+            }
+
+            List<PositionInfo> positionInfos = Lists.newArrayList();
+            try {
+                while (seq.hasMoreElements()) {
+                    positionInfos.add(PositionInfo.parseFrom(seq.nextElement().getEntry()));
+                }
+            } catch (InvalidProtocolBufferException e) {
+                callback.operationFailed(new ManagedLedgerException(e));
+                return;
+            }
+
+            if (positionInfos.get(0).getDeltaSequence() != 0) {
+                log.warn("[{}] Entry {} of metadata ledger {} for cursor {} is not a full snapshot, only recovering"
+                        + " the last delta", ledger.getName(), snapshotEntryId, lh.getId(), name);
+                positionInfos = Collections.singletonList(lastDelta);
+            }
+            recoverFromPositionInfos(lh, positionInfos);
+            callback.operationComplete();
+        }, null);
+    }
+
+    /**
+     * Recover the cursor from a full snapshot, followed by the deltas that were appended after it.
+     */
+    private void recoverFromPositionInfos(LedgerHandle lh, List<PositionInfo> positionInfos) {
+        PositionInfo snapshot = positionInfos.get(0);
+        PositionInfo last = positionInfos.get(positionInfos.size() - 1);
+
+        Map<String, Long> recoveredProperties = Collections.emptyMap();
+        if (last.getPropertiesCount() > 0) {
+            // Recover properties map
+            recoveredProperties = Maps.newHashMap();
+            for (int i = 0; i < last.getPropertiesCount(); i++) {
+                LongProperty property = last.getProperties(i);
+                recoveredProperties.put(property.getName(), property.getValue());
+            }
+        }
+
+        PositionImpl position = new PositionImpl(last);
+        if (snapshot.getIndividualDeletedMessageBitmapsCount() > 0) {
+            recoverIndividualDeletedMessageBitmaps(snapshot.getIndividualDeletedMessageBitmapsList());
+        } else if (snapshot.getIndividualDeletedMessagesCount() > 0) {
+            recoverIndividualDeletedMessages(snapshot.getIndividualDeletedMessagesList());
+        }
+
+        if (positionInfos.size() > 1) {
+            lock.writeLock().lock();
+            try {
+                // Replay the acks of each delta and drop what is behind its mark-delete position
+                for (PositionInfo delta : positionInfos.subList(1, positionInfos.size())) {
+                    delta.getIndividualDeletedMessagesList().forEach(this::addIndividualDeletedMessageRange);
+                    individualDeletedMessages.removeAtMost(delta.getLedgerId(), delta.getEntryId());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null
+            && last.getBatchedEntryDeletionIndexInfoCount() > 0) {
+            recoverBatchDeletedIndexes(last.getBatchedEntryDeletionIndexInfoList());
+        }
+        recoveredCursor(position, recoveredProperties, lh);
+    }
+
     private void recoverIndividualDeletedMessages(List<MLDataFormats.MessageRange> individualDeletedMessagesList) {
         lock.writeLock().lock();
         try {
             individualDeletedMessages.clear();
-            individualDeletedMessagesList.forEach(messageRange -> {
-                MLDataFormats.NestedPositionInfo lowerEndpoint = messageRange.getLowerEndpoint();
-                MLDataFormats.NestedPositionInfo upperEndpoint = messageRange.getUpperEndpoint();
+            individualDeletedMessagesList.forEach(this::addIndividualDeletedMessageRange);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addIndividualDeletedMessageRange(MLDataFormats.MessageRange messageRange) {
+        MLDataFormats.NestedPositionInfo lowerEndpoint = messageRange.getLowerEndpoint();
+        MLDataFormats.NestedPositionInfo upperEndpoint = messageRange.getUpperEndpoint();
+
+        if (lowerEndpoint.getLedgerId() == upperEndpoint.getLedgerId()) {
+            individualDeletedMessages.addOpenClosed(lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId(),
+                    upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
+        } else {
+            // Store message ranges after splitting them by ledger ID
+            LedgerInfo lowerEndpointLedgerInfo = ledger.getLedgersInfo().get(lowerEndpoint.getLedgerId());
+            if (lowerEndpointLedgerInfo != null) {
+                individualDeletedMessages.addOpenClosed(lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId(),
+                        lowerEndpoint.getLedgerId(), lowerEndpointLedgerInfo.getEntries() - 1);
+            } else {
+                log.warn("[{}][{}] No ledger info of lower endpoint {}:{}", ledger.getName(), name,
+                        lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId());
+            }
+
+            for (LedgerInfo li : ledger.getLedgersInfo()
+                    .subMap(lowerEndpoint.getLedgerId(), false, upperEndpoint.getLedgerId(), false).values()) {
+                individualDeletedMessages.addOpenClosed(li.getLedgerId(), -1, li.getLedgerId(),
+                        li.getEntries() - 1);
+            }
+
+            individualDeletedMessages.addOpenClosed(upperEndpoint.getLedgerId(), -1,
+                    upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
+        }
+    }
 
-                if (lowerEndpoint.getLedgerId() == upperEndpoint.getLedgerId()) {
-                    individualDeletedMessages.addOpenClosed(lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId(),
-                            upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
+    private void recoverIndividualDeletedMessageBitmaps(
+            List<MLDataFormats.IndividualDeletedMessageBitmap> individualDeletedMessageBitmaps) {
+        lock.writeLock().lock();
+        try {
+            individualDeletedMessages.clear();
+            for (MLDataFormats.IndividualDeletedMessageBitmap bitmap : individualDeletedMessageBitmaps) {
+                long ledgerId = bitmap.getLedgerId();
+                if (bitmap.getRangesCount() > 0) {
+                    for (int i = 0; i + 1 < bitmap.getRangesCount(); i += 2) {
+                        individualDeletedMessages.addOpenClosed(ledgerId, bitmap.getRanges(i) - 1, ledgerId,
+                                bitmap.getRanges(i + 1));
+                    }
                 } else {
-                    // Store message ranges after splitting them by ledger ID
-                    LedgerInfo lowerEndpointLedgerInfo = ledger.getLedgersInfo().get(lowerEndpoint.getLedgerId());
-                    if (lowerEndpointLedgerInfo != null) {
-                        individualDeletedMessages.addOpenClosed(lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId(),
-                                lowerEndpoint.getLedgerId(), lowerEndpointLedgerInfo.getEntries() - 1);
-                    } else {
-                        log.warn("[{}][{}] No ledger info of lower endpoint {}:{}", ledger.getName(), name,
-                                lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId());
+                    long[] words = new long[bitmap.getWordsCount()];
+                    for (int i = 0; i < words.length; i++) {
+                        words[i] = bitmap.getWords(i);
                     }
 
-                    for (LedgerInfo li : ledger.getLedgersInfo()
-                            .subMap(lowerEndpoint.getLedgerId(), false, upperEndpoint.getLedgerId(), false).values()) {
-                        individualDeletedMessages.addOpenClosed(li.getLedgerId(), -1, li.getLedgerId(),
-                                li.getEntries() - 1);
+                    BitSet deletedEntries = BitSet.valueOf(words);
+                    int first = deletedEntries.nextSetBit(0);
+                    while (first >= 0) {
+                        int end = deletedEntries.nextClearBit(first);
+                        individualDeletedMessages.addOpenClosed(ledgerId, first - 1, ledgerId, end - 1);
+                        first = deletedEntries.nextSetBit(end);
                     }
-
-                    individualDeletedMessages.addOpenClosed(upperEndpoint.getLedgerId(), -1,
-                            upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
                 }
-            });
+            }
         } finally {
             lock.writeLock().unlock();
         }
@@ -989,6 +1116,11 @@ public class ManagedCursorImpl implements ManagedCursor {
                     lastMarkDeleteEntry = new MarkDeleteEntry(newMarkDeletePosition, Collections.emptyMap(),
                             null, null);
                     individualDeletedMessages.clear();
+                    if (individualDeletedMessagesDelta != null) {
+                        // Deltas cannot express the removed ranges, start again from a full snapshot
+                        individualDeletedMessagesDelta.clear();
+                        deltaSnapshotLedgerId = -1;
+                    }
                     if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
                         batchDeletedIndexes.values().forEach(BitSetRecyclable::recycle);
                         batchDeletedIndexes.clear();
@@ -1812,20 +1944,35 @@ public class ManagedCursorImpl implements ManagedCursor {
                         ledger.getName(), name, positions, individualDeletedMessages, markDeletePosition);
             }
 
+            // Positions are applied in order, so that runs of consecutive entries are added to the range set as a
+            // single range
+            List<PositionImpl> sortedPositions = new ArrayList<>();
             for (Position pos : positions) {
-                PositionImpl position  = (PositionImpl) checkNotNull(pos);
-                if (((PositionImpl) ledger.getLastConfirmedEntry()).compareTo(position) < 0) {
+                sortedPositions.add((PositionImpl) checkNotNull(pos));
+            }
+            if (sortedPositions.size() > 1) {
+                Collections.sort(sortedPositions);
+            }
+
+            if (!sortedPositions.isEmpty()) {
+                PositionImpl lastPosition = sortedPositions.get(sortedPositions.size() - 1);
+                if (((PositionImpl) ledger.getLastConfirmedEntry()).compareTo(lastPosition) < 0) {
                     if (log.isDebugEnabled()) {
                         log.debug(
                             "[{}] Failed mark delete due to invalid markDelete {} is ahead of last-confirmed-entry {} for cursor [{}]",
-                            ledger.getName(), position, ledger.getLastConfirmedEntry(), name);
+                            ledger.getName(), lastPosition, ledger.getLastConfirmedEntry(), name);
                     }
                     callback.deleteFailed(new ManagedLedgerException("Invalid mark deleted position"), ctx);
                     return;
                 }
+            }
 
+            PositionImpl rangeStart = null;
+            PositionImpl rangeEnd = null;
+            for (PositionImpl position : sortedPositions) {
                 if (individualDeletedMessages.contains(position.getLedgerId(), position.getEntryId())
-                    || position.compareTo(markDeletePosition) <= 0) {
+                    || position.compareTo(markDeletePosition) <= 0
+                    || (rangeEnd != null && position.compareTo(rangeEnd) == 0)) {
                     if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
                         BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
                         if (bitSetRecyclable != null) {
@@ -1844,16 +1991,13 @@ public class ManagedCursorImpl implements ManagedCursor {
                             bitSetRecyclable.recycle();
                         }
                     }
-                    // Add a range (prev, pos] to the set. Adding the previous entry as an open limit to the range will make
-                    // the RangeSet recognize the "continuity" between adjacent Positions
-                    PositionImpl previousPosition = ledger.getPreviousPosition(position);
-                    individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
-                        position.getLedgerId(), position.getEntryId());
-                    MSG_CONSUMED_COUNTER_UPDATER.incrementAndGet(this);
-
-                    if (log.isDebugEnabled()) {
-                        log.debug("[{}] [{}] Individually deleted messages: {}", ledger.getName(), name,
-                            individualDeletedMessages);
+                    if (rangeEnd != null && rangeEnd.getLedgerId() == position.getLedgerId()
+                            && rangeEnd.getEntryId() + 1 == position.getEntryId()) {
+                        rangeEnd = position;
+                    } else {
+                        addIndividualDeletedRange(rangeStart, rangeEnd);
+                        rangeStart = position;
+                        rangeEnd = position;
                     }
                 } else if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
                     BitSetRecyclable bitSet = batchDeletedIndexes.computeIfAbsent(position, (v) -> BitSetRecyclable.create().resetWords(position.ackSet));
@@ -1864,6 +2008,10 @@ public class ManagedCursorImpl implements ManagedCursor {
                         PositionImpl previousPosition = ledger.getPreviousPosition(position);
                         individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
                             position.getLedgerId(), position.getEntryId());
+                        if (individualDeletedMessagesDelta != null) {
+                            individualDeletedMessagesDelta.addOpenClosed(previousPosition.getLedgerId(),
+                                    previousPosition.getEntryId(), position.getLedgerId(), position.getEntryId());
+                        }
                         ++messagesConsumedCounter;
                         BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
                         if (bitSetRecyclable != null) {
@@ -1872,6 +2020,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                     }
                 }
             }
+            addIndividualDeletedRange(rangeStart, rangeEnd);
 
             if (individualDeletedMessages.isEmpty()) {
                 // No changes to individually deleted messages, so nothing to do at this point
@@ -1945,6 +2094,30 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    /**
+     * Adds the consecutive entries [start, end] of a ledger to the individually deleted messages.
+     */
+    private void addIndividualDeletedRange(PositionImpl start, PositionImpl end) {
+        if (start == null) {
+            return;
+        }
+        // Add a range (prev, end] to the set. Adding the previous entry as an open limit to the range will make
+        // the RangeSet recognize the "continuity" between adjacent Positions
+        PositionImpl previousPosition = ledger.getPreviousPosition(start);
+        individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
+            end.getLedgerId(), end.getEntryId());
+        if (individualDeletedMessagesDelta != null) {
+            individualDeletedMessagesDelta.addOpenClosed(previousPosition.getLedgerId(),
+                    previousPosition.getEntryId(), end.getLedgerId(), end.getEntryId());
+        }
+        MSG_CONSUMED_COUNTER_UPDATER.addAndGet(this, end.getEntryId() - start.getEntryId() + 1);
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] Individually deleted messages: {}", ledger.getName(), name,
+                individualDeletedMessages);
+        }
+    }
+
     /**
      * Given a list of entries, filter out the entries that have already been individually deleted.
      *
@@ -2180,7 +2353,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
         info.addAllProperties(buildPropertiesMap(properties));
         if (persistIndividualDeletedMessageRanges) {
-            info.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges());
+            info.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges(individualDeletedMessages));
             if (config.isDeletionAtBatchIndexLevelEnabled()) {
                 info.addAllBatchedEntryDeletionIndexInfo(buildBatchEntryDeletionIndexInfoList());
             }
@@ -2399,10 +2572,11 @@ public class ManagedCursorImpl implements ManagedCursor {
         return longProperties;
     }
 
-    private List<MLDataFormats.MessageRange> buildIndividualDeletedMessageRanges() {
+    private List<MLDataFormats.MessageRange> buildIndividualDeletedMessageRanges(
+            LongPairRangeSet<PositionImpl> deletedMessages) {
         lock.readLock().lock();
         try {
-            if (individualDeletedMessages.isEmpty()) {
+            if (deletedMessages.isEmpty()) {
                 return Collections.emptyList();
             }
 
@@ -2410,7 +2584,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                     .newBuilder();
             MLDataFormats.MessageRange.Builder messageRangeBuilder = MLDataFormats.MessageRange.newBuilder();
             List<MessageRange> rangeList = Lists.newArrayList();
-            individualDeletedMessages.forEach((positionRange) -> {
+            deletedMessages.forEach((positionRange) -> {
                 PositionImpl p = positionRange.lowerEndpoint();
                 nestedPositionBuilder.setLedgerId(p.getLedgerId());
                 nestedPositionBuilder.setEntryId(p.getEntryId());
@@ -2428,6 +2602,106 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    private List<MLDataFormats.IndividualDeletedMessageBitmap> buildIndividualDeletedMessageBitmaps() {
+        lock.readLock().lock();
+        try {
+            if (individualDeletedMessages.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            // The bitmaps may hold as many longs as the ranges of the range list would. A word holds at most 32 runs
+            // of deleted entries, so the runs which could not fit in that many words are not even collected
+            long maxLongs = 2L * config.getMaxUnackedRangesToPersist();
+            List<long[]> runs = Lists.newArrayList();
+            individualDeletedMessages.forEach((positionRange) -> {
+                PositionImpl lower = positionRange.lowerEndpoint();
+                PositionImpl upper = positionRange.upperEndpoint();
+                if (lower.getLedgerId() == upper.getLedgerId()) {
+                    addDeletedEntries(runs, lower.getLedgerId(), lower.getEntryId() + 1, upper.getEntryId());
+                } else {
+                    LedgerInfo lowerLedgerInfo = ledger.getLedgersInfo().get(lower.getLedgerId());
+                    if (lowerLedgerInfo != null) {
+                        addDeletedEntries(runs, lower.getLedgerId(), lower.getEntryId() + 1,
+                                lowerLedgerInfo.getEntries() - 1);
+                    }
+                    for (LedgerInfo li : ledger.getLedgersInfo()
+                            .subMap(lower.getLedgerId(), false, upper.getLedgerId(), false).values()) {
+                        addDeletedEntries(runs, li.getLedgerId(), 0, li.getEntries() - 1);
+                    }
+                    addDeletedEntries(runs, upper.getLedgerId(), 0, upper.getEntryId());
+                }
+                return runs.size() <= 32 * maxLongs;
+            });
+
+            MLDataFormats.IndividualDeletedMessageBitmap.Builder bitmapBuilder =
+                    MLDataFormats.IndividualDeletedMessageBitmap.newBuilder();
+            List<MLDataFormats.IndividualDeletedMessageBitmap> bitmaps = Lists.newArrayList();
+            long usedLongs = 0;
+            for (int first = 0, end; first < runs.size() && usedLongs < maxLongs; first = end) {
+                long ledgerId = runs.get(first)[0];
+                end = first + 1;
+                while (end < runs.size() && runs.get(end)[0] == ledgerId) {
+                    end++;
+                }
+                bitmapBuilder.clear().setLedgerId(ledgerId);
+
+                // Like roaring bitmaps do for their containers, pick the most compact encoding for each ledger
+                int numRuns = end - first;
+                long numWords = (runs.get(end - 1)[2] >>> 6) + 1;
+                if (numWords <= 2L * numRuns && usedLongs + numWords <= maxLongs) {
+                    long[] words = new long[(int) numWords];
+                    for (int i = first; i < end; i++) {
+                        setDeletedEntries(words, runs.get(i)[1], runs.get(i)[2]);
+                    }
+                    for (long word : words) {
+                        bitmapBuilder.addWords(word);
+                    }
+                    usedLongs += numWords;
+                } else {
+                    // Fall back to the ranges, and truncate them like the range list is once the bound is reached
+                    for (int i = first; i < end && usedLongs + 2 <= maxLongs; i++) {
+                        bitmapBuilder.addRanges(runs.get(i)[1]).addRanges(runs.get(i)[2]);
+                        usedLongs += 2;
+                    }
+                    if (bitmapBuilder.getRangesCount() == 0) {
+                        break;
+                    }
+                }
+                bitmaps.add(bitmapBuilder.build());
+            }
+            return bitmaps;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void addDeletedEntries(List<long[]> runs, long ledgerId, long firstEntryId, long lastEntryId) {
+        if (firstEntryId > lastEntryId) {
+            return;
+        }
+        long[] previous = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (previous != null && previous[0] == ledgerId && previous[2] + 1 == firstEntryId) {
+            previous[2] = lastEntryId;
+        } else {
+            runs.add(new long[] { ledgerId, firstEntryId, lastEntryId });
+        }
+    }
+
+    private static void setDeletedEntries(long[] words, long firstEntryId, long lastEntryId) {
+        int firstWord = (int) (firstEntryId >>> 6);
+        int lastWord = (int) (lastEntryId >>> 6);
+        for (int i = firstWord; i <= lastWord; i++) {
+            long mask = -1L;
+            if (i == firstWord) {
+                mask &= -1L << firstEntryId;
+            }
+            if (i == lastWord) {
+                mask &= -1L >>> (63 - (lastEntryId & 63));
+            }
+            words[i] |= mask;
+        }
+    }
+
     private List<MLDataFormats.BatchedEntryDeletionIndexInfo> buildBatchEntryDeletionIndexInfoList() {
         if (!config.isDeletionAtBatchIndexLevelEnabled() || batchDeletedIndexes == null || batchDeletedIndexes.isEmpty()) {
             return Collections.emptyList();
@@ -2455,14 +2729,48 @@ public class ManagedCursorImpl implements ManagedCursor {
     }
 
     void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        if (individualDeletedMessagesDelta == null) {
+            appendPositionToLedger(lh, mdEntry, buildPositionInfo(mdEntry, 0), callback);
+            return;
+        }
+
+        // Deltas are numbered from the last full snapshot, so they must be appended in the same order they are built
+        lock.writeLock().lock();
+        try {
+            int deltaSequence = 0;
+            if (lh.getId() == deltaSnapshotLedgerId && deltasSinceSnapshot < config.getMaxCursorDeltasPerSnapshot()) {
+                deltaSequence = ++deltasSinceSnapshot;
+            } else {
+                deltaSnapshotLedgerId = lh.getId();
+                deltasSinceSnapshot = 0;
+            }
+            PositionInfo pi = buildPositionInfo(mdEntry, deltaSequence);
+            individualDeletedMessagesDelta.clear();
+            appendPositionToLedger(lh, mdEntry, pi, callback);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private PositionInfo buildPositionInfo(MarkDeleteEntry mdEntry, int deltaSequence) {
         PositionImpl position = mdEntry.newPosition;
-        PositionInfo pi = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
-                .setEntryId(position.getEntryId())
-                .addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges())
-                .addAllBatchedEntryDeletionIndexInfo(buildBatchEntryDeletionIndexInfoList())
+        PositionInfo.Builder piBuilder = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
+                .setEntryId(position.getEntryId());
+        if (deltaSequence > 0) {
+            piBuilder.setDeltaSequence(deltaSequence)
+                    .addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges(individualDeletedMessagesDelta));
+        } else if (config.isPersistIndividualAckAsBitmap()) {
+            piBuilder.addAllIndividualDeletedMessageBitmaps(buildIndividualDeletedMessageBitmaps());
+        } else {
+            piBuilder.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges(individualDeletedMessages));
+        }
+        return piBuilder.addAllBatchedEntryDeletionIndexInfo(buildBatchEntryDeletionIndexInfoList())
                 .addAllProperties(buildPropertiesMap(mdEntry.properties)).build();
+    }
 
-
+    private void appendPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, PositionInfo pi,
+            final VoidCallback callback) {
+        PositionImpl position = mdEntry.newPosition;
         if (log.isDebugEnabled()) {
             log.debug("[{}] Cursor {} Appending to ledger={} position={}", ledger.getName(), name, lh.getId(),
                     position);
@@ -200,7 +200,8 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         this.store = new MetaStoreImpl(metadataStore, orderedExecutor);
         this.config = config;
         this.mbean = new ManagedLedgerFactoryMBeanImpl(this);
-        this.entryCacheManager = new EntryCacheManager(this);
+        this.entryCacheManager = config.isUseSegmentedEntryCache() ? new SegmentedEntryCacheManager(this)
+                : new EntryCacheManager(this);
         this.statsTask = scheduledExecutor.scheduleAtFixedRate(this::refreshStats, 0, StatsPeriodSeconds, TimeUnit.SECONDS);
 
 
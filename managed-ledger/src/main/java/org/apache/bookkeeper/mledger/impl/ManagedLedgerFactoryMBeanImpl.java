@@ -91,6 +91,18 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         return cacheMisses.getRate();
     }
 
+    @Override
+    public double getCacheHitsRatio() {
+        double hits = cacheHits.getRate();
+        double total = hits + cacheMisses.getRate();
+        return total > 0 ? hits / total : 0.0;
+    }
+
+    @Override
+    public String getCacheEvictionPolicy() {
+        return factory.getEntryCacheManager().getEvictionPolicy().getClass().getSimpleName();
+    }
+
     @Override
     public double getCacheHitsThroughput() {
         return cacheHits.getValueRate();
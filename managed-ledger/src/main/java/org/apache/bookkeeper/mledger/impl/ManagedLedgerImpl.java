@@ -34,6 +34,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
+import io.netty.util.concurrent.EventExecutor;
 import java.time.Clock;
 import java.util.Collections;
 import java.util.HashMap;
@@ -58,6 +59,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
@@ -238,6 +240,14 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             .newUpdater(ManagedLedgerImpl.class, "addOpCount");
     private volatile long addOpCount = 0;
 
+    // Event loop that owns the add path of this managed ledger, if any. Adds issued from it skip the ordered executor
+    // and their completions are delivered back on it.
+    private volatile EventExecutor addEntryAffinityExecutor = null;
+    // Adds that were handed to the ordered executor and not yet queued in pendingAddEntries
+    private static final AtomicIntegerFieldUpdater<ManagedLedgerImpl> QUEUED_ADD_OPS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ManagedLedgerImpl.class, "queuedAddOps");
+    private volatile int queuedAddOps = 0;
+
     // last read-operation's callback to check read-timeout on it.
     private volatile ReadEntryCallbackWrapper lastReadCallback = null;
     private static final AtomicReferenceFieldUpdater<ManagedLedgerImpl, ReadEntryCallbackWrapper> LAST_READ_CALLBACK_UPDATER = AtomicReferenceFieldUpdater
@@ -605,8 +615,71 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
         OpAddEntry addOperation = OpAddEntry.create(this, buffer, callback, ctx);
 
+        EventExecutor affinityExecutor = addEntryAffinityExecutor;
+        if (affinityExecutor != null && affinityExecutor.inEventLoop() && QUEUED_ADD_OPS_UPDATER.get(this) == 0) {
+            // We are on the thread that owns this managed ledger and no earlier add is still waiting in the ordered
+            // executor, so the add can be queued right away without reordering
+            internalAsyncAddEntry(addOperation);
+            return;
+        }
+
         // Jump to specific thread to avoid contention from writers writing from different threads
-        executor.executeOrdered(name, safeRun(() -> internalAsyncAddEntry(addOperation)));
+        QUEUED_ADD_OPS_UPDATER.incrementAndGet(this);
+        executor.executeOrdered(name, safeRun(() -> {
+            try {
+                internalAsyncAddEntry(addOperation);
+            } finally {
+                QUEUED_ADD_OPS_UPDATER.decrementAndGet(this);
+            }
+        }));
+    }
+
+    /**
+     * Assign the add path of this managed ledger to the given event loop.
+     *
+     * <p>Once assigned, adds issued from the event loop are queued without going through the ordered executor, and
+     * the add completions are delivered on the event loop instead of the ordered executor, as are the ledger rollovers
+     * which re-issue the pending adds. The assignment is only done once, and it is refused while there are adds in
+     * flight, since their completions would otherwise race with the ones delivered on the event loop.
+     *
+     * @param eventLoop the event loop that will own the add path
+     * @return a future completed with true if the event loop was assigned
+     */
+    public CompletableFuture<Boolean> setAddEntryAffinityExecutor(EventExecutor eventLoop) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        executor.executeOrdered(name, safeRun(() -> {
+            synchronized (this) {
+                if (addEntryAffinityExecutor == null && pendingAddEntries.isEmpty()
+                        && QUEUED_ADD_OPS_UPDATER.get(this) == 0) {
+                    addEntryAffinityExecutor = eventLoop;
+                    log.info("[{}] Assigned add operations to event loop {}", name, eventLoop);
+                    future.complete(true);
+                } else {
+                    future.complete(false);
+                }
+            }
+        }));
+        return future;
+    }
+
+    public EventExecutor getAddEntryAffinityExecutor() {
+        return addEntryAffinityExecutor;
+    }
+
+    /**
+     * When the add path is assigned to an event loop, run the task there if called from another thread. The ledger
+     * rollover and the re-issue of the pending adds then run on the thread which completes the adds, instead of
+     * racing with it on the pending adds, the last confirmed entry and the cursors.
+     *
+     * @return true if the task was handed to the event loop, false if the caller has to run it
+     */
+    private boolean executeOnAddEntryAffinityExecutor(Runnable task) {
+        EventExecutor affinityExecutor = addEntryAffinityExecutor;
+        if (affinityExecutor == null || affinityExecutor.inEventLoop()) {
+            return false;
+        }
+        affinityExecutor.execute(safeRun(task));
+        return true;
     }
 
     private synchronized void internalAsyncAddEntry(OpAddEntry addOperation) {
@@ -1238,6 +1311,9 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
     @Override
     public synchronized void createComplete(int rc, final LedgerHandle lh, Object ctx) {
+        if (executeOnAddEntryAffinityExecutor(() -> createComplete(rc, lh, ctx))) {
+            return;
+        }
         if (log.isDebugEnabled()) {
             log.debug("[{}] createComplete rc={} ledger={}", name, rc, lh != null ? lh.getId() : -1);
         }
@@ -1340,6 +1416,9 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
     }
 
     public synchronized void updateLedgersIdsComplete(Stat stat) {
+        if (executeOnAddEntryAffinityExecutor(() -> updateLedgersIdsComplete(stat))) {
+            return;
+        }
         STATE_UPDATER.set(this, State.LedgerOpened);
         lastLedgerCreatedTimestamp = clock.millis();
 
@@ -1391,6 +1470,9 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
     // Private helpers
 
     synchronized void ledgerClosed(final LedgerHandle lh) {
+        if (executeOnAddEntryAffinityExecutor(() -> ledgerClosed(lh))) {
+            return;
+        }
         final State state = STATE_UPDATER.get(this);
         LedgerHandle currentLedger = this.currentLedger;
         if (currentLedger == lh && (state == State.ClosingLedger || state == State.LedgerOpened)) {
@@ -1861,6 +1943,19 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         return smallest;
     }
 
+    /**
+     * Get the read positions of all the active cursors, sorted from the slowest to the fastest reader.
+     */
+    List<PositionImpl> getActiveCursorsReadPositions() {
+        List<PositionImpl> positions = Lists.newArrayList();
+        for (ManagedCursor cursor : activeCursors) {
+            positions.add((PositionImpl) cursor.getReadPosition());
+        }
+
+        Collections.sort(positions);
+        return positions;
+    }
+
     void updateCursor(ManagedCursorImpl cursor, PositionImpl newPosition) {
         Pair<PositionImpl, PositionImpl> pair = cursors.cursorUpdated(cursor, newPosition);
         if (pair == null) {
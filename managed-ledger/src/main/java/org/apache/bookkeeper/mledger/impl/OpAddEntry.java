@@ -23,6 +23,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
+import io.netty.util.concurrent.EventExecutor;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
@@ -152,8 +153,14 @@ class OpAddEntry extends SafeRunnable implements AddCallback, CloseCallback {
         if (rc != BKException.Code.OK) {
             handleAddFailure(lh);
         } else {
-            // Trigger addComplete callback in a thread hashed on the managed ledger name
-            ml.getExecutor().executeOrdered(ml.getName(), this);
+            EventExecutor affinityExecutor = ml.getAddEntryAffinityExecutor();
+            if (affinityExecutor != null) {
+                // The managed ledger is owned by an event loop, complete the add there
+                affinityExecutor.execute(this);
+            } else {
+                // Trigger addComplete callback in a thread hashed on the managed ledger name
+                ml.getExecutor().executeOrdered(ml.getName(), this);
+            }
         }
     }
 
@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.api.BKException;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deduplicate the reads that an entry cache issues to BookKeeper after a cache miss.
+ *
+ * <p/>When many cursors are catching up on the same managed ledger, they tend to miss the cache on the same ranges at
+ * the same time. Instead of issuing one bookie read per cursor, a read that overlaps with a read already in progress
+ * is attached to it, and only the parts of the range that are not already being read are requested to BookKeeper.
+ * The entries are then handed out to all the readers once the bookie read completes.
+ *
+ * <p/>Optionally, after a cache miss, the next batch of entries is prefetched and inserted in the entry cache, so that
+ * the cursor (or other cursors) reading them shortly after will not go to BookKeeper again. The prefetched entries
+ * are accounted and evicted like any other cached entry. When a read is served from a prefetched batch, the batch
+ * after it is prefetched in turn.
+ */
+class PendingReadsManager {
+
+    private final EntryCacheManager manager;
+    private final ManagedLedgerImpl ml;
+    private final EntryCache cache;
+    private final int readAheadEntries;
+    private final long readAheadRetentionMillis;
+
+    // In-progress reads, indexed by ledger id and first entry of the range
+    private final Map<Long, TreeMap<Long, PendingRead>> pendingReads = new TreeMap<>();
+
+    // Ranges prefetched in the cache that were not read yet, indexed by ledger id and first entry of the range
+    private final Map<Long, TreeMap<Long, Long>> readAheadRanges = new TreeMap<>();
+
+    // Incremented when the cache is cleared, so that the read-ahead reads in progress do not fill it again
+    private long generation = 0;
+
+    PendingReadsManager(EntryCacheManager manager, ManagedLedgerImpl ml, EntryCache cache) {
+        this.manager = manager;
+        this.ml = ml;
+        this.cache = cache;
+        this.readAheadEntries = manager.mlFactory.getConfig().getCacheReadAheadEntries();
+        this.readAheadRetentionMillis = manager.mlFactory.getConfig().getCacheEvictionTimeThresholdMillis();
+    }
+
+    /**
+     * Read a range of entries from BookKeeper, sharing the bookie reads with other concurrent reads.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void readEntries(ReadHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+        read(lh, firstEntry, lastEntry).whenComplete((entries, exception) -> {
+            if (exception != null) {
+                Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+                if (!(cause instanceof BKException
+                        && ((BKException) cause).getCode() == BKException.Code.TooManyRequestsException)) {
+                    ml.invalidateLedgerHandle(lh, cause);
+                }
+                callback.readEntriesFailed(createManagedLedgerException(cause), ctx);
+                return;
+            }
+
+            long totalSize = 0;
+            for (EntryImpl entry : entries) {
+                totalSize += entry.getLength();
+            }
+            ml.getMBean().addReadEntriesSample(entries.size(), totalSize);
+            callback.readEntriesComplete((List) entries, ctx);
+        });
+    }
+
+    private synchronized CompletableFuture<List<EntryImpl>> read(ReadHandle lh, long firstEntry, long lastEntry) {
+        TreeMap<Long, PendingRead> ledgerReads = pendingReads.computeIfAbsent(lh.getId(), id -> new TreeMap<>());
+
+        Map.Entry<Long, PendingRead> floor = ledgerReads.floorEntry(lastEntry);
+        PendingRead overlapping = floor != null && floor.getValue().lastEntry >= firstEntry ? floor.getValue() : null;
+        if (overlapping == null) {
+            PendingRead pendingRead = new PendingRead(lh, firstEntry, lastEntry, false);
+            ledgerReads.put(firstEntry, pendingRead);
+            CompletableFuture<List<EntryImpl>> future = pendingRead.attach(firstEntry, lastEntry);
+            pendingRead.start();
+            return future;
+        }
+
+        // Attach to the overlapping read and only read the parts of the range that are not covered by it
+        long overlapStart = Math.max(firstEntry, overlapping.firstEntry);
+        long overlapEnd = Math.min(lastEntry, overlapping.lastEntry);
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Ledger {} -- Attaching read {}-{} to pending read {}-{}", ml.getName(), lh.getId(),
+                    firstEntry, lastEntry, overlapping.firstEntry, overlapping.lastEntry);
+        }
+
+        List<CompletableFuture<List<EntryImpl>>> parts = Lists.newArrayListWithCapacity(3);
+        if (firstEntry < overlapStart) {
+            parts.add(read(lh, firstEntry, overlapStart - 1));
+        }
+        parts.add(overlapping.attach(overlapStart, overlapEnd));
+        if (lastEntry > overlapEnd) {
+            parts.add(read(lh, overlapEnd + 1, lastEntry));
+        }
+
+        return parts.size() == 1 ? parts.get(0) : combine(parts);
+    }
+
+    private static CompletableFuture<List<EntryImpl>> combine(List<CompletableFuture<List<EntryImpl>>> parts) {
+        CompletableFuture<List<EntryImpl>> result = new CompletableFuture<>();
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).whenComplete((ignore, exception) -> {
+            List<EntryImpl> entries = Lists.newArrayList();
+            for (CompletableFuture<List<EntryImpl>> part : parts) {
+                if (!part.isCompletedExceptionally()) {
+                    entries.addAll(part.join());
+                }
+            }
+
+            if (exception != null) {
+                entries.forEach(EntryImpl::release);
+                result.completeExceptionally(exception);
+            } else {
+                result.complete(entries);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Notify that a range of entries was served from the cache, to keep prefetching ahead of the readers that reached
+     * a range inserted by a previous read-ahead.
+     */
+    void entriesReadFromCache(ReadHandle lh, long firstEntry, long lastEntry) {
+        if (readAheadEntries <= 0) {
+            return;
+        }
+
+        long readAheadLastEntry;
+        synchronized (this) {
+            TreeMap<Long, Long> ledgerRanges = readAheadRanges.get(lh.getId());
+            Map.Entry<Long, Long> range = ledgerRanges != null ? ledgerRanges.floorEntry(lastEntry) : null;
+            if (range == null || range.getValue() < firstEntry) {
+                return;
+            }
+
+            // Only the first reader reaching the range triggers the next read-ahead
+            removeReadAheadRange(lh.getId(), range.getKey());
+            readAheadLastEntry = range.getValue();
+        }
+        readAhead(lh, readAheadLastEntry);
+    }
+
+    /**
+     * Prefetch the entries that follow a range that was just read.
+     */
+    private synchronized void readAhead(ReadHandle lh, long lastEntryRead) {
+        long firstEntry = lastEntryRead + 1;
+        long lastEntry = Math.min(lastEntryRead + readAheadEntries, lh.getLastAddConfirmed());
+        if (firstEntry > lastEntry || !manager.hasSpaceInCache()) {
+            return;
+        }
+
+        TreeMap<Long, PendingRead> ledgerReads = pendingReads.computeIfAbsent(lh.getId(), id -> new TreeMap<>());
+        Map.Entry<Long, PendingRead> floor = ledgerReads.floorEntry(lastEntry);
+        if (floor != null && floor.getValue().lastEntry >= firstEntry) {
+            // Already being read
+            return;
+        }
+        TreeMap<Long, Long> ledgerRanges = readAheadRanges.get(lh.getId());
+        Map.Entry<Long, Long> range = ledgerRanges != null ? ledgerRanges.floorEntry(lastEntry) : null;
+        if (range != null && range.getValue() >= firstEntry) {
+            // Already prefetched
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Ledger {} -- Reading ahead entries {}-{}", ml.getName(), lh.getId(), firstEntry,
+                    lastEntry);
+        }
+        PendingRead pendingRead = new PendingRead(lh, firstEntry, lastEntry, true);
+        ledgerReads.put(firstEntry, pendingRead);
+        pendingRead.start();
+    }
+
+    private synchronized void removeReadAheadRange(long ledgerId, long firstEntry) {
+        TreeMap<Long, Long> ledgerRanges = readAheadRanges.get(ledgerId);
+        if (ledgerRanges != null && ledgerRanges.remove(firstEntry) != null && ledgerRanges.isEmpty()) {
+            readAheadRanges.remove(ledgerId);
+        }
+    }
+
+    private synchronized void remove(PendingRead pendingRead) {
+        TreeMap<Long, PendingRead> ledgerReads = pendingReads.get(pendingRead.lh.getId());
+        if (ledgerReads != null && ledgerReads.remove(pendingRead.firstEntry, pendingRead)
+                && ledgerReads.isEmpty()) {
+            pendingReads.remove(pendingRead.lh.getId());
+        }
+    }
+
+    /**
+     * Forget the prefetched ranges and prevent the read-ahead reads in progress from inserting their entries, since
+     * the cache is being cleared.
+     */
+    synchronized void clear() {
+        generation++;
+        readAheadRanges.clear();
+    }
+
+    private class PendingRead {
+        final ReadHandle lh;
+        final long firstEntry;
+        final long lastEntry;
+        final boolean isReadAhead;
+        final long startGeneration;
+
+        // Guarded by the PendingReadsManager monitor
+        private final List<Attachment> attachments = Lists.newArrayList();
+
+        PendingRead(ReadHandle lh, long firstEntry, long lastEntry, boolean isReadAhead) {
+            this.lh = lh;
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+            this.isReadAhead = isReadAhead;
+            this.startGeneration = generation;
+        }
+
+        CompletableFuture<List<EntryImpl>> attach(long first, long last) {
+            synchronized (PendingReadsManager.this) {
+                Attachment attachment = new Attachment(first, last);
+                attachments.add(attachment);
+                return attachment.future;
+            }
+        }
+
+        void start() {
+            lh.readAsync(firstEntry, lastEntry).whenCompleteAsync((ledgerEntries, exception) -> {
+                if (exception != null) {
+                    readFailed(exception);
+                    return;
+                }
+
+                try {
+                    readCompleted(ledgerEntries);
+                } catch (Throwable t) {
+                    log.warn("[{}] Failed to process entries {}-{} read from ledger {}", ml.getName(), firstEntry,
+                            lastEntry, lh.getId(), t);
+                    readFailed(t);
+                }
+            }, ml.getExecutor().chooseThread(ml.getName()));
+        }
+
+        private void readCompleted(LedgerEntries ledgerEntries) {
+            long totalSize = 0;
+            List<EntryImpl> readEntries = Lists.newArrayListWithExpectedSize((int) (lastEntry - firstEntry + 1));
+            try {
+                for (LedgerEntry e : ledgerEntries) {
+                    EntryImpl entry = EntryImpl.create(e);
+                    readEntries.add(entry);
+                    totalSize += entry.getLength();
+                }
+            } finally {
+                ledgerEntries.close();
+            }
+            manager.mlFactoryMBean.recordCacheMiss(readEntries.size(), totalSize);
+
+            List<Attachment> toNotify;
+            boolean inserted = false;
+            synchronized (PendingReadsManager.this) {
+                toNotify = Lists.newArrayList(attachments);
+                attachments.clear();
+                remove(this);
+                if (isReadAhead && startGeneration == generation) {
+                    // Keep the entries in the cache for the next readers, it accounts for them and evicts them
+                    for (EntryImpl entry : readEntries) {
+                        inserted |= cache.insert(entry);
+                    }
+                    if (inserted) {
+                        readAheadRanges.computeIfAbsent(lh.getId(), id -> new TreeMap<>()).put(firstEntry, lastEntry);
+                    }
+                }
+            }
+
+            for (Attachment attachment : toNotify) {
+                attachment.future.complete(copy(readEntries, attachment.firstEntry, attachment.lastEntry));
+            }
+            readEntries.forEach(EntryImpl::release);
+
+            if (inserted) {
+                // Entries left in the cache past the eviction threshold will not trigger the next read-ahead
+                ml.getScheduledExecutor().schedule(safeRun(() -> removeReadAheadRange(lh.getId(), firstEntry)),
+                        readAheadRetentionMillis, TimeUnit.MILLISECONDS);
+            } else if (!isReadAhead && readAheadEntries > 0) {
+                readAhead(lh, lastEntry);
+            }
+        }
+
+        private void readFailed(Throwable exception) {
+            List<Attachment> toNotify;
+            synchronized (PendingReadsManager.this) {
+                toNotify = Lists.newArrayList(attachments);
+                attachments.clear();
+                remove(this);
+            }
+
+            if (isReadAhead && log.isDebugEnabled()) {
+                log.debug("[{}] Ledger {} -- Failed to read ahead entries {}-{}", ml.getName(), lh.getId(), firstEntry,
+                        lastEntry, exception);
+            }
+            toNotify.forEach(attachment -> attachment.future.completeExceptionally(exception));
+        }
+
+        private List<EntryImpl> copy(List<EntryImpl> readEntries, long first, long last) {
+            // The entries are sorted and start at firstEntry
+            int fromIndex = (int) (first - firstEntry);
+            int toIndex = (int) Math.min(last - firstEntry + 1, readEntries.size());
+            List<EntryImpl> copies = Lists.newArrayListWithExpectedSize(Math.max(toIndex - fromIndex, 0));
+            for (int i = fromIndex; i < toIndex; i++) {
+                copies.add(EntryImpl.create(readEntries.get(i)));
+            }
+            return copies;
+        }
+    }
+
+    private static class Attachment {
+        final long firstEntry;
+        final long lastEntry;
+        final CompletableFuture<List<EntryImpl>> future = new CompletableFuture<>();
+
+        Attachment(long firstEntry, long lastEntry) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PendingReadsManager.class);
+}
@@ -0,0 +1,680 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ReferenceCounted;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.util.AbstractCASReferenceCounted;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry cache that appends the entries of a managed ledger into large pooled direct-memory segments.
+ *
+ * <p/>Each segment holds a contiguous run of entries of a single ledger, together with a primitive index of the entry
+ * offsets. Entries served from the cache are zero-copy slices of the segment buffer. Eviction always happens on whole
+ * segments, starting from the oldest one.
+ *
+ * <p/>A few segments are kept open, one per contiguous run of inserted entries, eg. the tail of the ledger and the
+ * entries read ahead for a cursor. When a segment is closed before it is full, it is trimmed to the space used by
+ * its entries so that the unused part of the segment is given back.
+ *
+ * <p/>Inserts and evictions are serialized on the cache instance, while reads are lock-free: a reader that races with
+ * the eviction of a segment will just see a cache miss.
+ */
+public class SegmentedEntryCacheImpl implements EntryCache {
+
+    private final EntryCacheManager manager;
+    private final ManagedLedgerImpl ml;
+    private final int segmentSize;
+    private final PendingReadsManager pendingReads;
+
+    // Segments sorted by the position of their first entry
+    private final ConcurrentSkipListMap<PositionImpl, Segment> segments = new ConcurrentSkipListMap<>();
+    private final AtomicLong size = new AtomicLong(0);
+
+    // Segments that are still receiving the appended entries, one per contiguous run of entries
+    private final List<Segment> openSegments = new ArrayList<>(MAX_OPEN_SEGMENTS);
+
+    private static final int MAX_OPEN_SEGMENTS = 4;
+    private static final double MB = 1024 * 1024;
+
+    public SegmentedEntryCacheImpl(EntryCacheManager manager, ManagedLedgerImpl ml, int segmentSize) {
+        checkArgument(segmentSize > 0);
+        this.manager = manager;
+        this.ml = ml;
+        this.segmentSize = segmentSize;
+        this.pendingReads = new PendingReadsManager(manager, ml, this);
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Initialized managed-ledger segmented entry cache", ml.getName());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return ml.getName();
+    }
+
+    @Override
+    public synchronized boolean insert(EntryImpl entry) {
+        if (!manager.hasSpaceInCache()) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Skipping cache while doing eviction: {} - size: {}", ml.getName(), entry.getPosition(),
+                        entry.getLength());
+            }
+            return false;
+        }
+
+        long ledgerId = entry.getLedgerId();
+        long entryId = entry.getEntryId();
+        ByteBuf data = entry.getDataBuffer();
+
+        for (int i = 0; i < openSegments.size(); i++) {
+            Segment segment = openSegments.get(i);
+            if (segment.ledgerId != ledgerId || !segment.isNext(entryId)) {
+                continue;
+            }
+            if (segment.append(entryId, data)) {
+                return true;
+            }
+            // The segment is full, the run goes on in a new segment
+            closeSegment(openSegments.remove(i));
+            break;
+        }
+
+        // The entry is not contiguous with any of the open segments, or it does not fit in them
+        Segment segment = newSegment(ledgerId, entryId, Math.max(segmentSize, entry.getLength()));
+        if (segment == null) {
+            return false;
+        }
+
+        segment.append(entryId, data);
+        if (segments.putIfAbsent(segment.firstPosition, segment) != null) {
+            // There is already a segment starting at this position
+            segment.release();
+            return false;
+        }
+
+        if (openSegments.size() == MAX_OPEN_SEGMENTS) {
+            closeSegment(openSegments.remove(leastRecentlyAppended()));
+        }
+        openSegments.add(segment);
+        size.addAndGet(segment.capacity);
+        manager.entryAdded(segment.capacity);
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Allocated new cache segment starting at {} - capacity: {}", ml.getName(),
+                    segment.firstPosition, segment.capacity);
+        }
+        return true;
+    }
+
+    private int leastRecentlyAppended() {
+        int oldest = 0;
+        for (int i = 1; i < openSegments.size(); i++) {
+            if (openSegments.get(i).lastAppendTimestamp < openSegments.get(oldest).lastAppendTimestamp) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Close a segment that won't receive any more entries, replacing it with a copy trimmed to the space used by its
+     * entries when a significant part of it is unused.
+     */
+    private void closeSegment(Segment segment) {
+        int used = segment.usedBytes();
+        if (segment.capacity - used <= segment.capacity / 4) {
+            return;
+        }
+
+        Segment trimmed = segment.trimmedCopy(allocate(used));
+        if (trimmed == null) {
+            return;
+        }
+        if (!segments.replace(segment.firstPosition, segment, trimmed)) {
+            trimmed.release();
+            return;
+        }
+
+        long freed = segment.capacity - trimmed.capacity;
+        size.addAndGet(-freed);
+        manager.entriesRemoved(freed);
+        segment.release();
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Trimmed cache segment starting at {} - capacity: {} - freed: {}", ml.getName(),
+                    segment.firstPosition, trimmed.capacity, freed);
+        }
+    }
+
+    private ByteBuf allocate(int capacity) {
+        try {
+            return EntryCacheImpl.ALLOCATOR.directBuffer(capacity, capacity);
+        } catch (Throwable t) {
+            log.warn("[{}] Failed to allocate segment for entry cache: {}", ml.getName(), t.getMessage());
+            return null;
+        }
+    }
+
+    private Segment newSegment(long ledgerId, long firstEntryId, int capacity) {
+        ByteBuf buffer = allocate(capacity);
+        return buffer != null ? new Segment(ledgerId, firstEntryId, buffer) : null;
+    }
+
+    @Override
+    public void invalidateEntries(final PositionImpl lastPosition) {
+        int entriesRemoved = 0;
+        long sizeRemoved = 0;
+
+        synchronized (this) {
+            Iterator<Segment> iterator = segments.headMap(lastPosition, false).values().iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                if (!segment.isBefore(lastPosition)) {
+                    // Segments are only dropped when all their entries can be discarded
+                    continue;
+                }
+
+                iterator.remove();
+                entriesRemoved += segment.entriesCount();
+                sizeRemoved += removeSegment(segment);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated entries up to {} - Entries removed: {} - Size removed: {}", ml.getName(),
+                    lastPosition, entriesRemoved, sizeRemoved);
+        }
+    }
+
+    @Override
+    public synchronized Pair<Integer, Long> invalidateEntriesInRange(PositionImpl firstPosition,
+            PositionImpl lastPosition) {
+        int entriesRemoved = 0;
+        long sizeRemoved = 0;
+        if (firstPosition.compareTo(lastPosition) >= 0) {
+            return Pair.of(entriesRemoved, sizeRemoved);
+        }
+
+        // Only the segments that are entirely included in the range can be dropped
+        Iterator<Segment> iterator = segments.subMap(firstPosition, true, lastPosition, false).values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.isBefore(lastPosition)) {
+                iterator.remove();
+                entriesRemoved += segment.entriesCount();
+                sizeRemoved += removeSegment(segment);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated entries from {} to {} - Entries removed: {} - Size removed: {}", ml.getName(),
+                    firstPosition, lastPosition, entriesRemoved, sizeRemoved);
+        }
+        return Pair.of(entriesRemoved, sizeRemoved);
+    }
+
+    @Override
+    public void invalidateAllEntries(long ledgerId) {
+        final PositionImpl firstPosition = PositionImpl.get(ledgerId, 0);
+        final PositionImpl lastPosition = PositionImpl.get(ledgerId + 1, 0);
+
+        Pair<Integer, Long> removed = removeSegments(segments.subMap(firstPosition, true, lastPosition, false));
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated all entries on ledger {} - Entries removed: {} - Size removed: {}",
+                    ml.getName(), ledgerId, removed.getLeft(), removed.getRight());
+        }
+    }
+
+    @Override
+    public void invalidateEntriesBeforeTimestamp(long timestamp) {
+        synchronized (this) {
+            Map.Entry<PositionImpl, Segment> first = segments.firstEntry();
+            while (first != null && first.getValue().lastAppendTimestamp < timestamp) {
+                segments.remove(first.getKey());
+                removeSegment(first.getValue());
+                first = segments.firstEntry();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        pendingReads.clear();
+        removeSegments(segments);
+    }
+
+    @Override
+    public Pair<Integer, Long> evictEntries(long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        int evictedEntries = 0;
+        long evictedSize = 0;
+
+        synchronized (this) {
+            while (evictedSize < sizeToFree) {
+                Map.Entry<PositionImpl, Segment> first = segments.pollFirstEntry();
+                if (first == null) {
+                    break;
+                }
+
+                evictedEntries += first.getValue().entriesCount();
+                evictedSize += removeSegment(first.getValue());
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(
+                    "[{}] Doing cache eviction of at least {} Mb -- Deleted {} entries - Total size deleted: {} Mb "
+                            + " -- Current Size: {} Mb",
+                    ml.getName(), sizeToFree / MB, evictedEntries, evictedSize / MB, size.get() / MB);
+        }
+        return Pair.of(evictedEntries, evictedSize);
+    }
+
+    private synchronized Pair<Integer, Long> removeSegments(ConcurrentNavigableMap<PositionImpl, Segment> toRemove) {
+        int entriesRemoved = 0;
+        long sizeRemoved = 0;
+
+        Map.Entry<PositionImpl, Segment> first = toRemove.pollFirstEntry();
+        while (first != null) {
+            entriesRemoved += first.getValue().entriesCount();
+            sizeRemoved += removeSegment(first.getValue());
+            first = toRemove.pollFirstEntry();
+        }
+
+        return Pair.of(entriesRemoved, sizeRemoved);
+    }
+
+    /**
+     * Account for a segment that was just taken out of the segments map and release it.
+     *
+     * @return the memory freed by the segment
+     */
+    private long removeSegment(Segment segment) {
+        openSegments.remove(segment);
+
+        size.addAndGet(-segment.capacity);
+        manager.entriesRemoved(segment.capacity);
+        segment.release();
+        return segment.capacity;
+    }
+
+    /**
+     * Get a cached entry, or null if the entry is not in any of the segments.
+     */
+    private EntryImpl getEntry(long ledgerId, long entryId) {
+        Segment segment = getSegment(ledgerId, entryId);
+        if (segment == null) {
+            return null;
+        }
+
+        try {
+            return segment.getEntry(entryId);
+        } finally {
+            segment.release();
+        }
+    }
+
+    /**
+     * Get and retain the segment that contains a given entry.
+     */
+    private Segment getSegment(long ledgerId, long entryId) {
+        Map.Entry<PositionImpl, Segment> floor = segments.floorEntry(PositionImpl.get(ledgerId, entryId));
+        if (floor == null) {
+            return null;
+        }
+
+        Segment segment = floor.getValue();
+        if (segment.ledgerId != ledgerId || !segment.contains(entryId) || !segment.tryRetain()) {
+            return null;
+        }
+        return segment;
+    }
+
+    @Override
+    public void asyncReadEntry(ReadHandle lh, PositionImpl position, final ReadEntryCallback callback,
+            final Object ctx) {
+        try {
+            asyncReadEntry0(lh, position, callback, ctx);
+        } catch (Throwable t) {
+            log.warn("failed to read entries for {}-{}", lh.getId(), position, t);
+            invalidateAllEntries(lh.getId());
+            callback.readEntryFailed(createManagedLedgerException(t), ctx);
+        }
+    }
+
+    private void asyncReadEntry0(ReadHandle lh, PositionImpl position, final ReadEntryCallback callback,
+            final Object ctx) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entry ledger {}: {}", ml.getName(), lh.getId(), position.getEntryId());
+        }
+        EntryImpl cachedEntry = getEntry(position.getLedgerId(), position.getEntryId());
+        if (cachedEntry != null) {
+            manager.mlFactoryMBean.recordCacheHit(cachedEntry.getLength());
+            callback.readEntryComplete(cachedEntry, ctx);
+            return;
+        }
+
+        lh.readAsync(position.getEntryId(), position.getEntryId()).whenCompleteAsync(
+                (ledgerEntries, exception) -> {
+                    if (exception != null) {
+                        ml.invalidateLedgerHandle(lh, exception);
+                        callback.readEntryFailed(createManagedLedgerException(exception), ctx);
+                        return;
+                    }
+
+                    try {
+                        Iterator<LedgerEntry> iterator = ledgerEntries.iterator();
+                        if (iterator.hasNext()) {
+                            EntryImpl returnEntry = EntryImpl.create(iterator.next());
+
+                            manager.mlFactoryMBean.recordCacheMiss(1, returnEntry.getLength());
+                            ml.mbean.addReadEntriesSample(1, returnEntry.getLength());
+                            callback.readEntryComplete(returnEntry, ctx);
+                        } else {
+                            // got an empty sequence
+                            callback.readEntryFailed(new ManagedLedgerException("Could not read given position"),
+                                    ctx);
+                        }
+                    } finally {
+                        ledgerEntries.close();
+                    }
+                }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception -> {
+                    ml.invalidateLedgerHandle(lh, exception);
+                    callback.readEntryFailed(createManagedLedgerException(exception), ctx);
+                    return null;
+                });
+    }
+
+    @Override
+    public void asyncReadEntry(ReadHandle lh, long firstEntry, long lastEntry, boolean isSlowestReader,
+            final ReadEntriesCallback callback, Object ctx) {
+        try {
+            asyncReadEntry0(lh, firstEntry, lastEntry, callback, ctx);
+        } catch (Throwable t) {
+            log.warn("failed to read entries for {}--{}-{}", lh.getId(), firstEntry, lastEntry, t);
+            invalidateAllEntries(lh.getId());
+            callback.readEntriesFailed(createManagedLedgerException(t), ctx);
+        }
+    }
+
+    private void asyncReadEntry0(ReadHandle lh, long firstEntry, long lastEntry, final ReadEntriesCallback callback,
+            Object ctx) {
+        final long ledgerId = lh.getId();
+        final int entriesToRead = (int) (lastEntry - firstEntry) + 1;
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entries range ledger {}: {} to {}", ml.getName(), ledgerId, firstEntry, lastEntry);
+        }
+
+        List<Entry> cachedEntries = getEntries(ledgerId, firstEntry, lastEntry, entriesToRead);
+        if (cachedEntries != null) {
+            long totalCachedSize = 0;
+            for (Entry entry : cachedEntries) {
+                totalCachedSize += entry.getLength();
+            }
+
+            manager.mlFactoryMBean.recordCacheHits(cachedEntries.size(), totalCachedSize);
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Ledger {} -- Found in cache entries: {}-{}", ml.getName(), ledgerId, firstEntry,
+                        lastEntry);
+            }
+            pendingReads.entriesReadFromCache(lh, firstEntry, lastEntry);
+
+            callback.readEntriesComplete(cachedEntries, ctx);
+            return;
+        }
+
+        // Read all the entries from bookkeeper
+        pendingReads.readEntries(lh, firstEntry, lastEntry, callback, ctx);
+    }
+
+    /**
+     * Collect the entries of a range from the cached segments.
+     *
+     * @return the list of entries, or null if any of the entries in the range is not cached
+     */
+    private List<Entry> getEntries(long ledgerId, long firstEntry, long lastEntry, int entriesToRead) {
+        List<Entry> entries = null;
+        Segment segment = null;
+
+        try {
+            for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+                if (segment == null || !segment.contains(entryId)) {
+                    if (segment != null) {
+                        segment.release();
+                    }
+
+                    segment = getSegment(ledgerId, entryId);
+                    if (segment == null) {
+                        break;
+                    }
+                }
+
+                EntryImpl entry = segment.getEntry(entryId);
+                if (entry == null) {
+                    break;
+                }
+
+                if (entries == null) {
+                    entries = Lists.newArrayListWithExpectedSize(entriesToRead);
+                }
+                entries.add(entry);
+            }
+        } finally {
+            if (segment != null) {
+                segment.release();
+            }
+        }
+
+        if (entries != null && entries.size() == entriesToRead) {
+            return entries;
+        }
+
+        if (entries != null) {
+            entries.forEach(Entry::release);
+        }
+        return null;
+    }
+
+    @Override
+    public List<PositionImpl> getActiveCursorsReadPositions() {
+        return ml.getActiveCursorsReadPositions();
+    }
+
+    @Override
+    public long getSize() {
+        return size.get();
+    }
+
+    @Override
+    public int compareTo(EntryCache other) {
+        return Longs.compare(getSize(), other.getSize());
+    }
+
+    /**
+     * A direct-memory buffer holding a contiguous run of entries of one ledger.
+     *
+     * <p/>Only a single thread appends to a segment at a given time. Readers access the index without locking: the
+     * offsets array is published before the entries count, so a reader that sees a given count will also see the
+     * offsets of all these entries.
+     */
+    static class Segment extends AbstractCASReferenceCounted {
+        private final long ledgerId;
+        private final long firstEntryId;
+        private final PositionImpl firstPosition;
+        private final ByteBuf buffer;
+        private final int capacity;
+
+        // offsets[i] is the start of entry (firstEntryId + i), offsets[i + 1] its end
+        private volatile int[] offsets = new int[64];
+        private volatile int count = 0;
+        private volatile long lastAppendTimestamp;
+
+        Segment(long ledgerId, long firstEntryId, ByteBuf buffer) {
+            this.ledgerId = ledgerId;
+            this.firstEntryId = firstEntryId;
+            this.firstPosition = PositionImpl.get(ledgerId, firstEntryId);
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.lastAppendTimestamp = System.nanoTime();
+        }
+
+        /**
+         * Append an entry at the end of the segment.
+         *
+         * @return false if the entry is not the next one in the segment or if there is not enough space left
+         */
+        boolean append(long entryId, ByteBuf data) {
+            int n = count;
+            if (entryId != firstEntryId + n) {
+                return false;
+            }
+
+            int[] offs = offsets;
+            int start = offs[n];
+            int length = data.readableBytes();
+            if (length > capacity - start) {
+                return false;
+            }
+
+            buffer.setBytes(start, data, data.readerIndex(), length);
+
+            if (n + 2 > offs.length) {
+                offs = Arrays.copyOf(offs, offs.length * 2);
+            }
+            offs[n + 1] = start + length;
+            offsets = offs;
+            lastAppendTimestamp = System.nanoTime();
+            count = n + 1;
+            return true;
+        }
+
+        boolean isNext(long entryId) {
+            return entryId == firstEntryId + count;
+        }
+
+        int usedBytes() {
+            return offsets[count];
+        }
+
+        /**
+         * Copy the entries of this segment into a buffer of the size they use.
+         *
+         * @return the copy, or null if the buffer could not be allocated
+         */
+        Segment trimmedCopy(ByteBuf trimmedBuffer) {
+            if (trimmedBuffer == null) {
+                return null;
+            }
+            int n = count;
+            int[] offs = offsets;
+            trimmedBuffer.setBytes(0, buffer, 0, offs[n]);
+            Segment trimmed = new Segment(ledgerId, firstEntryId, trimmedBuffer);
+            trimmed.offsets = Arrays.copyOf(offs, n + 1);
+            trimmed.lastAppendTimestamp = lastAppendTimestamp;
+            trimmed.count = n;
+            return trimmed;
+        }
+
+        boolean contains(long entryId) {
+            return entryId >= firstEntryId && entryId < firstEntryId + count;
+        }
+
+        /**
+         * @return whether all the entries of this segment are before the given position
+         */
+        boolean isBefore(PositionImpl position) {
+            if (ledgerId != position.getLedgerId()) {
+                return ledgerId < position.getLedgerId();
+            }
+            return firstEntryId + count - 1 < position.getEntryId();
+        }
+
+        int entriesCount() {
+            return count;
+        }
+
+        /**
+         * Create an entry that is a slice of the segment buffer. The segment must be retained by the caller.
+         */
+        EntryImpl getEntry(long entryId) {
+            int n = count;
+            int idx = (int) (entryId - firstEntryId);
+            if (idx < 0 || idx >= n) {
+                return null;
+            }
+
+            int[] offs = offsets;
+            int start = offs[idx];
+            ByteBuf slice = buffer.retainedSlice(start, offs[idx + 1] - start);
+            try {
+                return EntryImpl.create(ledgerId, entryId, slice);
+            } finally {
+                slice.release();
+            }
+        }
+
+        boolean tryRetain() {
+            try {
+                retain();
+                return true;
+            } catch (IllegalReferenceCountException e) {
+                // The segment was evicted in the meantime
+                return false;
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            buffer.release();
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedEntryCacheImpl.class);
+}
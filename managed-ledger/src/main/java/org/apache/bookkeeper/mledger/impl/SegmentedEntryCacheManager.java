@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry cache manager that stores the entries of each managed ledger in large direct-memory segments.
+ *
+ * <p/>Compared to {@link EntryCacheImpl}, which keeps one skip-list node, key and entry wrapper per cached entry, the
+ * segmented cache only keeps a handful of objects per segment, so the heap footprint does not grow with the number
+ * of cached entries. The memory accounted against the cache size is the capacity of the allocated segments.
+ */
+public class SegmentedEntryCacheManager extends EntryCacheManager {
+
+    private final int segmentSize;
+
+    public SegmentedEntryCacheManager(ManagedLedgerFactoryImpl factory) {
+        super(factory);
+        this.segmentSize = factory.getConfig().getEntryCacheSegmentSize();
+        log.info("Using segmented entry cache with segments of {} Kb", segmentSize / 1024);
+    }
+
+    @Override
+    protected EntryCache newEntryCache(ManagedLedgerImpl ml) {
+        return new SegmentedEntryCacheImpl(this, ml, segmentSize);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedEntryCacheManager.class);
+}
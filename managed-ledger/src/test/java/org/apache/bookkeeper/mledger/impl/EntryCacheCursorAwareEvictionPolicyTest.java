@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class EntryCacheCursorAwareEvictionPolicyTest extends MockedBookKeeperTestCase {
+
+    private ManagedLedgerImpl ml1;
+    private ManagedLedgerImpl ml2;
+
+    @BeforeMethod
+    public void setup(Method method) throws Exception {
+        super.setUp(method);
+
+        ml1 = mock(ManagedLedgerImpl.class);
+        when(ml1.getName()).thenReturn("cache1");
+        ml2 = mock(ManagedLedgerImpl.class);
+        when(ml2.getName()).thenReturn("cache2");
+
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setCacheEvictionPolicyClassName(EntryCacheCursorAwareEvictionPolicy.class.getName());
+        config.setCacheEvictionReadAheadEntries(5);
+        factory.shutdown();
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+    }
+
+    @Test
+    public void evictBehindReadersFirst() throws Exception {
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        assertTrue(cacheManager.getEvictionPolicy() instanceof EntryCacheCursorAwareEvictionPolicy);
+        assertEquals(factory.getCacheStats().getCacheEvictionPolicy(), "EntryCacheCursorAwareEvictionPolicy");
+
+        EntryCache cache1 = cacheManager.getEntryCache(ml1);
+        EntryCache cache2 = cacheManager.getEntryCache(ml2);
+
+        for (int i = 0; i < 10; i++) {
+            cache1.insert(EntryImpl.create(1, i, new byte[10]));
+            cache2.insert(EntryImpl.create(2, i, new byte[10]));
+        }
+
+        // Cache 1 has a cursor at the tail of the ledger, cache 2 a cursor at the beginning
+        when(ml1.getActiveCursorsReadPositions()).thenReturn(Lists.newArrayList(new PositionImpl(1, 8)));
+        when(ml2.getActiveCursorsReadPositions()).thenReturn(Lists.newArrayList(new PositionImpl(2, 0)));
+
+        cacheManager.getEvictionPolicy().doEviction(Lists.newArrayList(cache1, cache2), 50);
+
+        // Only the entries already read by the cursor on cache 1 are evicted
+        assertEquals(cache1.getSize(), 20);
+        assertEquals(cache2.getSize(), 100);
+        assertEquals(cacheManager.getSize(), 120);
+    }
+
+    @Test
+    public void preserveReadAheadWindowOfLaggingCursors() throws Exception {
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache cache1 = cacheManager.getEntryCache(ml1);
+        EntryCache cache2 = cacheManager.getEntryCache(ml2);
+
+        for (int i = 0; i < 20; i++) {
+            cache1.insert(EntryImpl.create(1, i, new byte[10]));
+        }
+        cache2.insert(EntryImpl.create(2, 0, new byte[10]));
+
+        // Lagging cursor at 0 and fast cursor at 15 on cache 1, no active cursors on cache 2
+        when(ml1.getActiveCursorsReadPositions())
+                .thenReturn(Lists.newArrayList(new PositionImpl(1, 0), new PositionImpl(1, 15)));
+        when(ml2.getActiveCursorsReadPositions()).thenReturn(Collections.emptyList());
+
+        cacheManager.getEvictionPolicy().doEviction(Lists.newArrayList(cache1, cache2), 50);
+
+        // Cache 2 is dropped, then entries 5 to 14 are outside the read-ahead window of the lagging cursor
+        assertEquals(cache2.getSize(), 0);
+        assertEquals(cache1.getSize(), 100);
+        assertEquals(cacheManager.getSize(), 100);
+    }
+}
@@ -2334,6 +2334,36 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
 
     }
 
+    @Test(timeOut = 20000)
+    void testDeleteUnorderedPositions() throws Exception {
+        ManagedLedger ledger = factory.open("test_delete_unordered_positions");
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        PositionImpl markDeletedPosition = (PositionImpl) c1.getMarkDeletedPosition();
+        for(int i = 0; i < 10; i++) {
+            ledger.addEntry(("entry" + i).getBytes(Encoding));
+        }
+        long ledgerId = markDeletedPosition.getLedgerId();
+        long entryId = markDeletedPosition.getEntryId();
+
+        // duplicated and unordered positions are merged into ranges of consecutive entries
+        c1.delete(Lists.newArrayList(PositionImpl.get(ledgerId, entryId + 8), PositionImpl.get(ledgerId, entryId + 3),
+                PositionImpl.get(ledgerId, entryId + 2), PositionImpl.get(ledgerId, entryId + 7),
+                PositionImpl.get(ledgerId, entryId + 3), PositionImpl.get(ledgerId, entryId + 4)));
+
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), 5);
+        assertEquals(c1.getMarkDeletedPosition(), markDeletedPosition);
+        assertEquals(c1.getLastIndividualDeletedRange(), Range.openClosed(PositionImpl.get(ledgerId, entryId + 6),
+                PositionImpl.get(ledgerId, entryId + 8)));
+
+        c1.delete(Lists.newArrayList(PositionImpl.get(ledgerId, entryId + 5), PositionImpl.get(ledgerId, entryId + 1)));
+
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), 3);
+        assertEquals(c1.getMarkDeletedPosition(), PositionImpl.get(ledgerId, entryId + 5));
+        assertEquals(c1.getLastIndividualDeletedRange(), Range.openClosed(PositionImpl.get(ledgerId, entryId + 6),
+                PositionImpl.get(ledgerId, entryId + 8)));
+    }
+
     @Test(timeOut = 20000)
     void testTrimDeletedEntries() throws ManagedLedgerException, InterruptedException {
         ManagedLedger ledger = factory.open("my_test_ledger");
@@ -2803,6 +2833,204 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         assertEquals(entries.size(), totalAddEntries / 2);
     }
 
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeletePersistenceAsBitmapWithClose() throws Exception {
+        final int totalAddEntries = 1000;
+        String ledgerName = "my_test_ledger";
+        String cursorName = "c1";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig();
+        managedLedgerConfig.setMaxEntriesPerLedger(500);
+        managedLedgerConfig.setMaxUnackedRangesToPersistInZk(5);
+        // The bitmaps are bounded by the size of the ranges, which their scattered holes stay below
+        managedLedgerConfig.setMaxUnackedRangesToPersist(10);
+        managedLedgerConfig.setPersistIndividualAckAsBitmap(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            Position p = ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding));
+            addedPositions.add(p);
+            if ((i < 100 && i % 2 == 0) || (i >= 500 && i < 900)) {
+                // Scattered holes in the first ledger, a single large hole in the second one
+                c1.delete(addedPositions.get(i));
+            }
+        }
+
+        final int expectedBacklog = totalAddEntries - 50 - 400;
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), expectedBacklog);
+
+        // Close ledger to persist individual-deleted positions into cursor-ledger
+        ledger.close();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<PositionInfo> lastPositionInfo = new AtomicReference<>();
+        bkc.asyncOpenLedger(c1.getCursorLedger(), DigestType.CRC32C, "".getBytes(), (rc, lh, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                long lastEntry = lh.getLastAddConfirmed();
+                lh.asyncReadEntries(lastEntry, lastEntry, (rc1, lh1, seq, ctx1) -> {
+                    try {
+                        lastPositionInfo.set(PositionInfo.parseFrom(seq.nextElement().getEntry()));
+                    } catch (Exception e) {
+                    }
+                    latch.countDown();
+                }, null);
+            } else {
+                latch.countDown();
+            }
+        }, null);
+
+        latch.await();
+        PositionInfo positionInfo = lastPositionInfo.get();
+        assertEquals(positionInfo.getIndividualDeletedMessagesCount(), 0);
+        assertEquals(positionInfo.getIndividualDeletedMessageBitmapsCount(), 2);
+        // Scattered holes are stored as words, contiguous holes as ranges
+        assertTrue(positionInfo.getIndividualDeletedMessageBitmaps(0).getWordsCount() > 0);
+        assertEquals(positionInfo.getIndividualDeletedMessageBitmaps(1).getRangesList(), Lists.newArrayList(0L, 399L));
+
+        // Re-Open
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+        // verify cursor has been recovered
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), expectedBacklog);
+
+        // try to read entries which should only read non-deleted positions
+        List<Entry> entries = c1.readEntries(totalAddEntries);
+        assertEquals(entries.size(), expectedBacklog);
+        entries.forEach(Entry::release);
+    }
+
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeletePersistenceAsBitmapIsBounded() throws Exception {
+        final int totalAddEntries = 1000;
+        String ledgerName = "my_test_ledger";
+        String cursorName = "c1";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig();
+        managedLedgerConfig.setMaxUnackedRangesToPersistInZk(1);
+        managedLedgerConfig.setMaxUnackedRangesToPersist(3);
+        managedLedgerConfig.setPersistIndividualAckAsBitmap(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            Position p = ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding));
+            addedPositions.add(p);
+            if (i % 100 == 50) {
+                // Holes too far apart to be stored as words within the bound
+                c1.delete(addedPositions.get(i));
+            }
+        }
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries - 10);
+
+        // Close ledger to persist individual-deleted positions into cursor-ledger
+        ledger.close();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<PositionInfo> lastPositionInfo = new AtomicReference<>();
+        bkc.asyncOpenLedger(c1.getCursorLedger(), DigestType.CRC32C, "".getBytes(), (rc, lh, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                long lastEntry = lh.getLastAddConfirmed();
+                lh.asyncReadEntries(lastEntry, lastEntry, (rc1, lh1, seq, ctx1) -> {
+                    try {
+                        lastPositionInfo.set(PositionInfo.parseFrom(seq.nextElement().getEntry()));
+                    } catch (Exception e) {
+                    }
+                    latch.countDown();
+                }, null);
+            } else {
+                latch.countDown();
+            }
+        }, null);
+
+        latch.await();
+        PositionInfo positionInfo = lastPositionInfo.get();
+        assertEquals(positionInfo.getIndividualDeletedMessageBitmapsCount(), 1);
+        // Truncated to as many ranges as the range list would hold
+        assertEquals(positionInfo.getIndividualDeletedMessageBitmaps(0).getRangesList(),
+                Lists.newArrayList(50L, 50L, 150L, 150L, 250L, 250L));
+
+        // Re-Open
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+        // the holes which were not persisted are delivered again
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries - 3);
+    }
+
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeletePersistenceWithDeltas() throws Exception {
+        final int totalAddEntries = 200;
+        String ledgerName = "my_test_ledger";
+        String cursorName = "c1";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig();
+        managedLedgerConfig.setMaxUnackedRangesToPersistInZk(1);
+        managedLedgerConfig.setMaxCursorDeltasPerSnapshot(3);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            addedPositions.add(ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding)));
+        }
+
+        // Each mark-delete persists the holes created in a different block of entries
+        for (int block = 1; block < 10; block++) {
+            for (int i = block * 20; i < (block + 1) * 20; i += 2) {
+                c1.delete(addedPositions.get(i));
+            }
+            c1.markDelete(addedPositions.get(block));
+        }
+
+        final int expectedBacklog = totalAddEntries - 10 - 90;
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), expectedBacklog);
+
+        // Close ledger to persist the last delta into cursor-ledger
+        ledger.close();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Integer> deltaSequences = new ArrayList<>();
+        bkc.asyncOpenLedger(c1.getCursorLedger(), DigestType.CRC32C, "".getBytes(), (rc, lh, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                lh.asyncReadEntries(0, lh.getLastAddConfirmed(), (rc1, lh1, seq, ctx1) -> {
+                    try {
+                        while (seq.hasMoreElements()) {
+                            deltaSequences.add(PositionInfo.parseFrom(seq.nextElement().getEntry()).getDeltaSequence());
+                        }
+                    } catch (Exception e) {
+                    }
+                    latch.countDown();
+                }, null);
+            } else {
+                latch.countDown();
+            }
+        }, null);
+
+        latch.await();
+        // A full snapshot is written every 3 deltas
+        assertEquals(deltaSequences.size(), 11);
+        for (int i = 0; i < deltaSequences.size(); i++) {
+            assertEquals((int) deltaSequences.get(i), i % 4);
+        }
+
+        // Re-Open
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+        // verify cursor has been recovered from the last snapshot and the following deltas
+        assertEquals(c1.getMarkDeletedPosition(), addedPositions.get(9));
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), expectedBacklog);
+
+        // try to read entries which should only read non-deleted positions
+        List<Entry> entries = c1.readEntries(totalAddEntries);
+        assertEquals(entries.size(), expectedBacklog);
+        entries.forEach(Entry::release);
+    }
+
     /**
      * Close Cursor without MaxUnackedRangesToPersistInZK: It should store individually unack range into Zk
      *
@@ -18,6 +18,7 @@
  */
 package org.apache.bookkeeper.mledger.impl;
 
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -64,6 +65,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 
+import io.netty.util.concurrent.DefaultEventExecutor;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallback;
 import org.apache.bookkeeper.client.BKException;
@@ -2764,6 +2766,156 @@ public class ManagedLedgerTest extends MockedBookKeeperTestCase {
         }
     }
 
+    @Test(timeOut = 20000)
+    public void testAddEntryAffinityExecutor() throws Exception {
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger");
+        ManagedCursor cursor = ledger.openCursor("c1");
+        DefaultEventExecutor eventLoop = new DefaultEventExecutor();
+        try {
+            assertTrue(ledger.setAddEntryAffinityExecutor(eventLoop).get());
+            // The add path is assigned only once
+            assertFalse(ledger.setAddEntryAffinityExecutor(new DefaultEventExecutor()).get());
+            assertSame(ledger.getAddEntryAffinityExecutor(), eventLoop);
+
+            final int numEntries = 100;
+            CountDownLatch latch = new CountDownLatch(numEntries);
+            List<Position> positions = Collections.synchronizedList(new ArrayList<>());
+            AtomicBoolean completedOnEventLoop = new AtomicBoolean(true);
+            AtomicBoolean failed = new AtomicBoolean(false);
+            eventLoop.execute(() -> {
+                for (int i = 0; i < numEntries; i++) {
+                    ledger.asyncAddEntry(("entry-" + i).getBytes(Encoding), new AddEntryCallback() {
+                        @Override
+                        public void addComplete(Position position, Object ctx) {
+                            if (!eventLoop.inEventLoop()) {
+                                completedOnEventLoop.set(false);
+                            }
+                            positions.add(position);
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void addFailed(ManagedLedgerException exception, Object ctx) {
+                            failed.set(true);
+                            latch.countDown();
+                        }
+                    }, null);
+                }
+            });
+            latch.await();
+
+            assertFalse(failed.get());
+            assertTrue(completedOnEventLoop.get());
+            for (int i = 1; i < numEntries; i++) {
+                assertTrue(((PositionImpl) positions.get(i - 1)).compareTo((PositionImpl) positions.get(i)) < 0);
+            }
+
+            List<Entry> entries = cursor.readEntries(numEntries);
+            assertEquals(entries.size(), numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                assertEquals(new String(entries.get(i).getData(), Encoding), "entry-" + i);
+                entries.get(i).release();
+            }
+        } finally {
+            eventLoop.shutdownGracefully();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testAddEntryAffinityExecutorRefusedWithPendingAdds() throws Exception {
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger");
+        ledger.openCursor("c1");
+        DefaultEventExecutor eventLoop = new DefaultEventExecutor();
+        try {
+            // Hold the ordered executor of the managed ledger so that the add stays queued
+            CountDownLatch blockExecutor = new CountDownLatch(1);
+            ledger.getExecutor().executeOrdered(ledger.getName(), safeRun(() -> {
+                try {
+                    blockExecutor.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            CompletableFuture<Position> addFuture = new CompletableFuture<>();
+            ledger.asyncAddEntry("entry-0".getBytes(Encoding), new AddEntryCallback() {
+                @Override
+                public void addComplete(Position position, Object ctx) {
+                    addFuture.complete(position);
+                }
+
+                @Override
+                public void addFailed(ManagedLedgerException exception, Object ctx) {
+                    addFuture.completeExceptionally(exception);
+                }
+            }, null);
+            CompletableFuture<Boolean> assigned = ledger.setAddEntryAffinityExecutor(eventLoop);
+            blockExecutor.countDown();
+
+            assertFalse(assigned.get());
+            assertNull(ledger.getAddEntryAffinityExecutor());
+            assertNotNull(addFuture.get());
+
+            // Once the add has completed, the assignment is accepted
+            assertTrue(ledger.setAddEntryAffinityExecutor(eventLoop).get());
+        } finally {
+            eventLoop.shutdownGracefully();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testAddEntryAffinityExecutorWithLedgerRollover() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setMaxEntriesPerLedger(5);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+        ManagedCursor cursor = ledger.openCursor("c1");
+        DefaultEventExecutor eventLoop = new DefaultEventExecutor();
+        try {
+            assertTrue(ledger.setAddEntryAffinityExecutor(eventLoop).get());
+
+            final int numEntries = 50;
+            CountDownLatch latch = new CountDownLatch(numEntries);
+            AtomicBoolean completedOnEventLoop = new AtomicBoolean(true);
+            AtomicBoolean failed = new AtomicBoolean(false);
+            eventLoop.execute(() -> {
+                for (int i = 0; i < numEntries; i++) {
+                    ledger.asyncAddEntry(("entry-" + i).getBytes(Encoding), new AddEntryCallback() {
+                        @Override
+                        public void addComplete(Position position, Object ctx) {
+                            if (!eventLoop.inEventLoop()) {
+                                completedOnEventLoop.set(false);
+                            }
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void addFailed(ManagedLedgerException exception, Object ctx) {
+                            failed.set(true);
+                            latch.countDown();
+                        }
+                    }, null);
+                }
+            });
+            latch.await();
+
+            // the adds re-issued on the new ledgers are completed on the event loop too
+            assertFalse(failed.get());
+            assertTrue(completedOnEventLoop.get());
+            assertTrue(ledger.getLedgersInfoAsList().size() >= numEntries / 5);
+
+            // the reads stop at the end of each ledger
+            List<Entry> entries = new ArrayList<>();
+            while (cursor.hasMoreEntries()) {
+                entries.addAll(cursor.readEntries(numEntries));
+            }
+            assertEquals(entries.size(), numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                assertEquals(new String(entries.get(i).getData(), Encoding), "entry-" + i);
+                entries.get(i).release();
+            }
+        } finally {
+            eventLoop.shutdownGracefully();
+        }
+    }
+
     private void setFieldValue(Class clazz, Object classObj, String fieldName, Object fieldValue) throws Exception {
         Field field = clazz.getDeclaredField(fieldName);
         field.setAccessible(true);
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import io.netty.buffer.Unpooled;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PendingReadsManagerTest extends MockedBookKeeperTestCase {
+
+    private ManagedLedgerImpl ml;
+    private ReadHandle lh;
+    private EntryCache cache;
+    private final Map<String, CompletableFuture<LedgerEntries>> bookieReads = new ConcurrentHashMap<>();
+
+    @BeforeMethod
+    public void setUp(Method method) throws Exception {
+        super.setUp(method);
+        ml = mock(ManagedLedgerImpl.class);
+        when(ml.getName()).thenReturn("name");
+        when(ml.getExecutor()).thenReturn(executor);
+        when(ml.getScheduledExecutor()).thenReturn(executor);
+        when(ml.getMBean()).thenReturn(new ManagedLedgerMBeanImpl(ml));
+        cache = mock(EntryCache.class);
+        when(cache.insert(any())).thenReturn(true);
+
+        bookieReads.clear();
+        lh = mock(ReadHandle.class);
+        when(lh.getId()).thenReturn((long) 0);
+        doAnswer(invocation -> {
+            CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+            bookieReads.put(invocation.getArgument(0) + "-" + invocation.getArgument(1), future);
+            return future;
+        }).when(lh).readAsync(anyLong(), anyLong());
+    }
+
+    private static LedgerEntries ledgerEntries(long firstEntry, long lastEntry) {
+        Vector<LedgerEntry> entries = new Vector<>();
+        for (long i = firstEntry; i <= lastEntry; i++) {
+            LedgerEntry ledgerEntry = mock(LedgerEntry.class);
+            doReturn((long) 0).when(ledgerEntry).getLedgerId();
+            doReturn(i).when(ledgerEntry).getEntryId();
+            doReturn(Unpooled.wrappedBuffer(new byte[] { (byte) i })).when(ledgerEntry).getEntryBuffer();
+            entries.add(ledgerEntry);
+        }
+        LedgerEntries ledgerEntries = mock(LedgerEntries.class);
+        doAnswer(invocation -> entries.iterator()).when(ledgerEntries).iterator();
+        return ledgerEntries;
+    }
+
+    private ReadEntriesCallback verifyingCallback(long firstEntry, long lastEntry, CountDownLatch counter) {
+        return new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), lastEntry - firstEntry + 1);
+                for (int i = 0; i < entries.size(); i++) {
+                    assertEquals(entries.get(i).getEntryId(), firstEntry + i);
+                }
+                entries.forEach(Entry::release);
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        };
+    }
+
+    @Test(timeOut = 5000)
+    public void testOverlappingReadsAreMerged() throws Exception {
+        PendingReadsManager pendingReads = new PendingReadsManager(factory.getEntryCacheManager(), ml, cache);
+        CountDownLatch counter = new CountDownLatch(3);
+
+        pendingReads.readEntries(lh, 0, 9, verifyingCallback(0, 9, counter), null);
+        // Fully included in the first read
+        pendingReads.readEntries(lh, 2, 5, verifyingCallback(2, 5, counter), null);
+        // Only the entries after the first read need to be read
+        pendingReads.readEntries(lh, 5, 14, verifyingCallback(5, 14, counter), null);
+
+        verify(lh, times(1)).readAsync(0, 9);
+        verify(lh, times(1)).readAsync(10, 14);
+        verify(lh, times(2)).readAsync(anyLong(), anyLong());
+
+        bookieReads.get("10-14").complete(ledgerEntries(10, 14));
+        bookieReads.get("0-9").complete(ledgerEntries(0, 9));
+        counter.await();
+    }
+
+    @Test(timeOut = 5000)
+    public void testFailedReadIsPropagated() throws Exception {
+        PendingReadsManager pendingReads = new PendingReadsManager(factory.getEntryCacheManager(), ml, cache);
+        CountDownLatch counter = new CountDownLatch(2);
+
+        ReadEntriesCallback failingCallback = new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                Assert.fail("should have failed");
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                counter.countDown();
+            }
+        };
+        pendingReads.readEntries(lh, 0, 9, failingCallback, null);
+        pendingReads.readEntries(lh, 0, 4, failingCallback, null);
+        verify(lh, times(1)).readAsync(anyLong(), anyLong());
+
+        bookieReads.get("0-9").completeExceptionally(new RuntimeException("read failed"));
+        counter.await();
+
+        // Once completed, the read is not shared anymore
+        CountDownLatch newCounter = new CountDownLatch(1);
+        pendingReads.readEntries(lh, 0, 4, verifyingCallback(0, 4, newCounter), null);
+        verify(lh, times(1)).readAsync(0, 4);
+        bookieReads.get("0-4").complete(ledgerEntries(0, 4));
+        newCounter.await();
+    }
+
+    @Test(timeOut = 5000)
+    public void testReadAheadIsInsertedInCache() throws Exception {
+        factory.getConfig().setCacheReadAheadEntries(5);
+        when(lh.getLastAddConfirmed()).thenReturn((long) 100);
+        PendingReadsManager pendingReads = new PendingReadsManager(factory.getEntryCacheManager(), ml, cache);
+
+        CountDownLatch counter = new CountDownLatch(1);
+        pendingReads.readEntries(lh, 0, 4, verifyingCallback(0, 4, counter), null);
+        bookieReads.get("0-4").complete(ledgerEntries(0, 4));
+        counter.await();
+
+        // The next batch is prefetched after the cache miss and handed over to the cache
+        verify(lh, timeout(1000)).readAsync(5, 9);
+        bookieReads.get("5-9").complete(ledgerEntries(5, 9));
+        verify(cache, timeout(1000).times(5)).insert(any());
+
+        // Reading the prefetched batch from the cache prefetches the batch after it, only once
+        pendingReads.entriesReadFromCache(lh, 5, 6);
+        pendingReads.entriesReadFromCache(lh, 7, 9);
+        verify(lh, times(1)).readAsync(10, 14);
+        verify(lh, times(3)).readAsync(anyLong(), anyLong());
+
+        // The read-ahead in progress when the cache is cleared does not fill it again
+        pendingReads.clear();
+        bookieReads.get("10-14").complete(ledgerEntries(10, 14));
+        pendingReads.entriesReadFromCache(lh, 10, 14);
+        Thread.sleep(100);
+        verify(cache, times(5)).insert(any());
+        verify(lh, times(3)).readAsync(anyLong(), anyLong());
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.commons.lang3.tuple.Pair;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SegmentedEntryCacheTest extends MockedBookKeeperTestCase {
+
+    private ManagedLedgerImpl ml;
+
+    @BeforeMethod
+    public void setUp(Method method) throws Exception {
+        super.setUp(method);
+        ml = mock(ManagedLedgerImpl.class);
+        when(ml.getName()).thenReturn("name");
+        when(ml.getExecutor()).thenReturn(executor);
+        when(ml.getMBean()).thenReturn(new ManagedLedgerMBeanImpl(ml));
+
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setUseSegmentedEntryCache(true);
+        config.setEntryCacheSegmentSize(100);
+        factory.shutdown();
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+    }
+
+    @Test
+    public void testSegmentAllocation() throws Exception {
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        assertTrue(cacheManager instanceof SegmentedEntryCacheManager);
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+        assertTrue(entryCache instanceof SegmentedEntryCacheImpl);
+
+        byte[] data = new byte[10];
+        for (int i = 0; i < 10; i++) {
+            assertTrue(entryCache.insert(EntryImpl.create(0, i, data)));
+        }
+
+        // All the entries fit in a single segment
+        assertEquals(entryCache.getSize(), 100);
+        assertEquals(cacheManager.getSize(), 100);
+
+        // Next entry will go into a new segment
+        assertTrue(entryCache.insert(EntryImpl.create(0, 10, data)));
+        assertEquals(entryCache.getSize(), 200);
+
+        // A single segment is allocated for entries bigger than the segment size
+        assertTrue(entryCache.insert(EntryImpl.create(1, 0, new byte[150])));
+        assertEquals(entryCache.getSize(), 350);
+        assertEquals(cacheManager.getSize(), 350);
+    }
+
+    @Test(timeOut = 5000)
+    public void testSegmentPerContiguousRun() throws Exception {
+        ReadHandle lh = EntryCacheTest.getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        // Each run of entries goes in its own segment
+        for (int run = 0; run < 4; run++) {
+            for (int i = 0; i < 2; i++) {
+                byte[] data = new byte[10];
+                data[0] = (byte) (run * 20 + i);
+                assertTrue(entryCache.insert(EntryImpl.create(0, run * 20 + i, data)));
+            }
+        }
+        assertEquals(entryCache.getSize(), 400);
+
+        // and keeps on being appended to it
+        assertTrue(entryCache.insert(EntryImpl.create(0, 2, new byte[10])));
+        assertEquals(entryCache.getSize(), 400);
+
+        // A new run closes the least recently appended segment, which is trimmed to its entries
+        assertTrue(entryCache.insert(EntryImpl.create(0, 80, new byte[10])));
+        assertEquals(entryCache.getSize(), 420);
+        assertEquals(cacheManager.getSize(), 420);
+
+        final CountDownLatch counter = new CountDownLatch(1);
+        entryCache.asyncReadEntry(lh, 20, 21, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 2);
+                for (int i = 0; i < entries.size(); i++) {
+                    Entry entry = entries.get(i);
+                    assertEquals(entry.getLength(), 10);
+                    assertEquals(entry.getDataBuffer().getByte(entry.getDataBuffer().readerIndex()), (byte) (i + 20));
+                }
+                entries.forEach(Entry::release);
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        // The trimmed segment is still served from the cache
+        verify(lh, never()).readAsync(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        byte[] data = new byte[10];
+        for (int i = 0; i < 25; i++) {
+            entryCache.insert(EntryImpl.create(0, i, data));
+        }
+        entryCache.insert(EntryImpl.create(1, 0, data));
+        assertEquals(entryCache.getSize(), 400);
+
+        // Segments are dropped only when all their entries are invalidated
+        entryCache.invalidateEntries(new PositionImpl(0, 5));
+        assertEquals(entryCache.getSize(), 400);
+
+        entryCache.invalidateEntries(new PositionImpl(0, 15));
+        assertEquals(entryCache.getSize(), 300);
+
+        entryCache.invalidateAllEntries(0);
+        assertEquals(entryCache.getSize(), 100);
+
+        assertEquals(entryCache.evictEntries(1), Pair.of(1, 100L));
+        assertEquals(entryCache.getSize(), 0);
+        assertEquals(cacheManager.getSize(), 0);
+    }
+
+    @Test(timeOut = 5000)
+    public void testReadFromSegments() throws Exception {
+        ReadHandle lh = EntryCacheTest.getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+
+        for (int i = 0; i < 25; i++) {
+            byte[] data = new byte[10];
+            data[0] = (byte) i;
+            entryCache.insert(EntryImpl.create(0, i, data));
+        }
+
+        final CountDownLatch counter = new CountDownLatch(1);
+        entryCache.asyncReadEntry(lh, 5, 24, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 20);
+                for (int i = 0; i < entries.size(); i++) {
+                    Entry entry = entries.get(i);
+                    assertEquals(entry.getEntryId(), i + 5);
+                    assertEquals(entry.getLength(), 10);
+                    assertEquals(entry.getDataBuffer().getByte(entry.getDataBuffer().readerIndex()), (byte) (i + 5));
+                }
+                entries.forEach(Entry::release);
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        // Verify no entries were read from bookkeeper
+        verify(lh, never()).readAsync(anyLong(), anyLong());
+    }
+
+    @Test(timeOut = 5000)
+    public void testReadAfterEviction() throws Exception {
+        ReadHandle lh = EntryCacheTest.getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+
+        byte[] data = new byte[10];
+        for (int i = 0; i < 20; i++) {
+            entryCache.insert(EntryImpl.create(0, i, data));
+        }
+
+        // Drop the first segment
+        entryCache.evictEntries(1);
+
+        final CountDownLatch counter = new CountDownLatch(1);
+        entryCache.asyncReadEntry(lh, 5, 14, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 10);
+                entries.forEach(Entry::release);
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        verify(lh, times(1)).readAsync(5, 14);
+    }
+}
@@ -0,0 +1,42 @@
+#!/usr/bin/env bash
+#
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+#   http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+#
+
+# Runs the microbenchmarks with fixed settings and stores the JMH results in microbench/baselines,
+# so that the numbers of two runs on the same machine can be compared.
+#
+# Usage: microbench/run-baselines.sh [name] [benchmark regexp]
+
+set -e
+
+MICROBENCH_DIR=$(cd "$(dirname "$0")" && pwd)
+PROJECT_DIR=$(dirname "$MICROBENCH_DIR")
+JAR="$MICROBENCH_DIR/target/microbenchmarks.jar"
+
+NAME=${1:-$(python "$PROJECT_DIR/src/get-project-version.py")}
+INCLUDE=${2:-.*}
+RESULT="$MICROBENCH_DIR/baselines/$NAME.json"
+
+if [ ! -f "$JAR" ]; then
+    (cd "$PROJECT_DIR" && mvn -B -pl microbench -am -DskipTests package)
+fi
+
+java -jar "$JAR" "$INCLUDE" -rf json -rff "$RESULT"
+
+echo "Results written to $RESULT"
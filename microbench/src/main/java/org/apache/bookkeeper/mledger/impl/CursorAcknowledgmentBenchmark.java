@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCallback;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.MockZooKeeper;
+import org.apache.zookeeper.ZooDefs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Individual acknowledgments of a shared subscription applied to its cursor.
+ *
+ * <p>The entries of a window are dispatched round-robin to the consumers, and each consumer acknowledges its own
+ * entries, so the cursor sees interleaved positions. The benchmarks apply the acknowledgments of a window one by one,
+ * with one delete per consumer as a multi-message ack command does, or with a single delete for the whole window as
+ * the broker does with acknowledgment batching enabled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class CursorAcknowledgmentBenchmark {
+
+    private static final int WINDOW = 1000;
+    private static final int ENTRIES = 100 * WINDOW;
+
+    private static final DeleteCallback NOOP_CALLBACK = new DeleteCallback() {
+        @Override
+        public void deleteComplete(Object ctx) {
+        }
+
+        @Override
+        public void deleteFailed(ManagedLedgerException exception, Object ctx) {
+        }
+    };
+
+    @Param({"10", "100"})
+    private int consumers;
+
+    private OrderedScheduler executor;
+    private MockZooKeeper zkc;
+    private PulsarMockBookKeeper bkc;
+    private ManagedLedgerFactoryImpl factory;
+    private ManagedLedger ledger;
+    private ManagedCursor cursor;
+
+    private final List<Position> positions = new ArrayList<>(ENTRIES);
+    private int nextWindow;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        executor = OrderedScheduler.newSchedulerBuilder().numThreads(2).name("microbench").build();
+        zkc = MockZooKeeper.newInstance();
+        bkc = new PulsarMockBookKeeper(zkc, executor.chooseThread(this));
+        factory = new ManagedLedgerFactoryImpl(bkc, zkc, new ManagedLedgerFactoryConfig());
+        zkc.create("/managed-ledgers", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        // Same mark-delete rate as the broker default
+        ledger = factory.open("acknowledgment", new ManagedLedgerConfig().setThrottleMarkDelete(1.0));
+        cursor = ledger.openCursor("subscription");
+        byte[] payload = new byte[10];
+        for (int i = 0; i < ENTRIES; i++) {
+            positions.add(ledger.addEntry(payload));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        cursor.close();
+        ledger.close();
+        factory.shutdown();
+        bkc.shutdown();
+        zkc.shutdown();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public void individualAcks() throws Exception {
+        int start = nextWindow();
+        for (int consumer = 0; consumer < consumers; consumer++) {
+            for (int i = start + consumer; i < start + WINDOW; i += consumers) {
+                cursor.asyncDelete(positions.get(i), NOOP_CALLBACK, null);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public void perConsumerAcks() throws Exception {
+        int start = nextWindow();
+        for (int consumer = 0; consumer < consumers; consumer++) {
+            List<Position> acks = new ArrayList<>(WINDOW / consumers + 1);
+            for (int i = start + consumer; i < start + WINDOW; i += consumers) {
+                acks.add(positions.get(i));
+            }
+            cursor.asyncDelete(acks, NOOP_CALLBACK, null);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public void batchedAcks() throws Exception {
+        int start = nextWindow();
+        List<Position> acks = new ArrayList<>(WINDOW);
+        for (int consumer = 0; consumer < consumers; consumer++) {
+            for (int i = start + consumer; i < start + WINDOW; i += consumers) {
+                acks.add(positions.get(i));
+            }
+        }
+        cursor.asyncDelete(acks, NOOP_CALLBACK, null);
+    }
+
+    private int nextWindow() throws Exception {
+        if (nextWindow == ENTRIES / WINDOW) {
+            // Start acknowledging the ledger again from the beginning
+            cursor.resetCursor(positions.get(0));
+            nextWindow = 0;
+        }
+        return WINDOW * nextWindow++;
+    }
+}
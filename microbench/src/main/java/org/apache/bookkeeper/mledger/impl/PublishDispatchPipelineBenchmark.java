@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.apache.pulsar.common.protocol.LightCommandSend;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.MockZooKeeper;
+import org.apache.zookeeper.ZooDefs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * In-process publish and dispatch pipelines, without any network or bookie in the way.
+ *
+ * <p>The publish pipeline frames a SEND command as the client does, parses it as the broker does and appends the
+ * headers and payload to a managed ledger. The dispatch pipeline reads a batch of entries from a cursor and frames
+ * each of them as a MESSAGE command for the consumer. The managed ledgers are backed by the in-memory
+ * {@link PulsarMockBookKeeper}, so the numbers cover the Pulsar code paths and not the storage.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class PublishDispatchPipelineBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final int DISPATCH_ENTRIES = 10_000;
+
+    @Param({"100", "1024", "16384"})
+    private int messageSize;
+
+    private OrderedScheduler executor;
+    private MockZooKeeper zkc;
+    private PulsarMockBookKeeper bkc;
+    private ManagedLedgerFactoryImpl factory;
+
+    private ManagedLedger publishLedger;
+    private ManagedLedger dispatchLedger;
+    private ManagedCursor cursor;
+
+    private MessageMetadata metadata;
+    private ByteBuf payload;
+    private long sequenceId;
+    private final LightCommandSend commandSend = new LightCommandSend();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        executor = OrderedScheduler.newSchedulerBuilder().numThreads(2).name("microbench").build();
+        zkc = MockZooKeeper.newInstance();
+        bkc = new PulsarMockBookKeeper(zkc, executor.chooseThread(this));
+        factory = new ManagedLedgerFactoryImpl(bkc, zkc, new ManagedLedgerFactoryConfig());
+        zkc.create("/managed-ledgers", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        // Without cursors the published ledgers are deleted on rollover, which keeps the mock bookie memory bounded
+        ManagedLedgerConfig publishConfig = new ManagedLedgerConfig().setMaxEntriesPerLedger(DISPATCH_ENTRIES);
+        publishLedger = factory.open("publish", publishConfig);
+
+        dispatchLedger = factory.open("dispatch", new ManagedLedgerConfig());
+        cursor = dispatchLedger.openCursor("subscription");
+
+        metadata = MessageMetadata.newBuilder()
+                .setProducerName("standalone-0-1")
+                .setSequenceId(0)
+                .setPublishTime(System.currentTimeMillis())
+                .build();
+        payload = Unpooled.directBuffer(messageSize).writeZero(messageSize);
+
+        PublishCallback callback = new PublishCallback(DISPATCH_ENTRIES);
+        for (int i = 0; i < DISPATCH_ENTRIES; i++) {
+            ByteBuf entry = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload.duplicate());
+            dispatchLedger.asyncAddEntry(entry, callback, null);
+            entry.release();
+        }
+        callback.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        cursor.close();
+        publishLedger.close();
+        dispatchLedger.close();
+        factory.shutdown();
+        bkc.shutdown();
+        zkc.shutdown();
+        executor.shutdown();
+        metadata.recycle();
+        payload.release();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void publish() throws Exception {
+        PublishCallback callback = new PublishCallback(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            // Client side: frame the SEND command and copy it to a single buffer, as read from the socket
+            ByteBufPair frame = Commands.newSend(1, sequenceId++, 1, ChecksumType.Crc32c, metadata, payload.retain());
+            ByteBuf buf = PulsarByteBufAllocator.DEFAULT.directBuffer(frame.readableBytes());
+            buf.writeBytes(frame.getFirst(), frame.getFirst().readerIndex(), frame.getFirst().readableBytes());
+            buf.writeBytes(frame.getSecond(), frame.getSecond().readerIndex(), frame.getSecond().readableBytes());
+            frame.release();
+
+            // Broker side: parse the command and persist the headers and payload
+            buf.skipBytes(4);
+            int cmdSize = (int) buf.readUnsignedInt();
+            commandSend.parseFromBaseCommand(buf, cmdSize);
+            publishLedger.asyncAddEntry(buf, callback, null);
+            buf.release();
+        }
+        callback.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void dispatch(Blackhole bh) throws Exception {
+        List<Entry> entries = new ArrayList<>(BATCH_SIZE);
+        entries.addAll(cursor.readEntries(BATCH_SIZE));
+        if (entries.size() < BATCH_SIZE) {
+            cursor.rewind();
+            entries.addAll(cursor.readEntries(BATCH_SIZE - entries.size()));
+        }
+        for (Entry entry : entries) {
+            ByteBufPair message = Commands.newMessage(1, entry.getLedgerId(), entry.getEntryId(), -1, -1, 0,
+                    entry.getDataBuffer().retain(), null);
+            bh.consume(message);
+            message.release();
+            entry.release();
+        }
+    }
+
+    private static class PublishCallback implements AddEntryCallback {
+        private final CountDownLatch latch;
+        private volatile ManagedLedgerException exception;
+
+        PublishCallback(int count) {
+            this.latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void addComplete(Position position, Object ctx) {
+            latch.countDown();
+        }
+
+        @Override
+        public void addFailed(ManagedLedgerException exception, Object ctx) {
+            this.exception = exception;
+            latch.countDown();
+        }
+
+        void await() throws Exception {
+            latch.await();
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+}
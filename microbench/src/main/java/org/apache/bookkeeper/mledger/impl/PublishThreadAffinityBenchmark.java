@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.MockZooKeeper;
+import org.apache.zookeeper.ZooDefs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of a publish issued from a Netty event loop, from the add on the managed ledger to the receipt being
+ * handed back to the event loop, as done by the broker for a producer connection.
+ *
+ * <p>Without affinity, the add hops to the managed ledger ordered executor and the completion hops back to the event
+ * loop. With affinity, the add path of the managed ledger is assigned to the event loop and neither hop is needed.
+ * The sample time mode reports the latency percentiles of both modes.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class PublishThreadAffinityBenchmark {
+
+    private static final int MESSAGE_SIZE = 1024;
+
+    @Param({"false", "true"})
+    private boolean affinity;
+
+    private OrderedScheduler executor;
+    private MockZooKeeper zkc;
+    private PulsarMockBookKeeper bkc;
+    private ManagedLedgerFactoryImpl factory;
+    private ManagedLedgerImpl ledger;
+    private EventExecutor eventLoop;
+    private ByteBuf payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        executor = OrderedScheduler.newSchedulerBuilder().numThreads(2).name("microbench").build();
+        zkc = MockZooKeeper.newInstance();
+        bkc = new PulsarMockBookKeeper(zkc, executor.chooseThread(this));
+        factory = new ManagedLedgerFactoryImpl(bkc, zkc, new ManagedLedgerFactoryConfig());
+        zkc.create("/managed-ledgers", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        // Without cursors the published ledgers are deleted on rollover, which keeps the mock bookie memory bounded
+        ledger = (ManagedLedgerImpl) factory.open("publish", new ManagedLedgerConfig().setMaxEntriesPerLedger(10_000));
+        eventLoop = new DefaultEventExecutor();
+        if (affinity && !ledger.setAddEntryAffinityExecutor(eventLoop).get()) {
+            throw new IllegalStateException("Failed to assign the add path to the event loop");
+        }
+        payload = Unpooled.directBuffer(MESSAGE_SIZE).writeZero(MESSAGE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        ledger.close();
+        factory.shutdown();
+        bkc.shutdown();
+        zkc.shutdown();
+        eventLoop.shutdownGracefully().sync();
+        executor.shutdown();
+        payload.release();
+    }
+
+    @Benchmark
+    public Position publish() throws Exception {
+        CompletableFuture<Position> receipt = new CompletableFuture<>();
+        eventLoop.execute(() -> ledger.asyncAddEntry(payload.duplicate(), new AddEntryCallback() {
+            @Override
+            public void addComplete(Position position, Object ctx) {
+                // Send the receipt from the IO thread of the connection, as the producer does
+                if (eventLoop.inEventLoop()) {
+                    receipt.complete(position);
+                } else {
+                    eventLoop.execute(() -> receipt.complete(position));
+                }
+            }
+
+            @Override
+            public void addFailed(ManagedLedgerException exception, Object ctx) {
+                receipt.completeExceptionally(exception);
+            }
+        }, null));
+        return receipt.get();
+    }
+}
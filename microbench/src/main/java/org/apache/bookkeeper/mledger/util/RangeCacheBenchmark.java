@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RangeCache} used as the managed ledger entry cache: entries are inserted at the tail, read back in
+ * dispatcher-sized ranges and invalidated from the head once consumed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RangeCacheBenchmark {
+
+    private static final long LEDGER_ID = 1;
+    private static final int READ_BATCH_SIZE = 100;
+
+    @Param({"10000", "100000"})
+    private int cachedEntries;
+
+    private RangeCache<PositionImpl, EntryImpl> cache;
+    private ByteBuf data;
+    private long nextEntryId;
+    private long readEntryId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cache = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
+        data = Unpooled.directBuffer(1024).writeZero(1024);
+        for (nextEntryId = 0; nextEntryId < cachedEntries; nextEntryId++) {
+            cache.put(new PositionImpl(LEDGER_ID, nextEntryId), EntryImpl.create(LEDGER_ID, nextEntryId, data));
+        }
+        readEntryId = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        cache.clear();
+        data.release();
+    }
+
+    /**
+     * Insert one entry at the tail and invalidate one from the head, keeping the cache at a constant size.
+     */
+    @Benchmark
+    public boolean insertAndInvalidate() {
+        long entryId = nextEntryId++;
+        boolean inserted = cache.put(new PositionImpl(LEDGER_ID, entryId),
+                EntryImpl.create(LEDGER_ID, entryId, data));
+        long firstEntryId = entryId - cachedEntries;
+        cache.removeRange(new PositionImpl(LEDGER_ID, firstEntryId), new PositionImpl(LEDGER_ID, firstEntryId),
+                true);
+        return inserted;
+    }
+
+    @Benchmark
+    public int get() {
+        EntryImpl entry = cache.get(new PositionImpl(LEDGER_ID, nextReadEntryId(1)));
+        int length = entry.getLength();
+        entry.release();
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READ_BATCH_SIZE)
+    public int getRange() {
+        long first = nextReadEntryId(READ_BATCH_SIZE);
+        Collection<EntryImpl> entries = cache.getRange(new PositionImpl(LEDGER_ID, first),
+                new PositionImpl(LEDGER_ID, first + READ_BATCH_SIZE - 1));
+        int size = entries.size();
+        entries.forEach(EntryImpl::release);
+        return size;
+    }
+
+    private long nextReadEntryId(int count) {
+        long entryId = readEntryId;
+        readEntryId = entryId + 2 * count > cachedEntries ? 0 : entryId + count;
+        return entryId;
+    }
+}
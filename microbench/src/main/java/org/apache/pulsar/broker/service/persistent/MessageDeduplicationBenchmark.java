@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.Topic.PublishContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publish path of {@link MessageDeduplication} on a single topic, with messages coming from several IO threads and
+ * spread over a varying number of producers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MessageDeduplicationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    private int producers;
+
+    private String[] producerNames;
+    private AtomicLongArray sequenceIds;
+    private MessageDeduplication deduplication;
+
+    @State(Scope.Thread)
+    public static class Publisher {
+        // Start each thread on a different producer, as when the connections are spread over the IO threads
+        int index = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+    }
+
+    private static class Context implements PublishContext {
+        private final String producerName;
+        private final long sequenceId;
+
+        Context(String producerName, long sequenceId) {
+            this.producerName = producerName;
+            this.sequenceId = sequenceId;
+        }
+
+        @Override
+        public String getProducerName() {
+            return producerName;
+        }
+
+        @Override
+        public long getSequenceId() {
+            return sequenceId;
+        }
+
+        @Override
+        public void completed(Exception e, long ledgerId, long entryId) {
+        }
+    }
+
+    @Setup
+    public void setup() {
+        ServiceConfiguration configuration = new ServiceConfiguration();
+        PulsarService pulsar = mock(PulsarService.class);
+        doReturn(configuration).when(pulsar).getConfiguration();
+
+        deduplication = new MessageDeduplication(pulsar, null, null) {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+        };
+
+        producerNames = new String[producers];
+        for (int i = 0; i < producers; i++) {
+            producerNames[i] = "standalone-0-" + i;
+        }
+        sequenceIds = new AtomicLongArray(producers);
+    }
+
+    @Benchmark
+    public MessageDeduplication.MessageDupStatus isDuplicate(Publisher publisher) {
+        int producer = (publisher.index++ & Integer.MAX_VALUE) % producers;
+        long sequenceId = sequenceIds.getAndIncrement(producer);
+        return deduplication.isDuplicate(new Context(producerNames[producer], sequenceId), Unpooled.EMPTY_BUFFER);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.Consumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Flow control on a shared subscription with 1000 consumers whose connections are spread over several
+ * IO threads, with the default dispatcher and with {@link PersistentNonBlockingDispatcherMultipleConsumers}.
+ *
+ * <p>The cursor never completes the reads, as when a read is waiting for new entries, so the benchmark measures how
+ * long the IO threads spend in the dispatcher for each flow command.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SharedSubscriptionDispatcherBenchmark {
+
+    @Param({"false", "true"})
+    private boolean nonBlocking;
+
+    @Param({"1000"})
+    private int consumers;
+
+    private OrderedExecutor executor;
+    private Consumer[] consumerMocks;
+    private PersistentDispatcherMultipleConsumers dispatcher;
+
+    @State(Scope.Thread)
+    public static class Connection {
+        int index = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        executor = OrderedExecutor.newBuilder().numThreads(4).name("benchmark-topic-workers").build();
+
+        ServiceConfiguration configuration = new ServiceConfiguration();
+        PulsarService pulsar = mock(PulsarService.class, withSettings().stubOnly());
+        doReturn(configuration).when(pulsar).getConfiguration();
+
+        BrokerService brokerService = mock(BrokerService.class, withSettings().stubOnly());
+        doReturn(pulsar).when(brokerService).pulsar();
+        doReturn(executor).when(brokerService).getTopicOrderedExecutor();
+
+        PersistentTopic topic = mock(PersistentTopic.class, withSettings().stubOnly());
+        doReturn(brokerService).when(topic).getBrokerService();
+        doReturn("persistent://public/default/benchmark").when(topic).getName();
+
+        ManagedCursorImpl cursor = mock(ManagedCursorImpl.class, withSettings().stubOnly());
+        doReturn("benchmark-subscription").when(cursor).getName();
+
+        PersistentSubscription subscription = mock(PersistentSubscription.class, withSettings().stubOnly());
+        dispatcher = nonBlocking
+                ? new PersistentNonBlockingDispatcherMultipleConsumers(topic, cursor, subscription)
+                : new PersistentDispatcherMultipleConsumers(topic, cursor, subscription);
+
+        consumerMocks = new Consumer[consumers];
+        for (int i = 0; i < consumers; i++) {
+            Consumer consumer = mock(Consumer.class, withSettings().stubOnly());
+            doReturn("consumer-" + i).when(consumer).consumerName();
+            doReturn(1000).when(consumer).getAvailablePermits();
+            doReturn(true).when(consumer).isWritable();
+            consumerMocks[i] = consumer;
+            dispatcher.addConsumer(consumer);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void consumerFlow(Connection connection) {
+        Consumer consumer = consumerMocks[(connection.index++ & Integer.MAX_VALUE) % consumers];
+        dispatcher.consumerFlow(consumer, 1);
+    }
+}
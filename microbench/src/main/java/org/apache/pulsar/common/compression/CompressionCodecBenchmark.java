@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pulsar.common.api.proto.PulsarApi.CompressionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of a batch payload with each {@link CompressionCodec}. The payload is made of small JSON
+ * records, which is closer to real batches than random bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CompressionCodecBenchmark {
+
+    @Param({"NONE", "LZ4", "ZLIB", "ZSTD", "SNAPPY"})
+    private CompressionType type;
+
+    @Param({"1024", "65536"})
+    private int payloadSize;
+
+    private CompressionCodec codec;
+    private ByteBuf raw;
+    private ByteBuf encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        codec = CompressionCodecProvider.getCompressionCodec(type);
+
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder(payloadSize + 128);
+        while (sb.length() < payloadSize) {
+            sb.append("{\"id\":").append(random.nextInt(1_000_000))
+                    .append(",\"user\":\"user-").append(random.nextInt(1000))
+                    .append("\",\"amount\":").append(random.nextDouble())
+                    .append(",\"status\":\"").append(random.nextBoolean() ? "OK" : "FAILED").append("\"}");
+        }
+        byte[] bytes = sb.substring(0, payloadSize).getBytes(StandardCharsets.US_ASCII);
+        raw = Unpooled.directBuffer(payloadSize).writeBytes(bytes);
+        encoded = codec.encode(raw);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        raw.release();
+        encoded.release();
+    }
+
+    @Benchmark
+    public int encode() {
+        ByteBuf buf = codec.encode(raw);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        ByteBuf buf = codec.decode(encoded, payloadSize);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.apache.pulsar.common.api.proto.PulsarApi.BaseCommand;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandMessage;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandSend;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.apache.pulsar.common.util.protobuf.ByteBufCodedInputStream;
+import org.apache.pulsar.common.util.protobuf.ByteBufCodedOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the serialization of the SEND and MESSAGE commands through the generated protobuf builders with the
+ * flyweight codec used by {@link Commands}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CommandsSerializationBenchmark {
+
+    private MessageMetadata metadata;
+    private ByteBuf payload;
+    private ByteBuf metadataAndPayload;
+    private ByteBuf sendCommand;
+    private int sendCommandSize;
+    private final LightCommandSend lightCommandSend = new LightCommandSend();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        metadata = MessageMetadata.newBuilder()
+                .setProducerName("standalone-0-1")
+                .setSequenceId(12345)
+                .setPublishTime(System.currentTimeMillis())
+                .build();
+        payload = Unpooled.directBuffer(1024).writeZero(1024);
+        metadataAndPayload = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata,
+                payload.duplicate());
+
+        ByteBufPair send = Commands.newSend(1, 12345, 12350, 5, -1, -1, ChecksumType.None, metadata,
+                payload.retain());
+        sendCommand = Unpooled.copiedBuffer(send.getFirst());
+        send.release();
+        sendCommand.skipBytes(4);
+        sendCommandSize = (int) sendCommand.readUnsignedInt();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        metadata.recycle();
+        payload.release();
+        metadataAndPayload.release();
+        sendCommand.release();
+    }
+
+    @Benchmark
+    public void newSendGenerated(Blackhole bh) throws IOException {
+        CommandSend.Builder sendBuilder = CommandSend.newBuilder();
+        sendBuilder.setProducerId(1);
+        sendBuilder.setSequenceId(12345);
+        sendBuilder.setHighestSequenceId(12350);
+        sendBuilder.setNumMessages(5);
+        CommandSend send = sendBuilder.build();
+        BaseCommand.Builder cmdBuilder = BaseCommand.newBuilder().setType(BaseCommand.Type.SEND).setSend(send);
+        BaseCommand cmd = cmdBuilder.build();
+
+        int cmdSize = cmd.getSerializedSize();
+        int metadataSize = metadata.getSerializedSize();
+        ByteBuf headers = PulsarByteBufAllocator.DEFAULT.buffer(4 + 4 + cmdSize + 4 + metadataSize);
+        headers.writeInt(4 + cmdSize + 4 + metadataSize + payload.readableBytes());
+        headers.writeInt(cmdSize);
+        ByteBufCodedOutputStream outStream = ByteBufCodedOutputStream.get(headers);
+        cmd.writeTo(outStream);
+        headers.writeInt(metadataSize);
+        metadata.writeTo(outStream);
+        outStream.recycle();
+        cmd.recycle();
+        cmdBuilder.recycle();
+        send.recycle();
+        sendBuilder.recycle();
+
+        bh.consume(headers);
+        headers.release();
+    }
+
+    @Benchmark
+    public void newSendLight(Blackhole bh) {
+        ByteBufPair pair = Commands.newSend(1, 12345, 12350, 5, -1, -1, ChecksumType.None, metadata,
+                payload.retain());
+        bh.consume(pair);
+        pair.release();
+    }
+
+    @Benchmark
+    public void newMessageGenerated(Blackhole bh) throws IOException {
+        MessageIdData.Builder messageIdBuilder = MessageIdData.newBuilder();
+        MessageIdData messageId = messageIdBuilder.setLedgerId(1234).setEntryId(5678).setPartition(3).build();
+        CommandMessage.Builder msgBuilder = CommandMessage.newBuilder();
+        CommandMessage msg = msgBuilder.setConsumerId(1).setMessageId(messageId).build();
+        BaseCommand.Builder cmdBuilder = BaseCommand.newBuilder();
+        BaseCommand cmd = cmdBuilder.setType(BaseCommand.Type.MESSAGE).setMessage(msg).build();
+
+        int cmdSize = cmd.getSerializedSize();
+        ByteBuf headers = PulsarByteBufAllocator.DEFAULT.buffer(4 + 4 + cmdSize);
+        headers.writeInt(4 + cmdSize + metadataAndPayload.readableBytes());
+        headers.writeInt(cmdSize);
+        ByteBufCodedOutputStream outStream = ByteBufCodedOutputStream.get(headers);
+        cmd.writeTo(outStream);
+        outStream.recycle();
+        cmd.recycle();
+        cmdBuilder.recycle();
+        msg.recycle();
+        msgBuilder.recycle();
+        messageId.recycle();
+        messageIdBuilder.recycle();
+
+        bh.consume(headers);
+        headers.release();
+    }
+
+    @Benchmark
+    public void newMessageLight(Blackhole bh) {
+        ByteBufPair pair = Commands.newMessage(1, 1234, 5678, 3, -1, 0, metadataAndPayload.retain(), null);
+        bh.consume(pair);
+        pair.release();
+    }
+
+    @Benchmark
+    public void parseSendGenerated(Blackhole bh) throws IOException {
+        int readerIndex = sendCommand.readerIndex();
+        int writerIndex = sendCommand.writerIndex();
+        sendCommand.writerIndex(readerIndex + sendCommandSize);
+        ByteBufCodedInputStream inputStream = ByteBufCodedInputStream.get(sendCommand);
+        BaseCommand.Builder cmdBuilder = BaseCommand.newBuilder();
+        BaseCommand cmd = cmdBuilder.mergeFrom(inputStream, null).build();
+        bh.consume(cmd.getSend().getSequenceId());
+        cmd.getSend().recycle();
+        cmd.recycle();
+        cmdBuilder.recycle();
+        inputStream.recycle();
+        sendCommand.writerIndex(writerIndex);
+        sendCommand.readerIndex(readerIndex);
+    }
+
+    @Benchmark
+    public void parseSendLight(Blackhole bh) {
+        int readerIndex = sendCommand.readerIndex();
+        lightCommandSend.parseFromBaseCommand(sendCommand, sendCommandSize);
+        bh.consume(lightCommandSend.getSequenceId());
+        sendCommand.readerIndex(readerIndex);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pulsar.common.api.proto.PulsarApi.KeyValue;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Delivery of one batch of entries from a topic to 100 subscriptions. For every subscription, the dispatcher peeks
+ * the metadata of each entry and a MESSAGE command is framed around the shared payload.
+ *
+ * <p>{@code fullMetadata} peeks the metadata with the generated {@link MessageMetadata}, {@code lightMetadata} with
+ * the {@link LightMessageMetadata} flyweight used by the dispatchers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MessageFanOutBenchmark {
+
+    @Param({"100"})
+    private int subscriptions;
+
+    @Param({"100"})
+    private int entries;
+
+    private ByteBuf[] metadataAndPayloads;
+    private final LightMessageMetadata lightMetadata = new LightMessageMetadata();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        metadataAndPayloads = new ByteBuf[entries];
+        for (int i = 0; i < entries; i++) {
+            MessageMetadata metadata = MessageMetadata.newBuilder()
+                    .setProducerName("standalone-0-1")
+                    .setSequenceId(i)
+                    .setPublishTime(System.currentTimeMillis())
+                    .setPartitionKey("key-" + i)
+                    .addProperties(KeyValue.newBuilder().setKey("application").setValue("benchmark").build())
+                    .setNumMessagesInBatch(10)
+                    .build();
+            metadataAndPayloads[i] = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata,
+                    Unpooled.directBuffer(1024).writeZero(1024));
+            metadata.recycle();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ByteBuf buffer : metadataAndPayloads) {
+            buffer.release();
+        }
+    }
+
+    private static void write(ByteBufPair command, Blackhole bh) {
+        bh.consume(command.readableBytes());
+        // Releases the header and the reference to the payload taken for this subscription
+        command.release();
+    }
+
+    @Benchmark
+    public void fullMetadata(Blackhole bh) {
+        for (int s = 0; s < subscriptions; s++) {
+            for (int i = 0; i < entries; i++) {
+                ByteBuf metadataAndPayload = metadataAndPayloads[i];
+                MessageMetadata metadata = Commands.peekMessageMetadata(metadataAndPayload, "subscription", s);
+                int batchSize = metadata.getNumMessagesInBatch();
+                metadata.recycle();
+                metadataAndPayload.retain();
+                write(Commands.newMessage(s, 1, i, -1, -1, 0, metadataAndPayload, null), bh);
+                bh.consume(batchSize);
+            }
+        }
+    }
+
+    @Benchmark
+    public void lightMetadata(Blackhole bh) {
+        for (int s = 0; s < subscriptions; s++) {
+            for (int i = 0; i < entries; i++) {
+                ByteBuf metadataAndPayload = metadataAndPayloads[i];
+                int batchSize = lightMetadata.parseFrom(metadataAndPayload).getNumMessagesInBatch();
+                metadataAndPayload.retain();
+                write(Commands.newMessage(s, 1, i, -1, -1, 0, metadataAndPayload, null), bh);
+                bh.consume(batchSize);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashing of message keys with {@link Murmur3_32Hash}, as done for every keyed message by the key-based routing
+ * and the Key_Shared dispatcher.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class Murmur3_32HashBenchmark {
+
+    @Param({"16", "64", "256"})
+    private int keySize;
+
+    private byte[] key;
+    private String keyString;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StringBuilder sb = new StringBuilder(keySize);
+        for (int i = 0; i < keySize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        keyString = sb.toString();
+        key = keyString.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int hashBytes() {
+        return Murmur3_32Hash.getInstance().makeHash(key);
+    }
+
+    @Benchmark
+    public int hashString() {
+        return Murmur3_32Hash.getInstance().makeHash(keyString.getBytes(StandardCharsets.UTF_8));
+    }
+}
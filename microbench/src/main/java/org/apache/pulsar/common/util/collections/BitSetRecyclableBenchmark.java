@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batch index acknowledgment on {@link BitSetRecyclable}: a bit set is rebuilt from the ack set of a batch, one
+ * index is cleared and the result is converted back to a {@code long[]}. {@link BitSet} is the reference.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class BitSetRecyclableBenchmark {
+
+    @Param({"100", "1000"})
+    private int batchSize;
+
+    private long[] ackSet;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BitSet bitSet = new BitSet(batchSize);
+        bitSet.set(0, batchSize);
+        // Leave some holes, as if part of the batch was already acknowledged
+        for (int i = 0; i < batchSize; i += 7) {
+            bitSet.clear(i);
+        }
+        ackSet = bitSet.toLongArray();
+    }
+
+    @Benchmark
+    public long[] ackBatchIndexRecyclable() {
+        BitSetRecyclable bitSet = BitSetRecyclable.create().resetWords(ackSet);
+        bitSet.clear(nextIndex());
+        long[] result = bitSet.toLongArray();
+        bitSet.recycle();
+        return result;
+    }
+
+    @Benchmark
+    public long[] ackBatchIndexValueOf() {
+        BitSetRecyclable bitSet = BitSetRecyclable.valueOf(ackSet);
+        bitSet.clear(nextIndex());
+        return bitSet.toLongArray();
+    }
+
+    @Benchmark
+    public long[] ackBatchIndexJdk() {
+        BitSet bitSet = BitSet.valueOf(ackSet);
+        bitSet.clear(nextIndex());
+        return bitSet.toLongArray();
+    }
+
+    @Benchmark
+    public int iterateSetBits() {
+        BitSetRecyclable bitSet = BitSetRecyclable.create().resetWords(ackSet);
+        int sum = 0;
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            sum += i;
+        }
+        bitSet.recycle();
+        return sum;
+    }
+
+    @Benchmark
+    public int cardinality() {
+        BitSetRecyclable bitSet = BitSetRecyclable.create().resetWords(ackSet);
+        int cardinality = bitSet.cardinality();
+        bitSet.recycle();
+        return cardinality;
+    }
+
+    private int nextIndex() {
+        int i = index;
+        index = i + 1 == batchSize ? 0 : i + 1;
+        return i;
+    }
+}
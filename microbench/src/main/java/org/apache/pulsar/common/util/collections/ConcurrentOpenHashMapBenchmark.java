@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and updates on {@link ConcurrentOpenHashMap}, with {@link ConcurrentHashMap} as a reference. The map is
+ * keyed by topic-like strings, as in the broker topic and subscription maps.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConcurrentOpenHashMapBenchmark {
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    private String[] keys;
+    private ConcurrentOpenHashMap<String, Long> openHashMap;
+    private ConcurrentHashMap<String, Long> concurrentHashMap;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next(int size) {
+            int i = index;
+            index = i + 1 == size ? 0 : i + 1;
+            return i;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = new String[size];
+        openHashMap = new ConcurrentOpenHashMap<>(size);
+        concurrentHashMap = new ConcurrentHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            keys[i] = "persistent://public/default/topic-" + i;
+            openHashMap.put(keys[i], (long) i);
+            concurrentHashMap.put(keys[i], (long) i);
+        }
+    }
+
+    @Benchmark
+    public Long getOpenHashMap(Cursor cursor) {
+        return openHashMap.get(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    public Long getConcurrentHashMap(Cursor cursor) {
+        return concurrentHashMap.get(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    public Long putOpenHashMap(Cursor cursor) {
+        int i = cursor.next(size);
+        return openHashMap.put(keys[i], (long) i);
+    }
+
+    @Benchmark
+    public Long putConcurrentHashMap(Cursor cursor) {
+        int i = cursor.next(size);
+        return concurrentHashMap.put(keys[i], (long) i);
+    }
+
+    @Benchmark
+    @Group("openHashMapReadWrite")
+    @GroupThreads(3)
+    public Long readOpenHashMap(Cursor cursor) {
+        return openHashMap.get(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    @Group("openHashMapReadWrite")
+    @GroupThreads(1)
+    public Long writeOpenHashMap(Cursor cursor) {
+        int i = cursor.next(size);
+        return openHashMap.put(keys[i], (long) i);
+    }
+
+    @Benchmark
+    @Group("concurrentHashMapReadWrite")
+    @GroupThreads(3)
+    public Long readConcurrentHashMap(Cursor cursor) {
+        return concurrentHashMap.get(keys[cursor.next(size)]);
+    }
+
+    @Benchmark
+    @Group("concurrentHashMapReadWrite")
+    @GroupThreads(1)
+    public Long writeConcurrentHashMap(Cursor cursor) {
+        int i = cursor.next(size);
+        return concurrentHashMap.put(keys[i], (long) i);
+    }
+}
@@ -170,6 +170,29 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int numIOThreads = 2 * Runtime.getRuntime().availableProcessors();
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Use the io_uring Netty transport for the broker service IO threads."
+            + " It requires the netty-incubator-transport-native-io_uring jar in the classpath and a kernel"
+            + " supporting io_uring, otherwise the broker falls back to epoll, and then to NIO."
+    )
+    private boolean nettyIoUringEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Interval in milliseconds between two probes of the latency of each Netty IO thread, exposed as the"
+            + " pulsar_broker_event_loop_latency_ms metric. Use 0 to disable the probes."
+    )
+    private long eventLoopLatencyProbeIntervalMs = 1000;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Assign the add path of each persistent topic to the IO thread of the connection with the most producers"
+            + " on the topic. Publishes from that connection are then written and acknowledged without handing off"
+            + " to the managed ledger ordered executor."
+    )
+    private boolean topicIoThreadAffinityEnabled = false;
+
     @FieldContext(
         category = CATEGORY_SERVER,
         doc = "Number of threads to use for orderedExecutor."
@@ -215,9 +238,29 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + " affecting the accuracy of the delivery time compared to the scheduled time. Default is 1 second.")
     private long delayedDeliveryTickTimeMillis = 1000;
 
+    @FieldContext(category = CATEGORY_SERVER, doc = "Min number of delayed messages in the in-memory bucket of the"
+            + " BucketDelayedDeliveryTrackerFactory before it is sealed and persisted as a snapshot. The bucket is"
+            + " sealed when the dispatcher moves to a new ledger.")
+    private long delayedDeliveryMinIndexCountPerBucket = 50000;
+
+    @FieldContext(category = CATEGORY_SERVER, doc = "Max number of delayed messages in each segment of the bucket"
+            + " snapshots of the BucketDelayedDeliveryTrackerFactory. Only one segment per bucket is held in memory.")
+    private int delayedDeliveryMaxIndexesPerBucketSnapshotSegment = 5000;
+
+    @FieldContext(category = CATEGORY_SERVER, doc = "Number of slots in each level of the timing wheel used by the"
+            + " TimingWheelDelayedDeliveryTrackerFactory. Each slot of the first level spans one tick; delivery times"
+            + " beyond the range of a level are kept in an upper level.")
+    private int delayedDeliveryTimingWheelSize = 512;
+
     @FieldContext(category = CATEGORY_SERVER, doc = "Whether to enable the acknowledge of batch local index")
     private boolean acknowledgmentAtBatchIndexLevelEnabled = false;
 
+    @FieldContext(category = CATEGORY_SERVER, doc = "Whether to apply the individual acknowledgments of a subscription"
+            + " to its cursor in batches. The acknowledgments received while a batch is waiting to be applied are"
+            + " merged into it, so the cursor is locked and updated once per batch instead of once per"
+            + " acknowledgment command.")
+    private boolean acknowledgmentBatchingEnabled = false;
+
     @FieldContext(
         category = CATEGORY_WEBSOCKET,
         doc = "Enable the WebSocket API service in broker"
@@ -403,6 +446,15 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int brokerDeduplicationMaxNumberOfProducers = 10000;
 
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Maximum number of producers for which a topic keeps the deduplication information in memory.\n\n"
+            + "Past that count, the information of the disconnected producers that have been inactive for the"
+            + " longest time is discarded. 0 disables the bound, and the information is only discarded after"
+            + " brokerDeduplicationProducerInactivityTimeoutMinutes"
+    )
+    private int brokerDeduplicationMaxNumberOfTrackedProducers = 0;
+
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "Number of entries after which a dedup info snapshot is taken.\n\n"
@@ -412,6 +464,22 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int brokerDeduplicationEntriesInterval = 1000;
 
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Store the deduplication snapshots in dedicated BookKeeper ledgers instead of the properties of the"
+            + " deduplication cursor.\n\n"
+            + "Each snapshot only appends the sequence ids that changed since the previous one, which keeps"
+            + " snapshots small on topics with many producers"
+    )
+    private boolean brokerDeduplicationSnapshotLedgerEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Number of incremental deduplication snapshots after which the whole deduplication state is"
+            + " rewritten in a new snapshot ledger. Only used when brokerDeduplicationSnapshotLedgerEnabled is true"
+    )
+    private int brokerDeduplicationSnapshotCompactionThreshold = 100;
+
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "Time of inactivity after which the broker will discard the deduplication information"
@@ -603,6 +671,40 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int dispatcherMaxRoundRobinBatchSize = 20;
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Size the reads of shared subscriptions from the average size of the entries read, so that each read"
+            + " fetches about dispatcherAdaptiveReadTargetSizeBytes. The read batch size can then go above"
+            + " dispatcherMaxReadBatchSize for small entries and below it for large entries."
+    )
+    private boolean dispatcherAdaptiveReadBatchSizeEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Target size in bytes of a read when dispatcherAdaptiveReadBatchSizeEnabled is set. It is capped by"
+            + " dispatcherMaxReadSizeBytes."
+    )
+    private int dispatcherAdaptiveReadTargetSizeBytes = 1024 * 1024;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Dispatch shared subscriptions without blocking the IO threads on the dispatcher lock. Flow permits are"
+            + " accounted atomically and reads, redeliveries and dispatching run on the topic ordered executor,"
+            + " keyed by subscription. It applies to the shared subscriptions created after it is enabled."
+    )
+    private boolean dispatcherNonBlockingSharedSubscriptionEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Max memory size for the entries which the dispatchers have read from bookkeeper and not yet written to"
+            + " the consumers.\n\n"
+            + " It's shared across all the subscriptions running in the same broker. When it is exhausted, reads are"
+            + " paused until entries get written to the consumers, and the subscriptions holding more than their"
+            + " share of it are paused first.\n\n"
+            + " Use -1 to disable the memory limitation."
+    )
+    private int dispatcherMaxInFlightReadSizeInMB = -1;
+
     @FieldContext(
          dynamic = true,
          category = CATEGORY_SERVER,
@@ -1156,6 +1258,13 @@ public class ServiceConfiguration implements PulsarConfiguration {
             (int) (PlatformDependent.maxDirectMemory() / 5 / (1024 * 1024)));
     @FieldContext(category = CATEGORY_STORAGE_ML, doc = "Whether we should make a copy of the entry payloads when inserting in cache")
     private boolean managedLedgerCacheCopyEntries = false;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Whether the managed ledger cache should store entries in large direct-memory segments per ledger,"
+                    + " with a compact entry index and whole-segment eviction, instead of one cache node per entry")
+    private boolean managedLedgerCacheSegmented = false;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Size of the direct-memory segments used when managedLedgerCacheSegmented is enabled")
+    private int managedLedgerCacheSegmentSizeKB = 1024;
     @FieldContext(
         category = CATEGORY_STORAGE_ML,
         doc = "Threshold to which bring down the cache level when eviction is triggered"
@@ -1167,6 +1276,20 @@ public class ServiceConfiguration implements PulsarConfiguration {
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "All entries that have stayed in cache for more than the configured time, will be evicted")
     private long managedLedgerCacheEvictionTimeThresholdMillis = 1000;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Class name of the policy used to evict entries when the managed ledger cache is full. Use"
+                    + " org.apache.bookkeeper.mledger.impl.EntryCacheCursorAwareEvictionPolicy to evict first the"
+                    + " entries that active cursors have already read, keeping the window ahead of lagging cursors")
+    private String managedLedgerCacheEvictionPolicyClassName =
+            "org.apache.bookkeeper.mledger.impl.EntryCacheDefaultEvictionPolicy";
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Number of entries ahead of each active cursor that the cursor-aware eviction policy"
+                    + " tries to keep in cache")
+    private int managedLedgerCacheEvictionReadAheadEntries = 1000;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Number of entries to prefetch from BookKeeper after a read that missed the managed ledger cache,"
+                    + " so that the next read of a backlogged cursor is served from memory. 0 disables the read-ahead")
+    private int managedLedgerCacheReadAheadEntries = 0;
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "Configure the threshold (in number of entries) from where a cursor should be considered 'backlogged'"
                     + " and thus should be set as inactive.")
@@ -1267,6 +1390,20 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + "If number of unack message range is higher than this limit then broker will persist"
             + " unacked ranges into bookkeeper to avoid additional data overhead into zookeeper.")
     private int managedLedgerMaxUnackedRangesToPersistInZooKeeper = 1000;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Persist the `acknowledgment holes` in the cursor ledger as per-ledger bitmaps instead of a list"
+            + " of ranges.\n\n"
+            + "The bitmaps are not limited by `managedLedgerMaxUnackedRangesToPersist` and stay compact when"
+            + " messages are acknowledged randomly, as it happens with shared subscriptions.")
+    private boolean managedLedgerPersistIndividualAckAsBitmap = false;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Max number of delta entries appended to the cursor ledger between two full snapshots of the"
+            + " cursor state.\n\n"
+            + "A delta only contains the `acknowledgment holes` changed since the previous entry, which reduces"
+            + " the cursor ledger write load when there are many holes. 0 means always writing full snapshots.")
+    private int managedLedgerMaxCursorDeltasPerSnapshot = 0;
     @FieldContext(
             category = CATEGORY_STORAGE_OFFLOADING,
             doc = "Use Open Range-Set to cache unacked messages (it is memory efficient but it can take more cpu)"
@@ -1609,6 +1746,51 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int brokerServiceCompactionMonitorIntervalInSeconds = 60;
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Memory budget, in MB, of the key index built by each topic compaction. The index keeps a fingerprint"
+            + " and the position of the latest message of each key, and spills them to local disk past this budget"
+    )
+    private int compactionKeyIndexMaxMemoryMB = 128;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Directory where the compaction key index spills the keys that don't fit in its memory budget."
+            + " Defaults to the temporary directory of the JVM"
+    )
+    private String compactionKeyIndexSpillDirectory = "";
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Compact topics incrementally: each compaction only reads the messages written since the previous one"
+            + " and appends them, with their deletions, as a new compacted segment. Readers of the compacted topic"
+            + " skip the values of a key found in a newer segment through the index of that segment, so it requires"
+            + " compactedTopicIndexEnabled. A compaction whose keys exceed compactionKeyIndexMaxMemoryMB is done fully"
+    )
+    private boolean compactionIncrementalEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Maximum number of compacted segments of a topic when compactionIncrementalEnabled is set. Once"
+            + " reached, the next compaction merges all the segments and the new messages into a single segment"
+    )
+    private int compactionMaxSegments = 8;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Write a sparse index next to each compacted ledger, used to seek in the compacted topic without a"
+            + " binary search over the compacted ledger, and to look up the latest message of a key"
+    )
+    private boolean compactedTopicIndexEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        minValue = 1,
+        doc = "Number of entries of the compacted ledger between two message id fence pointers of the compacted"
+            + " topic index. A seek reads at most log2 of this number of entries of the compacted ledger"
+    )
+    private int compactedTopicIndexInterval = 16;
+
     @FieldContext(
         category = CATEGORY_SCHEMA,
         doc = "Enforce schema validation on following cases:\n\n"
@@ -1737,6 +1919,41 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int managedLedgerOffloadPrefetchRounds = 1;
 
+    @FieldContext(
+            category = CATEGORY_STORAGE_OFFLOADING,
+            doc = "Maximum number of data blocks of a ledger uploaded concurrently while offloading. With a value"
+                + " greater than 1 the blocks are assembled in memory and uploaded in parallel with reading the next"
+                + " entries, instead of streaming one block at a time"
+    )
+    private int managedLedgerOffloadMaxConcurrentUploads = 1;
+
+    @FieldContext(
+            category = CATEGORY_STORAGE_OFFLOADING,
+            doc = "Maximum memory in bytes used by the data blocks being assembled or uploaded while offloading"
+                + " a ledger with concurrent uploads"
+    )
+    private long managedLedgerOffloadMaxPipelineMemoryInBytes = 256 * 1024 * 1024L;
+
+    @FieldContext(
+            category = CATEGORY_STORAGE_OFFLOADING,
+            doc = "Directory of the local disk cache of the data read from offloaded ledgers. The cache is disabled"
+                + " when it is not set"
+    )
+    private String managedLedgerOffloadReadCacheDirectory = null;
+
+    @FieldContext(
+            category = CATEGORY_STORAGE_OFFLOADING,
+            doc = "Maximum size in bytes of the local disk cache of the data read from offloaded ledgers"
+    )
+    private long managedLedgerOffloadReadCacheSizeInBytes = 1024 * 1024 * 1024L;
+
+    @FieldContext(
+            category = CATEGORY_STORAGE_OFFLOADING,
+            doc = "Number of chunks, of the offload read buffer size, prefetched into the offload read cache"
+                + " ahead of the sequential reads of an offloaded ledger. 0 disables the prefetch"
+    )
+    private int managedLedgerOffloadReadCachePrefetchChunks = 2;
+
     /**** --- Transaction config variables --- ****/
     @FieldContext(
             category = CATEGORY_TRANSACTION,
@@ -62,7 +62,12 @@ public class ManagedLedgerClientFactory implements Closeable {
         managedLedgerFactoryConfig.setNumManagedLedgerSchedulerThreads(conf.getManagedLedgerNumSchedulerThreads());
         managedLedgerFactoryConfig.setCacheEvictionFrequency(conf.getManagedLedgerCacheEvictionFrequency());
         managedLedgerFactoryConfig.setCacheEvictionTimeThresholdMillis(conf.getManagedLedgerCacheEvictionTimeThresholdMillis());
+        managedLedgerFactoryConfig.setCacheEvictionPolicyClassName(conf.getManagedLedgerCacheEvictionPolicyClassName());
+        managedLedgerFactoryConfig.setCacheEvictionReadAheadEntries(conf.getManagedLedgerCacheEvictionReadAheadEntries());
+        managedLedgerFactoryConfig.setCacheReadAheadEntries(conf.getManagedLedgerCacheReadAheadEntries());
         managedLedgerFactoryConfig.setCopyEntriesInCache(conf.isManagedLedgerCacheCopyEntries());
+        managedLedgerFactoryConfig.setUseSegmentedEntryCache(conf.isManagedLedgerCacheSegmented());
+        managedLedgerFactoryConfig.setEntryCacheSegmentSize(conf.getManagedLedgerCacheSegmentSizeKB() * 1024);
         managedLedgerFactoryConfig.setPrometheusStatsLatencyRolloverSeconds(conf.getManagedLedgerPrometheusStatsLatencyRolloverSeconds());
         managedLedgerFactoryConfig.setTraceTaskExecution(conf.isManagedLedgerTraceTaskExecution());
 
@@ -2074,6 +2074,42 @@ public class PersistentTopicsBase extends AdminResource {
         }
     }
 
+    protected void internalGetLatestCompactedMessage(AsyncResponse asyncResponse, String key,
+                                                     boolean authoritative) {
+        if (StringUtils.isEmpty(key)) {
+            asyncResponse.resume(new RestException(Status.BAD_REQUEST, "The key of the message is required"));
+            return;
+        }
+        // will redirect if the topic not owned by current broker
+        validateReadOperationOnTopic(authoritative);
+        Topic topic = getTopicReference(topicName);
+        if (!(topic instanceof PersistentTopic)) {
+            asyncResponse.resume(new RestException(Status.METHOD_NOT_ALLOWED,
+                    "Key lookups on a non-persistent topic are not allowed"));
+            return;
+        }
+        ((PersistentTopic) topic).getCompactedTopic().readLatestByKey(key).whenComplete((entry, exception) -> {
+            if (exception != null) {
+                log.error("[{}] Failed to get the latest compacted message of key {} from {}",
+                        clientAppId(), key, topicName, exception);
+                Throwable cause = FutureUtil.unwrapCompletionException(exception);
+                asyncResponse.resume(cause instanceof IllegalStateException
+                        ? new RestException(Status.PRECONDITION_FAILED, cause.getMessage())
+                        : new RestException(cause));
+            } else if (!entry.isPresent()) {
+                asyncResponse.resume(new RestException(Status.NOT_FOUND, "Key not found in the compacted topic"));
+            } else {
+                try {
+                    asyncResponse.resume(generateResponseWithEntry(entry.get()));
+                } catch (IOException e) {
+                    asyncResponse.resume(new RestException(e));
+                } finally {
+                    entry.get().release();
+                }
+            }
+        });
+    }
+
     protected Response internalPeekNthMessage(String subName, int messagePosition, boolean authoritative) {
         verifyReadOperation(authoritative);
         // If the topic name is a partition name, no need to get partition topic metadata again
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+
+/**
+ * Base class for the trackers that wake up the dispatcher with a timer when the next message is due.
+ */
+@Slf4j
+public abstract class AbstractDelayedDeliveryTracker implements DelayedDeliveryTracker, TimerTask {
+
+    protected final PersistentDispatcherMultipleConsumers dispatcher;
+
+    // Reference to the shared (per-broker) timer for delayed delivery
+    protected final Timer timer;
+
+    // Current timeout or null if not set
+    protected Timeout timeout;
+
+    // Timestamp at which the timeout is currently set
+    protected long currentTimeoutTarget;
+
+    protected long tickTimeMillis;
+
+    protected final Clock clock;
+
+    protected AbstractDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer,
+                                             long tickTimeMillis, Clock clock) {
+        this.dispatcher = dispatcher;
+        this.timer = timer;
+        this.tickTimeMillis = tickTimeMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the delivery time of the next message to dispatch, or -1 if there are no messages
+     */
+    protected abstract long nextDeliveryTime();
+
+    @Override
+    public void resetTickTime(long tickTime) {
+        if (this.tickTimeMillis != tickTime){
+            this.tickTimeMillis = tickTime;
+        }
+    }
+
+    protected void updateTimer() {
+        long timestamp = nextDeliveryTime();
+        if (timestamp < 0) {
+            if (timeout != null) {
+                currentTimeoutTarget = -1;
+                timeout.cancel();
+                timeout = null;
+            }
+            return;
+        }
+
+        if (timestamp == currentTimeoutTarget) {
+            // The timer is already set to the correct target time
+            return;
+        }
+
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        long delayMillis = timestamp - clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Start timer in {} millis", dispatcher.getName(), delayMillis);
+        }
+
+        if (delayMillis < 0) {
+            // There are messages that are already ready to be delivered. If
+            // the dispatcher is not getting them is because the consumer is
+            // either not connected or slow.
+            // We don't need to keep retriggering the timer. When the consumer
+            // catches up, the dispatcher will do the readMoreEntries() and
+            // get these messages
+            return;
+        }
+
+        currentTimeoutTarget = timestamp;
+        timeout = timer.newTimeout(this, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Timer triggered", dispatcher.getName());
+        }
+        if (timeout.isCancelled()) {
+            return;
+        }
+
+        synchronized (dispatcher) {
+            currentTimeoutTarget = -1;
+            this.timeout = null;
+            dispatcher.readMoreEntries();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.impl.LedgerMetadataUtils;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.common.util.FutureUtil;
+
+/**
+ * Stores each bucket snapshot in its own BookKeeper ledger, the id of the snapshot being the ledger id.
+ */
+@Slf4j
+public class BookkeeperBucketSnapshotStorage implements BucketSnapshotStorage {
+
+    private static final byte[] LEDGER_PASSWORD = "".getBytes();
+
+    private final BookKeeper bookKeeper;
+    private final ServiceConfiguration config;
+
+    // Ledgers opened for reading, they are closed when the snapshot is deleted
+    private final Map<Long, CompletableFuture<LedgerHandle>> openLedgers = new ConcurrentHashMap<>();
+
+    public BookkeeperBucketSnapshotStorage(BookKeeper bookKeeper, ServiceConfiguration config) {
+        this.bookKeeper = bookKeeper;
+        this.config = config;
+    }
+
+    @Override
+    public CompletableFuture<Long> createBucketSnapshot(List<byte[]> entries, String topicName,
+                                                        String subscriptionName) {
+        return createLedger(topicName, subscriptionName).thenCompose(lh -> {
+            CompletableFuture<Void> lastAdd = CompletableFuture.completedFuture(null);
+            for (byte[] entry : entries) {
+                // Adds are pipelined, the ledger keeps them in order
+                CompletableFuture<Void> add = addEntry(lh, entry);
+                lastAdd = lastAdd.thenCombine(add, (v1, v2) -> null);
+            }
+            return lastAdd.thenCompose(v -> closeLedger(lh))
+                    .thenApply(v -> lh.getId())
+                    .whenComplete((id, e) -> {
+                        if (e != null) {
+                            log.warn("[{}][{}] Failed to write bucket snapshot in ledger {}", topicName,
+                                    subscriptionName, lh.getId(), e);
+                            bookKeeper.asyncDeleteLedger(lh.getId(), (rc, ctx) -> { }, null);
+                        }
+                    });
+        });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getBucketSnapshotEntry(long bucketId, long entryId) {
+        CompletableFuture<LedgerHandle> openLedger = openLedgers.computeIfAbsent(bucketId, this::openLedger);
+        openLedger.exceptionally(e -> {
+            // Do not cache the failure, the next read will try to open the ledger again
+            openLedgers.remove(bucketId, openLedger);
+            return null;
+        });
+        return openLedger.thenCompose(lh -> {
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            lh.asyncReadEntries(entryId, entryId, (rc, handle, entries, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    future.completeExceptionally(BKException.create(rc));
+                } else {
+                    future.complete(entries.nextElement().getEntry());
+                }
+            }, null);
+            return future;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBucketSnapshot(long bucketId) {
+        CompletableFuture<LedgerHandle> openLedger = openLedgers.remove(bucketId);
+        if (openLedger != null) {
+            openLedger.thenAccept(lh -> lh.asyncClose((rc, handle, ctx) -> { }, null));
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        bookKeeper.asyncDeleteLedger(bucketId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+
+    @Override
+    public void close() {
+        openLedgers.values().forEach(f -> f.thenAccept(lh -> lh.asyncClose((rc, handle, ctx) -> { }, null)));
+        openLedgers.clear();
+    }
+
+    private CompletableFuture<LedgerHandle> createLedger(String topicName, String subscriptionName) {
+        CompletableFuture<LedgerHandle> future = new CompletableFuture<>();
+        try {
+            bookKeeper.asyncCreateLedger(
+                    config.getManagedLedgerDefaultEnsembleSize(),
+                    config.getManagedLedgerDefaultWriteQuorum(),
+                    config.getManagedLedgerDefaultAckQuorum(),
+                    BookKeeper.DigestType.fromApiDigestType(config.getManagedLedgerDigestType()),
+                    LEDGER_PASSWORD,
+                    (rc, handle, ctx) -> {
+                        if (rc != BKException.Code.OK) {
+                            future.completeExceptionally(BKException.create(rc));
+                        } else {
+                            future.complete(handle);
+                        }
+                    }, null, LedgerMetadataUtils.buildMetadataForDelayedIndexBucket(topicName, subscriptionName));
+        } catch (Throwable t) {
+            log.error("[{}][{}] Encountered unexpected error when creating bucket snapshot ledger", topicName,
+                    subscriptionName, t);
+            return FutureUtil.failedFuture(t);
+        }
+        return future;
+    }
+
+    private CompletableFuture<LedgerHandle> openLedger(long ledgerId) {
+        CompletableFuture<LedgerHandle> future = new CompletableFuture<>();
+        bookKeeper.asyncOpenLedger(
+                ledgerId,
+                BookKeeper.DigestType.fromApiDigestType(config.getManagedLedgerDigestType()),
+                LEDGER_PASSWORD,
+                (rc, handle, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        future.completeExceptionally(BKException.create(rc));
+                    } else {
+                        future.complete(handle);
+                    }
+                }, null);
+        return future;
+    }
+
+    private static CompletableFuture<Void> addEntry(LedgerHandle lh, byte[] entry) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lh.asyncAddEntry(entry, (rc, handle, entryId, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+
+    private static CompletableFuture<Void> closeLedger(LedgerHandle lh) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lh.asyncClose((rc, handle, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+}
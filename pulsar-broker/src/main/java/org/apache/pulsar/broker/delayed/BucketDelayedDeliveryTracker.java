@@ -0,0 +1,641 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.bookkeeper.mledger.AsyncCallbacks.MarkDeleteCallback;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.common.util.collections.TripleLongPriorityQueue;
+
+/**
+ * Delayed delivery tracker that keeps the index of the delayed messages in buckets persisted as snapshots, so that
+ * the index does not have to fit in memory and does not need to be rebuilt from the backlog after a restart.
+ *
+ * <p/>The delayed messages are first added to a mutable bucket held in memory. When it has enough messages and the
+ * dispatcher moves to a new ledger, the bucket is sealed: its messages are sorted by delivery time, split in
+ * segments and written as a snapshot whose id is recorded in the cursor properties. Only one segment of each sealed
+ * bucket is held in memory at a time, the next one is loaded once the delivery time reaches the end of the current
+ * one.
+ *
+ * <p/>When the tracker is recreated, the sealed buckets are recovered asynchronously from the cursor properties. The
+ * messages they contain are not tracked again when the dispatcher reads them from the backlog. Until the recovery is
+ * complete, no message is delivered and the messages read from the backlog are kept aside, to be tracked once it is
+ * known whether they are part of a recovered bucket.
+ */
+@Slf4j
+public class BucketDelayedDeliveryTracker extends AbstractDelayedDeliveryTracker {
+
+    static final String DELAYED_BUCKET_KEY_PREFIX = "#pulsar.internal.delayed.bucket";
+    static final String DELIMITER = "_";
+
+    private static final int SNAPSHOT_FORMAT_VERSION = 1;
+    private static final long RECOVERY_TIMEOUT_SECONDS = 30;
+
+    private final ManagedCursor cursor;
+    private final BucketSnapshotStorage snapshotStorage;
+    private final long minIndexCountPerBucket;
+    private final int maxIndexesPerSegment;
+
+    // Messages of the last bucket, which is only held in memory
+    private final TripleLongPriorityQueue mutableBucketQueue = new TripleLongPriorityQueue();
+    private long mutableBucketStartLedgerId = -1;
+    private long mutableBucketEndLedgerId = -1;
+
+    // Messages of the loaded segments of the sealed buckets
+    private final TripleLongPriorityQueue sharedBucketQueue = new TripleLongPriorityQueue();
+    private final List<ImmutableBucket> immutableBuckets = new ArrayList<>();
+
+    // Messages after this time cannot be delivered before loading the next segment of one of the sealed buckets
+    private long nextSegmentLoadTimestamp = Long.MAX_VALUE;
+
+    // The cursor properties are updated one at a time, to not lose concurrent updates
+    private CompletableFuture<Void> pendingCursorPropertiesUpdate = CompletableFuture.completedFuture(null);
+
+    // Messages added while the sealed buckets are being recovered, as (ledgerId, entryId, deliveryAt)
+    private List<long[]> pendingRecoveryMessages = new ArrayList<>();
+    private boolean recovering = true;
+
+    private long numberOfDelayedMessages = 0;
+    private boolean closed = false;
+
+    BucketDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis,
+                                 BucketSnapshotStorage snapshotStorage, long minIndexCountPerBucket,
+                                 int maxIndexesPerSegment) {
+        this(dispatcher, timer, tickTimeMillis, snapshotStorage, minIndexCountPerBucket, maxIndexesPerSegment,
+                Clock.systemUTC());
+    }
+
+    BucketDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis,
+                                 BucketSnapshotStorage snapshotStorage, long minIndexCountPerBucket,
+                                 int maxIndexesPerSegment, Clock clock) {
+        super(dispatcher, timer, tickTimeMillis, clock);
+        this.cursor = dispatcher.getCursor();
+        this.snapshotStorage = snapshotStorage;
+        this.minIndexCountPerBucket = minIndexCountPerBucket;
+        this.maxIndexesPerSegment = maxIndexesPerSegment;
+        recoverBuckets();
+    }
+
+    @Override
+    public boolean addMessage(long ledgerId, long entryId, long deliveryAt) {
+        long now = clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Add message {}:{} -- Delivery in {} ms ", dispatcher.getName(), ledgerId, entryId,
+                    deliveryAt - now);
+        }
+        if (deliveryAt < (now + tickTimeMillis)) {
+            // It's already about time to deliver this message
+            return false;
+        }
+
+        if (recovering) {
+            pendingRecoveryMessages.add(new long[] { ledgerId, entryId, deliveryAt });
+            return true;
+        }
+        trackMessage(ledgerId, entryId, deliveryAt);
+        return true;
+    }
+
+    private void trackMessage(long ledgerId, long entryId, long deliveryAt) {
+        if (findBucket(ledgerId, entryId) != null) {
+            // Already tracked by a sealed bucket, it was read again from the backlog after a restart
+            return;
+        }
+
+        if (ledgerId > mutableBucketEndLedgerId && mutableBucketQueue.size() >= minIndexCountPerBucket) {
+            sealMutableBucket();
+        }
+
+        if (mutableBucketQueue.isEmpty()) {
+            mutableBucketStartLedgerId = ledgerId;
+            mutableBucketEndLedgerId = ledgerId;
+        } else {
+            mutableBucketStartLedgerId = Math.min(mutableBucketStartLedgerId, ledgerId);
+            mutableBucketEndLedgerId = Math.max(mutableBucketEndLedgerId, ledgerId);
+        }
+        mutableBucketQueue.add(deliveryAt, ledgerId, entryId);
+        numberOfDelayedMessages++;
+        updateTimer();
+    }
+
+    @Override
+    public boolean hasMessageAvailable() {
+        if (recovering) {
+            return false;
+        }
+        long timestamp = nextDeliveryTime();
+        return timestamp >= 0 && timestamp <= clock.millis();
+    }
+
+    @Override
+    public Set<PositionImpl> getScheduledMessages(int maxMessages) {
+        Set<PositionImpl> positions = new TreeSet<>();
+        if (recovering) {
+            return positions;
+        }
+        // Pick all the messages that will be ready within the tick time period
+        long cutoffTime = clock.millis() + tickTimeMillis;
+
+        while (positions.size() < maxMessages) {
+            TripleLongPriorityQueue queue = nextQueue();
+            long timestamp = queue != null ? queue.peekN1() : Long.MAX_VALUE;
+            if (timestamp > nextSegmentLoadTimestamp) {
+                // The next segments of some sealed buckets might have earlier messages
+                loadNextSegments(timestamp);
+                if (timestamp > nextSegmentLoadTimestamp) {
+                    // Wait for the segments to be loaded
+                    break;
+                }
+                continue;
+            }
+
+            if (queue == null || timestamp > cutoffTime) {
+                break;
+            }
+
+            long ledgerId = queue.peekN2();
+            long entryId = queue.peekN3();
+            queue.pop();
+            positions.add(new PositionImpl(ledgerId, entryId));
+            numberOfDelayedMessages--;
+
+            if (queue == sharedBucketQueue) {
+                ImmutableBucket bucket = findBucket(ledgerId, entryId);
+                if (bucket != null) {
+                    // Once delivered, the message can be tracked again if it is not acknowledged
+                    bucket.delayedIndexes.get(ledgerId).clear((int) entryId);
+                    if (--bucket.remaining <= 0 && !bucket.hasMoreSegments()) {
+                        deleteBucket(bucket);
+                    }
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Get scheduled messages - found {}", dispatcher.getName(), positions.size());
+        }
+        updateTimer();
+        return positions;
+    }
+
+    @Override
+    public long getNumberOfDelayedMessages() {
+        return numberOfDelayedMessages + pendingRecoveryMessages.size();
+    }
+
+    @Override
+    protected long nextDeliveryTime() {
+        if (recovering) {
+            return -1;
+        }
+        TripleLongPriorityQueue queue = nextQueue();
+        long timestamp = Math.min(queue != null ? queue.peekN1() : Long.MAX_VALUE, nextSegmentLoadTimestamp);
+        return timestamp == Long.MAX_VALUE ? -1 : timestamp;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        closed = true;
+        mutableBucketQueue.close();
+        sharedBucketQueue.close();
+    }
+
+    private TripleLongPriorityQueue nextQueue() {
+        if (sharedBucketQueue.isEmpty()) {
+            return mutableBucketQueue.isEmpty() ? null : mutableBucketQueue;
+        } else if (mutableBucketQueue.isEmpty()) {
+            return sharedBucketQueue;
+        } else {
+            return sharedBucketQueue.peekN1() <= mutableBucketQueue.peekN1() ? sharedBucketQueue : mutableBucketQueue;
+        }
+    }
+
+    private ImmutableBucket findBucket(long ledgerId, long entryId) {
+        for (ImmutableBucket bucket : immutableBuckets) {
+            if (bucket.containsMessage(ledgerId, entryId)) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    private void sealMutableBucket() {
+        int count = mutableBucketQueue.size();
+        int numSegments = (count + maxIndexesPerSegment - 1) / maxIndexesPerSegment;
+        long[] segmentMaxTimestamps = new long[numSegments];
+        Map<Long, BitSet> delayedIndexes = new TreeMap<>();
+
+        // The queue is drained in delivery time order, so the segments are sorted
+        List<byte[]> segments = new ArrayList<>(numSegments);
+        ByteBuffer segment = null;
+        for (int i = 0; i < count; i++) {
+            if (i % maxIndexesPerSegment == 0) {
+                int segmentSize = Math.min(maxIndexesPerSegment, count - i);
+                segment = ByteBuffer.allocate(Integer.BYTES + segmentSize * 3 * Long.BYTES).putInt(segmentSize);
+                segments.add(segment.array());
+            }
+            long timestamp = mutableBucketQueue.peekN1();
+            long ledgerId = mutableBucketQueue.peekN2();
+            long entryId = mutableBucketQueue.peekN3();
+            mutableBucketQueue.pop();
+
+            segment.putLong(timestamp).putLong(ledgerId).putLong(entryId);
+            segmentMaxTimestamps[i / maxIndexesPerSegment] = timestamp;
+            delayedIndexes.computeIfAbsent(ledgerId, k -> new BitSet()).set((int) entryId);
+        }
+
+        ImmutableBucket bucket = new ImmutableBucket(mutableBucketStartLedgerId, mutableBucketEndLedgerId,
+                segmentMaxTimestamps, delayedIndexes, count);
+        bucket.snapshotEntries = new ArrayList<>(numSegments + 1);
+        bucket.snapshotEntries.add(encodeMetadata(bucket));
+        bucket.snapshotEntries.addAll(segments);
+        immutableBuckets.add(bucket);
+        mutableBucketStartLedgerId = -1;
+        mutableBucketEndLedgerId = -1;
+
+        loadNextSegment(bucket);
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Sealed bucket {} with {} messages in {} segments", dispatcher.getName(), bucket.key,
+                    count, numSegments);
+        }
+
+        snapshotStorage.createBucketSnapshot(bucket.snapshotEntries, dispatcher.getTopic().getName(),
+                cursor.getName())
+                .thenCompose(bucketId -> {
+                    synchronized (dispatcher) {
+                        bucket.bucketId = bucketId;
+                    }
+                    return updateCursorProperties(properties -> properties.put(bucket.key, bucketId));
+                })
+                .whenComplete((v, e) -> {
+                    synchronized (dispatcher) {
+                        if (e != null) {
+                            // The messages of the bucket will be tracked again from the backlog after a restart
+                            log.warn("[{}] Failed to persist the snapshot of bucket {}", dispatcher.getName(),
+                                    bucket.key, e);
+                            return;
+                        }
+                        bucket.snapshotEntries = null;
+                        bucket.persisted = true;
+                        if (bucket.deleted) {
+                            // All the messages were delivered before the bucket was persisted
+                            deleteBucketSnapshot(bucket);
+                        }
+                    }
+                });
+    }
+
+    private void deleteBucket(ImmutableBucket bucket) {
+        immutableBuckets.remove(bucket);
+        bucket.deleted = true;
+        updateNextSegmentLoadTimestamp();
+        if (bucket.persisted) {
+            deleteBucketSnapshot(bucket);
+        }
+    }
+
+    private void deleteBucketSnapshot(ImmutableBucket bucket) {
+        updateCursorProperties(properties -> properties.remove(bucket.key))
+                .thenCompose(v -> snapshotStorage.deleteBucketSnapshot(bucket.bucketId))
+                .exceptionally(e -> {
+                    log.warn("[{}] Failed to delete the snapshot of bucket {}", dispatcher.getName(), bucket.key, e);
+                    return null;
+                });
+    }
+
+    private void loadNextSegments(long timestamp) {
+        for (ImmutableBucket bucket : new ArrayList<>(immutableBuckets)) {
+            if (bucket.hasMoreSegments() && !bucket.loading && bucket.currentSegmentMaxTimestamp() < timestamp) {
+                loadNextSegment(bucket);
+            }
+        }
+    }
+
+    private void loadNextSegment(ImmutableBucket bucket) {
+        int segment = bucket.nextSegment;
+        if (bucket.snapshotEntries != null) {
+            // The bucket is not persisted yet
+            decodeSegment(bucket.snapshotEntries.get(segment + 1));
+            bucket.nextSegment++;
+            updateNextSegmentLoadTimestamp();
+            return;
+        }
+
+        bucket.loading = true;
+        CompletableFuture<byte[]> future = snapshotStorage.getBucketSnapshotEntry(bucket.bucketId, segment + 1);
+        boolean completedAsynchronously = !future.isDone();
+        future.whenComplete((data, e) -> {
+            synchronized (dispatcher) {
+                bucket.loading = false;
+                if (closed || bucket.deleted) {
+                    return;
+                }
+                if (e != null) {
+                    // It will be retried on the next dispatch
+                    log.warn("[{}] Failed to load segment {} of bucket {}", dispatcher.getName(), segment,
+                            bucket.key, e);
+                    return;
+                }
+                decodeSegment(data);
+                bucket.nextSegment++;
+                updateNextSegmentLoadTimestamp();
+                updateTimer();
+            }
+            if (completedAsynchronously) {
+                dispatcher.readMoreEntries();
+            }
+        });
+    }
+
+    private void decodeSegment(byte[] data) {
+        ByteBuffer segment = ByteBuffer.wrap(data);
+        int size = segment.getInt();
+        for (int i = 0; i < size; i++) {
+            sharedBucketQueue.add(segment.getLong(), segment.getLong(), segment.getLong());
+        }
+    }
+
+    private void updateNextSegmentLoadTimestamp() {
+        long timestamp = Long.MAX_VALUE;
+        for (ImmutableBucket bucket : immutableBuckets) {
+            if (bucket.hasMoreSegments()) {
+                timestamp = Math.min(timestamp, bucket.currentSegmentMaxTimestamp());
+            }
+        }
+        nextSegmentLoadTimestamp = timestamp;
+    }
+
+    private CompletableFuture<Void> updateCursorProperties(Consumer<Map<String, Long>> update) {
+        synchronized (this) {
+            pendingCursorPropertiesUpdate = pendingCursorPropertiesUpdate
+                    .exceptionally(e -> null)
+                    .thenCompose(v -> markDeleteWithProperties(update, true));
+            return pendingCursorPropertiesUpdate;
+        }
+    }
+
+    private CompletableFuture<Void> markDeleteWithProperties(Consumer<Map<String, Long>> update, boolean retry) {
+        Map<String, Long> properties = new TreeMap<>(cursor.getProperties());
+        update.accept(properties);
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        cursor.asyncMarkDelete(cursor.getMarkDeletedPosition(), properties, new MarkDeleteCallback() {
+            @Override
+            public void markDeleteComplete(Object ctx) {
+                future.complete(null);
+            }
+
+            @Override
+            public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+
+        if (retry) {
+            // The mark-delete position might have moved in the meantime
+            return future.handle((v, e) -> e)
+                    .thenCompose(e -> e == null ? future : markDeleteWithProperties(update, false));
+        }
+        return future;
+    }
+
+    private void recoverBuckets() {
+        Map<String, Long> bucketIds = new TreeMap<>();
+        Map<String, CompletableFuture<Pair<ImmutableBucket, byte[]>>> futures = new TreeMap<>();
+        cursor.getProperties().forEach((key, bucketId) -> {
+            if (key.startsWith(DELAYED_BUCKET_KEY_PREFIX)) {
+                bucketIds.put(key, bucketId);
+                futures.put(key, withRecoveryTimeout(key, recoverBucket(key, bucketId)));
+            }
+        });
+
+        // A failed bucket must not fail the whole recovery
+        CompletableFuture<?>[] completions = futures.values().stream()
+                .map(future -> future.handle((v, e) -> null))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture<Void> recovery = CompletableFuture.allOf(completions);
+        boolean completedAsynchronously = !recovery.isDone();
+        recovery.thenRun(() -> {
+            synchronized (dispatcher) {
+                if (closed) {
+                    return;
+                }
+                futures.forEach((key, future) -> completeBucketRecovery(key, bucketIds.get(key), future));
+                if (!immutableBuckets.isEmpty()) {
+                    log.info("[{}] Recovered {} delayed delivery buckets with {} messages", dispatcher.getName(),
+                            immutableBuckets.size(), numberOfDelayedMessages);
+                }
+
+                recovering = false;
+                List<long[]> pendingMessages = pendingRecoveryMessages;
+                pendingRecoveryMessages = new ArrayList<>();
+                for (long[] message : pendingMessages) {
+                    // The dispatcher already considers these messages as delayed, even if they are due by now
+                    trackMessage(message[0], message[1], message[2]);
+                }
+                updateNextSegmentLoadTimestamp();
+                updateTimer();
+            }
+            if (completedAsynchronously) {
+                dispatcher.readMoreEntries();
+            }
+        });
+    }
+
+    private void completeBucketRecovery(String key, long bucketId,
+                                        CompletableFuture<Pair<ImmutableBucket, byte[]>> future) {
+        Pair<ImmutableBucket, byte[]> bucketAndFirstSegment;
+        try {
+            bucketAndFirstSegment = future.join();
+        } catch (Exception e) {
+            // The messages of the bucket are tracked again when the dispatcher reads them from the backlog, so
+            // the snapshot is not needed anymore
+            log.error("[{}] Failed to recover delayed delivery bucket {}", dispatcher.getName(), key, e);
+            updateCursorProperties(properties -> properties.remove(key))
+                    .thenCompose(v -> snapshotStorage.deleteBucketSnapshot(bucketId))
+                    .exceptionally(ex -> {
+                        log.warn("[{}] Failed to delete the snapshot of bucket {}", dispatcher.getName(), key, ex);
+                        return null;
+                    });
+            return;
+        }
+
+        ImmutableBucket bucket = bucketAndFirstSegment.getLeft();
+        decodeSegment(bucketAndFirstSegment.getRight());
+        bucket.nextSegment = 1;
+        immutableBuckets.add(bucket);
+        numberOfDelayedMessages += bucket.remaining;
+    }
+
+    private <T> CompletableFuture<T> withRecoveryTimeout(String key, CompletableFuture<T> future) {
+        if (future.isDone()) {
+            return future;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Timeout recoveryTimeout = timer.newTimeout(t -> result.completeExceptionally(
+                new TimeoutException("Timed out recovering delayed delivery bucket " + key)),
+                RECOVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        future.whenComplete((v, e) -> {
+            if (recoveryTimeout != null) {
+                recoveryTimeout.cancel();
+            }
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(v);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Pair<ImmutableBucket, byte[]>> recoverBucket(String key, long bucketId) {
+        return snapshotStorage.getBucketSnapshotEntry(bucketId, 0).thenCompose(metadata -> {
+            ImmutableBucket bucket = decodeMetadata(key, metadata);
+            bucket.bucketId = bucketId;
+            bucket.persisted = true;
+            return snapshotStorage.getBucketSnapshotEntry(bucketId, 1).thenApply(segment -> Pair.of(bucket, segment));
+        });
+    }
+
+    private static byte[] encodeMetadata(ImmutableBucket bucket) {
+        int size = Integer.BYTES + Long.BYTES + Integer.BYTES + bucket.segmentMaxTimestamps.length * Long.BYTES
+                + Integer.BYTES;
+        List<long[]> words = new ArrayList<>(bucket.delayedIndexes.size());
+        for (BitSet entries : bucket.delayedIndexes.values()) {
+            long[] ledgerWords = entries.toLongArray();
+            words.add(ledgerWords);
+            size += Long.BYTES + Integer.BYTES + ledgerWords.length * Long.BYTES;
+        }
+
+        ByteBuffer metadata = ByteBuffer.allocate(size)
+                .putInt(SNAPSHOT_FORMAT_VERSION)
+                .putLong(bucket.remaining)
+                .putInt(bucket.segmentMaxTimestamps.length);
+        for (long timestamp : bucket.segmentMaxTimestamps) {
+            metadata.putLong(timestamp);
+        }
+        metadata.putInt(bucket.delayedIndexes.size());
+        int i = 0;
+        for (Long ledgerId : bucket.delayedIndexes.keySet()) {
+            long[] ledgerWords = words.get(i++);
+            metadata.putLong(ledgerId).putInt(ledgerWords.length);
+            for (long word : ledgerWords) {
+                metadata.putLong(word);
+            }
+        }
+        return metadata.array();
+    }
+
+    private static ImmutableBucket decodeMetadata(String key, byte[] data) {
+        ByteBuffer metadata = ByteBuffer.wrap(data);
+        int version = metadata.getInt();
+        if (version != SNAPSHOT_FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported bucket snapshot format " + version);
+        }
+        long count = metadata.getLong();
+        long[] segmentMaxTimestamps = new long[metadata.getInt()];
+        for (int i = 0; i < segmentMaxTimestamps.length; i++) {
+            segmentMaxTimestamps[i] = metadata.getLong();
+        }
+        Map<Long, BitSet> delayedIndexes = new TreeMap<>();
+        int numLedgers = metadata.getInt();
+        for (int i = 0; i < numLedgers; i++) {
+            long ledgerId = metadata.getLong();
+            long[] words = new long[metadata.getInt()];
+            for (int j = 0; j < words.length; j++) {
+                words[j] = metadata.getLong();
+            }
+            delayedIndexes.put(ledgerId, BitSet.valueOf(words));
+        }
+
+        String[] range = key.split(DELIMITER);
+        return new ImmutableBucket(Long.parseLong(range[1]), Long.parseLong(range[2]), segmentMaxTimestamps,
+                delayedIndexes, count);
+    }
+
+    static class ImmutableBucket {
+        final String key;
+        final long startLedgerId;
+        final long endLedgerId;
+        final long[] segmentMaxTimestamps;
+        final Map<Long, BitSet> delayedIndexes;
+
+        // Id of the snapshot in the storage and entries of the snapshot, kept in memory until it is persisted
+        long bucketId = -1;
+        List<byte[]> snapshotEntries;
+        boolean persisted = false;
+        boolean deleted = false;
+
+        // Index of the next segment to load in the shared queue
+        int nextSegment = 0;
+        boolean loading = false;
+        // Number of messages not delivered yet
+        long remaining;
+
+        ImmutableBucket(long startLedgerId, long endLedgerId, long[] segmentMaxTimestamps,
+                        Map<Long, BitSet> delayedIndexes, long count) {
+            this.key = String.join(DELIMITER, DELAYED_BUCKET_KEY_PREFIX, Long.toString(startLedgerId),
+                    Long.toString(endLedgerId));
+            this.startLedgerId = startLedgerId;
+            this.endLedgerId = endLedgerId;
+            this.segmentMaxTimestamps = segmentMaxTimestamps;
+            this.delayedIndexes = delayedIndexes;
+            this.remaining = count;
+        }
+
+        boolean containsMessage(long ledgerId, long entryId) {
+            if (ledgerId < startLedgerId || ledgerId > endLedgerId) {
+                return false;
+            }
+            BitSet entries = delayedIndexes.get(ledgerId);
+            return entries != null && entries.get((int) entryId);
+        }
+
+        boolean hasMoreSegments() {
+            return nextSegment < segmentMaxTimestamps.length;
+        }
+
+        long currentSegmentMaxTimestamp() {
+            return segmentMaxTimestamps[nextSegment - 1];
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import com.google.common.annotations.Beta;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage for the snapshots of the sealed buckets of a {@link BucketDelayedDeliveryTracker}.
+ *
+ * <p/>A snapshot is an immutable sequence of entries, identified by the id returned when it is created.
+ */
+@Beta
+public interface BucketSnapshotStorage extends AutoCloseable {
+
+    /**
+     * Create a new bucket snapshot.
+     *
+     * @param entries
+     *            the entries of the snapshot
+     * @param topicName
+     *            the topic that owns the snapshot
+     * @param subscriptionName
+     *            the subscription that owns the snapshot
+     * @return a future with the id of the new snapshot
+     */
+    CompletableFuture<Long> createBucketSnapshot(List<byte[]> entries, String topicName, String subscriptionName);
+
+    /**
+     * Read an entry of a bucket snapshot.
+     *
+     * @param bucketId
+     *            the id of the snapshot
+     * @param entryId
+     *            the index of the entry in the snapshot
+     */
+    CompletableFuture<byte[]> getBucketSnapshotEntry(long bucketId, long entryId);
+
+    /**
+     * Delete a bucket snapshot.
+     *
+     * @param bucketId
+     *            the id of the snapshot
+     */
+    CompletableFuture<Void> deleteBucketSnapshot(long bucketId);
+
+    /**
+     * Close the storage and release all the resources.
+     */
+    void close();
+}
@@ -18,14 +18,11 @@
  */
 package org.apache.pulsar.broker.delayed;
 
-import io.netty.util.Timeout;
 import io.netty.util.Timer;
-import io.netty.util.TimerTask;
 
 import java.time.Clock;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.TimeUnit;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -34,34 +31,16 @@ import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleC
 import org.apache.pulsar.common.util.collections.TripleLongPriorityQueue;
 
 @Slf4j
-public class InMemoryDelayedDeliveryTracker implements DelayedDeliveryTracker, TimerTask {
+public class InMemoryDelayedDeliveryTracker extends AbstractDelayedDeliveryTracker {
 
     private final TripleLongPriorityQueue priorityQueue = new TripleLongPriorityQueue();
 
-    private final PersistentDispatcherMultipleConsumers dispatcher;
-
-    // Reference to the shared (per-broker) timer for delayed delivery
-    private final Timer timer;
-
-    // Current timeout or null if not set
-    private Timeout timeout;
-
-    // Timestamp at which the timeout is currently set
-    private long currentTimeoutTarget;
-
-    private long tickTimeMillis;
-
-    private final Clock clock;
-
     InMemoryDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis) {
         this(dispatcher, timer, tickTimeMillis, Clock.systemUTC());
     }
 
     InMemoryDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis, Clock clock) {
-        this.dispatcher = dispatcher;
-        this.timer = timer;
-        this.tickTimeMillis = tickTimeMillis;
-        this.clock = clock;
+        super(dispatcher, timer, tickTimeMillis, clock);
     }
 
     @Override
@@ -127,78 +106,19 @@ public class InMemoryDelayedDeliveryTracker implements DelayedDeliveryTracker, T
         return positions;
     }
 
-    @Override
-    public void resetTickTime(long tickTime) {
-        if (this.tickTimeMillis != tickTime){
-            this.tickTimeMillis = tickTime;
-        }
-    }
-
     @Override
     public long getNumberOfDelayedMessages() {
         return priorityQueue.size();
     }
 
-    private void updateTimer() {
-        if (priorityQueue.isEmpty()) {
-            if (timeout != null) {
-                currentTimeoutTarget = -1;
-                timeout.cancel();
-                timeout = null;
-            }
-            return;
-        }
-
-        long timestamp = priorityQueue.peekN1();
-        if (timestamp == currentTimeoutTarget) {
-            // The timer is already set to the correct target time
-            return;
-        }
-
-        if (timeout != null) {
-            timeout.cancel();
-        }
-
-        long delayMillis = timestamp - clock.millis();
-        if (log.isDebugEnabled()) {
-            log.debug("[{}] Start timer in {} millis", dispatcher.getName(), delayMillis);
-        }
-
-        if (delayMillis < 0) {
-            // There are messages that are already ready to be delivered. If
-            // the dispatcher is not getting them is because the consumer is
-            // either not connected or slow.
-            // We don't need to keep retriggering the timer. When the consumer
-            // catches up, the dispatcher will do the readMoreEntries() and
-            // get these messages
-            return;
-        }
-
-        currentTimeoutTarget = timestamp;
-        timeout = timer.newTimeout(this, delayMillis, TimeUnit.MILLISECONDS);
-    }
-
     @Override
-    public void run(Timeout timeout) throws Exception {
-        if (log.isDebugEnabled()) {
-            log.debug("[{}] Timer triggered", dispatcher.getName());
-        }
-        if (timeout.isCancelled()) {
-            return;
-        }
-
-        synchronized (dispatcher) {
-            currentTimeoutTarget = -1;
-            timeout = null;
-            dispatcher.readMoreEntries();
-        }
+    protected long nextDeliveryTime() {
+        return priorityQueue.isEmpty() ? -1 : priorityQueue.peekN1();
     }
 
     @Override
     public void close() {
+        super.close();
         priorityQueue.close();
-        if (timeout != null) {
-            timeout.cancel();
-        }
     }
 }
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel holding (deliverAt, ledgerId, entryId) tuples.
+ *
+ * <p>Level 0 has {@code wheelSize} slots of {@code tickMillis} each. Every upper level has the same number of slots,
+ * each one spanning the whole range of the level below. Upper levels are created on demand and, when the time of one
+ * of their slots is reached, the slot content is cascaded down to the lower levels. Messages are extracted a full
+ * level 0 slot at a time, so all the messages falling in the same tick are expired together.
+ *
+ * <p>This class is not thread safe.
+ */
+class TimingWheel {
+
+    interface EntryProcessor {
+        void process(long deliverAt, long ledgerId, long entryId);
+    }
+
+    private static final int ITEMS_COUNT = 3;
+    private static final int INITIAL_SLOT_CAPACITY = 4;
+
+    private static class Level {
+        final long tickMillis;
+        final long[][] slots;
+        final int[] slotSizes;
+        long count;
+
+        Level(long tickMillis, int wheelSize) {
+            this.tickMillis = tickMillis;
+            this.slots = new long[wheelSize][];
+            this.slotSizes = new int[wheelSize];
+        }
+    }
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final List<Level> levels = new ArrayList<>();
+
+    // Always a multiple of the tick time. Every message due before currentTime + tickMillis has been expired.
+    private long currentTime;
+
+    private long size;
+
+    TimingWheel(long tickMillis, int wheelSize, long startTime) {
+        checkArgument(tickMillis > 0, "tickMillis must be positive");
+        checkArgument(wheelSize > 1, "wheelSize must be greater than 1");
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentTime = startTime - startTime % tickMillis;
+        levels.add(new Level(tickMillis, wheelSize));
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Add a message to the wheel.
+     *
+     * @return false if the message is already due within the current tick and was not added
+     */
+    boolean add(long deliverAt, long ledgerId, long entryId) {
+        if (deliverAt < currentTime + tickMillis) {
+            return false;
+        }
+
+        int levelIdx = 0;
+        Level level = levels.get(0);
+        // A level whose range would overflow a long covers any delivery time
+        while (level.tickMillis <= Long.MAX_VALUE / wheelSize
+                && deliverAt - currentTime >= level.tickMillis * wheelSize) {
+            ++levelIdx;
+            if (levelIdx == levels.size()) {
+                levels.add(new Level(level.tickMillis * wheelSize, wheelSize));
+            }
+            level = levels.get(levelIdx);
+        }
+
+        int slotIdx = (int) ((deliverAt / level.tickMillis) % wheelSize);
+        long[] slot = level.slots[slotIdx];
+        int slotSize = level.slotSizes[slotIdx];
+        if (slot == null) {
+            slot = new long[INITIAL_SLOT_CAPACITY * ITEMS_COUNT];
+            level.slots[slotIdx] = slot;
+        } else if (slotSize * ITEMS_COUNT == slot.length) {
+            long[] newSlot = new long[slot.length * 2];
+            System.arraycopy(slot, 0, newSlot, 0, slot.length);
+            slot = newSlot;
+            level.slots[slotIdx] = slot;
+        }
+
+        int idx = slotSize * ITEMS_COUNT;
+        slot[idx] = deliverAt;
+        slot[idx + 1] = ledgerId;
+        slot[idx + 2] = entryId;
+        level.slotSizes[slotIdx] = slotSize + 1;
+        ++level.count;
+        ++size;
+        return true;
+    }
+
+    /**
+     * Move the wheel forward to the given time, passing to the processor every message that is due before the end
+     * of the tick containing {@code now}.
+     *
+     * @return the number of messages that were expired
+     */
+    long advance(long now, EntryProcessor expired) {
+        long target = now - now % tickMillis;
+        long sizeBefore = size;
+        while (size > 0) {
+            long next = nextExpirationTime();
+            if (next > target) {
+                break;
+            }
+
+            currentTime = next;
+
+            // Cascade the upper levels first, so that the messages landing in the current level 0 slot are expired
+            // in this same step
+            for (int i = levels.size() - 1; i > 0; i--) {
+                Level level = levels.get(i);
+                if (level.count > 0 && currentTime % level.tickMillis == 0) {
+                    flushSlot(level, slotIndex(level, currentTime), (deliverAt, ledgerId, entryId) -> {
+                        if (!add(deliverAt, ledgerId, entryId)) {
+                            expired.process(deliverAt, ledgerId, entryId);
+                        }
+                    });
+                }
+            }
+
+            Level level0 = levels.get(0);
+            flushSlot(level0, slotIndex(level0, currentTime), expired);
+        }
+
+        if (target > currentTime) {
+            currentTime = target;
+        }
+        // Messages cascaded to the lower levels are added back, so the difference is what was expired
+        return sizeBefore - size;
+    }
+
+    /**
+     * @return the time at which the next non-empty slot will be processed, or -1 if the wheel is empty
+     */
+    long nextExpirationTime() {
+        if (size == 0) {
+            return -1;
+        }
+
+        long next = Long.MAX_VALUE;
+        for (Level level : levels) {
+            if (level.count == 0) {
+                continue;
+            }
+
+            long base = currentTime / level.tickMillis;
+            for (int i = 1; i <= wheelSize && base + i <= Long.MAX_VALUE / level.tickMillis; i++) {
+                long slotTime = (base + i) * level.tickMillis;
+                if (slotTime >= next) {
+                    break;
+                }
+                if (level.slotSizes[(int) ((base + i) % wheelSize)] > 0) {
+                    next = slotTime;
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Remove all the messages from the wheel, passing them to the processor.
+     */
+    void drain(EntryProcessor processor) {
+        for (Level level : levels) {
+            for (int i = 0; i < wheelSize && level.count > 0; i++) {
+                flushSlot(level, i, processor);
+            }
+        }
+    }
+
+    private int slotIndex(Level level, long time) {
+        return (int) ((time / level.tickMillis) % wheelSize);
+    }
+
+    /**
+     * Empty a slot, passing its messages to the processor.
+     */
+    private void flushSlot(Level level, int slotIdx, EntryProcessor processor) {
+        int slotSize = level.slotSizes[slotIdx];
+        if (slotSize == 0) {
+            return;
+        }
+
+        long[] slot = level.slots[slotIdx];
+        level.slots[slotIdx] = null;
+        level.slotSizes[slotIdx] = 0;
+        level.count -= slotSize;
+        size -= slotSize;
+
+        for (int i = 0; i < slotSize; i++) {
+            int idx = i * ITEMS_COUNT;
+            processor.process(slot[idx], slot[idx + 1], slot[idx + 2]);
+        }
+    }
+}
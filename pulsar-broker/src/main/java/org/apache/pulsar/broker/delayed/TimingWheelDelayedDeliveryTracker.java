@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+
+import java.time.Clock;
+import java.util.Set;
+import java.util.TreeSet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.common.util.collections.TripleLongPriorityQueue;
+
+/**
+ * Delayed delivery tracker that keeps the messages in a hierarchical {@link TimingWheel}.
+ *
+ * <p>The timer only fires on the tick boundaries of non-empty slots and advances the wheel under the tracker lock.
+ * All the messages that expire in the same tick are moved to a ready queue and the dispatcher is woken up once for
+ * the whole batch, so that messages with close delivery times don't trigger one read per message. The dispatcher
+ * lock is not taken when a tick doesn't expire any message.
+ */
+@Slf4j
+public class TimingWheelDelayedDeliveryTracker extends AbstractDelayedDeliveryTracker {
+
+    private final int wheelSize;
+
+    private TimingWheel wheel;
+
+    // Messages that were expired from the wheel and are waiting to be read by the dispatcher
+    private final TripleLongPriorityQueue readyQueue = new TripleLongPriorityQueue();
+
+    TimingWheelDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer,
+                                      long tickTimeMillis, int wheelSize) {
+        this(dispatcher, timer, tickTimeMillis, wheelSize, Clock.systemUTC());
+    }
+
+    TimingWheelDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer,
+                                      long tickTimeMillis, int wheelSize, Clock clock) {
+        super(dispatcher, timer, tickTimeMillis, clock);
+        this.wheelSize = wheelSize;
+        this.wheel = new TimingWheel(tickTimeMillis, wheelSize, clock.millis());
+    }
+
+    @Override
+    public synchronized boolean addMessage(long ledgerId, long entryId, long deliveryAt) {
+        long now = clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Add message {}:{} -- Delivery in {} ms ", dispatcher.getName(), ledgerId, entryId,
+                    deliveryAt - now);
+        }
+        if (deliveryAt < (now + tickTimeMillis)) {
+            // It's already about time to deliver this message, see InMemoryDelayedDeliveryTracker
+            return false;
+        }
+
+        advance(now);
+        if (!wheel.add(deliveryAt, ledgerId, entryId)) {
+            readyQueue.add(deliveryAt, ledgerId, entryId);
+        }
+        updateTimer();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean hasMessageAvailable() {
+        advance(clock.millis());
+        return !readyQueue.isEmpty();
+    }
+
+    @Override
+    public synchronized Set<PositionImpl> getScheduledMessages(int maxMessages) {
+        advance(clock.millis());
+
+        int n = maxMessages;
+        Set<PositionImpl> positions = new TreeSet<>();
+        while (n > 0 && !readyQueue.isEmpty()) {
+            positions.add(new PositionImpl(readyQueue.peekN2(), readyQueue.peekN3()));
+            readyQueue.pop();
+            --n;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Get scheduled messages - found {}", dispatcher.getName(), positions.size());
+        }
+        updateTimer();
+        return positions;
+    }
+
+    @Override
+    public synchronized long getNumberOfDelayedMessages() {
+        return wheel.size() + readyQueue.size();
+    }
+
+    @Override
+    public synchronized void resetTickTime(long tickTime) {
+        super.resetTickTime(tickTime);
+        if (wheel.getTickMillis() == tickTimeMillis) {
+            return;
+        }
+
+        // The slots layout depends on the tick time, so the messages need to be placed in a new wheel
+        TimingWheel newWheel = new TimingWheel(tickTimeMillis, wheelSize, clock.millis());
+        wheel.drain((deliverAt, ledgerId, entryId) -> {
+            if (!newWheel.add(deliverAt, ledgerId, entryId)) {
+                readyQueue.add(deliverAt, ledgerId, entryId);
+            }
+        });
+        wheel = newWheel;
+        updateTimer();
+    }
+
+    @Override
+    protected long nextDeliveryTime() {
+        return wheel.nextExpirationTime();
+    }
+
+    private long advance(long now) {
+        return wheel.advance(now, readyQueue::add);
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Timer triggered", dispatcher.getName());
+        }
+        if (timeout.isCancelled()) {
+            return;
+        }
+
+        long expired;
+        synchronized (this) {
+            currentTimeoutTarget = -1;
+            this.timeout = null;
+            expired = advance(clock.millis());
+            updateTimer();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Expired {} messages in this tick", dispatcher.getName(), expired);
+        }
+        if (expired > 0) {
+            // Wake up the dispatcher once for the whole batch. This must not happen while holding the tracker
+            // lock, since the dispatcher calls into the tracker while holding its own lock.
+            synchronized (dispatcher) {
+                dispatcher.readMoreEntries();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+        readyQueue.close();
+    }
+}
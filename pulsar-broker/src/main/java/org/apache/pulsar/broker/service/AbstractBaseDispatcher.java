@@ -34,8 +34,10 @@ import org.apache.pulsar.broker.transaction.buffer.impl.TransactionEntryImpl;
 import org.apache.pulsar.common.api.proto.PulsarApi;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandAck.AckType;
 import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.api.proto.PulsarMarkers.MarkerType;
 import org.apache.pulsar.common.api.proto.PulsarMarkers.ReplicatedSubscriptionsSnapshot;
 import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.LightMessageMetadata;
 import org.apache.pulsar.common.protocol.Markers;
 
 
@@ -74,6 +76,7 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
         int totalMessages = 0;
         long totalBytes = 0;
         int totalChunkedMessages = 0;
+        LightMessageMetadata msgMetadata = new LightMessageMetadata();
 
         for (int i = 0, entriesSize = entries.size(); i < entriesSize; i++) {
             Entry entry = entries.get(i);
@@ -83,54 +86,51 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
 
             ByteBuf metadataAndPayload = entry.getDataBuffer();
 
-            MessageMetadata msgMetadata = Commands.peekMessageMetadata(metadataAndPayload, subscription.toString(), -1);
-
-            try {
-                if (Markers.isTxnCommitMarker(msgMetadata)) {
-                    entries.set(i, null);
-                    transactionReader.addPendingTxn(msgMetadata.getTxnidMostBits(), msgMetadata.getTxnidLeastBits());
-                    continue;
-                } else if (msgMetadata == null || Markers.isServerOnlyMarker(msgMetadata)) {
-                    PositionImpl pos = (PositionImpl) entry.getPosition();
-                    // Message metadata was corrupted or the messages was a server-only marker
-
-                    if (Markers.isReplicatedSubscriptionSnapshotMarker(msgMetadata)) {
-                        processReplicatedSubscriptionSnapshot(pos, metadataAndPayload);
-                    }
-
-                    entries.set(i, null);
-                    entry.release();
-                    subscription.acknowledgeMessage(Collections.singletonList(pos), AckType.Individual,
-                            Collections.emptyMap());
-                    continue;
-                } else if (msgMetadata.hasDeliverAtTime()
-                        && trackDelayedDelivery(entry.getLedgerId(), entry.getEntryId(), msgMetadata)) {
-                    // The message is marked for delayed delivery. Ignore for now.
-                    entries.set(i, null);
-                    entry.release();
-                    continue;
-                }
+            boolean validMetadata = peekMessageMetadata(metadataAndPayload, msgMetadata);
+
+            if (validMetadata && msgMetadata.hasMarkerType()
+                    && msgMetadata.getMarkerType() == MarkerType.TXN_COMMIT_VALUE) {
+                entries.set(i, null);
+                transactionReader.addPendingTxn(msgMetadata.getTxnidMostBits(), msgMetadata.getTxnidLeastBits());
+                continue;
+            } else if (!validMetadata || msgMetadata.hasMarkerType()) {
+                PositionImpl pos = (PositionImpl) entry.getPosition();
+                // Message metadata was corrupted or the messages was a server-only marker
 
-                if (entry instanceof TransactionEntryImpl) {
-                    ((TransactionEntryImpl) entry).setStartBatchIndex(
-                            transactionReader.calculateStartBatchIndex(msgMetadata.getNumMessagesInBatch()));
+                if (validMetadata
+                        && msgMetadata.getMarkerType() == MarkerType.REPLICATED_SUBSCRIPTION_SNAPSHOT_VALUE) {
+                    processReplicatedSubscriptionSnapshot(pos, metadataAndPayload);
                 }
 
-                int batchSize = msgMetadata.getNumMessagesInBatch();
-                totalMessages += batchSize;
-                totalBytes += metadataAndPayload.readableBytes();
-                totalChunkedMessages += msgMetadata.hasChunkId() ? 1: 0;
-                batchSizes.setBatchSize(i, batchSize);
-                if (indexesAcks != null && cursor != null) {
-                    long[] ackSet = cursor.getDeletedBatchIndexesAsLongArray(PositionImpl.get(entry.getLedgerId(), entry.getEntryId()));
-                    if (ackSet != null) {
-                        indexesAcks.setIndexesAcks(i, Pair.of(batchSize, ackSet));
-                    } else {
-                        indexesAcks.setIndexesAcks(i,null);
-                    }
+                entries.set(i, null);
+                entry.release();
+                subscription.acknowledgeMessage(Collections.singletonList(pos), AckType.Individual,
+                        Collections.emptyMap());
+                continue;
+            } else if (msgMetadata.hasDeliverAtTime() && trackDelayedDelivery(entry, metadataAndPayload)) {
+                // The message is marked for delayed delivery. Ignore for now.
+                entries.set(i, null);
+                entry.release();
+                continue;
+            }
+
+            if (entry instanceof TransactionEntryImpl) {
+                ((TransactionEntryImpl) entry).setStartBatchIndex(
+                        transactionReader.calculateStartBatchIndex(msgMetadata.getNumMessagesInBatch()));
+            }
+
+            int batchSize = msgMetadata.getNumMessagesInBatch();
+            totalMessages += batchSize;
+            totalBytes += metadataAndPayload.readableBytes();
+            totalChunkedMessages += msgMetadata.hasChunkId() ? 1: 0;
+            batchSizes.setBatchSize(i, batchSize);
+            if (indexesAcks != null && cursor != null) {
+                long[] ackSet = cursor.getDeletedBatchIndexesAsLongArray(PositionImpl.get(entry.getLedgerId(), entry.getEntryId()));
+                if (ackSet != null) {
+                    indexesAcks.setIndexesAcks(i, Pair.of(batchSize, ackSet));
+                } else {
+                    indexesAcks.setIndexesAcks(i,null);
                 }
-            } finally {
-                msgMetadata.recycle();
             }
         }
 
@@ -139,6 +139,29 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
         sendMessageInfo.setTotalChunkedMessages(totalChunkedMessages);
     }
 
+    private boolean peekMessageMetadata(ByteBuf metadataAndPayload, LightMessageMetadata msgMetadata) {
+        try {
+            msgMetadata.parseFrom(metadataAndPayload);
+            return true;
+        } catch (Throwable t) {
+            log.error("[{}] Failed to parse message metadata", subscription, t);
+            return false;
+        }
+    }
+
+    private boolean trackDelayedDelivery(Entry entry, ByteBuf metadataAndPayload) {
+        // Only delayed messages need the whole metadata
+        MessageMetadata msgMetadata = Commands.peekMessageMetadata(metadataAndPayload, subscription.toString(), -1);
+        if (msgMetadata == null) {
+            return false;
+        }
+        try {
+            return trackDelayedDelivery(entry.getLedgerId(), entry.getEntryId(), msgMetadata);
+        } finally {
+            msgMetadata.recycle();
+        }
+    }
+
     private void processReplicatedSubscriptionSnapshot(PositionImpl pos, ByteBuf headersAndPayload) {
         // Remove the protobuf headers
         Commands.skipMessageMetadata(headersAndPayload);
@@ -519,7 +519,7 @@ public abstract class AbstractTopic implements Topic {
                 // create new rateLimiter if rate-limiter is disabled
                 if (preciseTopicPublishRateLimitingEnable) {
                     this.topicPublishRateLimiter = new PrecisPublishLimiter(policies, clusterName,
-                            () -> AbstractTopic.this.enableCnxAutoRead());
+                            () -> AbstractTopic.this.enableCnxAutoRead(), brokerService.pulsar().getExecutor());
                 } else {
                     this.topicPublishRateLimiter = new PublishRateLimiterImpl(policies, clusterName);
                 }
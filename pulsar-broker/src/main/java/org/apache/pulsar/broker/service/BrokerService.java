@@ -153,6 +153,7 @@ import org.apache.pulsar.common.util.ObjectMapperFactory;
 import org.apache.pulsar.common.util.RestException;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenHashSet;
+import org.apache.pulsar.common.util.netty.EventLoopLatencyProbe;
 import org.apache.pulsar.common.util.netty.EventLoopUtil;
 import org.apache.pulsar.policies.data.loadbalancer.NamespaceBundleStats;
 import org.apache.pulsar.zookeeper.ZkIsolatedBookieEnsemblePlacementPolicy;
@@ -171,6 +172,15 @@ import org.slf4j.LoggerFactory;
 public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies> {
     private static final Logger log = LoggerFactory.getLogger(BrokerService.class);
 
+    private static final Summary EVENT_LOOP_LATENCY = Summary
+            .build("pulsar_broker_event_loop_latency_ms", "Delay of the tasks run by the broker service IO threads")
+            .quantile(0.50)
+            .quantile(0.95)
+            .quantile(0.99)
+            .quantile(0.999)
+            .quantile(1.0)
+            .register();
+
     private final PulsarService pulsar;
     private final ManagedLedgerFactory managedLedgerFactory;
 
@@ -186,6 +196,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
 
     private final EventLoopGroup acceptorGroup;
     private final EventLoopGroup workerGroup;
+    private final EventLoopLatencyProbe eventLoopLatencyProbe;
     private final OrderedExecutor topicOrderedExecutor;
     // offline topic backlog cache
     private final ConcurrentOpenHashMap<TopicName, PersistentOfflineTopicStats> offlineTopicStatCache;
@@ -242,6 +253,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
     private final long maxMessagePublishBufferBytes;
     private final long resumeProducerReadMessagePublishBufferBytes;
     private volatile boolean reachMessagePublishBufferThreshold;
+    private final DispatchMemoryLimiter dispatchMemoryLimiter;
     private BrokerInterceptor interceptor;
 
     public BrokerService(PulsarService pulsar) throws Exception {
@@ -249,6 +261,10 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         this.maxMessagePublishBufferBytes = pulsar.getConfiguration().getMaxMessagePublishBufferSizeInMB() > 0 ?
             pulsar.getConfiguration().getMaxMessagePublishBufferSizeInMB() * 1024L * 1024L : -1;
         this.resumeProducerReadMessagePublishBufferBytes = this.maxMessagePublishBufferBytes / 2;
+        int dispatcherMaxInFlightReadSizeInMB = pulsar.getConfiguration().getDispatcherMaxInFlightReadSizeInMB();
+        this.dispatchMemoryLimiter = dispatcherMaxInFlightReadSizeInMB > 0
+                ? new DispatchMemoryLimiter(dispatcherMaxInFlightReadSizeInMB * 1024L * 1024L)
+                : DispatchMemoryLimiter.DISABLED;
         this.preciseTopicPublishRateLimitingEnable = pulsar.getConfiguration().isPreciseTopicPublishRateLimiterEnable();
         this.managedLedgerFactory = pulsar.getManagedLedgerFactory();
         this.topics = new ConcurrentOpenHashMap<>();
@@ -270,8 +286,14 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         final int numThreads = pulsar.getConfiguration().getNumIOThreads();
         log.info("Using {} threads for broker service IO", numThreads);
 
-        this.acceptorGroup = EventLoopUtil.newEventLoopGroup(1, acceptorThreadFactory);
-        this.workerGroup = EventLoopUtil.newEventLoopGroup(numThreads, workersThreadFactory);
+        final boolean ioUringEnabled = pulsar.getConfiguration().isNettyIoUringEnabled();
+        this.acceptorGroup = EventLoopUtil.newEventLoopGroup(1, ioUringEnabled, acceptorThreadFactory);
+        this.workerGroup = EventLoopUtil.newEventLoopGroup(numThreads, ioUringEnabled, workersThreadFactory);
+        final long eventLoopLatencyProbeIntervalMs = pulsar.getConfiguration().getEventLoopLatencyProbeIntervalMs();
+        this.eventLoopLatencyProbe = eventLoopLatencyProbeIntervalMs > 0
+                ? new EventLoopLatencyProbe(workerGroup, eventLoopLatencyProbeIntervalMs,
+                        latency -> EVENT_LOOP_LATENCY.observe(latency, TimeUnit.NANOSECONDS))
+                : null;
         this.statsUpdater = Executors
                 .newSingleThreadScheduledExecutor(new DefaultThreadFactory("pulsar-stats-updater"));
         this.authorizationService = new AuthorizationService(pulsar.getConfiguration(), pulsar.getConfigurationCache());
@@ -637,6 +659,9 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             interceptor = null;
         }
 
+        if (eventLoopLatencyProbe != null) {
+            eventLoopLatencyProbe.close();
+        }
         acceptorGroup.shutdownGracefully();
         workerGroup.shutdownGracefully();
         statsUpdater.shutdown();
@@ -1162,6 +1187,9 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             managedLedgerConfig.setMetadataEnsembleSize(serviceConfig.getManagedLedgerDefaultEnsembleSize());
             managedLedgerConfig.setUnackedRangesOpenCacheSetEnabled(
                     serviceConfig.isManagedLedgerUnackedRangesOpenCacheSetEnabled());
+            managedLedgerConfig.setPersistIndividualAckAsBitmap(
+                    serviceConfig.isManagedLedgerPersistIndividualAckAsBitmap());
+            managedLedgerConfig.setMaxCursorDeltasPerSnapshot(serviceConfig.getManagedLedgerMaxCursorDeltasPerSnapshot());
             managedLedgerConfig.setMetadataWriteQuorumSize(serviceConfig.getManagedLedgerDefaultWriteQuorum());
             managedLedgerConfig.setMetadataAckQuorumSize(serviceConfig.getManagedLedgerDefaultAckQuorum());
             managedLedgerConfig
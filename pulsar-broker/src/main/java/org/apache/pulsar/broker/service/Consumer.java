@@ -283,15 +283,10 @@ public class Consumer {
                     continue;
                 }
 
-                MessageIdData.Builder messageIdBuilder = MessageIdData.newBuilder();
+                int batchIndex = -1;
                 if (entry instanceof TransactionEntryImpl) {
-                    messageIdBuilder.setBatchIndex(((TransactionEntryImpl) entry).getStartBatchIndex());
+                    batchIndex = ((TransactionEntryImpl) entry).getStartBatchIndex();
                 }
-                MessageIdData messageId = messageIdBuilder
-                    .setLedgerId(entry.getLedgerId())
-                    .setEntryId(entry.getEntryId())
-                    .setPartition(partitionIdx)
-                    .build();
 
                 ByteBuf metadataAndPayload = entry.getDataBuffer();
                 // increment ref-count of data and release at the end of process: so, we can get chance to call entry.release
@@ -307,14 +302,13 @@ public class Consumer {
                 }
 
                 int redeliveryCount = 0;
-                PositionImpl position = PositionImpl.get(messageId.getLedgerId(), messageId.getEntryId());
+                PositionImpl position = PositionImpl.get(entry.getLedgerId(), entry.getEntryId());
                 if (redeliveryTracker.contains(position)) {
                     redeliveryCount = redeliveryTracker.incrementAndGetRedeliveryCount(position);
                 }
-                ctx.write(Commands.newMessage(consumerId, messageId, redeliveryCount, metadataAndPayload,
+                ctx.write(Commands.newMessage(consumerId, entry.getLedgerId(), entry.getEntryId(), partitionIdx,
+                    batchIndex, redeliveryCount, metadataAndPayload,
                     batchIndexesAcks == null ? null : batchIndexesAcks.getAckSet(i)), ctx.voidPromise());
-                messageId.recycle();
-                messageIdBuilder.recycle();
                 entry.release();
             }
 
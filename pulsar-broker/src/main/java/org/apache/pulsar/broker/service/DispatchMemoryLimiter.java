@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import io.netty.channel.ChannelPromise;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.bookkeeper.mledger.Entry;
+
+/**
+ * Bounds the bytes which the dispatchers of the broker have read from the managed ledgers and not yet written to the
+ * consumer connections.
+ *
+ * <p>Each dispatcher gets a {@link Handle}. Before a read, the dispatcher reserves the expected size of the read,
+ * which is replaced by the actual size of the entries once the read completes, and released once the entries have
+ * been written to the consumers. When the budget is exhausted, the dispatcher is paused and it is resumed, in the
+ * order in which dispatchers were paused, as soon as memory is released.
+ *
+ * <p>While dispatchers are paused, the ones which hold more than an equal share of the budget are paused as well, so
+ * that a few catch-up readers cannot starve the other subscriptions.
+ */
+public class DispatchMemoryLimiter {
+
+    public static final DispatchMemoryLimiter DISABLED = new DispatchMemoryLimiter(0);
+
+    private static final double AVG_ENTRY_SIZE_ALPHA = 0.2;
+
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    // handles which hold memory
+    private final AtomicInteger activeHandles = new AtomicInteger();
+    private final Queue<Handle> pausedHandles = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pausedHandlesCount = new AtomicInteger();
+    private final LongAdder pausedReads = new LongAdder();
+
+    public DispatchMemoryLimiter(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Registers a dispatcher.
+     *
+     * @param resumeRead
+     *            triggers a new read on the dispatcher once it has been paused and memory has been released. It is
+     *            called on the thread releasing memory, so it should hand the read over to the dispatcher executor.
+     */
+    public Handle newHandle(Runnable resumeRead) {
+        return new Handle(resumeRead);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int getPausedDispatchers() {
+        return pausedHandlesCount.get();
+    }
+
+    public long getPausedReads() {
+        return pausedReads.sum();
+    }
+
+    private long fairShare() {
+        return maxBytes / Math.max(1, activeHandles.get() + pausedHandlesCount.get());
+    }
+
+    private void resumePaused() {
+        Handle handle;
+        while (usedBytes.get() < maxBytes && (handle = pausedHandles.poll()) != null) {
+            if (handle.paused.compareAndSet(true, false)) {
+                pausedHandlesCount.decrementAndGet();
+                handle.resumeRead.run();
+            }
+        }
+    }
+
+    /**
+     * Memory accounting of a single dispatcher.
+     */
+    public class Handle {
+        private final Runnable resumeRead;
+        private final AtomicLong handleUsedBytes = new AtomicLong();
+        private final AtomicBoolean paused = new AtomicBoolean(false);
+        // used to estimate the size of the next reads
+        private volatile double avgEntrySize;
+
+        private Handle(Runnable resumeRead) {
+            this.resumeRead = resumeRead;
+        }
+
+        /**
+         * Reserves the expected size of a read. If the budget is exhausted, the dispatcher is paused until memory gets
+         * released.
+         *
+         * @param entries
+         *            the number of entries to read
+         * @param maxReadSizeBytes
+         *            the max size of the read
+         * @return the reserved bytes, to be handed to {@link #readComplete(long, List)} or {@link #releaseRead(long)},
+         *         or -1 if the dispatcher has been paused and must not read
+         */
+        public long tryReserveRead(int entries, long maxReadSizeBytes) {
+            if (!isEnabled()) {
+                return 0;
+            }
+            long estimate = Math.min((long) (entries * avgEntrySize), maxReadSizeBytes);
+            if (pausedHandlesCount.get() > 0 && handleUsedBytes.get() + estimate > fairShare()) {
+                // let the dispatchers waiting for memory go first
+                pause();
+                return -1;
+            }
+            while (true) {
+                long used = usedBytes.get();
+                // a read is always allowed when nothing is in flight, to make progress with entries larger than the
+                // budget
+                if (used > 0 && used + estimate > maxBytes) {
+                    pause();
+                    return -1;
+                }
+                if (usedBytes.compareAndSet(used, used + estimate)) {
+                    addHandleUsedBytes(estimate);
+                    return estimate;
+                }
+            }
+        }
+
+        /**
+         * Replaces the reservation of a read with the actual size of the entries read.
+         *
+         * @return the memory held by the entries, to be released once they have been written to the consumers
+         */
+        public Reservation readComplete(long reservedBytes, List<Entry> entries) {
+            if (!isEnabled()) {
+                return Reservation.NONE;
+            }
+            long size = 0;
+            for (int i = 0, n = entries.size(); i < n; i++) {
+                size += entries.get(i).getLength();
+            }
+            if (!entries.isEmpty()) {
+                double entrySize = (double) size / entries.size();
+                avgEntrySize = avgEntrySize == 0 ? entrySize
+                        : AVG_ENTRY_SIZE_ALPHA * entrySize + (1 - AVG_ENTRY_SIZE_ALPHA) * avgEntrySize;
+            }
+            update(size - reservedBytes);
+            return new Reservation(this, size);
+        }
+
+        /**
+         * Releases the reservation of a read which failed or was cancelled.
+         */
+        public void releaseRead(long reservedBytes) {
+            if (reservedBytes > 0) {
+                update(-reservedBytes);
+            }
+        }
+
+        /**
+         * Stops waiting for memory, the reservations which are still held are released as they complete.
+         */
+        public void close() {
+            if (paused.compareAndSet(true, false)) {
+                pausedHandlesCount.decrementAndGet();
+                pausedHandles.remove(this);
+            }
+        }
+
+        public long getUsedBytes() {
+            return handleUsedBytes.get();
+        }
+
+        public boolean isPaused() {
+            return paused.get();
+        }
+
+        private void pause() {
+            pausedReads.increment();
+            if (paused.compareAndSet(false, true)) {
+                pausedHandlesCount.incrementAndGet();
+                pausedHandles.add(this);
+            }
+            // memory may have been released before this handle was queued, and nothing in flight would resume it
+            if (usedBytes.get() == 0) {
+                resumePaused();
+            }
+        }
+
+        private void update(long delta) {
+            if (delta == 0) {
+                return;
+            }
+            usedBytes.addAndGet(delta);
+            addHandleUsedBytes(delta);
+            if (delta < 0) {
+                resumePaused();
+            }
+        }
+
+        private void addHandleUsedBytes(long delta) {
+            long used = handleUsedBytes.addAndGet(delta);
+            long previous = used - delta;
+            if (previous <= 0 && used > 0) {
+                activeHandles.incrementAndGet();
+            } else if (previous > 0 && used <= 0) {
+                activeHandles.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Memory held by the entries of a read, released once all the writes it has been attached to have completed.
+     */
+    public static final class Reservation {
+        static final Reservation NONE = new Reservation(null, 0);
+
+        private final Handle handle;
+        private final long bytes;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private Reservation(Handle handle, long bytes) {
+            this.handle = handle;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Holds the memory until the given write completes.
+         */
+        public ChannelPromise releaseOnWrite(ChannelPromise writePromise) {
+            if (handle != null && writePromise != null) {
+                refCount.incrementAndGet();
+                writePromise.addListener(future -> release());
+            }
+            return writePromise;
+        }
+
+        /**
+         * Releases the memory once the writes it has been attached to have completed.
+         */
+        public void release() {
+            if (handle != null && refCount.decrementAndGet() == 0) {
+                handle.update(-bytes);
+            }
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
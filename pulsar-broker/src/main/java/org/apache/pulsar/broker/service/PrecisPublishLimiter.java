@@ -18,29 +18,40 @@
  */
 package org.apache.pulsar.broker.service;
 
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.PublishRate;
 import org.apache.pulsar.common.util.RateLimitFunction;
-import org.apache.pulsar.common.util.RateLimiter;
-
-import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.util.TokenBucket;
 
 public class PrecisPublishLimiter implements PublishRateLimiter {
     protected volatile int publishMaxMessageRate = 0;
     protected volatile long publishMaxByteRate = 0;
     protected volatile boolean publishThrottlingEnabled = false;
     // precise mode for publish rate limiter
-    private RateLimiter topicPublishRateLimiterOnMessage;
-    private RateLimiter topicPublishRateLimiterOnByte;
+    private volatile TokenBucket topicPublishRateLimiterOnMessage;
+    private volatile TokenBucket topicPublishRateLimiterOnByte;
     private final RateLimitFunction rateLimitFunction;
+    private final ScheduledExecutorService executor;
+    // makes sure a single task to resume the throttled producers is pending at any time
+    private final AtomicBoolean resumeScheduled = new AtomicBoolean(false);
 
-    public PrecisPublishLimiter(Policies policies, String clusterName, RateLimitFunction rateLimitFunction) {
+    public PrecisPublishLimiter(Policies policies, String clusterName, RateLimitFunction rateLimitFunction,
+                                ScheduledExecutorService executor) {
         this.rateLimitFunction = rateLimitFunction;
+        this.executor = executor;
         update(policies, clusterName);
     }
 
-    public PrecisPublishLimiter(PublishRate publishRate, RateLimitFunction rateLimitFunction) {
+    public PrecisPublishLimiter(PublishRate publishRate, RateLimitFunction rateLimitFunction,
+                                ScheduledExecutorService executor) {
         this.rateLimitFunction = rateLimitFunction;
+        this.executor = executor;
         update(publishRate);
     }
 
@@ -78,12 +89,12 @@ public class PrecisPublishLimiter implements PublishRateLimiter {
             this.publishThrottlingEnabled = true;
             this.publishMaxMessageRate = Math.max(maxPublishRate.publishThrottlingRateInMsg, 0);
             this.publishMaxByteRate = Math.max(maxPublishRate.publishThrottlingRateInByte, 0);
-            if (this.publishMaxMessageRate > 0) {
-                topicPublishRateLimiterOnMessage = new RateLimiter(publishMaxMessageRate, 1, TimeUnit.SECONDS, rateLimitFunction);
-            }
-            if (this.publishMaxByteRate > 0) {
-                topicPublishRateLimiterOnByte = new RateLimiter(publishMaxByteRate, 1, TimeUnit.SECONDS);
-            }
+            topicPublishRateLimiterOnMessage = publishMaxMessageRate > 0
+                    ? new TokenBucket(publishMaxMessageRate, 1, TimeUnit.SECONDS)
+                    : null;
+            topicPublishRateLimiterOnByte = publishMaxByteRate > 0
+                    ? new TokenBucket(publishMaxByteRate, 1, TimeUnit.SECONDS)
+                    : null;
         } else {
             this.publishMaxMessageRate = 0;
             this.publishMaxByteRate = 0;
@@ -95,7 +106,40 @@ public class PrecisPublishLimiter implements PublishRateLimiter {
 
     @Override
     public boolean tryAcquire(int numbers, long bytes) {
-        return (topicPublishRateLimiterOnMessage == null || topicPublishRateLimiterOnMessage.tryAcquire(numbers)) &&
-                (topicPublishRateLimiterOnByte == null || topicPublishRateLimiterOnByte.tryAcquire(bytes));
+        TokenBucket onMessage = topicPublishRateLimiterOnMessage;
+        TokenBucket onByte = topicPublishRateLimiterOnByte;
+        if ((onMessage == null || onMessage.tryAcquire(numbers)) && (onByte == null || onByte.tryAcquire(bytes))) {
+            return true;
+        }
+        scheduleResume(onMessage, onByte);
+        return false;
     }
+
+    /**
+     * The caller stops reading from the producers once they are throttled, so resume them as soon as both buckets
+     * have permits again instead of waiting for the next rate-period.
+     */
+    private void scheduleResume(TokenBucket onMessage, TokenBucket onByte) {
+        if (rateLimitFunction == null || !resumeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delayNanos = Math.max(onMessage != null ? onMessage.getNanosUntilAvailable(1) : 0,
+                onByte != null ? onByte.getNanosUntilAvailable(1) : 0);
+        // leave some room for the caller to disable the reads before they get resumed
+        delayNanos = Math.max(delayNanos, MIN_RESUME_DELAY_NANOS);
+        executor.schedule(safeRun(() -> {
+            resumeScheduled.set(false);
+            rateLimitFunction.apply();
+        }), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getThrottledTimeNanos() {
+        TokenBucket onMessage = topicPublishRateLimiterOnMessage;
+        TokenBucket onByte = topicPublishRateLimiterOnByte;
+        return Math.max(onMessage != null ? onMessage.getThrottledTimeNanos() : 0,
+                onByte != null ? onByte.getThrottledTimeNanos() : 0);
+    }
+
+    private static final long MIN_RESUME_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 }
@@ -26,6 +26,7 @@ import static org.apache.pulsar.common.protocol.Commands.readChecksum;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import java.util.Collections;
@@ -348,7 +349,8 @@ public class Producer {
         }
 
         /**
-         * Executed from managed ledger thread when the message is persisted
+         * Executed from managed ledger thread, or from the connection IO thread when the topic is assigned to it,
+         * when the message is persisted
          */
         @Override
         public void completed(Exception exception, long ledgerId, long entryId) {
@@ -376,7 +378,13 @@ public class Producer {
 
                 this.ledgerId = ledgerId;
                 this.entryId = entryId;
-                producer.cnx.ctx().channel().eventLoop().execute(this);
+                EventLoop eventLoop = producer.cnx.ctx().channel().eventLoop();
+                if (eventLoop.inEventLoop()) {
+                    // The topic add path is assigned to the IO thread of this connection, send the receipt right away
+                    run();
+                } else {
+                    eventLoop.execute(this);
+                }
             }
         }
 
@@ -70,4 +70,13 @@ public interface PublishRateLimiter {
      * @param bytes
      * */
     boolean tryAcquire(int numbers, long bytes);
+
+    /**
+     * returns the total time during which publishing has been throttled, in nanoseconds.
+     *
+     * @return
+     */
+    default long getThrottledTimeNanos() {
+        return 0;
+    }
 }
@@ -18,18 +18,20 @@
  */
 package org.apache.pulsar.broker.service;
 
+import java.util.concurrent.TimeUnit;
+
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.PublishRate;
-
-import java.util.concurrent.atomic.LongAdder;
+import org.apache.pulsar.common.util.TokenBucket;
 
 public class PublishRateLimiterImpl implements PublishRateLimiter {
     protected volatile int publishMaxMessageRate = 0;
     protected volatile long publishMaxByteRate = 0;
     protected volatile boolean publishThrottlingEnabled = false;
     protected volatile boolean publishRateExceeded = false;
-    protected volatile LongAdder currentPublishMsgCount = new LongAdder();
-    protected volatile LongAdder currentPublishByteCount = new LongAdder();
+    // published messages and bytes are taken from the buckets, which go into debt once the rate is exceeded
+    protected volatile TokenBucket publishRateOnMessage;
+    protected volatile TokenBucket publishRateOnByte;
 
     public PublishRateLimiterImpl(Policies policies, String clusterName) {
         update(policies, clusterName);
@@ -41,29 +43,32 @@ public class PublishRateLimiterImpl implements PublishRateLimiter {
 
     @Override
     public void checkPublishRate() {
-        if (this.publishThrottlingEnabled && !publishRateExceeded) {
-            long currentPublishMsgRate = this.currentPublishMsgCount.sum();
-            long currentPublishByteRate = this.currentPublishByteCount.sum();
-            if ((this.publishMaxMessageRate > 0 && currentPublishMsgRate > this.publishMaxMessageRate)
-                    || (this.publishMaxByteRate > 0 && currentPublishByteRate > this.publishMaxByteRate)) {
-                publishRateExceeded = true;
-            }
+        if (this.publishThrottlingEnabled && !publishRateExceeded && isInDebt()) {
+            publishRateExceeded = true;
         }
     }
 
     @Override
     public void incrementPublishCount(int numOfMessages, long msgSizeInBytes) {
         if (this.publishThrottlingEnabled) {
-            this.currentPublishMsgCount.add(numOfMessages);
-            this.currentPublishByteCount.add(msgSizeInBytes);
+            TokenBucket onMessage = this.publishRateOnMessage;
+            TokenBucket onByte = this.publishRateOnByte;
+            if (onMessage != null) {
+                onMessage.consume(numOfMessages);
+            }
+            if (onByte != null) {
+                onByte.consume(msgSizeInBytes);
+            }
         }
     }
 
     @Override
     public boolean resetPublishCount() {
         if (this.publishThrottlingEnabled) {
-            this.currentPublishMsgCount.reset();
-            this.currentPublishByteCount.reset();
+            // the buckets refill by themselves, only stop throttling once the overshoot has been paid back
+            if (this.publishRateExceeded && isInDebt()) {
+                return false;
+            }
             this.publishRateExceeded = false;
             return true;
         }
@@ -86,19 +91,41 @@ public class PublishRateLimiterImpl implements PublishRateLimiter {
     public void update(PublishRate maxPublishRate) {
         if (maxPublishRate != null
             && (maxPublishRate.publishThrottlingRateInMsg > 0 || maxPublishRate.publishThrottlingRateInByte > 0)) {
-            this.publishThrottlingEnabled = true;
             this.publishMaxMessageRate = Math.max(maxPublishRate.publishThrottlingRateInMsg, 0);
             this.publishMaxByteRate = Math.max(maxPublishRate.publishThrottlingRateInByte, 0);
+            this.publishRateOnMessage = publishMaxMessageRate > 0
+                    ? new TokenBucket(publishMaxMessageRate, 1, TimeUnit.SECONDS)
+                    : null;
+            this.publishRateOnByte = publishMaxByteRate > 0
+                    ? new TokenBucket(publishMaxByteRate, 1, TimeUnit.SECONDS)
+                    : null;
+            this.publishThrottlingEnabled = true;
         } else {
             this.publishMaxMessageRate = 0;
             this.publishMaxByteRate = 0;
             this.publishThrottlingEnabled = false;
+            this.publishRateOnMessage = null;
+            this.publishRateOnByte = null;
         }
-        resetPublishCount();
+        this.publishRateExceeded = false;
     }
 
     @Override
     public boolean tryAcquire(int numbers, long bytes) {
         return false;
     }
+
+    @Override
+    public long getThrottledTimeNanos() {
+        TokenBucket onMessage = this.publishRateOnMessage;
+        TokenBucket onByte = this.publishRateOnByte;
+        return Math.max(onMessage != null ? onMessage.getThrottledTimeNanos() : 0,
+                onByte != null ? onByte.getThrottledTimeNanos() : 0);
+    }
+
+    private boolean isInDebt() {
+        TokenBucket onMessage = this.publishRateOnMessage;
+        TokenBucket onByte = this.publishRateOnByte;
+        return (onMessage != null && onMessage.getBalance() < 0) || (onByte != null && onByte.getBalance() < 0);
+    }
 }
@@ -115,9 +115,11 @@ import org.apache.pulsar.common.naming.NamespaceName;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.BacklogQuota;
 import org.apache.pulsar.common.policies.data.ConsumerStats;
+import org.apache.pulsar.common.policies.data.SchemaCompatibilityStrategy;
 import org.apache.pulsar.common.policies.data.TopicOperation;
 import org.apache.pulsar.common.protocol.CommandUtils;
 import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.LightCommandSend;
 import org.apache.pulsar.common.protocol.PulsarHandler;
 import org.apache.pulsar.common.protocol.schema.SchemaData;
 import org.apache.pulsar.common.protocol.schema.SchemaInfoUtil;
@@ -167,11 +169,15 @@ public class ServerCnx extends PulsarHandler {
 
     private boolean preciseTopicPublishRateLimitingEnable;
 
+    // Used to handle the SEND commands decoded with the generated classes
+    private final LightCommandSend commandSend = new LightCommandSend();
+
     // Flag to manage throttling-rate by atomically enable/disable read-channel.
     private volatile boolean autoReadDisabledRateLimiting = false;
     private FeatureFlags features;
     // Flag to manage throttling-publish-buffer by atomically enable/disable read-channel.
     private volatile boolean autoReadDisabledPublishBufferLimiting = false;
+    private static final String COMPRESSION_DICTIONARIES = "__compression_dictionaries";
     private static final AtomicLongFieldUpdater<ServerCnx> MSG_PUBLISH_BUFFER_SIZE_UPDATER =
             AtomicLongFieldUpdater.newUpdater(ServerCnx.class, "messagePublishBufferSize");
     private volatile long messagePublishBufferSize = 0;
@@ -1195,8 +1201,19 @@ public class ServerCnx extends PulsarHandler {
         });
     }
 
+    @Override
+    protected boolean isLightCommandSendSupported() {
+        // The interceptor needs the whole decoded command
+        return getBrokerService().getInterceptor() == null;
+    }
+
     @Override
     protected void handleSend(CommandSend send, ByteBuf headersAndPayload) {
+        handleSend(commandSend.copyFrom(send), headersAndPayload);
+    }
+
+    @Override
+    protected void handleSend(LightCommandSend send, ByteBuf headersAndPayload) {
         checkArgument(state == State.Connected);
 
         CompletableFuture<Producer> producerFuture = producers.get(send.getProducerId());
@@ -1246,7 +1263,7 @@ public class ServerCnx extends PulsarHandler {
         }
     }
 
-    private void printSendCommandDebug(CommandSend send, ByteBuf headersAndPayload) {
+    private void printSendCommandDebug(LightCommandSend send, ByteBuf headersAndPayload) {
         headersAndPayload.markReaderIndex();
         MessageMetadata msgMetadata = Commands.parseMessageMetadata(headersAndPayload);
         headersAndPayload.resetReaderIndex();
@@ -1594,7 +1611,9 @@ public class ServerCnx extends PulsarHandler {
 
         String schemaName;
         try {
-            schemaName = TopicName.get(commandGetSchema.getTopic()).getSchemaName();
+            TopicName topicName = TopicName.get(commandGetSchema.getTopic());
+            schemaName = commandGetSchema.getCompressionDictionary()
+                    ? getCompressionDictionaryName(topicName) : topicName.getSchemaName();
         } catch (Throwable t) {
             ctx.writeAndFlush(
                     Commands.newGetSchemaResponseError(requestId, ServerError.InvalidTopicName, t.getMessage()));
@@ -1621,6 +1640,10 @@ public class ServerCnx extends PulsarHandler {
         if (log.isDebugEnabled()) {
             log.debug("Received CommandGetOrCreateSchema call from {}", remoteAddress);
         }
+        if (commandGetOrCreateSchema.getCompressionDictionary()) {
+            handleGetOrCreateCompressionDictionary(commandGetOrCreateSchema);
+            return;
+        }
         long requestId = commandGetOrCreateSchema.getRequestId();
         String topicName = commandGetOrCreateSchema.getTopic();
         SchemaData schemaData = getSchema(commandGetOrCreateSchema.getSchema());
@@ -1650,6 +1673,65 @@ public class ServerCnx extends PulsarHandler {
         });
     }
 
+    /**
+     * Store a new version of the compression dictionary of a topic. Only a connection with a producer on the topic,
+     * or on one of its partitions, can store a dictionary.
+     */
+    private void handleGetOrCreateCompressionDictionary(CommandGetOrCreateSchema command) {
+        long requestId = command.getRequestId();
+        String topic = command.getTopic();
+        String dictionaryName;
+        try {
+            TopicName topicName = TopicName.get(topic);
+            if (!hasProducer(topicName.getPartitionedTopicName())) {
+                ctx.writeAndFlush(Commands.newGetOrCreateSchemaResponseError(requestId, ServerError.NotAllowedError,
+                        "The connection has no producer on the topic"));
+                return;
+            }
+            dictionaryName = getCompressionDictionaryName(topicName);
+        } catch (Throwable t) {
+            ctx.writeAndFlush(Commands.newGetOrCreateSchemaResponseError(requestId, ServerError.InvalidTopicName,
+                    t.getMessage()));
+            return;
+        }
+
+        SchemaData dictionary = getSchema(command.getSchema());
+        schemaService.putSchemaIfAbsent(dictionaryName, dictionary, SchemaCompatibilityStrategy.ALWAYS_COMPATIBLE)
+                .thenAccept(version -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Stored compression dictionary {} of {} bytes for {}", remoteAddress,
+                                version, dictionary.getData().length, topic);
+                    }
+                    ctx.writeAndFlush(Commands.newGetOrCreateSchemaResponse(requestId, version));
+                }).exceptionally(ex -> {
+                    ServerError errorCode = BrokerServiceException.getClientErrorCode(ex);
+                    ctx.writeAndFlush(Commands.newGetOrCreateSchemaResponseError(
+                            requestId, errorCode, ex.getMessage()));
+                    return null;
+                });
+    }
+
+    private boolean hasProducer(String partitionedTopicName) {
+        return producers.values().stream().anyMatch(future -> {
+            if (!future.isDone() || future.isCompletedExceptionally()) {
+                return false;
+            }
+            String topic = future.getNow(null).getTopic().getName();
+            return TopicName.get(topic).getPartitionedTopicName().equals(partitionedTopicName);
+        });
+    }
+
+    /**
+     * The compression dictionaries of a topic are versioned in the schema storage, next to the topic schema, under
+     * a name that cannot collide with the schema of a regular topic.
+     */
+    private static String getCompressionDictionaryName(TopicName topicName) {
+        return topicName.getTenant()
+            + "/" + topicName.getNamespacePortion()
+            + "/" + COMPRESSION_DICTIONARIES
+            + "/" + TopicName.get(topicName.getPartitionedTopicName()).getEncodedLocalName();
+    }
+
     @Override
     protected void handleNewTxn(CommandNewTxn command) {
         if (log.isDebugEnabled()) {
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import java.util.List;
+
+import org.apache.bookkeeper.mledger.Entry;
+
+/**
+ * Sizes the reads of a dispatcher so that each read fetches about a target number of bytes.
+ *
+ * <p>The sizer keeps a moving average of the size of the entries read, so that topics with small entries need fewer
+ * round trips and topics with large entries do not over-read.
+ */
+class AdaptiveReadBatchSizer {
+
+    // Weight of the last read in the moving averages
+    private static final double ALPHA = 0.2;
+
+    private final long targetReadSizeBytes;
+    private final int minReadBatchSize;
+
+    private volatile double avgEntrySize = 0;
+
+    AdaptiveReadBatchSizer(long targetReadSizeBytes, int minReadBatchSize) {
+        this.targetReadSizeBytes = targetReadSizeBytes;
+        this.minReadBatchSize = Math.max(minReadBatchSize, 1);
+    }
+
+    /**
+     * Record a completed read.
+     *
+     * @param entries the entries read
+     */
+    void recordRead(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long totalSize = 0;
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            totalSize += entries.get(i).getLength();
+        }
+        double entrySize = (double) totalSize / entries.size();
+        if (avgEntrySize == 0) {
+            avgEntrySize = entrySize;
+        } else {
+            avgEntrySize += ALPHA * (entrySize - avgEntrySize);
+        }
+    }
+
+    /**
+     * Returns the number of entries that fits the read size target, or {@code defaultReadBatchSize} until a read has
+     * been recorded.
+     */
+    int getReadBatchSize(int defaultReadBatchSize) {
+        double entrySize = avgEntrySize;
+        if (entrySize == 0) {
+            return defaultReadBatchSize;
+        }
+        return (int) Math.max(minReadBatchSize, Math.min(Integer.MAX_VALUE, targetReadSizeBytes / entrySize));
+    }
+
+    double getAvgEntrySize() {
+        return avgEntrySize;
+    }
+}
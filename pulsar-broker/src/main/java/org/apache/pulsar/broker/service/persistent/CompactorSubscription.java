@@ -20,6 +20,8 @@ package org.apache.pulsar.broker.service.persistent;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -30,6 +32,7 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandAck.AckType;
+import org.apache.pulsar.compaction.CompactedSegment;
 import org.apache.pulsar.compaction.CompactedTopic;
 import org.apache.pulsar.compaction.Compactor;
 import org.slf4j.Logger;
@@ -37,6 +40,8 @@ import org.slf4j.LoggerFactory;
 
 public class CompactorSubscription extends PersistentSubscription {
     private CompactedTopic compactedTopic;
+    // Compacted segments of the topic, oldest first
+    private volatile List<CompactedSegment> segments;
 
     public CompactorSubscription(PersistentTopic topic, CompactedTopic compactedTopic,
                                  String subscriptionName, ManagedCursor cursor) {
@@ -48,13 +53,19 @@ public class CompactorSubscription extends PersistentSubscription {
         this.cursor.setAlwaysInactive();
 
         Map<String, Long> properties = cursor.getProperties();
-        if (properties.containsKey(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY)) {
-            long compactedLedgerId = properties.get(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY);
+        this.segments = CompactedSegment.fromProperties(properties, cursor.getMarkDeletedPosition());
+        if (segments.size() == 1) {
             compactedTopic.newCompactedLedger(cursor.getMarkDeletedPosition(),
-                                              compactedLedgerId);
+                                              segments.get(0).getLedgerId());
+        } else if (segments.size() > 1) {
+            compactedTopic.newCompactedSegments(cursor.getMarkDeletedPosition(), segments);
         }
     }
 
+    public List<CompactedSegment> getSegments() {
+        return segments;
+    }
+
     @Override
     public void acknowledgeMessage(List<Position> positions, AckType ackType, Map<String,Long> properties) {
         checkArgument(ackType == AckType.Cumulative);
@@ -64,11 +75,20 @@ public class CompactorSubscription extends PersistentSubscription {
 
         Position position = positions.get(0);
 
+        // An incremental compaction appends its ledger to the current segments, a full compaction replaces them
+        List<CompactedSegment> newSegments;
+        if (properties.getOrDefault(Compactor.COMPACTED_TOPIC_SEGMENT_PROPERTY, 0L) == 1L) {
+            newSegments = new ArrayList<>(segments);
+            newSegments.add(new CompactedSegment(compactedLedgerId, position));
+        } else {
+            newSegments = Collections.singletonList(new CompactedSegment(compactedLedgerId, position));
+        }
+
         if (log.isDebugEnabled()) {
             log.debug("[{}][{}] Cumulative ack on compactor subscription {}", topicName, subName, position);
         }
         CompletableFuture<Void> future = new CompletableFuture<>();
-        cursor.asyncMarkDelete(position, properties, new MarkDeleteCallback() {
+        cursor.asyncMarkDelete(position, CompactedSegment.toProperties(newSegments), new MarkDeleteCallback() {
                 @Override
                 public void markDeleteComplete(Object ctx) {
                     if (log.isDebugEnabled()) {
@@ -95,7 +115,14 @@ public class CompactorSubscription extends PersistentSubscription {
 
         // Once properties have been persisted, we can notify the compacted topic to use
         // the new ledger
-        future.thenAccept((v) -> compactedTopic.newCompactedLedger(position, compactedLedgerId));
+        future.thenAccept((v) -> {
+            segments = newSegments;
+            if (newSegments.size() == 1) {
+                compactedTopic.newCompactedLedger(position, compactedLedgerId);
+            } else {
+                compactedTopic.newCompactedSegments(position, newSegments);
+            }
+        });
     }
 
     private static final Logger log = LoggerFactory.getLogger(CompactorSubscription.class);
@@ -0,0 +1,397 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.impl.LedgerMetadataUtils;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the deduplication state of a topic in BookKeeper ledgers, instead of the properties of the deduplication
+ * cursor.
+ *
+ * <p>The state is made of a snapshot ledger, with the sequence ids of all the producers at the time it was written,
+ * and of a delta ledger where the sequence ids that changed since then are appended. Only the ids of these two ledgers
+ * are stored in the cursor properties. Once the delta ledger has enough entries, the whole state is compacted into a
+ * new snapshot ledger, a new delta ledger is started and the previous ledgers are deleted.
+ *
+ * <p>The store is not thread-safe, the caller must not run two operations at the same time.
+ */
+class DeduplicationSnapshotStore {
+
+    static final String SNAPSHOT_LEDGER_PROPERTY = "__dedup-snapshot-ledger";
+    static final String DELTA_LEDGER_PROPERTY = "__dedup-delta-ledger";
+
+    // Sequence id recorded in a delta for a producer whose deduplication information was purged
+    static final long REMOVED = -1L;
+
+    private static final int FORMAT_VERSION = 1;
+
+    // Keep the entries of large states well below the max entry size
+    private static final int MAX_PRODUCERS_PER_ENTRY = 1000;
+
+    private static final int READ_BATCH_SIZE = 100;
+
+    private static final byte[] LEDGER_PASSWORD = "".getBytes();
+
+    private final BookKeeper bookKeeper;
+    private final ServiceConfiguration config;
+    private final String topicName;
+
+    private long snapshotLedgerId = -1;
+    private long deltaLedgerId = -1;
+
+    // Handle on the delta ledger, null when the delta ledger was recovered and can't be appended to anymore
+    private LedgerHandle deltaLedger = null;
+    private int deltaEntries = 0;
+
+    DeduplicationSnapshotStore(BookKeeper bookKeeper, ServiceConfiguration config, String topicName) {
+        this.bookKeeper = bookKeeper;
+        this.config = config;
+        this.topicName = topicName;
+    }
+
+    static boolean hasSnapshot(Map<String, Long> cursorProperties) {
+        return cursorProperties.containsKey(SNAPSHOT_LEDGER_PROPERTY);
+    }
+
+    /**
+     * Read back the sequence ids of the producers from the ledgers referenced in the cursor properties.
+     */
+    CompletableFuture<Map<String, Long>> recover(Map<String, Long> cursorProperties) {
+        snapshotLedgerId = cursorProperties.getOrDefault(SNAPSHOT_LEDGER_PROPERTY, -1L);
+        deltaLedgerId = cursorProperties.getOrDefault(DELTA_LEDGER_PROPERTY, -1L);
+        deltaLedger = null;
+        deltaEntries = 0;
+
+        Map<String, Long> sequenceIds = new HashMap<>();
+        return readLedger(snapshotLedgerId, sequenceIds)
+                .thenCompose(entries -> readLedger(deltaLedgerId, sequenceIds))
+                .thenApply(entries -> {
+                    deltaEntries = entries;
+                    log.info("[{}] Recovered deduplication state of {} producers from snapshot ledger {} and {} "
+                            + "entries of delta ledger {}", topicName, sequenceIds.size(), snapshotLedgerId, entries,
+                            deltaLedgerId);
+                    return sequenceIds;
+                });
+    }
+
+    boolean hasLedgers() {
+        return snapshotLedgerId != -1 || deltaLedgerId != -1;
+    }
+
+    /**
+     * Whether the next snapshot must rewrite the whole state, rather than append the latest changes.
+     */
+    boolean needsCompaction() {
+        return deltaLedger == null || deltaEntries >= config.getBrokerDeduplicationSnapshotCompactionThreshold();
+    }
+
+    Map<String, Long> getCursorProperties() {
+        Map<String, Long> properties = new TreeMap<>();
+        properties.put(SNAPSHOT_LEDGER_PROPERTY, snapshotLedgerId);
+        properties.put(DELTA_LEDGER_PROPERTY, deltaLedgerId);
+        return properties;
+    }
+
+    /**
+     * Append the sequence ids that changed since the previous snapshot to the delta ledger.
+     */
+    CompletableFuture<Void> appendChanges(Map<String, Long> changes) {
+        LedgerHandle lh = deltaLedger;
+        if (lh == null) {
+            return FutureUtil.failedFuture(new IllegalStateException("No delta ledger to append to"));
+        }
+        List<byte[]> entries = encode(changes);
+        deltaEntries += entries.size();
+        return addEntries(lh, entries).whenComplete((v, e) -> {
+            if (e != null && deltaLedger == lh) {
+                // The delta ledger misses some changes, the next snapshot must rewrite the whole state
+                deltaLedger = null;
+                lh.asyncClose((rc, handle, ctx) -> { }, null);
+            }
+        });
+    }
+
+    /**
+     * Write the whole state in a new snapshot ledger and start a new delta ledger.
+     *
+     * @return the ids of the previous ledgers, to be deleted once the cursor properties refer to the new ones
+     */
+    CompletableFuture<List<Long>> compact(Map<String, Long> sequenceIds) {
+        return createLedger().thenCompose(snapshot -> addEntries(snapshot, encode(sequenceIds))
+                .thenCompose(v -> closeLedger(snapshot))
+                .thenCompose(v -> createLedger())
+                .whenComplete((delta, e) -> {
+                    if (e != null) {
+                        deleteLedger(snapshot.getId());
+                    }
+                })
+                .thenApply(delta -> {
+                    List<Long> previousLedgers = new ArrayList<>(2);
+                    if (snapshotLedgerId != -1) {
+                        previousLedgers.add(snapshotLedgerId);
+                    }
+                    if (deltaLedgerId != -1) {
+                        previousLedgers.add(deltaLedgerId);
+                    }
+                    if (deltaLedger != null) {
+                        deltaLedger.asyncClose((rc, handle, ctx) -> { }, null);
+                    }
+
+                    snapshotLedgerId = snapshot.getId();
+                    deltaLedgerId = delta.getId();
+                    deltaLedger = delta;
+                    deltaEntries = 0;
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Compacted deduplication state of {} producers in ledger {}", topicName,
+                                sequenceIds.size(), snapshotLedgerId);
+                    }
+                    return previousLedgers;
+                }));
+    }
+
+    CompletableFuture<Void> deleteLedgers(List<Long> ledgerIds) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(ledgerIds.size());
+        for (long ledgerId : ledgerIds) {
+            futures.add(deleteLedger(ledgerId));
+        }
+        return FutureUtil.waitForAll(futures);
+    }
+
+    /**
+     * Delete all the ledgers of the store, when the deduplication state is not stored in ledgers anymore.
+     */
+    CompletableFuture<Void> delete() {
+        if (deltaLedger != null) {
+            deltaLedger.asyncClose((rc, handle, ctx) -> { }, null);
+            deltaLedger = null;
+        }
+        List<Long> ledgerIds = new ArrayList<>(2);
+        if (snapshotLedgerId != -1) {
+            ledgerIds.add(snapshotLedgerId);
+        }
+        if (deltaLedgerId != -1) {
+            ledgerIds.add(deltaLedgerId);
+        }
+        snapshotLedgerId = -1;
+        deltaLedgerId = -1;
+        deltaEntries = 0;
+        return deleteLedgers(ledgerIds);
+    }
+
+    void close() {
+        if (deltaLedger != null) {
+            deltaLedger.asyncClose((rc, handle, ctx) -> { }, null);
+            deltaLedger = null;
+        }
+    }
+
+    static List<byte[]> encode(Map<String, Long> sequenceIds) {
+        if (sequenceIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<byte[]> entries = new ArrayList<>(sequenceIds.size() / MAX_PRODUCERS_PER_ENTRY + 1);
+        Iterator<Map.Entry<String, Long>> iterator = sequenceIds.entrySet().iterator();
+        List<byte[]> names = new ArrayList<>(Math.min(sequenceIds.size(), MAX_PRODUCERS_PER_ENTRY));
+        long[] values = new long[Math.min(sequenceIds.size(), MAX_PRODUCERS_PER_ENTRY)];
+        while (iterator.hasNext()) {
+            names.clear();
+            int size = Integer.BYTES + Integer.BYTES;
+            while (iterator.hasNext() && names.size() < MAX_PRODUCERS_PER_ENTRY) {
+                Map.Entry<String, Long> entry = iterator.next();
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                values[names.size()] = entry.getValue();
+                names.add(name);
+                size += Integer.BYTES + name.length + Long.BYTES;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(size)
+                    .putInt(FORMAT_VERSION)
+                    .putInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                byte[] name = names.get(i);
+                buffer.putInt(name.length).put(name).putLong(values[i]);
+            }
+            entries.add(buffer.array());
+        }
+        return entries;
+    }
+
+    /**
+     * Apply the sequence ids of an entry, produced by {@link #encode(Map)}, on top of the given ones.
+     */
+    static void decode(byte[] data, Map<String, Long> sequenceIds) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported deduplication snapshot format " + version);
+        }
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            String producerName = new String(name, StandardCharsets.UTF_8);
+            long sequenceId = buffer.getLong();
+            if (sequenceId == REMOVED) {
+                sequenceIds.remove(producerName);
+            } else {
+                sequenceIds.put(producerName, sequenceId);
+            }
+        }
+    }
+
+    /**
+     * Read all the entries of a ledger, applying them on the given sequence ids.
+     *
+     * @return the number of entries of the ledger
+     */
+    private CompletableFuture<Integer> readLedger(long ledgerId, Map<String, Long> sequenceIds) {
+        if (ledgerId == -1) {
+            return CompletableFuture.completedFuture(0);
+        }
+        CompletableFuture<LedgerHandle> open = new CompletableFuture<>();
+        // Open with recovery, the delta ledger might not have been closed by the previous owner of the topic
+        bookKeeper.asyncOpenLedger(ledgerId,
+                BookKeeper.DigestType.fromApiDigestType(config.getManagedLedgerDigestType()),
+                LEDGER_PASSWORD, (rc, handle, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        open.completeExceptionally(BKException.create(rc));
+                    } else {
+                        open.complete(handle);
+                    }
+                }, null);
+        return open.thenCompose(lh -> {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            readEntries(lh, 0, sequenceIds, future);
+            return future.whenComplete((entries, e) -> lh.asyncClose((rc, handle, ctx) -> { }, null));
+        });
+    }
+
+    private void readEntries(LedgerHandle lh, long firstEntry, Map<String, Long> sequenceIds,
+                             CompletableFuture<Integer> future) {
+        long lastAddConfirmed = lh.getLastAddConfirmed();
+        if (firstEntry > lastAddConfirmed) {
+            future.complete((int) (lastAddConfirmed + 1));
+            return;
+        }
+        long lastEntry = Math.min(firstEntry + READ_BATCH_SIZE - 1, lastAddConfirmed);
+        lh.asyncReadEntries(firstEntry, lastEntry, (rc, handle, entries, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+                return;
+            }
+            try {
+                while (entries.hasMoreElements()) {
+                    LedgerEntry entry = entries.nextElement();
+                    decode(entry.getEntry(), sequenceIds);
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            readEntries(lh, lastEntry + 1, sequenceIds, future);
+        }, null);
+    }
+
+    private CompletableFuture<LedgerHandle> createLedger() {
+        CompletableFuture<LedgerHandle> future = new CompletableFuture<>();
+        try {
+            bookKeeper.asyncCreateLedger(
+                    config.getManagedLedgerDefaultEnsembleSize(),
+                    config.getManagedLedgerDefaultWriteQuorum(),
+                    config.getManagedLedgerDefaultAckQuorum(),
+                    BookKeeper.DigestType.fromApiDigestType(config.getManagedLedgerDigestType()),
+                    LEDGER_PASSWORD,
+                    (rc, handle, ctx) -> {
+                        if (rc != BKException.Code.OK) {
+                            future.completeExceptionally(BKException.create(rc));
+                        } else {
+                            future.complete(handle);
+                        }
+                    }, null, LedgerMetadataUtils.buildMetadataForDeduplicationSnapshot(topicName));
+        } catch (Throwable t) {
+            log.error("[{}] Encountered unexpected error when creating deduplication snapshot ledger", topicName, t);
+            return FutureUtil.failedFuture(t);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> deleteLedger(long ledgerId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        bookKeeper.asyncDeleteLedger(ledgerId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException) {
+                log.warn("[{}] Failed to delete deduplication snapshot ledger {}: {}", topicName, ledgerId,
+                        BKException.getMessage(rc));
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+
+    private static CompletableFuture<Void> addEntries(LedgerHandle lh, List<byte[]> entries) {
+        CompletableFuture<Void> lastAdd = CompletableFuture.completedFuture(null);
+        for (byte[] entry : entries) {
+            // Adds are pipelined, the ledger keeps them in order
+            CompletableFuture<Void> add = new CompletableFuture<>();
+            lh.asyncAddEntry(entry, (rc, handle, entryId, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    add.completeExceptionally(BKException.create(rc));
+                } else {
+                    add.complete(null);
+                }
+            }, null);
+            lastAdd = lastAdd.thenCombine(add, (v1, v2) -> null);
+        }
+        return lastAdd;
+    }
+
+    private static CompletableFuture<Void> closeLedger(LedgerHandle lh) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lh.asyncClose((rc, handle, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(DeduplicationSnapshotStore.class);
+}
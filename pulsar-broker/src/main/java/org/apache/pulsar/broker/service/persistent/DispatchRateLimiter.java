@@ -23,7 +23,7 @@ import static org.apache.pulsar.broker.web.PulsarWebResource.path;
 
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
+import java.util.function.LongSupplier;
 
 import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 
@@ -35,7 +35,7 @@ import org.apache.pulsar.common.naming.NamespaceName;
 import org.apache.pulsar.common.policies.data.DispatchRate;
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.TopicPolicies;
-import org.apache.pulsar.common.util.RateLimiter;
+import org.apache.pulsar.common.util.TokenBucket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,8 +52,8 @@ public class DispatchRateLimiter {
     private final Type type;
 
     private final BrokerService brokerService;
-    private RateLimiter dispatchRateLimiterOnMessage;
-    private RateLimiter dispatchRateLimiterOnByte;
+    private volatile TokenBucket dispatchRateLimiterOnMessage;
+    private volatile TokenBucket dispatchRateLimiterOnByte;
     private long subscriptionRelativeRatelimiterOnMessage;
     private long subscriptionRelativeRatelimiterOnByte;
 
@@ -73,7 +73,8 @@ public class DispatchRateLimiter {
      * @return
      */
     public long getAvailableDispatchRateLimitOnMsg() {
-        return dispatchRateLimiterOnMessage == null ? -1 : dispatchRateLimiterOnMessage.getAvailablePermits();
+        TokenBucket onMessage = dispatchRateLimiterOnMessage;
+        return onMessage == null ? -1 : onMessage.getAvailablePermits();
     }
 
     /**
@@ -84,12 +85,21 @@ public class DispatchRateLimiter {
      * @return
      */
     public boolean tryDispatchPermit(long msgPermits, long bytePermits) {
-        boolean acquiredMsgPermit = msgPermits <= 0 || dispatchRateLimiterOnMessage == null
+        // a subscription bucket charges the topic bucket as its parent, without one the topic bucket is charged alone
+        TokenBucket onMessage = dispatchRateLimiterOnMessage;
+        if (onMessage == null) {
+            onMessage = getTopicDispatchRateLimiterOnMessage();
+        }
+        TokenBucket onByte = dispatchRateLimiterOnByte;
+        if (onByte == null) {
+            onByte = getTopicDispatchRateLimiterOnByte();
+        }
+        boolean acquiredMsgPermit = msgPermits <= 0 || onMessage == null
         // acquiring permits must be < configured msg-rate;
-                || dispatchRateLimiterOnMessage.tryAcquire(msgPermits);
-        boolean acquiredBytePermit = bytePermits <= 0 || dispatchRateLimiterOnByte == null
+                || onMessage.tryAcquire(msgPermits);
+        boolean acquiredBytePermit = bytePermits <= 0 || onByte == null
         // acquiring permits must be < configured msg-rate;
-                || dispatchRateLimiterOnByte.tryAcquire(bytePermits);
+                || onByte.tryAcquire(bytePermits);
         return acquiredMsgPermit && acquiredBytePermit;
     }
 
@@ -99,8 +109,10 @@ public class DispatchRateLimiter {
      * @return
      */
     public boolean hasMessageDispatchPermit() {
-        return (dispatchRateLimiterOnMessage == null || dispatchRateLimiterOnMessage.getAvailablePermits() > 0)
-                && (dispatchRateLimiterOnByte == null || dispatchRateLimiterOnByte.getAvailablePermits() > 0);
+        TokenBucket onMessage = dispatchRateLimiterOnMessage;
+        TokenBucket onByte = dispatchRateLimiterOnByte;
+        return (onMessage == null || onMessage.getAvailablePermits() > 0)
+                && (onByte == null || onByte.getAvailablePermits() > 0);
     }
 
     /**
@@ -318,47 +330,67 @@ public class DispatchRateLimiter {
         long byteRate = dispatchRate.dispatchThrottlingRateInByte;
         long ratePeriod = dispatchRate.ratePeriodInSecond;
 
-        Supplier<Long> permitUpdaterMsg = dispatchRate.relativeToPublishRate
+        LongSupplier permitUpdaterMsg = dispatchRate.relativeToPublishRate
                 ? () -> getRelativeDispatchRateInMsg(dispatchRate)
                 : null;
         // update msg-rateLimiter
         if (msgRate > 0) {
             if (this.dispatchRateLimiterOnMessage == null) {
-                this.dispatchRateLimiterOnMessage = new RateLimiter(brokerService.pulsar().getExecutor(), msgRate,
-                        ratePeriod, TimeUnit.SECONDS, permitUpdaterMsg);
+                this.dispatchRateLimiterOnMessage = new TokenBucket(msgRate, ratePeriod, TimeUnit.SECONDS,
+                        type == Type.SUBSCRIPTION ? this::getTopicDispatchRateLimiterOnMessage : null,
+                        permitUpdaterMsg);
             } else {
                 this.dispatchRateLimiterOnMessage.setRate(msgRate, dispatchRate.ratePeriodInSecond,
                         TimeUnit.SECONDS, permitUpdaterMsg);
             }
         } else {
-            // message-rate should be disable and close
-            if (this.dispatchRateLimiterOnMessage != null) {
-                this.dispatchRateLimiterOnMessage.close();
-                this.dispatchRateLimiterOnMessage = null;
-            }
+            // message-rate should be disable
+            this.dispatchRateLimiterOnMessage = null;
         }
 
-        Supplier<Long> permitUpdaterByte = dispatchRate.relativeToPublishRate
+        LongSupplier permitUpdaterByte = dispatchRate.relativeToPublishRate
                 ? () -> getRelativeDispatchRateInByte(dispatchRate)
                 : null;
         // update byte-rateLimiter
         if (byteRate > 0) {
             if (this.dispatchRateLimiterOnByte == null) {
-                this.dispatchRateLimiterOnByte = new RateLimiter(brokerService.pulsar().getExecutor(), byteRate,
-                        ratePeriod, TimeUnit.SECONDS, permitUpdaterByte);
+                this.dispatchRateLimiterOnByte = new TokenBucket(byteRate, ratePeriod, TimeUnit.SECONDS,
+                        type == Type.SUBSCRIPTION ? this::getTopicDispatchRateLimiterOnByte : null,
+                        permitUpdaterByte);
             } else {
                 this.dispatchRateLimiterOnByte.setRate(byteRate, dispatchRate.ratePeriodInSecond,
                         TimeUnit.SECONDS, permitUpdaterByte);
             }
         } else {
-            // message-rate should be disable and close
-            if (this.dispatchRateLimiterOnByte != null) {
-                this.dispatchRateLimiterOnByte.close();
-                this.dispatchRateLimiterOnByte = null;
-            }
+            // byte-rate should be disable
+            this.dispatchRateLimiterOnByte = null;
         }
     }
 
+    /**
+     * Get the msg bucket of the topic limiter, which is the parent of the msg bucket of a subscription limiter.
+     * It is looked up on every use as the topic limiter replaces or removes its buckets when its rate is updated.
+     *
+     * @return
+     */
+    private TokenBucket getTopicDispatchRateLimiterOnMessage() {
+        DispatchRateLimiter topicLimiter = getTopicDispatchRateLimiter();
+        return topicLimiter != null ? topicLimiter.dispatchRateLimiterOnMessage : null;
+    }
+
+    private TokenBucket getTopicDispatchRateLimiterOnByte() {
+        DispatchRateLimiter topicLimiter = getTopicDispatchRateLimiter();
+        return topicLimiter != null ? topicLimiter.dispatchRateLimiterOnByte : null;
+    }
+
+    private DispatchRateLimiter getTopicDispatchRateLimiter() {
+        if (type != Type.SUBSCRIPTION || topic == null) {
+            return null;
+        }
+        Optional<DispatchRateLimiter> topicLimiter = topic.getDispatchRateLimiter();
+        return topicLimiter != null ? topicLimiter.orElse(null) : null;
+    }
+
     private long getRelativeDispatchRateInMsg(DispatchRate dispatchRate) {
         return (topic != null && dispatchRate != null)
                 ? (long) topic.getLastUpdatedAvgPublishRateInMsg() + dispatchRate.dispatchThrottlingRateInMsg
@@ -377,7 +409,8 @@ public class DispatchRateLimiter {
      * @return
      */
     public long getDispatchRateOnMsg() {
-        return dispatchRateLimiterOnMessage != null ? dispatchRateLimiterOnMessage.getRate() : -1;
+        TokenBucket onMessage = dispatchRateLimiterOnMessage;
+        return onMessage != null ? onMessage.getRate() : -1;
     }
 
     /**
@@ -386,7 +419,20 @@ public class DispatchRateLimiter {
      * @return
      */
     public long getDispatchRateOnByte() {
-        return dispatchRateLimiterOnByte != null ? dispatchRateLimiterOnByte.getRate() : -1;
+        TokenBucket onByte = dispatchRateLimiterOnByte;
+        return onByte != null ? onByte.getRate() : -1;
+    }
+
+    /**
+     * Get the total time during which dispatching has been throttled, in nanoseconds.
+     *
+     * @return
+     */
+    public long getThrottledTimeNanos() {
+        TokenBucket onMessage = dispatchRateLimiterOnMessage;
+        TokenBucket onByte = dispatchRateLimiterOnByte;
+        return Math.max(onMessage != null ? onMessage.getThrottledTimeNanos() : 0,
+                onByte != null ? onByte.getThrottledTimeNanos() : 0);
     }
 
 
@@ -396,15 +442,9 @@ public class DispatchRateLimiter {
     }
 
     public void close() {
-        // close rate-limiter
-        if (dispatchRateLimiterOnMessage != null) {
-            dispatchRateLimiterOnMessage.close();
-            dispatchRateLimiterOnMessage = null;
-        }
-        if (dispatchRateLimiterOnByte != null) {
-            dispatchRateLimiterOnByte.close();
-            dispatchRateLimiterOnByte = null;
-        }
+        // buckets don't hold any resource, just disable them
+        dispatchRateLimiterOnMessage = null;
+        dispatchRateLimiterOnByte = null;
     }
 
     private static final Logger log = LoggerFactory.getLogger(DispatchRateLimiter.class);
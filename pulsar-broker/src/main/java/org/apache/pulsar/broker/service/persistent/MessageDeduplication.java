@@ -36,17 +36,22 @@ import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.TopicPolicies;
 import org.apache.pulsar.common.protocol.Commands;
-import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 
@@ -100,14 +105,15 @@ public class MessageDeduplication {
     private volatile Status status;
 
     // Map that contains the highest sequenceId that have been sent by each producers. The map will be updated before
-    // the messages are persisted
+    // the messages are persisted. Entries are updated with compare-and-set, so that producers publishing on the same
+    // topic from different IO threads don't contend on a single lock
     @VisibleForTesting
-    final ConcurrentOpenHashMap<String, Long> highestSequencedPushed = new ConcurrentOpenHashMap<>(16, 1);
+    final ConcurrentHashMap<String, Long> highestSequencedPushed = new ConcurrentHashMap<>();
 
     // Map that contains the highest sequenceId that have been persistent by each producers. The map will be updated
     // after the messages are persisted
     @VisibleForTesting
-    final ConcurrentOpenHashMap<String, Long> highestSequencedPersisted = new ConcurrentOpenHashMap<>(16, 1);
+    final ConcurrentHashMap<String, Long> highestSequencedPersisted = new ConcurrentHashMap<>();
 
     // Number of persisted entries after which to store a snapshot of the sequence ids map
     private final int snapshotInterval;
@@ -118,8 +124,26 @@ public class MessageDeduplication {
     // Max number of producer for which to persist the sequence id information
     private final int maxNumberOfProducers;
 
-    // Map used to track the inactive producer along with the timestamp of their last activity
-    private final Map<String, Long> inactiveProducers = new HashMap<>();
+    // Max number of producers for which to keep the sequence id information in memory, or 0 for no bound
+    private final int maxNumberOfTrackedProducers;
+
+    // Map used to track the inactive producer along with the timestamp of their last activity, ordered from the
+    // least recently active producer
+    private final Map<String, Long> inactiveProducers = new LinkedHashMap<>();
+
+    // Producers whose persisted sequence id changed, or that were purged, since the previous snapshot
+    private final Set<String> changedProducers = ConcurrentHashMap.newKeySet();
+
+    // Whether the snapshots are stored in dedicated ledgers rather than in the cursor properties
+    private final boolean snapshotLedgerEnabled;
+
+    // Created once the snapshots are, or were, stored in ledgers
+    private volatile DeduplicationSnapshotStore snapshotStore;
+
+    private final AtomicBoolean snapshotInProgress = new AtomicBoolean(false);
+
+    // Ledgers replaced by a compaction, deleted once the cursor properties don't refer to them anymore
+    private final List<Long> obsoleteSnapshotLedgers = new ArrayList<>();
 
     private final String replicatorPrefix;
 
@@ -130,22 +154,48 @@ public class MessageDeduplication {
         this.status = Status.Initialized;
         this.snapshotInterval = pulsar.getConfiguration().getBrokerDeduplicationEntriesInterval();
         this.maxNumberOfProducers = pulsar.getConfiguration().getBrokerDeduplicationMaxNumberOfProducers();
+        this.maxNumberOfTrackedProducers =
+                pulsar.getConfiguration().getBrokerDeduplicationMaxNumberOfTrackedProducers();
         this.snapshotCounter = 0;
         this.replicatorPrefix = pulsar.getConfiguration().getReplicatorPrefix();
+        this.snapshotLedgerEnabled = pulsar.getConfiguration().isBrokerDeduplicationSnapshotLedgerEnabled();
     }
 
     private CompletableFuture<Void> recoverSequenceIdsMap() {
-        // Load the sequence ids from the snapshot in the cursor properties
-        managedCursor.getProperties().forEach((k, v) -> {
-            highestSequencedPushed.put(k, v);
-            highestSequencedPersisted.put(k, v);
-        });
+        // Load the sequence ids from the snapshot, either in the cursor properties or in the ledgers they refer to
+        Map<String, Long> properties = managedCursor.getProperties();
+        CompletableFuture<Map<String, Long>> snapshot = DeduplicationSnapshotStore.hasSnapshot(properties)
+                ? getSnapshotStore().recover(properties)
+                : CompletableFuture.completedFuture(properties);
+
+        return snapshot.thenCompose(sequenceIds -> {
+            sequenceIds.forEach((k, v) -> {
+                highestSequencedPushed.put(k, v);
+                highestSequencedPersisted.put(k, v);
+            });
+
+            // Replay all the entries and apply all the sequence ids updates
+            log.info("[{}] Replaying {} entries for deduplication", topic.getName(),
+                    managedCursor.getNumberOfEntries());
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            replayCursor(future);
+            return future;
+        }).thenRun(this::trackRecoveredProducers);
+    }
 
-        // Replay all the entries and apply all the sequence ids updates
-        log.info("[{}] Replaying {} entries for deduplication", topic.getName(), managedCursor.getNumberOfEntries());
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        replayCursor(future);
-        return future;
+    /**
+     * Consider the recovered producers that are not connected as inactive, so that their information is eventually
+     * purged if they never come back.
+     */
+    private synchronized void trackRecoveredProducers() {
+        long now = System.currentTimeMillis();
+        Map<String, ?> connectedProducers = topic.getProducers();
+        for (String producerName : highestSequencedPersisted.keySet()) {
+            if (connectedProducers == null || !connectedProducers.containsKey(producerName)) {
+                inactiveProducers.putIfAbsent(producerName, now);
+            }
+        }
+        evictExcessProducers();
     }
 
     /**
@@ -238,6 +288,8 @@ public class MessageDeduplication {
                                     managedCursor = null;
                                     highestSequencedPushed.clear();
                                     highestSequencedPersisted.clear();
+                                    changedProducers.clear();
+                                    deleteSnapshotLedgers();
                                     future.complete(null);
                                     log.info("[{}] Disabled deduplication", topic.getName());
                                 }
@@ -250,6 +302,8 @@ public class MessageDeduplication {
                                         managedCursor = null;
                                         highestSequencedPushed.clear();
                                         highestSequencedPersisted.clear();
+                                        changedProducers.clear();
+                                        deleteSnapshotLedgers();
                                         future.complete(null);
                                     } else {
                                         log.warn("[{}] Failed to disable deduplication: {}", topic.getName(),
@@ -332,9 +386,10 @@ public class MessageDeduplication {
             md.recycle();
         }
 
-        // Synchronize the get() and subsequent put() on the map. This would only be relevant if the producer
-        // disconnects and re-connects very quickly. At that point the call can be coming from a different thread
-        synchronized (highestSequencedPushed) {
+        // The get() and subsequent update of the map must be atomic for a given producer. This would only be relevant
+        // if the producer disconnects and re-connects very quickly. At that point the call can be coming from a
+        // different thread. Retry the check if the entry was updated in between.
+        while (true) {
             Long lastSequenceIdPushed = highestSequencedPushed.get(producerName);
             if (lastSequenceIdPushed != null && sequenceId <= lastSequenceIdPushed) {
                 if (log.isDebugEnabled()) {
@@ -353,9 +408,14 @@ public class MessageDeduplication {
                     return MessageDupStatus.Unknown;
                 }
             }
-            highestSequencedPushed.put(producerName, highestSequenceId);
+
+            boolean updated = lastSequenceIdPushed == null
+                    ? highestSequencedPushed.putIfAbsent(producerName, highestSequenceId) == null
+                    : highestSequencedPushed.replace(producerName, lastSequenceIdPushed, highestSequenceId);
+            if (updated) {
+                return MessageDupStatus.NotDup;
+            }
         }
-        return MessageDupStatus.NotDup;
     }
 
     /**
@@ -377,6 +437,9 @@ public class MessageDeduplication {
         }
 
         highestSequencedPersisted.put(producerName, Math.max(highestSequenceId, sequenceId));
+        if (!changedProducers.contains(producerName)) {
+            changedProducers.add(producerName);
+        }
         if (++snapshotCounter >= snapshotInterval) {
             snapshotCounter = 0;
             takeSnapshot(position);
@@ -389,15 +452,19 @@ public class MessageDeduplication {
         }
 
         highestSequencedPushed.clear();
-        for (String producer : highestSequencedPersisted.keys()) {
-            highestSequencedPushed.put(producer, highestSequencedPersisted.get(producer));
-        }
+        highestSequencedPushed.putAll(highestSequencedPersisted);
     }
 
     private void takeSnapshot(PositionImpl position) {
         if (log.isDebugEnabled()) {
             log.debug("[{}] Taking snapshot of sequence ids map", topic.getName());
         }
+        if (snapshotLedgerEnabled) {
+            takeSnapshotInLedgers(position);
+            return;
+        }
+
+        refreshInactiveProducers(drainChangedProducers().keySet());
         Map<String, Long> snapshot = new TreeMap<>();
         highestSequencedPersisted.forEach((producerName, sequenceId) -> {
             if (snapshot.size() < maxNumberOfProducers) {
@@ -411,6 +478,10 @@ public class MessageDeduplication {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Stored new deduplication snapshot at {}", topic.getName(), position);
                 }
+                if (snapshotStore != null) {
+                    // The snapshots were previously stored in ledgers, which are not referenced anymore
+                    deleteSnapshotLedgers();
+                }
             }
 
             @Override
@@ -420,6 +491,109 @@ public class MessageDeduplication {
         }, null);
     }
 
+    /**
+     * Store the sequence ids that changed since the previous snapshot in the delta ledger, or the whole state in a new
+     * snapshot ledger if the delta ledger is due for compaction. The cursor is then moved to the position, along with
+     * properties that refer to the ledgers.
+     */
+    private void takeSnapshotInLedgers(PositionImpl position) {
+        if (!snapshotInProgress.compareAndSet(false, true)) {
+            // The changes are kept for the next snapshot
+            return;
+        }
+
+        DeduplicationSnapshotStore store = getSnapshotStore();
+        CompletableFuture<List<Long>> stored;
+        if (store.needsCompaction()) {
+            // Drain the changes before copying the state, so that a change in between is written again later on
+            refreshInactiveProducers(drainChangedProducers().keySet());
+            stored = store.compact(new HashMap<>(highestSequencedPersisted));
+        } else {
+            Map<String, Long> changes = drainChangedProducers();
+            refreshInactiveProducers(changes.keySet());
+            stored = store.appendChanges(changes).thenApply(v -> Collections.<Long>emptyList());
+        }
+
+        stored.thenCompose(previousLedgers -> {
+            obsoleteSnapshotLedgers.addAll(previousLedgers);
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            managedCursor.asyncMarkDelete(position, store.getCursorProperties(), new MarkDeleteCallback() {
+                @Override
+                public void markDeleteComplete(Object ctx) {
+                    future.complete(null);
+                }
+
+                @Override
+                public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
+                    future.completeExceptionally(exception);
+                }
+            }, null);
+            return future;
+        }).whenComplete((v, e) -> {
+            if (e != null) {
+                log.warn("[{}] Failed to store new deduplication snapshot at {}: {}", topic.getName(), position,
+                        e.getMessage());
+            } else {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Stored new deduplication snapshot at {}", topic.getName(), position);
+                }
+                if (!obsoleteSnapshotLedgers.isEmpty()) {
+                    store.deleteLedgers(new ArrayList<>(obsoleteSnapshotLedgers));
+                    obsoleteSnapshotLedgers.clear();
+                }
+            }
+            snapshotInProgress.set(false);
+        });
+    }
+
+    /**
+     * Collect the sequence ids that changed since the previous snapshot, with
+     * {@link DeduplicationSnapshotStore#REMOVED} for the producers that were purged.
+     */
+    private Map<String, Long> drainChangedProducers() {
+        Map<String, Long> changes = new HashMap<>();
+        Iterator<String> iterator = changedProducers.iterator();
+        while (iterator.hasNext()) {
+            String producerName = iterator.next();
+            // Remove the producer before reading its sequence id, a concurrent change is picked by the next snapshot
+            iterator.remove();
+            changes.put(producerName,
+                    highestSequencedPersisted.getOrDefault(producerName, DeduplicationSnapshotStore.REMOVED));
+        }
+        return changes;
+    }
+
+    private DeduplicationSnapshotStore getSnapshotStore() {
+        if (snapshotStore == null) {
+            snapshotStore = new DeduplicationSnapshotStore(pulsar.getBookKeeperClient(), pulsar.getConfiguration(),
+                    topic.getName());
+        }
+        return snapshotStore;
+    }
+
+    /**
+     * Delete the ledgers holding the deduplication snapshots, if any, when the topic or the deduplication state is
+     * removed.
+     */
+    public CompletableFuture<Void> deleteSnapshotLedgers() {
+        DeduplicationSnapshotStore store = snapshotStore;
+        if (store == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        snapshotStore = null;
+        return store.delete();
+    }
+
+    /**
+     * Release the resources used to store the snapshots, when the topic is closed.
+     */
+    public void close() {
+        DeduplicationSnapshotStore store = snapshotStore;
+        if (store != null) {
+            store.close();
+        }
+    }
+
     private CompletableFuture<Boolean> isDeduplicationEnabled() {
         TopicName name = TopicName.get(topic.getName());
         //Topic level setting has higher priority than namespace level
@@ -451,7 +625,56 @@ public class MessageDeduplication {
      */
     public synchronized void producerRemoved(String producerName) {
         // Producer is no-longer active
+        inactiveProducers.remove(producerName);
         inactiveProducers.put(producerName, System.currentTimeMillis());
+        evictExcessProducers();
+    }
+
+    /**
+     * Producers that are not connected anymore but whose messages are still being persisted, typically when they
+     * are replicated from another cluster, are not inactive.
+     */
+    private void refreshInactiveProducers(Set<String> activeProducers) {
+        if (activeProducers.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (inactiveProducers.isEmpty()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (String producerName : activeProducers) {
+                if (inactiveProducers.remove(producerName) != null) {
+                    inactiveProducers.put(producerName, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the number of producers tracked in memory under the configured maximum, if any, by discarding the
+     * information of the producers that have been inactive for the longest time.
+     */
+    private void evictExcessProducers() {
+        if (maxNumberOfTrackedProducers <= 0) {
+            return;
+        }
+        Iterator<String> iterator = inactiveProducers.keySet().iterator();
+        while (highestSequencedPushed.size() > maxNumberOfTrackedProducers && iterator.hasNext()) {
+            String producerName = iterator.next();
+            iterator.remove();
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Discarding dedup information for producer {} to stay within {} producers",
+                        topic.getName(), producerName, maxNumberOfTrackedProducers);
+            }
+            removeProducer(producerName);
+        }
+    }
+
+    private void removeProducer(String producerName) {
+        highestSequencedPushed.remove(producerName);
+        highestSequencedPersisted.remove(producerName);
+        changedProducers.add(producerName);
     }
 
     /**
@@ -466,14 +689,14 @@ public class MessageDeduplication {
             java.util.Map.Entry<String, Long> entry = mapIterator.next();
             String producerName = entry.getKey();
             long lastActiveTimestamp = entry.getValue();
+            if (lastActiveTimestamp >= minimumActiveTimestamp) {
+                // The following producers have been active more recently
+                break;
+            }
 
             mapIterator.remove();
-
-            if (lastActiveTimestamp < minimumActiveTimestamp) {
-                log.info("[{}] Purging dedup information for producer {}", topic.getName(), producerName);
-                highestSequencedPushed.remove(producerName);
-                highestSequencedPersisted.remove(producerName);
-            }
+            log.info("[{}] Purging dedup information for producer {}", topic.getName(), producerName);
+            removeProducer(producerName);
         }
     }
 
@@ -34,6 +34,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import com.google.common.collect.Range;
+import io.netty.channel.ChannelPromise;
 
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
@@ -43,6 +44,7 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException.NoMoreEntriesToReadE
 import org.apache.bookkeeper.mledger.ManagedLedgerException.TooManyRequestsException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.mledger.util.SafeRun;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.delayed.DelayedDeliveryTracker;
@@ -50,6 +52,7 @@ import org.apache.pulsar.broker.service.AbstractDispatcherMultipleConsumers;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerBusyException;
 import org.apache.pulsar.broker.service.Consumer;
+import org.apache.pulsar.broker.service.DispatchMemoryLimiter;
 import org.apache.pulsar.broker.service.Dispatcher;
 import org.apache.pulsar.broker.service.EntryBatchIndexesAcks;
 import org.apache.pulsar.broker.service.EntryBatchSizes;
@@ -94,6 +97,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             AtomicIntegerFieldUpdater.newUpdater(PersistentDispatcherMultipleConsumers.class, "totalAvailablePermits");
     protected volatile int totalAvailablePermits = 0;
     private volatile int readBatchSize;
+    private final AdaptiveReadBatchSizer readBatchSizer;
     private final Backoff readFailureBackoff = new Backoff(15, TimeUnit.SECONDS, 1, TimeUnit.MINUTES, 0, TimeUnit.MILLISECONDS);
     private static final AtomicIntegerFieldUpdater<PersistentDispatcherMultipleConsumers> TOTAL_UNACKED_MESSAGES_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(PersistentDispatcherMultipleConsumers.class, "totalUnackedMessages");
@@ -103,6 +107,11 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             AtomicIntegerFieldUpdater.newUpdater(PersistentDispatcherMultipleConsumers.class, "blockedDispatcherOnUnackedMsgs");
     protected final ServiceConfiguration serviceConfig;
     protected Optional<DispatchRateLimiter> dispatchRateLimiter = Optional.empty();
+    private final DispatchMemoryLimiter.Handle dispatchMemory;
+    // memory reserved by the pending reads, and held by the entries being dispatched
+    private long pendingReadReservedBytes = 0;
+    private long pendingReplayReservedBytes = 0;
+    private DispatchMemoryLimiter.Reservation dispatchingMemory = null;
 
     protected TransactionReader transactionReader;
 
@@ -121,6 +130,13 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 ? new InMemoryRedeliveryTracker()
                 : RedeliveryTrackerDisabled.REDELIVERY_TRACKER_DISABLED;
         this.readBatchSize = serviceConfig.getDispatcherMaxReadBatchSize();
+        this.readBatchSizer = serviceConfig.isDispatcherAdaptiveReadBatchSizeEnabled()
+                ? new AdaptiveReadBatchSizer(Math.min(serviceConfig.getDispatcherAdaptiveReadTargetSizeBytes(),
+                        serviceConfig.getDispatcherMaxReadSizeBytes()), serviceConfig.getDispatcherMinReadBatchSize())
+                : null;
+        DispatchMemoryLimiter dispatchMemoryLimiter = topic.getBrokerService().getDispatchMemoryLimiter();
+        this.dispatchMemory = (dispatchMemoryLimiter != null ? dispatchMemoryLimiter : DispatchMemoryLimiter.DISABLED)
+                .newHandle(this::readMoreEntriesOnDispatchMemoryReleased);
         this.initializeDispatchRateLimiterIfNeeded(Optional.empty());
         this.transactionReader = new TransactionReader(topic, cursor);
     }
@@ -213,7 +229,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                     messagesToRedeliver.add(ledgerId, entryId);
                     redeliveryTracker.addIfAbsent(PositionImpl.get(ledgerId, entryId));
                 });
-                totalAvailablePermits -= consumer.getAvailablePermits();
+                TOTAL_AVAILABLE_PERMITS_UPDATER.addAndGet(this, -consumer.getAvailablePermits());
                 readMoreEntries();
             }
         } else {
@@ -232,7 +248,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             return;
         }
 
-        totalAvailablePermits += additionalNumberOfMessages;
+        TOTAL_AVAILABLE_PERMITS_UPDATER.addAndGet(this, additionalNumberOfMessages);
 
         if (log.isDebugEnabled()) {
             log.debug("[{}-{}] Trigger new read after receiving flow control message with permits {}", name, consumer,
@@ -318,12 +334,21 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             Set<PositionImpl> messagesToReplayNow = getMessagesToReplayNow(messagesToRead);
 
             if (!messagesToReplayNow.isEmpty()) {
+                long reservedBytes = dispatchMemory.tryReserveRead(messagesToReplayNow.size(),
+                        serviceConfig.getDispatcherMaxReadSizeBytes());
+                if (reservedBytes < 0) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Dispatch memory is exhausted, pause replay", name);
+                    }
+                    return;
+                }
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Schedule replay of {} messages for {} consumers", name, messagesToReplayNow.size(),
                             consumerList.size());
                 }
 
                 havePendingReplayRead = true;
+                pendingReplayReservedBytes = reservedBytes;
                 Set<? extends Position> deletedMessages = topic.isDelayedDeliveryEnabled() ?
                         asyncReplayEntriesInOrder(messagesToReplayNow) : asyncReplayEntries(messagesToReplayNow);
                 // clear already acked positions from replay bucket
@@ -334,6 +359,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 // next entries as readCompletedEntries-callback was never called
                 if ((messagesToReplayNow.size() - deletedMessages.size()) == 0) {
                     havePendingReplayRead = false;
+                    releasePendingReadMemory(ReadType.Replay);
                     readMoreEntries();
                 }
             } else if (BLOCKED_DISPATCHER_ON_UNACKMSG_UPDATER.get(this) == TRUE) {
@@ -342,11 +368,20 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             } else if (transactionReader.havePendingTxnToRead()) {
                 transactionReader.read(messagesToRead, ReadType.Normal, this);
             } else if (!havePendingRead) {
+                long reservedBytes = dispatchMemory.tryReserveRead(messagesToRead,
+                        serviceConfig.getDispatcherMaxReadSizeBytes());
+                if (reservedBytes < 0) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Dispatch memory is exhausted, pause reading", name);
+                    }
+                    return;
+                }
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Schedule read of {} messages for {} consumers", name, messagesToRead,
                             consumerList.size());
                 }
                 havePendingRead = true;
+                pendingReadReservedBytes = reservedBytes;
                 cursor.asyncReadEntriesOrWait(messagesToRead, serviceConfig.getDispatcherMaxReadSizeBytes(), this,
                         ReadType.Normal);
             } else {
@@ -395,6 +430,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         delayedDeliveryTracker.ifPresent(DelayedDeliveryTracker::close);
 
         dispatchRateLimiter.ifPresent(DispatchRateLimiter::close);
+        dispatchMemory.close();
 
         return disconnectAllConsumers();
     }
@@ -408,6 +444,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             consumerList.forEach(consumer -> consumer.disconnect(isResetCursor));
             if (havePendingRead && cursor.cancelPendingReadRequest()) {
                 havePendingRead = false;
+                releasePendingReadMemory(ReadType.Normal);
             }
         }
         return closeFuture;
@@ -443,13 +480,32 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             havePendingReplayRead = false;
         }
 
-        if (readBatchSize < serviceConfig.getDispatcherMaxReadBatchSize()) {
-            int newReadBatchSize = Math.min(readBatchSize * 2, serviceConfig.getDispatcherMaxReadBatchSize());
+        long reservedBytes = readType == ReadType.Normal ? pendingReadReservedBytes : pendingReplayReservedBytes;
+        if (readType == ReadType.Normal) {
+            pendingReadReservedBytes = 0;
+        } else {
+            pendingReplayReservedBytes = 0;
+        }
+        DispatchMemoryLimiter.Reservation memory = dispatchMemory.readComplete(reservedBytes, entries);
+
+        if (readBatchSizer != null && readType == ReadType.Normal) {
+            readBatchSizer.recordRead(entries);
+        }
+
+        int maxReadBatchSize = getMaxReadBatchSize();
+        if (readBatchSize < maxReadBatchSize) {
+            int newReadBatchSize = (int) Math.min((long) readBatchSize * 2, maxReadBatchSize);
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Increasing read batch size from {} to {}", name, readBatchSize, newReadBatchSize);
             }
 
             readBatchSize = newReadBatchSize;
+        } else if (readBatchSize > maxReadBatchSize) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Decreasing read batch size from {} to {}", name, readBatchSize, maxReadBatchSize);
+            }
+
+            readBatchSize = maxReadBatchSize;
         }
 
         readFailureBackoff.reduceToHalf();
@@ -457,6 +513,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         if (shouldRewindBeforeReadingOrReplaying && readType == ReadType.Normal) {
             // All consumers got disconnected before the completion of the read operation
             entries.forEach(Entry::release);
+            memory.release();
             cursor.rewind();
             shouldRewindBeforeReadingOrReplaying = false;
             readMoreEntries();
@@ -467,7 +524,44 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             log.debug("[{}] Distributing {} messages to {} consumers", name, entries.size(), consumerList.size());
         }
 
-        sendMessagesToConsumers(readType, entries);
+        dispatchingMemory = memory;
+        try {
+            sendMessagesToConsumers(readType, entries);
+        } finally {
+            dispatchingMemory = null;
+            memory.release();
+        }
+    }
+
+    /**
+     * Keeps the memory of the entries being dispatched until they have been written to the consumer.
+     */
+    protected ChannelPromise releaseDispatchMemoryOnWrite(ChannelPromise writePromise) {
+        DispatchMemoryLimiter.Reservation memory = dispatchingMemory;
+        return memory != null ? memory.releaseOnWrite(writePromise) : writePromise;
+    }
+
+    private void releasePendingReadMemory(ReadType readType) {
+        if (readType == ReadType.Normal) {
+            dispatchMemory.releaseRead(pendingReadReservedBytes);
+            pendingReadReservedBytes = 0;
+        } else {
+            dispatchMemory.releaseRead(pendingReplayReservedBytes);
+            pendingReplayReservedBytes = 0;
+        }
+    }
+
+    private void readMoreEntriesOnDispatchMemoryReleased() {
+        topic.getBrokerService().executor().execute(SafeRun.safeRun(() -> {
+            synchronized (PersistentDispatcherMultipleConsumers.this) {
+                readMoreEntries();
+            }
+        }));
+    }
+
+    private int getMaxReadBatchSize() {
+        int maxReadBatchSize = serviceConfig.getDispatcherMaxReadBatchSize();
+        return readBatchSizer != null ? readBatchSizer.getReadBatchSize(maxReadBatchSize) : maxReadBatchSize;
     }
 
     protected void sendMessagesToConsumers(ReadType readType, List<Entry> entries) {
@@ -523,8 +617,9 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 filterEntriesForConsumer(entriesForThisConsumer, batchSizes, sendMessageInfo, batchIndexesAcks, cursor,
                         transactionReader);
 
-                c.sendMessages(entriesForThisConsumer, batchSizes, batchIndexesAcks, sendMessageInfo.getTotalMessages(),
-                        sendMessageInfo.getTotalBytes(), sendMessageInfo.getTotalChunkedMessages(), redeliveryTracker);
+                releaseDispatchMemoryOnWrite(c.sendMessages(entriesForThisConsumer, batchSizes, batchIndexesAcks,
+                        sendMessageInfo.getTotalMessages(), sendMessageInfo.getTotalBytes(),
+                        sendMessageInfo.getTotalChunkedMessages(), redeliveryTracker));
 
                 int msgSent = sendMessageInfo.getTotalMessages();
                 start += messagesForC;
@@ -537,12 +632,11 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
 
         // acquire message-dispatch permits for already delivered messages
         if (serviceConfig.isDispatchThrottlingOnNonBacklogConsumerEnabled() || !cursor.isActive()) {
-            if (topic.getDispatchRateLimiter().isPresent()) {
-                topic.getDispatchRateLimiter().get().tryDispatchPermit(totalMessagesSent, totalBytesSent);
-            }
-
+            // the subscription limiter charges the topic limiter as well
             if (dispatchRateLimiter.isPresent()) {
                 dispatchRateLimiter.get().tryDispatchPermit(totalMessagesSent, totalBytesSent);
+            } else if (topic.getDispatchRateLimiter().isPresent()) {
+                topic.getDispatchRateLimiter().get().tryDispatchPermit(totalMessagesSent, totalBytesSent);
             }
         }
 
@@ -586,6 +680,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             cursor.rewind();
         }
 
+        releasePendingReadMemory(readType);
         if (readType == ReadType.Normal) {
             havePendingRead = false;
         } else {
@@ -738,6 +833,14 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return totalUnackedMessages;
     }
 
+    public int getReadBatchSize() {
+        return readBatchSize;
+    }
+
+    public double getAvgReadEntrySize() {
+        return readBatchSizer != null ? readBatchSizer.getAvgEntrySize() : 0;
+    }
+
     public String getName() {
         return name;
     }
@@ -807,5 +910,9 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return topic;
     }
 
+    public ManagedCursor getCursor() {
+        return cursor;
+    }
+
     private static final Logger log = LoggerFactory.getLogger(PersistentDispatcherMultipleConsumers.class);
 }
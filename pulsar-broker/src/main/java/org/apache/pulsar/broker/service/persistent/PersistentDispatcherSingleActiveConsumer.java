@@ -41,6 +41,7 @@ import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.service.AbstractDispatcherSingleActiveConsumer;
 import org.apache.pulsar.broker.service.Consumer;
+import org.apache.pulsar.broker.service.DispatchMemoryLimiter;
 import org.apache.pulsar.broker.service.Dispatcher;
 import org.apache.pulsar.broker.service.EntryBatchIndexesAcks;
 import org.apache.pulsar.broker.service.EntryBatchSizes;
@@ -74,6 +75,10 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
 
     private final RedeliveryTracker redeliveryTracker;
 
+    private final DispatchMemoryLimiter.Handle dispatchMemory;
+    // memory reserved by the pending read
+    private long pendingReadReservedBytes = 0;
+
     private TransactionReader transactionReader;
 
     public PersistentDispatcherSingleActiveConsumer(ManagedCursor cursor, SubType subscriptionType, int partitionIndex,
@@ -86,6 +91,9 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
         this.serviceConfig = topic.getBrokerService().pulsar().getConfiguration();
         this.readBatchSize = serviceConfig.getDispatcherMaxReadBatchSize();
         this.redeliveryTracker = RedeliveryTrackerDisabled.REDELIVERY_TRACKER_DISABLED;
+        DispatchMemoryLimiter dispatchMemoryLimiter = topic.getBrokerService().getDispatchMemoryLimiter();
+        this.dispatchMemory = (dispatchMemoryLimiter != null ? dispatchMemoryLimiter : DispatchMemoryLimiter.DISABLED)
+                .newHandle(this::readMoreEntriesOnDispatchMemoryReleased);
         this.initializeDispatchRateLimiterIfNeeded(Optional.empty());
         this.transactionReader  = new TransactionReader(topic, cursor);
     }
@@ -93,6 +101,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
     protected void scheduleReadOnActiveConsumer() {
         if (havePendingRead && cursor.cancelPendingReadRequest()) {
             havePendingRead = false;
+            releasePendingReadMemory();
         }
 
         if (havePendingRead) {
@@ -171,9 +180,26 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
     protected void cancelPendingRead() {
         if (havePendingRead && cursor.cancelPendingReadRequest()) {
             havePendingRead = false;
+            releasePendingReadMemory();
         }
     }
 
+    private void releasePendingReadMemory() {
+        dispatchMemory.releaseRead(pendingReadReservedBytes);
+        pendingReadReservedBytes = 0;
+    }
+
+    private void readMoreEntriesOnDispatchMemoryReleased() {
+        topic.getBrokerService().getTopicOrderedExecutor().executeOrdered(topicName, SafeRun.safeRun(() -> {
+            synchronized (PersistentDispatcherSingleActiveConsumer.this) {
+                Consumer currentConsumer = ACTIVE_CONSUMER_UPDATER.get(this);
+                if (currentConsumer != null && !havePendingRead) {
+                    readMoreEntries(currentConsumer);
+                }
+            }
+        }));
+    }
+
     @Override
     public void readEntriesComplete(final List<Entry> entries, Object obj) {
         topic.getBrokerService().getTopicOrderedExecutor().executeOrdered(topicName, SafeRun.safeRun(() -> {
@@ -188,6 +214,8 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
         }
 
         havePendingRead = false;
+        DispatchMemoryLimiter.Reservation memory = dispatchMemory.readComplete(pendingReadReservedBytes, entries);
+        pendingReadReservedBytes = 0;
 
         if (readBatchSize < serviceConfig.getDispatcherMaxReadBatchSize()) {
             int newReadBatchSize = Math.min(readBatchSize * 2, serviceConfig.getDispatcherMaxReadBatchSize());
@@ -222,6 +250,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
                 log.debug("[{}] rewind because no available consumer found", name);
             }
             entries.forEach(Entry::release);
+            memory.release();
             cursor.rewind();
             if (currentConsumer != null) {
                 notifyActiveConsumerChanged(currentConsumer);
@@ -236,19 +265,20 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
             int totalMessages = sendMessageInfo.getTotalMessages();
             long totalBytes = sendMessageInfo.getTotalBytes();
 
-            currentConsumer
+            memory.releaseOnWrite(currentConsumer
                     .sendMessages(entries, batchSizes, batchIndexesAcks, sendMessageInfo.getTotalMessages(),
                             sendMessageInfo.getTotalBytes(), sendMessageInfo.getTotalChunkedMessages(),
-                            redeliveryTracker)
+                            redeliveryTracker))
                     .addListener(future -> {
                         if (future.isSuccess()) {
                             // acquire message-dispatch permits for already delivered messages
                             if (serviceConfig.isDispatchThrottlingOnNonBacklogConsumerEnabled() || !cursor.isActive()) {
-                                if (topic.getDispatchRateLimiter().isPresent()) {
+                                // the subscription limiter charges the topic limiter as well
+                                if (dispatchRateLimiter.isPresent()) {
+                                    dispatchRateLimiter.get().tryDispatchPermit(totalMessages, totalBytes);
+                                } else if (topic.getDispatchRateLimiter().isPresent()) {
                                     topic.getDispatchRateLimiter().get().tryDispatchPermit(totalMessages, totalBytes);
                                 }
-
-                                dispatchRateLimiter.ifPresent(rateLimiter -> rateLimiter.tryDispatchPermit(totalMessages, totalBytes));
                             }
 
                             // Schedule a new read batch operation only after the previous batch has been written to the
@@ -270,6 +300,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
                                     }));
                         }
                     });
+            memory.release();
         }
     }
 
@@ -444,7 +475,16 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
             if (log.isDebugEnabled()) {
                 log.debug("[{}-{}] Schedule read of {} messages", name, consumer, messagesToRead);
             }
+            long reservedBytes = dispatchMemory.tryReserveRead(messagesToRead,
+                    serviceConfig.getDispatcherMaxReadSizeBytes());
+            if (reservedBytes < 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}-{}] Dispatch memory is exhausted, pause reading", name, consumer);
+                }
+                return;
+            }
             havePendingRead = true;
+            pendingReadReservedBytes = reservedBytes;
 
             if (transactionReader.havePendingTxnToRead()) {
                 transactionReader.read(messagesToRead, consumer, this);
@@ -469,6 +509,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
 
     private synchronized void internalReadEntriesFailed(ManagedLedgerException exception, Object ctx) {
         havePendingRead = false;
+        releasePendingReadMemory();
         Consumer c = (Consumer) ctx;
 
         long waitTimeMillis = readFailureBackoff.next();
@@ -546,6 +587,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
     public CompletableFuture<Void> close() {
         IS_CLOSED_UPDATER.set(this, TRUE);
         dispatchRateLimiter.ifPresent(DispatchRateLimiter::close);
+        dispatchMemory.close();
         return disconnectAllConsumers();
     }
 
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.BrokerServiceException;
+import org.apache.pulsar.broker.service.Consumer;
+import org.apache.pulsar.broker.service.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatcher for shared subscriptions that never blocks the IO threads on the dispatcher lock.
+ *
+ * <p>Flow permits are accounted with atomic updates on the calling thread. Read completions, read failures,
+ * redeliveries and the reads they trigger are handed over to the topic ordered executor, keyed by subscription, so
+ * that all the dispatching work of a subscription runs on one executor thread while the subscriptions of a broker are
+ * spread over all of them. Concurrent requests to read more entries are coalesced into a single task.
+ */
+public class PersistentNonBlockingDispatcherMultipleConsumers extends PersistentDispatcherMultipleConsumers {
+
+    private final OrderedExecutor executor;
+    private final Set<Consumer> connectedConsumers = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicIntegerFieldUpdater<PersistentNonBlockingDispatcherMultipleConsumers>
+            READ_MORE_ENTRIES_SCHEDULED_UPDATER = AtomicIntegerFieldUpdater
+                    .newUpdater(PersistentNonBlockingDispatcherMultipleConsumers.class, "readMoreEntriesScheduled");
+    private volatile int readMoreEntriesScheduled = FALSE;
+
+    public PersistentNonBlockingDispatcherMultipleConsumers(PersistentTopic topic, ManagedCursor cursor,
+            Subscription subscription) {
+        super(topic, cursor, subscription);
+        this.executor = topic.getBrokerService().getTopicOrderedExecutor();
+    }
+
+    @Override
+    public synchronized void addConsumer(Consumer consumer) throws BrokerServiceException {
+        super.addConsumer(consumer);
+        if (consumerSet.contains(consumer)) {
+            connectedConsumers.add(consumer);
+        }
+    }
+
+    @Override
+    public synchronized void removeConsumer(Consumer consumer) throws BrokerServiceException {
+        connectedConsumers.remove(consumer);
+        super.removeConsumer(consumer);
+    }
+
+    @Override
+    public void consumerFlow(Consumer consumer, int additionalNumberOfMessages) {
+        if (!connectedConsumers.contains(consumer)) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Ignoring flow control from disconnected consumer {}", name, consumer);
+            }
+            return;
+        }
+
+        int permits = TOTAL_AVAILABLE_PERMITS_UPDATER.addAndGet(this, additionalNumberOfMessages);
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}-{}] Trigger new read after receiving flow control message with permits {}", name, consumer,
+                    permits);
+        }
+        readMoreEntries();
+    }
+
+    @Override
+    public void readMoreEntries() {
+        if (READ_MORE_ENTRIES_SCHEDULED_UPDATER.compareAndSet(this, FALSE, TRUE)) {
+            executor.executeOrdered(name, safeRun(() -> {
+                // Clear the flag before reading, so that permits granted from now on trigger another read
+                readMoreEntriesScheduled = FALSE;
+                synchronized (PersistentNonBlockingDispatcherMultipleConsumers.this) {
+                    super.readMoreEntries();
+                }
+            }));
+        }
+    }
+
+    @Override
+    public void readEntriesComplete(List<Entry> entries, Object ctx) {
+        executor.executeOrdered(name, safeRun(() -> super.readEntriesComplete(entries, ctx)));
+    }
+
+    @Override
+    public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+        executor.executeOrdered(name, safeRun(() -> super.readEntriesFailed(exception, ctx)));
+    }
+
+    @Override
+    public void redeliverUnacknowledgedMessages(Consumer consumer) {
+        executor.executeOrdered(name, safeRun(() -> super.redeliverUnacknowledgedMessages(consumer)));
+    }
+
+    @Override
+    public void redeliverUnacknowledgedMessages(Consumer consumer, List<PositionImpl> positions) {
+        executor.executeOrdered(name, safeRun(() -> super.redeliverUnacknowledgedMessages(consumer, positions)));
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentNonBlockingDispatcherMultipleConsumers.class);
+}
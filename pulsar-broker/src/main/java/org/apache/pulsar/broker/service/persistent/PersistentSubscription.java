@@ -28,8 +28,12 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.stream.Collectors;
@@ -48,6 +52,7 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException.InvalidCursorPositio
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.mledger.util.SafeRun;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.ServerMetadataException;
@@ -129,6 +134,11 @@ public class PersistentSubscription implements Subscription {
 
     private volatile ReplicatedSubscriptionSnapshotCache replicatedSubscriptionSnapshotCache;
 
+    // Individual acks waiting to be applied to the cursor in a single batch
+    private final boolean acknowledgmentBatchingEnabled;
+    private final Queue<Position> pendingIndividualAcks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean individualAcksFlushScheduled = new AtomicBoolean(false);
+
     static {
         REPLICATED_SUBSCRIPTION_CURSOR_PROPERTIES.put(REPLICATED_SUBSCRIPTION_PROPERTY, 1L);
     }
@@ -149,6 +159,8 @@ public class PersistentSubscription implements Subscription {
         this.subName = subscriptionName;
         this.fullName = MoreObjects.toStringHelper(this).add("topic", topicName).add("name", subName).toString();
         this.expiryMonitor = new PersistentMessageExpiryMonitor(topicName, subscriptionName, cursor);
+        this.acknowledgmentBatchingEnabled = topic.getBrokerService().pulsar().getConfiguration()
+                .isAcknowledgmentBatchingEnabled();
         this.setReplicated(replicated);
         IS_FENCED_UPDATER.set(this, FALSE);
     }
@@ -197,7 +209,12 @@ public class PersistentSubscription implements Subscription {
             case Shared:
                 if (dispatcher == null || dispatcher.getType() != SubType.Shared) {
                     previousDispatcher = dispatcher;
-                    dispatcher = new PersistentDispatcherMultipleConsumers(topic, cursor, this);
+                    if (topic.getBrokerService().getPulsar().getConfiguration()
+                            .isDispatcherNonBlockingSharedSubscriptionEnabled()) {
+                        dispatcher = new PersistentNonBlockingDispatcherMultipleConsumers(topic, cursor, this);
+                    } else {
+                        dispatcher = new PersistentDispatcherMultipleConsumers(topic, cursor, this);
+                    }
                 }
                 break;
             case Failover:
@@ -335,6 +352,7 @@ public class PersistentSubscription implements Subscription {
                 log.debug("[{}][{}] Individual acks on {}", topicName, subName, positions);
             }
             // Check if message is acknowledged by ongoing transaction.
+            List<Position> positionsToAck = positions;
             if ((pendingAckMessages != null && pendingAckMessages.size() != 0) || pendingCumulativeAckMessage != null) {
                 List<Position> positionsSafeToAck;
                 synchronized (PersistentSubscription.this) {
@@ -358,16 +376,60 @@ public class PersistentSubscription implements Subscription {
                         return true;
                     }).collect(Collectors.toList());
                 }
-                cursor.asyncDelete(positionsSafeToAck, deleteCallback, positionsSafeToAck);
+                positionsToAck = positionsSafeToAck;
+            }
+
+            if (acknowledgmentBatchingEnabled) {
+                addPendingIndividualAcks(positionsToAck);
             } else {
-                cursor.asyncDelete(positions, deleteCallback, positions);
+                cursor.asyncDelete(positionsToAck, deleteCallback, positionsToAck);
             }
 
             if(dispatcher != null){
                 dispatcher.getRedeliveryTracker().removeBatch(positions);
             }
+
+            if (acknowledgmentBatchingEnabled) {
+                // The rest happens once the batch has been applied to the cursor
+                return;
+            }
+        }
+
+        acknowledgmentApplied(previousMarkDeletePosition);
+    }
+
+    private void addPendingIndividualAcks(List<Position> positions) {
+        pendingIndividualAcks.addAll(positions);
+        if (individualAcksFlushScheduled.compareAndSet(false, true)) {
+            // The acks received until the flush runs, from any connection, are applied with the same cursor update
+            topic.getBrokerService().getTopicOrderedExecutor().executeOrdered(topicName,
+                    SafeRun.safeRun(this::flushPendingIndividualAcks));
         }
+    }
 
+    @VisibleForTesting
+    void flushPendingIndividualAcks() {
+        // Acks added from now on schedule a new flush
+        individualAcksFlushScheduled.set(false);
+
+        List<Position> positions = new ArrayList<>();
+        Position position;
+        while ((position = pendingIndividualAcks.poll()) != null) {
+            positions.add(position);
+        }
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}][{}] Applying {} batched individual acks", topicName, subName, positions.size());
+        }
+        Position previousMarkDeletePosition = cursor.getMarkDeletedPosition();
+        cursor.asyncDelete(positions, deleteCallback, positions);
+        acknowledgmentApplied(previousMarkDeletePosition);
+    }
+
+    private void acknowledgmentApplied(Position previousMarkDeletePosition) {
         if (!cursor.getMarkDeletedPosition().equals(previousMarkDeletePosition)) {
             // Mark delete position advance
             ReplicatedSubscriptionSnapshotCache snapshotCache  = this.replicatedSubscriptionSnapshotCache;
@@ -805,6 +867,8 @@ public class PersistentSubscription implements Subscription {
             log.info("[{}][{}] Successfully closed subscription [{}]", topicName, subName, cursor);
         }
 
+        // Apply the acks still waiting for a batch before the cursor gets closed with the topic
+        flushPendingIndividualAcks();
         return CompletableFuture.completedFuture(null);
     }
 
@@ -991,6 +1055,8 @@ public class PersistentSubscription implements Subscription {
                 subStats.lastConsumedTimestamp = Math.max(subStats.lastConsumedTimestamp, consumerStats.lastConsumedTimestamp);
                 subStats.lastAckedTimestamp = Math.max(subStats.lastAckedTimestamp, consumerStats.lastAckedTimestamp);
             });
+            dispatcher.getRateLimiter().ifPresent(rateLimiter -> subStats.dispatchThrottledTimeMs =
+                    TimeUnit.NANOSECONDS.toMillis(rateLimiter.getThrottledTimeNanos()));
         }
 
         subStats.type = getType();
@@ -1000,6 +1066,11 @@ public class PersistentSubscription implements Subscription {
                 subStats.activeConsumerName = activeConsumer.consumerName();
             }
         }
+        if (dispatcher instanceof PersistentDispatcherMultipleConsumers) {
+            PersistentDispatcherMultipleConsumers d = (PersistentDispatcherMultipleConsumers) dispatcher;
+            subStats.readBatchSize = d.getReadBatchSize();
+            subStats.avgReadEntrySize = d.getAvgReadEntrySize();
+        }
         if (Subscription.isIndividualAckMode(subStats.type)) {
             if (dispatcher instanceof PersistentDispatcherMultipleConsumers) {
                 PersistentDispatcherMultipleConsumers d = (PersistentDispatcherMultipleConsumers) dispatcher;
@@ -29,8 +29,10 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
 import io.netty.util.concurrent.FastThreadLocal;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -129,6 +131,7 @@ import org.apache.pulsar.common.util.Codec;
 import org.apache.pulsar.common.util.DateFormatter;
 import org.apache.pulsar.common.util.FutureUtil;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
+import org.apache.pulsar.compaction.CompactedSegment;
 import org.apache.pulsar.compaction.CompactedTopic;
 import org.apache.pulsar.compaction.CompactedTopicImpl;
 import org.apache.pulsar.compaction.Compactor;
@@ -447,6 +450,10 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
             }
             messageDeduplication.producerAdded(producer.getProducerName());
 
+            if (brokerService.pulsar().getConfiguration().isTopicIoThreadAffinityEnabled()) {
+                assignAddPathToProducersIoThread();
+            }
+
             // Start replication producers if not already
             startReplProducers();
         } finally {
@@ -454,6 +461,34 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
         }
     }
 
+    /**
+     * Assign the managed ledger add path to the IO thread serving the most producers of this topic, so that their
+     * publishes are persisted and acknowledged without thread hops. The assignment is attempted each time a producer
+     * is added, until the managed ledger accepts it.
+     */
+    private void assignAddPathToProducersIoThread() {
+        if (!(ledger instanceof ManagedLedgerImpl)) {
+            return;
+        }
+        ManagedLedgerImpl managedLedger = (ManagedLedgerImpl) ledger;
+        if (managedLedger.getAddEntryAffinityExecutor() != null) {
+            return;
+        }
+
+        Map<EventLoop, Integer> producersPerIoThread = new HashMap<>();
+        producers.values().forEach(producer -> {
+            if (!producer.isRemote() && producer.getCnx().ctx() != null) {
+                producersPerIoThread.merge(producer.getCnx().ctx().channel().eventLoop(), 1, Integer::sum);
+            }
+        });
+        producersPerIoThread.entrySet().stream().max(Map.Entry.comparingByValue()).ifPresent(entry ->
+                managedLedger.setAddEntryAffinityExecutor(entry.getKey()).thenAccept(assigned -> {
+                    if (assigned && log.isDebugEnabled()) {
+                        log.debug("[{}] Assigned add path to IO thread {}", topic, entry.getKey());
+                    }
+                }));
+    }
+
     private boolean hasRemoteProducers() {
         AtomicBoolean foundRemote = new AtomicBoolean(false);
         producers.values().forEach(producer -> {
@@ -903,6 +938,8 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
                                 public void deleteLedgerComplete(Object ctx) {
                                     brokerService.removeTopicFromCache(topic);
 
+                                    messageDeduplication.deleteSnapshotLedgers();
+
                                     dispatchRateLimiter.ifPresent(DispatchRateLimiter::close);
 
                                     subscribeRateLimiter.ifPresent(SubscribeRateLimiter::close);
@@ -992,6 +1029,8 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
 
                     replicatedSubscriptionsController.ifPresent(ReplicatedSubscriptionsController::close);
 
+                    messageDeduplication.close();
+
                     dispatchRateLimiter.ifPresent(DispatchRateLimiter::close);
 
                     subscribeRateLimiter.ifPresent(SubscribeRateLimiter::close);
@@ -1573,6 +1612,9 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
         stats.storageSize = ledger.getTotalSize();
         stats.backlogSize = ledger.getEstimatedBacklogSize();
         stats.deduplicationStatus = messageDeduplication.getStatus().toString();
+        stats.publishThrottledTimeMs = TimeUnit.NANOSECONDS.toMillis(topicPublishRateLimiter.getThrottledTimeNanos());
+        dispatchRateLimiter.ifPresent(rateLimiter -> stats.dispatchThrottledTimeMs =
+                TimeUnit.NANOSECONDS.toMillis(rateLimiter.getThrottledTimeNanos()));
 
         return stats;
     }
@@ -2098,12 +2140,33 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
     public synchronized void triggerCompaction()
             throws PulsarServerException, AlreadyRunningException {
         if (currentCompaction.isDone()) {
-            currentCompaction = brokerService.pulsar().getCompactor().compact(topic);
+            currentCompaction = startCompaction();
         } else {
             throw new AlreadyRunningException("Compaction already in progress");
         }
     }
 
+    /**
+     * Compact the topic incrementally when enabled and the topic has less than the maximum number of compacted
+     * segments, or fully otherwise, which merges all the segments into one. The segments are only written with the
+     * compacted topic index, which the readers need to skip the values superseded in newer segments.
+     */
+    private CompletableFuture<Long> startCompaction() throws PulsarServerException {
+        Compactor compactor = brokerService.pulsar().getCompactor();
+        ServiceConfiguration config = brokerService.pulsar().getConfiguration();
+        PersistentSubscription compactionSub = subscriptions.get(Compactor.COMPACTION_SUBSCRIPTION);
+        if (config.isCompactionIncrementalEnabled() && config.isCompactedTopicIndexEnabled()
+                && compactionSub instanceof CompactorSubscription) {
+            List<CompactedSegment> segments = ((CompactorSubscription) compactionSub).getSegments();
+            if (!segments.isEmpty() && segments.size() < config.getCompactionMaxSegments()) {
+                PositionImpl horizon = segments.get(segments.size() - 1).getHorizon();
+                return compactor.compactIncrementally(topic,
+                        new MessageIdImpl(horizon.getLedgerId(), horizon.getEntryId(), -1));
+            }
+        }
+        return compactor.compact(topic);
+    }
+
     public synchronized LongRunningProcessStatus compactionStatus() {
         final CompletableFuture<Long> current;
         synchronized (this) {
@@ -2440,7 +2503,8 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
                 || this.topicPublishRateLimiter == PublishRateLimiter.DISABLED_RATE_LIMITER) {
                 // create new rateLimiter if rate-limiter is disabled
                 if (preciseTopicPublishRateLimitingEnable) {
-                    this.topicPublishRateLimiter = new PrecisPublishLimiter(topicPolicyPublishRate, ()-> this.enableCnxAutoRead());
+                    this.topicPublishRateLimiter = new PrecisPublishLimiter(topicPolicyPublishRate,
+                            () -> this.enableCnxAutoRead(), brokerService.pulsar().getExecutor());
                 } else {
                     this.topicPublishRateLimiter = new PublishRateLimiterImpl(topicPolicyPublishRate);
                 }
@@ -25,31 +25,29 @@ import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.service.BrokerService;
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.SubscribeRate;
-import org.apache.pulsar.common.util.RateLimiter;
+import org.apache.pulsar.common.util.TokenBucket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class SubscribeRateLimiter {
 
     private final String topicName;
     private final BrokerService brokerService;
-    private ConcurrentHashMap<ConsumerIdentifier, RateLimiter> subscribeRateLimiter;
-    private final ScheduledExecutorService executorService;
-    private ScheduledFuture<?> resetTask;
+    private ConcurrentHashMap<ConsumerIdentifier, TokenBucket> subscribeRateLimiter;
+    // buckets of consumers which stopped subscribing are dropped lazily, at most once per rate-period
+    private long nextCleanupNanos;
     private SubscribeRate subscribeRate;
 
     public SubscribeRateLimiter(PersistentTopic topic) {
         this.topicName = topic.getName();
         this.brokerService = topic.getBrokerService();
         subscribeRateLimiter = new ConcurrentHashMap<>();
-        this.executorService = brokerService.pulsar().getExecutor();
+        this.nextCleanupNanos = System.nanoTime();
         this.subscribeRate = getPoliciesSubscribeRate();
         if (this.subscribeRate == null) {
             this.subscribeRate = new SubscribeRate(brokerService.pulsar().getConfiguration().getSubscribeThrottlingRatePerConsumer(),
@@ -57,7 +55,6 @@ public class SubscribeRateLimiter {
 
         }
         if (isSubscribeRateEnabled(this.subscribeRate)) {
-            resetTask = createTask();
             log.info("[{}] configured subscribe-dispatch rate at broker {}", this.topicName, subscribeRate);
         }
     }
@@ -77,6 +74,7 @@ public class SubscribeRateLimiter {
      * @return
      */
     public synchronized boolean tryAcquire(ConsumerIdentifier consumerIdentifier) {
+        removeIdleSubscribeLimiters();
         addSubscribeLimiterIfAbsent(consumerIdentifier);
         return subscribeRateLimiter.get(consumerIdentifier) == null || subscribeRateLimiter.get(consumerIdentifier).tryAcquire();
     }
@@ -102,10 +100,19 @@ public class SubscribeRateLimiter {
     }
 
     private synchronized void removeSubscribeLimiter(ConsumerIdentifier consumerIdentifier) {
-        if (this.subscribeRateLimiter.get(consumerIdentifier) != null) {
-            this.subscribeRateLimiter.get(consumerIdentifier).close();
-            this.subscribeRateLimiter.remove(consumerIdentifier);
+        this.subscribeRateLimiter.remove(consumerIdentifier);
+    }
+
+    /**
+     * Drops the buckets which have been refilled, they would be recreated full on the next subscribe anyway.
+     */
+    private synchronized void removeIdleSubscribeLimiters() {
+        long now = System.nanoTime();
+        if (subscribeRateLimiter.isEmpty() || now - nextCleanupNanos < 0) {
+            return;
         }
+        nextCleanupNanos = now + TimeUnit.SECONDS.toNanos(Math.max(1, subscribeRate.ratePeriodInSecond));
+        subscribeRateLimiter.values().removeIf(bucket -> bucket.getAvailablePermits() >= bucket.getRate());
     }
 
     /**
@@ -121,8 +128,8 @@ public class SubscribeRateLimiter {
         // update subscribe-rateLimiter
         if (ratePerConsumer > 0) {
             if (this.subscribeRateLimiter.get(consumerIdentifier) == null) {
-                this.subscribeRateLimiter.put(consumerIdentifier, new RateLimiter(brokerService.pulsar().getExecutor(), ratePerConsumer,
-                        ratePeriod, TimeUnit.SECONDS, null));
+                this.subscribeRateLimiter.put(consumerIdentifier, new TokenBucket(ratePerConsumer, ratePeriod,
+                        TimeUnit.SECONDS));
             } else {
                 this.subscribeRateLimiter.get(consumerIdentifier).setRate(ratePerConsumer, ratePeriod, TimeUnit.SECONDS,
                         null);
@@ -151,12 +158,10 @@ public class SubscribeRateLimiter {
                 subscribeRate = newSubscribeRate;
             }
             this.subscribeRate = subscribeRate;
-            stopResetTask();
             for (ConsumerIdentifier consumerIdentifier : this.subscribeRateLimiter.keySet()) {
                 updateSubscribeRate(consumerIdentifier, subscribeRate);
             }
             if (isSubscribeRateEnabled(this.subscribeRate)) {
-                this.resetTask = createTask();
                 log.info("[{}] configured subscribe-dispatch rate at broker {}", this.topicName, subscribeRate);
             }
         }
@@ -220,31 +225,7 @@ public class SubscribeRateLimiter {
         return subscribeRate != null && (subscribeRate.subscribeThrottlingRatePerConsumer > 0);
     }
 
-    public void close() {
-        closeAndClearRateLimiters();
-        stopResetTask();
-    }
-
-    private ScheduledFuture<?> createTask() {
-        return executorService.scheduleAtFixedRate(this::closeAndClearRateLimiters,
-                this.subscribeRate.ratePeriodInSecond,
-                this.subscribeRate.ratePeriodInSecond,
-                TimeUnit.SECONDS);
-    }
-
-    private void stopResetTask() {
-        if (this.resetTask != null) {
-            this.resetTask.cancel(false);
-        }
-    }
-
-    private synchronized void closeAndClearRateLimiters() {
-        // close rate-limiter
-        this.subscribeRateLimiter.values().forEach(rateLimiter -> {
-            if (rateLimiter != null) {
-                rateLimiter.close();
-            }
-        });
+    public synchronized void close() {
         this.subscribeRateLimiter.clear();
     }
 
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.stats.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.service.DispatchMemoryLimiter;
+import org.apache.pulsar.common.stats.Metrics;
+
+/**
+ * Usage of the broker-wide memory budget of the dispatch reads.
+ */
+public class DispatchMemoryMetrics extends AbstractMetrics {
+
+    public DispatchMemoryMetrics(PulsarService pulsar) {
+        super(pulsar);
+    }
+
+    @Override
+    public List<Metrics> generate() {
+        DispatchMemoryLimiter limiter = pulsar.getBrokerService().getDispatchMemoryLimiter();
+        if (limiter == null || !limiter.isEnabled()) {
+            return Collections.emptyList();
+        }
+
+        Metrics m = createMetrics();
+        m.put("brk_dispatch_memory_limit_bytes", limiter.getMaxBytes());
+        m.put("brk_dispatch_memory_used_bytes", limiter.getUsedBytes());
+        m.put("brk_dispatch_memory_paused_dispatchers", limiter.getPausedDispatchers());
+        m.put("brk_dispatch_memory_paused_reads", limiter.getPausedReads());
+        return Collections.singletonList(m);
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.pulsar.broker.stats.metrics;
 
 import java.util.List;
+import java.util.Map;
 
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryMXBean;
 import org.apache.bookkeeper.mledger.impl.EntryCacheImpl;
@@ -26,6 +27,7 @@ import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.common.stats.Metrics;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import io.netty.buffer.PoolArenaMetric;
 import io.netty.buffer.PoolChunkListMetric;
@@ -47,13 +49,16 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
 
         ManagedLedgerFactoryMXBean mlCacheStats = getManagedLedgerCacheStats();
 
-        Metrics m = createMetrics();
+        Map<String, String> dimensionMap = Maps.newHashMap();
+        dimensionMap.put("cache_eviction_policy", mlCacheStats.getCacheEvictionPolicy());
+        Metrics m = createMetrics(dimensionMap);
 
         m.put("brk_ml_count", mlCacheStats.getNumberOfManagedLedgers());
         m.put("brk_ml_cache_used_size", mlCacheStats.getCacheUsedSize());
         m.put("brk_ml_cache_evictions", mlCacheStats.getNumberOfCacheEvictions());
         m.put("brk_ml_cache_hits_rate", mlCacheStats.getCacheHitsRate());
         m.put("brk_ml_cache_misses_rate", mlCacheStats.getCacheMissesRate());
+        m.put("brk_ml_cache_hits_ratio", mlCacheStats.getCacheHitsRatio());
         m.put("brk_ml_cache_hits_throughput", mlCacheStats.getCacheHitsThroughput());
         m.put("brk_ml_cache_misses_throughput", mlCacheStats.getCacheMissesThroughput());
 
@@ -41,6 +41,10 @@ public class AggregatedSubscriptionStats {
 
     public long msgDelayed;
 
+    public int readBatchSize;
+
+    public double avgReadEntrySize;
+
     long msgOutCounter;
 
     long bytesOutCounter;
@@ -33,6 +33,7 @@ import org.apache.bookkeeper.stats.StatsProvider;
 import org.apache.pulsar.broker.PulsarService;
 import static org.apache.pulsar.common.stats.JvmMetrics.getJvmDirectMemoryUsed;
 
+import org.apache.pulsar.broker.stats.metrics.DispatchMemoryMetrics;
 import org.apache.pulsar.broker.stats.metrics.ManagedLedgerCacheMetrics;
 import org.apache.pulsar.broker.stats.metrics.ManagedLedgerMetrics;
 import org.apache.pulsar.common.stats.Metrics;
@@ -107,6 +108,10 @@ public class PrometheusMetricsGenerator {
         parseMetricsToPrometheusMetrics(new ManagedLedgerMetrics(pulsar).generate(),
                 clusterName, Collector.Type.GAUGE, stream);
 
+        // generate dispatch memory metrics
+        parseMetricsToPrometheusMetrics(new DispatchMemoryMetrics(pulsar).generate(),
+                clusterName, Collector.Type.GAUGE, stream);
+
         // generate loadBalance metrics
         parseMetricsToPrometheusMetrics(pulsar.getLoadManager().get().getLoadBalancingMetrics(),
                 clusterName, Collector.Type.GAUGE, stream);
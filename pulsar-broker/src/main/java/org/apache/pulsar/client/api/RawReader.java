@@ -32,8 +32,22 @@ public interface RawReader {
      */
 
     public static CompletableFuture<RawReader> create(PulsarClient client, String topic, String subscription) {
+        return create(client, topic, subscription, true);
+    }
+
+    /**
+     * Create a raw reader for a topic.
+     *
+     * @param seekToEarliest whether to read the topic from the earliest message, or to resume reading after the
+     *                       mark-delete position of the subscription
+     */
+    public static CompletableFuture<RawReader> create(PulsarClient client, String topic, String subscription,
+                                                      boolean seekToEarliest) {
         CompletableFuture<Consumer<byte[]>> future = new CompletableFuture<>();
         RawReader r = new RawReaderImpl((PulsarClientImpl)client, topic, subscription, future);
+        if (!seekToEarliest) {
+            return future.thenApply((ignore) -> r);
+        }
         return future.thenCompose((consumer) -> r.seekAsync(MessageId.earliest)).thenApply((ignore) -> r);
     }
 
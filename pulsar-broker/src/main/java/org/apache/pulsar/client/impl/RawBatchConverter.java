@@ -46,7 +46,9 @@ public class RawBatchConverter {
         ByteBuf payload = msg.getHeadersAndPayload();
         MessageMetadata metadata = Commands.parseMessageMetadata(payload);
         try {
-            return metadata.hasNumMessagesInBatch() && metadata.getEncryptionKeysCount() == 0;
+            // The broker does not resolve compression dictionaries, so such batches are opaque like encrypted ones
+            return metadata.hasNumMessagesInBatch() && metadata.getEncryptionKeysCount() == 0
+                    && !metadata.hasCompressionDictionaryId();
         } finally {
             metadata.recycle();
         }
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+
+/**
+ * A compacted ledger of a topic, with the horizon up to which it was compacted.
+ *
+ * <p>A full compaction produces a single segment, holding the latest message of each key up to the compaction
+ * horizon. An incremental compaction appends a segment holding the latest message, or the deletion, of each key
+ * written between the horizon of the previous segment and its own horizon. The compacted view of the topic is the
+ * segments read in order, so a key can appear in several segments, its latest value being in the newest one.
+ *
+ * <p>The segments are stored in the properties of the compaction cursor. The first segment is stored under
+ * {@link Compactor#COMPACTED_TOPIC_LEDGER_PROPERTY}, as done before segments were introduced, and the horizon of the
+ * last segment is the mark-delete position of the cursor.
+ */
+public class CompactedSegment {
+    private static final String SEGMENTS_PROPERTY = "CompactedTopicSegments";
+    private static final String SEGMENT_LEDGER_PROPERTY = "CompactedTopicSegmentLedger.";
+    private static final String SEGMENT_HORIZON_LEDGER_PROPERTY = "CompactedTopicSegmentHorizonLedger.";
+    private static final String SEGMENT_HORIZON_ENTRY_PROPERTY = "CompactedTopicSegmentHorizonEntry.";
+
+    private final long ledgerId;
+    private final PositionImpl horizon;
+
+    public CompactedSegment(long ledgerId, Position horizon) {
+        this.ledgerId = ledgerId;
+        this.horizon = (PositionImpl) horizon;
+    }
+
+    public long getLedgerId() {
+        return ledgerId;
+    }
+
+    public PositionImpl getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * Read the segments from the properties of the compaction cursor.
+     *
+     * @param properties the properties of the compaction cursor
+     * @param markDeletePosition the mark-delete position of the compaction cursor
+     * @return the segments, oldest first, or an empty list if the topic was never compacted
+     */
+    public static List<CompactedSegment> fromProperties(Map<String, Long> properties, Position markDeletePosition) {
+        Long firstLedgerId = properties.get(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY);
+        if (firstLedgerId == null) {
+            return Collections.emptyList();
+        }
+        int count = properties.getOrDefault(SEGMENTS_PROPERTY, 1L).intValue();
+        List<CompactedSegment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long ledgerId = i == 0 ? firstLedgerId : properties.get(SEGMENT_LEDGER_PROPERTY + i);
+            Position horizon = i == count - 1 ? markDeletePosition
+                    : PositionImpl.get(properties.get(SEGMENT_HORIZON_LEDGER_PROPERTY + i),
+                            properties.get(SEGMENT_HORIZON_ENTRY_PROPERTY + i));
+            segments.add(new CompactedSegment(ledgerId, horizon));
+        }
+        return segments;
+    }
+
+    /**
+     * Build the properties of the compaction cursor for the given segments, oldest first.
+     */
+    public static Map<String, Long> toProperties(List<CompactedSegment> segments) {
+        Map<String, Long> properties = new HashMap<>();
+        properties.put(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY, segments.get(0).getLedgerId());
+        if (segments.size() > 1) {
+            properties.put(SEGMENTS_PROPERTY, (long) segments.size());
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            CompactedSegment segment = segments.get(i);
+            if (i > 0) {
+                properties.put(SEGMENT_LEDGER_PROPERTY + i, segment.getLedgerId());
+            }
+            if (i < segments.size() - 1) {
+                properties.put(SEGMENT_HORIZON_LEDGER_PROPERTY + i, segment.getHorizon().getLedgerId());
+                properties.put(SEGMENT_HORIZON_ENTRY_PROPERTY + i, segment.getHorizon().getEntryId());
+            }
+        }
+        return properties;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CompactedSegment)) {
+            return false;
+        }
+        CompactedSegment other = (CompactedSegment) obj;
+        return ledgerId == other.ledgerId && Objects.equals(horizon, other.horizon);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ledgerId, horizon);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactedSegment(ledgerId=" + ledgerId + ", horizon=" + horizon + ")";
+    }
+}
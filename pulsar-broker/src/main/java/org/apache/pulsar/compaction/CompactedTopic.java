@@ -18,13 +18,32 @@
  */
 package org.apache.pulsar.compaction;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 
 public interface CompactedTopic {
     CompletableFuture<?> newCompactedLedger(Position p, long compactedLedgerId);
+
+    /**
+     * Replace the compacted view of the topic with the given segments, oldest first. The horizon of the last segment
+     * is the compaction horizon.
+     */
+    CompletableFuture<?> newCompactedSegments(Position p, List<CompactedSegment> segments);
+
     void asyncReadEntriesOrWait(ManagedCursor cursor, int numberOfEntriesToRead,
                                 ReadEntriesCallback callback, Object ctx);
+
+    /**
+     * Read the entry holding the latest message of a key in the compacted view of the topic, which only covers the
+     * messages up to the compaction horizon. The entry is a batch when the message was published in a batch.
+     *
+     * @return the entry, or an empty optional if the key is not in the compacted view or its latest message is a
+     *         deletion. Fails if a compacted ledger of the topic has no key index.
+     */
+    CompletableFuture<Optional<Entry>> readLatestByKey(String key);
 }
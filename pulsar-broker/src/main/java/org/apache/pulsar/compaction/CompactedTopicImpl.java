@@ -23,14 +23,21 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.ComparisonChain;
 
 import io.netty.buffer.ByteBuf;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import lombok.Getter;
 import org.apache.bookkeeper.client.BookKeeper;
@@ -43,10 +50,17 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.LedgerMetadataUtils;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.RawMessage;
+import org.apache.pulsar.client.impl.RawBatchConverter;
 import org.apache.pulsar.client.impl.RawMessageImpl;
 import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.util.FutureUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,7 +72,9 @@ public class CompactedTopicImpl implements CompactedTopic {
     private final BookKeeper bk;
 
     private PositionImpl compactionHorizon = null;
+    // context of the newest segment
     private CompletableFuture<CompactedTopicContext> compactedTopicContext = null;
+    private List<SegmentContext> segments = Collections.emptyList();
 
     public CompactedTopicImpl(BookKeeper bk) {
         this.bk = bk;
@@ -66,19 +82,38 @@ public class CompactedTopicImpl implements CompactedTopic {
 
     @Override
     public CompletableFuture<?> newCompactedLedger(Position p, long compactedLedgerId) {
+        return newCompactedSegments(p, Collections.singletonList(new CompactedSegment(compactedLedgerId, p)));
+    }
+
+    @Override
+    public CompletableFuture<?> newCompactedSegments(Position p, List<CompactedSegment> newSegments) {
         synchronized (this) {
             compactionHorizon = (PositionImpl)p;
 
-            CompletableFuture<CompactedTopicContext> previousContext = compactedTopicContext;
-            compactedTopicContext = openCompactedLedger(bk, compactedLedgerId);
+            // segments that are still part of the compacted view keep their open ledger
+            Map<Long, SegmentContext> previousSegments = new HashMap<>();
+            segments.forEach(segment -> previousSegments.put(segment.ledgerId, segment));
+            List<SegmentContext> openedSegments = new ArrayList<>(newSegments.size());
+            for (CompactedSegment segment : newSegments) {
+                SegmentContext previous = previousSegments.remove(segment.getLedgerId());
+                openedSegments.add(new SegmentContext(segment.getLedgerId(), segment.getHorizon(),
+                        previous != null ? previous.context : openCompactedLedger(bk, segment.getLedgerId())));
+            }
+            segments = openedSegments;
+            compactedTopicContext = openedSegments.get(openedSegments.size() - 1).context;
 
-            // delete the ledger from the old context once the new one is open
-            if (previousContext != null) {
-                return compactedTopicContext.thenCompose((res) -> previousContext)
-                    .thenCompose((res) -> tryDeleteCompactedLedger(bk, res.ledger.getId()));
-            } else {
-                return compactedTopicContext;
+            CompletableFuture<Void> opened = FutureUtil.waitForAll(
+                    openedSegments.stream().map(segment -> segment.context).collect(Collectors.toList()));
+            if (previousSegments.isEmpty()) {
+                return opened;
             }
+            // delete the ledgers from the old segments once the new ones are open
+            return opened.thenCompose((res) -> FutureUtil.waitForAll(previousSegments.values().stream()
+                    .map(segment -> segment.context.thenCompose((context) -> context.index == null
+                            ? tryDeleteCompactedLedger(bk, context.ledger.getId())
+                            : tryDeleteCompactedLedger(bk, context.ledger.getId()).thenCompose(
+                                    (res) -> tryDeleteCompactedLedger(bk, context.index.getIndexLedgerId()))))
+                    .collect(Collectors.toList())));
         }
     }
 
@@ -91,30 +126,44 @@ public class CompactedTopicImpl implements CompactedTopic {
                 || compactionHorizon.compareTo(cursorPosition) < 0) {
                 cursor.asyncReadEntriesOrWait(numberOfEntriesToRead, callback, ctx);
             } else {
-                compactedTopicContext.thenCompose(
-                    (context) -> findStartPoint(cursorPosition, context.ledger.getLastAddConfirmed(), context.cache)
+                // read from the oldest segment that was compacted past the read position
+                int segmentIndex = segments.size() - 1;
+                for (int i = 0; i < segments.size(); i++) {
+                    if (segments.get(i).horizon.compareTo(cursorPosition) >= 0) {
+                        segmentIndex = i;
+                        break;
+                    }
+                }
+                SegmentContext segment = segments.get(segmentIndex);
+                List<SegmentContext> newerSegments = segments.subList(segmentIndex + 1, segments.size());
+                segment.context.thenCompose(
+                    (context) -> findStartPoint(cursorPosition, context)
                         .thenCompose((startPoint) -> {
-                            if (startPoint == NEWER_THAN_COMPACTED && compactionHorizon.compareTo(cursorPosition) < 0) {
-                                cursor.asyncReadEntriesOrWait(numberOfEntriesToRead, callback, ctx);
+                            if (startPoint == NEWER_THAN_COMPACTED) {
+                                // nothing left in this segment, move on to the next segment or to the backlog
+                                cursor.seek(segment.horizon.getNext());
+                                callback.readEntriesComplete(Collections.emptyList(), ctx);
                                 return CompletableFuture.completedFuture(null);
                             } else {
                                 long endPoint = Math.min(context.ledger.getLastAddConfirmed(),
                                                          startPoint + numberOfEntriesToRead);
-                                if (startPoint == NEWER_THAN_COMPACTED) {
-                                    cursor.seek(compactionHorizon.getNext());
-                                    callback.readEntriesComplete(Collections.emptyList(), ctx);
-                                }
-                                return readEntries(context.ledger, startPoint, endPoint)
-                                    .thenAccept((entries) -> {
-                                        Entry lastEntry = entries.get(entries.size() - 1);
-                                        cursor.seek(lastEntry.getPosition().getNext());
-                                        callback.readEntriesComplete(entries, ctx);
+                                return readEntries(context.ledger, startPoint, endPoint,
+                                                   CompactedTopicImpl::readMessage)
+                                    .thenCompose((messages) -> {
+                                        MessageIdData lastId = messages.get(messages.size() - 1).getMessageIdData();
+                                        PositionImpl next =
+                                                PositionImpl.get(lastId.getLedgerId(), lastId.getEntryId()).getNext();
+                                        return skipSupersededMessages(messages, newerSegments)
+                                            .thenAccept((entries) -> {
+                                                cursor.seek(next);
+                                                callback.readEntriesComplete(entries, ctx);
+                                            });
                                     });
                             }
                         }))
                     .exceptionally((exception) -> {
                         if (exception.getCause() instanceof NoSuchElementException) {
-                            cursor.seek(compactionHorizon.getNext());
+                            cursor.seek(segment.horizon.getNext());
                             callback.readEntriesComplete(Collections.emptyList(), ctx);
                         } else {
                             callback.readEntriesFailed(new ManagedLedgerException(exception), ctx);
@@ -125,6 +174,221 @@ public class CompactedTopicImpl implements CompactedTopic {
         }
     }
 
+    /**
+     * Convert the messages read from a segment to entries, leaving out the messages whose key has a newer value, or
+     * deletion, in one of the newer segments. Without this, readers would go through the superseded values and the
+     * deletions of the older segments before reaching the latest value of a key.
+     *
+     * <p>The keys are looked up by their hash in the indexes of the newer segments, and the entries matching the hash
+     * are read to check that they hold the key. The compactor only appends segments whose keys are indexed, so only a
+     * segment whose index failed to load does not supersede any key.
+     */
+    private static CompletableFuture<List<Entry>> skipSupersededMessages(List<RawMessage> messages,
+                                                                        List<SegmentContext> newerSegments) {
+        Map<String, CompletableFuture<Boolean>> superseded = new HashMap<>();
+        if (!newerSegments.isEmpty()) {
+            for (RawMessage m : messages) {
+                try {
+                    for (String key : keysOf(m)) {
+                        superseded.computeIfAbsent(key, (k) -> isSuperseded(k, newerSegments));
+                    }
+                } catch (IOException e) {
+                    log.info("Error decoding batch for message {}, it is not checked against newer segments",
+                            m.getMessageId(), e);
+                }
+            }
+        }
+        return FutureUtil.waitForAll(new ArrayList<>(superseded.values())).handle((res, exception) -> {
+            try {
+                if (exception != null) {
+                    throw exception instanceof CompletionException
+                            ? (CompletionException) exception : new CompletionException(exception);
+                }
+                List<Entry> entries = new ArrayList<>(messages.size());
+                for (RawMessage m : messages) {
+                    Optional<RawMessage> kept = keepLatestValues(m, superseded);
+                    kept.ifPresent((k) -> {
+                        entries.add(EntryImpl.create(k.getMessageIdData().getLedgerId(),
+                                k.getMessageIdData().getEntryId(), k.getHeadersAndPayload()));
+                        if (k != m) {
+                            k.close();
+                        }
+                    });
+                }
+                return entries;
+            } finally {
+                messages.forEach(RawMessage::close);
+            }
+        });
+    }
+
+    private static Optional<RawMessage> keepLatestValues(RawMessage m,
+                                                         Map<String, CompletableFuture<Boolean>> superseded) {
+        if (superseded.isEmpty()) {
+            return Optional.of(m);
+        }
+        Predicate<String> isLatest = (key) -> {
+            CompletableFuture<Boolean> lookup = superseded.get(key);
+            return lookup == null || !lookup.join();
+        };
+        try {
+            if (keysOf(m).stream().allMatch(isLatest)) {
+                return Optional.of(m);
+            } else if (RawBatchConverter.isReadableBatch(m)) {
+                return RawBatchConverter.rebatchMessage(m, (key, id) -> isLatest.test(key));
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            log.info("Error decoding batch for message {}, the whole batch is read", m.getMessageId(), e);
+            return Optional.of(m);
+        }
+    }
+
+    private static List<String> keysOf(RawMessage m) throws IOException {
+        if (RawBatchConverter.isReadableBatch(m)) {
+            return RawBatchConverter.extractIdsAndKeysAndSize(m).stream()
+                    .map(ImmutableTriple::getMiddle).collect(Collectors.toList());
+        }
+        MessageMetadata metadata = Commands.parseMessageMetadata(m.getHeadersAndPayload());
+        try {
+            return metadata.hasPartitionKey()
+                    ? Collections.singletonList(metadata.getPartitionKey())
+                    : Collections.emptyList();
+        } finally {
+            metadata.recycle();
+        }
+    }
+
+    private static CompletableFuture<Boolean> isSuperseded(String key, List<SegmentContext> newerSegments) {
+        List<CompletableFuture<Boolean>> lookups = newerSegments.stream()
+                .map((segment) -> segment.context.thenCompose((context) ->
+                        context.index == null || !context.index.hasKeys()
+                                ? CompletableFuture.completedFuture(false)
+                                : context.index.findEntries(key)
+                                        .thenCompose((entryIds) -> hasEntryWithKey(context.ledger, entryIds, 0, key))))
+                .collect(Collectors.toList());
+        return FutureUtil.waitForAll(lookups)
+                .thenApply((res) -> lookups.stream().anyMatch(CompletableFuture::join));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Entry>> readLatestByKey(String key) {
+        List<SegmentContext> currentSegments;
+        synchronized (this) {
+            currentSegments = segments;
+        }
+        return readLatestByKey(key, currentSegments, currentSegments.size() - 1);
+    }
+
+    private static CompletableFuture<Optional<Entry>> readLatestByKey(String key, List<SegmentContext> segments,
+                                                                      int segment) {
+        if (segment < 0) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        // the newest segment holding the key has its latest value, or its deletion
+        return segments.get(segment).context.thenCompose((context) -> {
+            if (context.index == null || !context.index.hasKeys()) {
+                return FutureUtil.<Optional<Entry>>failedFuture(new IllegalStateException(
+                        "The keys of the compacted ledger " + context.ledger.getId() + " are not indexed"));
+            }
+            return context.index.findEntries(key)
+                    .thenCompose((entryIds) -> readEntryWithKey(context.ledger, entryIds, 0, key));
+        }).thenCompose((entry) -> entry == null
+                ? readLatestByKey(key, segments, segment - 1)
+                : CompletableFuture.completedFuture(entry));
+    }
+
+    /**
+     * Read the first of the given entries holding a message with the key, completing with null if none does, and with
+     * an empty optional if the message is a deletion.
+     */
+    private static CompletableFuture<Optional<Entry>> readEntryWithKey(LedgerHandle lh, List<Long> entryIds,
+                                                                       int candidate, String key) {
+        if (candidate == entryIds.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return readEntry(lh, entryIds.get(candidate)).thenCompose((buf) -> {
+            try (RawMessage m = RawMessageImpl.deserializeFrom(buf)) {
+                int size = sizeOfKey(m, key);
+                if (size < 0) {
+                    return readEntryWithKey(lh, entryIds, candidate + 1, key);
+                } else if (size == 0) {
+                    return CompletableFuture.completedFuture(Optional.empty());
+                }
+                return CompletableFuture.completedFuture(Optional.of(
+                        EntryImpl.create(m.getMessageIdData().getLedgerId(), m.getMessageIdData().getEntryId(),
+                                m.getHeadersAndPayload())));
+            } catch (IOException e) {
+                return FutureUtil.<Optional<Entry>>failedFuture(e);
+            } finally {
+                buf.release();
+            }
+        });
+    }
+
+    /**
+     * Check whether any of the given entries holds a message with the key, as entries may match its hash only.
+     */
+    private static CompletableFuture<Boolean> hasEntryWithKey(LedgerHandle lh, List<Long> entryIds, int candidate,
+                                                              String key) {
+        if (candidate == entryIds.size()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return readEntry(lh, entryIds.get(candidate)).thenCompose((buf) -> {
+            try (RawMessage m = RawMessageImpl.deserializeFrom(buf)) {
+                return sizeOfKey(m, key) >= 0
+                        ? CompletableFuture.completedFuture(true)
+                        : hasEntryWithKey(lh, entryIds, candidate + 1, key);
+            } catch (IOException e) {
+                return FutureUtil.<Boolean>failedFuture(e);
+            } finally {
+                buf.release();
+            }
+        });
+    }
+
+    /**
+     * Get the size of the message with the key in a compacted entry, or -1 if the entry has no message with the key.
+     */
+    private static int sizeOfKey(RawMessage m, String key) throws IOException {
+        if (RawBatchConverter.isReadableBatch(m)) {
+            for (ImmutableTriple<MessageId, String, Integer> e : RawBatchConverter.extractIdsAndKeysAndSize(m)) {
+                if (key.equals(e.getMiddle())) {
+                    return e.getRight();
+                }
+            }
+            return -1;
+        }
+        ByteBuf headersAndPayload = m.getHeadersAndPayload();
+        MessageMetadata metadata = Commands.parseMessageMetadata(headersAndPayload);
+        try {
+            if (!metadata.hasPartitionKey() || !key.equals(metadata.getPartitionKey())) {
+                return -1;
+            }
+            return metadata.hasUncompressedSize() ? metadata.getUncompressedSize() : headersAndPayload.readableBytes();
+        } finally {
+            metadata.recycle();
+        }
+    }
+
+    /**
+     * Find the first entry of a compacted ledger at or after a position. With an index, the binary search is bounded
+     * by the fence pointers around the position, otherwise it goes over the whole ledger.
+     */
+    static CompletableFuture<Long> findStartPoint(PositionImpl p, CompactedTopicContext context) {
+        long lastEntryId = context.ledger.getLastAddConfirmed();
+        if (context.index == null) {
+            return findStartPoint(p, lastEntryId, context.cache);
+        }
+        long[] range = context.index.findStartRange(p, lastEntryId);
+        if (range == null) {
+            return CompletableFuture.completedFuture(NEWER_THAN_COMPACTED);
+        }
+        CompletableFuture<Long> promise = new CompletableFuture<>();
+        findStartPointLoop(p, range[0], range[1], promise, context.cache);
+        return promise;
+    }
+
     static CompletableFuture<Long> findStartPoint(PositionImpl p,
                                                   long lastEntryId,
                                                   AsyncLoadingCache<Long,MessageIdData> cache) {
@@ -195,6 +459,28 @@ public class CompactedTopicImpl implements CompactedTopic {
     }
 
     private static CompletableFuture<CompactedTopicContext> openCompactedLedger(BookKeeper bk, long id) {
+        return openLedger(bk, id).thenCompose((ledger) -> {
+            long indexLedgerId = LedgerMetadataUtils.getCompactedLedgerIndexLedgerId(
+                    ledger.getLedgerMetadata().getCustomMetadata());
+            if (indexLedgerId < 0) {
+                return CompletableFuture.completedFuture(new CompactedTopicContext(
+                        ledger, createCache(ledger, DEFAULT_STARTPOINT_CACHE_SIZE)));
+            }
+            // The index only speeds up the reads, the compacted ledger can still be read without it
+            return openLedger(bk, indexLedgerId)
+                    .thenCompose((indexLedger) -> CompactedTopicIndex.load(indexLedgerId,
+                            indexLedger.getLastAddConfirmed(), (entryId) -> readEntry(indexLedger, entryId)))
+                    .exceptionally((exception) -> {
+                        log.warn("Failed to load the index {} of compacted topic ledger {}, reading without it",
+                                indexLedgerId, id, exception);
+                        return null;
+                    })
+                    .thenApply((index) -> new CompactedTopicContext(
+                            ledger, createCache(ledger, DEFAULT_STARTPOINT_CACHE_SIZE), index));
+        });
+    }
+
+    private static CompletableFuture<LedgerHandle> openLedger(BookKeeper bk, long id) {
         CompletableFuture<LedgerHandle> promise = new CompletableFuture<>();
         bk.asyncOpenLedger(id,
                            Compactor.COMPACTED_TOPIC_LEDGER_DIGEST_TYPE,
@@ -206,8 +492,7 @@ public class CompactedTopicImpl implements CompactedTopic {
                                    promise.complete(ledger);
                                }
                            }, null);
-        return promise.thenApply((ledger) -> new CompactedTopicContext(
-                                         ledger, createCache(ledger, DEFAULT_STARTPOINT_CACHE_SIZE)));
+        return promise;
     }
 
     private static CompletableFuture<Void> tryDeleteCompactedLedger(BookKeeper bk, long id) {
@@ -225,7 +510,20 @@ public class CompactedTopicImpl implements CompactedTopic {
         return promise;
     }
 
-    private static CompletableFuture<List<Entry>> readEntries(LedgerHandle lh, long from, long to) {
+    private static CompletableFuture<ByteBuf> readEntry(LedgerHandle lh, long entryId) {
+        return readEntries(lh, entryId, entryId, (buf) -> buf).thenApply((bufs) -> bufs.get(0));
+    }
+
+    private static RawMessage readMessage(ByteBuf buf) {
+        try {
+            return RawMessageImpl.deserializeFrom(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static <T> CompletableFuture<List<T>> readEntries(LedgerHandle lh, long from, long to,
+                                                              Function<ByteBuf, T> converter) {
         CompletableFuture<Enumeration<LedgerEntry>> promise = new CompletableFuture<>();
 
         lh.asyncReadEntries(from, to,
@@ -238,29 +536,42 @@ public class CompactedTopicImpl implements CompactedTopic {
                             }, null);
         return promise.thenApply(
                 (seq) -> {
-                    List<Entry> entries = new ArrayList<Entry>();
+                    List<T> entries = new ArrayList<>();
                     while (seq.hasMoreElements()) {
-                        ByteBuf buf = seq.nextElement().getEntryBuffer();
-                        try (RawMessage m = RawMessageImpl.deserializeFrom(buf)) {
-                            entries.add(EntryImpl.create(m.getMessageIdData().getLedgerId(),
-                                                         m.getMessageIdData().getEntryId(),
-                                                         m.getHeadersAndPayload()));
-                        } finally {
-                            buf.release();
-                        }
+                        entries.add(converter.apply(seq.nextElement().getEntryBuffer()));
                     }
                     return entries;
                 });
     }
 
+    private static class SegmentContext {
+        final long ledgerId;
+        final PositionImpl horizon;
+        final CompletableFuture<CompactedTopicContext> context;
+
+        SegmentContext(long ledgerId, PositionImpl horizon, CompletableFuture<CompactedTopicContext> context) {
+            this.ledgerId = ledgerId;
+            this.horizon = horizon;
+            this.context = context;
+        }
+    }
+
     @Getter
     public static class CompactedTopicContext {
         final LedgerHandle ledger;
         final AsyncLoadingCache<Long,MessageIdData> cache;
+        // sparse index of the ledger, or null if the compactor didn't write one
+        final CompactedTopicIndex index;
 
         CompactedTopicContext(LedgerHandle ledger, AsyncLoadingCache<Long,MessageIdData> cache) {
+            this(ledger, cache, null);
+        }
+
+        CompactedTopicContext(LedgerHandle ledger, AsyncLoadingCache<Long,MessageIdData> cache,
+                              CompactedTopicIndex index) {
             this.ledger = ledger;
             this.cache = cache;
+            this.index = index;
         }
     }
 
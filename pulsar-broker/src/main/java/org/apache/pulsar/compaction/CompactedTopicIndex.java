@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongFunction;
+
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.common.util.FutureUtil;
+
+/**
+ * Sparse index of a compacted ledger, written by the compactor to a ledger of its own.
+ *
+ * <p>The index holds fence pointers, the message id of every {@code interval}-th entry of the compacted ledger, which
+ * bound a seek to a range of {@code interval} entries without reading the compacted ledger. It also holds the hash of
+ * the key of each message of the compacted ledger, with the id of the entry holding it. The key hashes are sorted and
+ * written in blocks, of which only the first hash and a bloom filter of all the hashes are kept in memory, so a key
+ * lookup reads at most one block when the key is in the compacted ledger, and usually none when it isn't.
+ *
+ * <p>The index ledger is laid out as the key blocks, then the summary holding the fence pointers, the first hash of
+ * each block and the bloom filter, split in entries of at most {@link #MAX_ENTRY_SIZE} bytes, and a footer locating
+ * the summary.
+ */
+class CompactedTopicIndex {
+    private static final long MAGIC = 0x436f6d7049647831L;
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRY_SIZE = 1024 * 1024;
+    private static final int KEYS_PER_BLOCK = 4096;
+    private static final int BLOCK_CACHE_SIZE = 16;
+    private static final double BLOOM_FILTER_FPP = 0.01;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final long indexLedgerId;
+    private final int interval;
+    // message ids of the fence pointers, as ledger id and entry id pairs
+    private final long[] fences;
+    // first key hash of each block, or null if the keys were not indexed
+    private final long[] blockFirstHashes;
+    private final BloomFilter<Long> bloomFilter;
+    private final AsyncLoadingCache<Long, long[]> blocks;
+
+    private CompactedTopicIndex(long indexLedgerId, int interval, long[] fences, long[] blockFirstHashes,
+                                BloomFilter<Long> bloomFilter, LongFunction<CompletableFuture<ByteBuf>> readEntry) {
+        this.indexLedgerId = indexLedgerId;
+        this.interval = interval;
+        this.fences = fences;
+        this.blockFirstHashes = blockFirstHashes;
+        this.bloomFilter = bloomFilter;
+        this.blocks = Caffeine.newBuilder()
+                .maximumSize(BLOCK_CACHE_SIZE)
+                .buildAsync((block, executor) -> readEntry.apply(block).thenApply(CompactedTopicIndex::readBlock));
+    }
+
+    long getIndexLedgerId() {
+        return indexLedgerId;
+    }
+
+    boolean hasKeys() {
+        return blockFirstHashes != null;
+    }
+
+    static long hash(String key) {
+        return HASH_FUNCTION.hashString(key, UTF_8).asLong();
+    }
+
+    /**
+     * Get the range of entries of the compacted ledger holding the first message at or after a position.
+     *
+     * @param p the position to seek to
+     * @param lastEntryId the last entry id of the compacted ledger
+     * @return the first and last entry ids of the range, or null if all the messages of the compacted ledger are
+     *         before the position
+     */
+    long[] findStartRange(PositionImpl p, long lastEntryId) {
+        // number of fence pointers before the position
+        int low = 0;
+        int high = fences.length / 2;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(fences[mid * 2], fences[mid * 2 + 1], p) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return new long[] { 0, 0 };
+        }
+        long first = (long) (low - 1) * interval + 1;
+        long last = Math.min((long) low * interval, lastEntryId);
+        return first > last ? null : new long[] { first, last };
+    }
+
+    private static int compare(long ledgerId, long entryId, PositionImpl p) {
+        int result = Long.compare(ledgerId, p.getLedgerId());
+        return result != 0 ? result : Long.compare(entryId, p.getEntryId());
+    }
+
+    /**
+     * Get the entries of the compacted ledger that may hold a message with the given key, which are the entries
+     * holding a message with the same key hash.
+     */
+    CompletableFuture<List<Long>> findEntries(String key) {
+        checkArgument(hasKeys(), "The keys of the compacted ledger are not indexed");
+        long hash = hash(key);
+        List<Long> entries = new ArrayList<>();
+        if (!bloomFilter.mightContain(hash)) {
+            return CompletableFuture.completedFuture(entries);
+        }
+        // The blocks that may hold the hash, usually one, several when it is at their boundaries
+        List<CompletableFuture<long[]>> candidates = new ArrayList<>();
+        int block = Arrays.binarySearch(blockFirstHashes, hash);
+        block = block >= 0 ? block : -block - 2;
+        while (block > 0 && blockFirstHashes[block] == hash) {
+            block--;
+        }
+        for (int i = Math.max(block, 0); i < blockFirstHashes.length && blockFirstHashes[i] <= hash; i++) {
+            candidates.add(blocks.get((long) i));
+        }
+        return FutureUtil.waitForAll(candidates).thenApply((v) -> {
+            for (CompletableFuture<long[]> candidate : candidates) {
+                long[] pairs = candidate.join();
+                for (int i = 0; i < pairs.length; i += 2) {
+                    if (pairs[i] == hash) {
+                        entries.add(pairs[i + 1]);
+                    }
+                }
+            }
+            return entries;
+        });
+    }
+
+    private static long[] readBlock(ByteBuf entry) {
+        try {
+            long[] pairs = new long[entry.readableBytes() / Long.BYTES];
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i] = entry.readLong();
+            }
+            return pairs;
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Load an index from its ledger.
+     *
+     * @param indexLedgerId the id of the index ledger
+     * @param lastEntryId the last entry id of the index ledger
+     * @param readEntry reads an entry of the index ledger, the caller releasing it
+     */
+    static CompletableFuture<CompactedTopicIndex> load(long indexLedgerId, long lastEntryId,
+                                                       LongFunction<CompletableFuture<ByteBuf>> readEntry) {
+        return readEntry.apply(lastEntryId).thenCompose((footer) -> {
+            long summaryFirstEntry;
+            try {
+                if (footer.readableBytes() < 20 || footer.readLong() != MAGIC || footer.readInt() != VERSION) {
+                    return FutureUtil.<CompactedTopicIndex>failedFuture(new IOException(
+                            "Ledger " + indexLedgerId + " is not a compacted ledger index"));
+                }
+                summaryFirstEntry = footer.readLong();
+            } finally {
+                footer.release();
+            }
+            List<CompletableFuture<ByteBuf>> chunks = new ArrayList<>();
+            for (long entryId = summaryFirstEntry; entryId < lastEntryId; entryId++) {
+                chunks.add(readEntry.apply(entryId));
+            }
+            return FutureUtil.waitForAll(chunks).whenComplete((v, exception) -> {
+                if (exception != null) {
+                    chunks.stream().filter(chunk -> !chunk.isCompletedExceptionally())
+                            .forEach(chunk -> chunk.join().release());
+                }
+            }).thenApply((v) -> {
+                CompositeByteBuf summary = Unpooled.compositeBuffer(chunks.size());
+                chunks.forEach(chunk -> summary.addComponent(true, chunk.join()));
+                try (DataInputStream in = new DataInputStream(new ByteBufInputStream(summary, true))) {
+                    int interval = in.readInt();
+                    long[] fences = new long[in.readInt() * 2];
+                    for (int i = 0; i < fences.length; i++) {
+                        fences[i] = in.readLong();
+                    }
+                    int blockCount = in.readInt();
+                    long[] blockFirstHashes = null;
+                    BloomFilter<Long> bloomFilter = null;
+                    if (blockCount >= 0) {
+                        blockFirstHashes = new long[blockCount];
+                        for (int i = 0; i < blockCount; i++) {
+                            blockFirstHashes[i] = in.readLong();
+                        }
+                        bloomFilter = BloomFilter.readFrom(in, Funnels.longFunnel());
+                    }
+                    return new CompactedTopicIndex(indexLedgerId, interval, fences, blockFirstHashes, bloomFilter,
+                            readEntry);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to read the compacted ledger index " + indexLedgerId, e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Builds the index of a compacted ledger while it is written. The entries must be added in order.
+     */
+    static class Builder {
+        private final int interval;
+        private final long maxKeyBytes;
+        private long[] fences = new long[64];
+        private int fenceCount = 0;
+        // key hash and entry id pairs, or null once they exceed the memory budget
+        private long[] keys = new long[1024];
+        private int keyCount = 0;
+
+        /**
+         * @param interval the number of entries of the compacted ledger between two fence pointers
+         * @param maxKeyBytes the memory budget for the keys, past which they are not indexed
+         */
+        Builder(int interval, long maxKeyBytes) {
+            checkArgument(interval > 0, "The fence pointer interval must be positive");
+            this.interval = interval;
+            this.maxKeyBytes = maxKeyBytes;
+        }
+
+        synchronized void add(long entryId, long messageLedgerId, long messageEntryId, Collection<String> entryKeys) {
+            if (entryId % interval == 0) {
+                if (fenceCount * 2 == fences.length) {
+                    fences = Arrays.copyOf(fences, fences.length * 2);
+                }
+                fences[fenceCount * 2] = messageLedgerId;
+                fences[fenceCount * 2 + 1] = messageEntryId;
+                fenceCount++;
+            }
+            if (keys == null) {
+                return;
+            }
+            if ((long) (keyCount + entryKeys.size()) * 2 * Long.BYTES > maxKeyBytes) {
+                keys = null;
+                return;
+            }
+            for (String key : entryKeys) {
+                if (keyCount * 2 == keys.length) {
+                    keys = Arrays.copyOf(keys, (int) Math.min((long) keys.length * 2, Integer.MAX_VALUE - 8));
+                }
+                keys[keyCount * 2] = hash(key);
+                keys[keyCount * 2 + 1] = entryId;
+                keyCount++;
+            }
+        }
+
+        synchronized boolean hasKeys() {
+            return keys != null;
+        }
+
+        /**
+         * Build the entries of the index ledger.
+         */
+        synchronized List<byte[]> build() throws IOException {
+            List<byte[]> entries = new ArrayList<>();
+            ByteArrayOutputStream summaryBytes = new ByteArrayOutputStream();
+            DataOutputStream summary = new DataOutputStream(summaryBytes);
+            summary.writeInt(interval);
+            summary.writeInt(fenceCount);
+            for (int i = 0; i < fenceCount * 2; i++) {
+                summary.writeLong(fences[i]);
+            }
+            if (keys == null) {
+                summary.writeInt(-1);
+            } else {
+                if (keyCount > 0) {
+                    CompactionKeyIndex.sort(keys, 2, 1, 0, keyCount - 1);
+                }
+                int blockCount = (keyCount + KEYS_PER_BLOCK - 1) / KEYS_PER_BLOCK;
+                summary.writeInt(blockCount);
+                BloomFilter<Long> bloomFilter = BloomFilter.create(Funnels.longFunnel(), Math.max(keyCount, 1),
+                        BLOOM_FILTER_FPP);
+                for (int block = 0; block < blockCount; block++) {
+                    int first = block * KEYS_PER_BLOCK;
+                    int last = Math.min(first + KEYS_PER_BLOCK, keyCount);
+                    ByteBuffer entry = ByteBuffer.allocate((last - first) * 2 * Long.BYTES);
+                    for (int i = first; i < last; i++) {
+                        entry.putLong(keys[i * 2]);
+                        entry.putLong(keys[i * 2 + 1]);
+                        bloomFilter.put(keys[i * 2]);
+                    }
+                    entries.add(entry.array());
+                    summary.writeLong(keys[first * 2]);
+                }
+                bloomFilter.writeTo(summary);
+            }
+            summary.flush();
+
+            long summaryFirstEntry = entries.size();
+            byte[] summaryArray = summaryBytes.toByteArray();
+            for (int offset = 0; offset < summaryArray.length; offset += MAX_ENTRY_SIZE) {
+                entries.add(Arrays.copyOfRange(summaryArray, offset,
+                        Math.min(offset + MAX_ENTRY_SIZE, summaryArray.length)));
+            }
+            ByteBuffer footer = ByteBuffer.allocate(20);
+            footer.putLong(MAGIC);
+            footer.putInt(VERSION);
+            footer.putLong(summaryFirstEntry);
+            entries.add(footer.array());
+            return entries;
+        }
+    }
+}
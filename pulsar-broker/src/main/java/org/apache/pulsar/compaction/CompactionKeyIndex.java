@@ -0,0 +1,531 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.BatchMessageIdImpl;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the latest message of each key of a topic, built by the first phase of the compaction and used by the
+ * second phase to select the messages to keep.
+ *
+ * <p>The keys themselves are not kept. Each key is hashed to a 128 bits fingerprint, and the fingerprint and the
+ * position of the latest message of the key are stored in an open addressing table made of a single {@code long[]}.
+ * The table grows up to the memory budget of the index. Past that point, its records are sorted by fingerprint and
+ * spilled to a run file in the spill directory, and the table is reused for the next keys.
+ *
+ * <p>Once the whole topic has been read, {@link #finish()} merges the runs, keeping the newest record of each
+ * fingerprint, and sorts the positions of the messages to keep, spilling them to disk as well when they don't fit in
+ * the budget. The second phase reads the topic again in the same order, so {@link #isLatest(MessageId)} only needs to
+ * move forward through the sorted positions.
+ *
+ * <p>The index is not thread safe. The compaction only accesses it from one task at a time.
+ */
+class CompactionKeyIndex implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CompactionKeyIndex.class);
+
+    // A key record is the fingerprint of the key followed by the position of its latest message
+    private static final int KEY_RECORD_SIZE = 5;
+    private static final int FINGERPRINT_SIZE = 2;
+    private static final int POSITION_SIZE = 3;
+
+    // Ledger id of an empty slot of the table, and of a key whose latest message is a deletion
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long DELETED = -1L;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final long maxMemoryBytes;
+    private final Path spillDirectory;
+
+    private long[] table;
+    private int capacity;
+    private int size;
+
+    private final List<Run> keyRuns = new ArrayList<>();
+    private final List<Run> positionRuns = new ArrayList<>();
+    private final List<Path> spillFiles = new ArrayList<>();
+    private PriorityQueue<RunReader> latestPositions;
+
+    private boolean finished = false;
+    private long liveKeys = 0;
+    private long peakMemoryBytes = 0;
+    private long spilledBytes = 0;
+
+    /**
+     * @param maxMemoryBytes the memory the index can use for its records
+     * @param spillDirectory the directory where the records that don't fit in memory are spilled
+     */
+    CompactionKeyIndex(long maxMemoryBytes, Path spillDirectory) {
+        checkArgument(maxMemoryBytes >= (long) INITIAL_CAPACITY * KEY_RECORD_SIZE * Long.BYTES,
+                "The key index needs at least %s bytes", INITIAL_CAPACITY * KEY_RECORD_SIZE * Long.BYTES);
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.spillDirectory = spillDirectory;
+        this.table = newTable(INITIAL_CAPACITY);
+        this.capacity = INITIAL_CAPACITY;
+    }
+
+    /**
+     * Record the message as the latest message of the key.
+     */
+    void put(String key, MessageId id) throws IOException {
+        MessageIdImpl position = (MessageIdImpl) id;
+        put(key, position.getLedgerId(), position.getEntryId(), batchIndex(id));
+    }
+
+    /**
+     * Record that the latest message of the key is a deletion, so no message of the key is kept.
+     */
+    void remove(String key) throws IOException {
+        put(key, DELETED, DELETED, DELETED);
+    }
+
+    private void put(String key, long ledgerId, long entryId, long batchIndex) throws IOException {
+        checkState(!finished, "The key index is already finished");
+        ByteBuffer fingerprint = ByteBuffer.wrap(HASH_FUNCTION.hashString(key, UTF_8).asBytes());
+        long high = fingerprint.getLong(0);
+        long low = fingerprint.getLong(Long.BYTES);
+
+        int mask = capacity - 1;
+        int slot = (int) low & mask;
+        while (true) {
+            int offset = slot * KEY_RECORD_SIZE;
+            if (table[offset + 2] == EMPTY) {
+                table[offset] = high;
+                table[offset + 1] = low;
+                size++;
+            } else if (table[offset] != high || table[offset + 1] != low) {
+                slot = (slot + 1) & mask;
+                continue;
+            }
+            table[offset + 2] = ledgerId;
+            table[offset + 3] = entryId;
+            table[offset + 4] = batchIndex;
+            break;
+        }
+
+        if (size > capacity / 4 * 3) {
+            long grownTableBytes = 2L * table.length * Long.BYTES;
+            if (grownTableBytes + (long) table.length * Long.BYTES <= maxMemoryBytes) {
+                grow();
+            } else {
+                spillKeys();
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldTable = table;
+        int oldCapacity = capacity;
+        table = newTable(oldCapacity * 2);
+        capacity = oldCapacity * 2;
+        peakMemoryBytes = Math.max(peakMemoryBytes, (long) (oldTable.length + table.length) * Long.BYTES);
+
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            int oldOffset = oldSlot * KEY_RECORD_SIZE;
+            if (oldTable[oldOffset + 2] == EMPTY) {
+                continue;
+            }
+            int slot = (int) oldTable[oldOffset + 1] & mask;
+            while (table[slot * KEY_RECORD_SIZE + 2] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            System.arraycopy(oldTable, oldOffset, table, slot * KEY_RECORD_SIZE, KEY_RECORD_SIZE);
+        }
+    }
+
+    private void spillKeys() throws IOException {
+        // Move the records to the beginning of the table and sort them by fingerprint
+        int count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * KEY_RECORD_SIZE;
+            if (table[offset + 2] != EMPTY) {
+                if (count != slot) {
+                    System.arraycopy(table, offset, table, count * KEY_RECORD_SIZE, KEY_RECORD_SIZE);
+                }
+                count++;
+            }
+        }
+        sort(table, KEY_RECORD_SIZE, FINGERPRINT_SIZE, 0, count - 1);
+        keyRuns.add(spill(table, KEY_RECORD_SIZE, count));
+
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Prepare the index for the lookups of the second phase. No key can be added afterwards.
+     */
+    void finish() throws IOException {
+        checkState(!finished, "The key index is already finished");
+        finished = true;
+
+        // The table is reused to hold the positions of the messages to keep
+        long[] positions = table;
+        int maxPositions = positions.length / POSITION_SIZE;
+        int count = 0;
+        if (keyRuns.isEmpty()) {
+            // Every key is in the table. Positions are smaller than key records, so they are moved in place.
+            for (int slot = 0; slot < capacity; slot++) {
+                int offset = slot * KEY_RECORD_SIZE;
+                long ledgerId = positions[offset + 2];
+                if (ledgerId != EMPTY && ledgerId != DELETED) {
+                    int target = count * POSITION_SIZE;
+                    positions[target] = ledgerId;
+                    positions[target + 1] = positions[offset + 3];
+                    positions[target + 2] = positions[offset + 4];
+                    count++;
+                }
+            }
+        } else {
+            if (size > 0) {
+                spillKeys();
+            }
+            PriorityQueue<RunReader> runs = openRuns(keyRuns, FINGERPRINT_SIZE);
+            try {
+                while (!runs.isEmpty()) {
+                    // Records of the same key are ordered from the newest run to the oldest one
+                    RunReader newest = runs.poll();
+                    long high = newest.record[0];
+                    long low = newest.record[1];
+                    if (newest.record[2] != DELETED) {
+                        if (count == maxPositions) {
+                            sort(positions, POSITION_SIZE, POSITION_SIZE, 0, count - 1);
+                            positionRuns.add(spill(positions, POSITION_SIZE, count));
+                            count = 0;
+                        }
+                        System.arraycopy(newest.record, FINGERPRINT_SIZE, positions, count * POSITION_SIZE,
+                                POSITION_SIZE);
+                        count++;
+                    }
+                    advance(runs, newest);
+                    while (!runs.isEmpty() && runs.peek().record[0] == high && runs.peek().record[1] == low) {
+                        advance(runs, runs.poll());
+                    }
+                }
+            } finally {
+                runs.forEach(RunReader::close);
+            }
+        }
+        table = null;
+
+        sort(positions, POSITION_SIZE, POSITION_SIZE, 0, count - 1);
+        positionRuns.add(new Run(positions, count));
+        liveKeys = positionRuns.stream().mapToLong(run -> run.count).sum();
+        latestPositions = openRuns(positionRuns, POSITION_SIZE);
+        log.info("Finished compaction key index with {} keys, {} spilled runs and {} spilled bytes", liveKeys,
+                spillFiles.size(), spilledBytes);
+    }
+
+    /**
+     * Check whether the message is the latest message of its key. The messages must be checked in the order of the
+     * topic.
+     *
+     * @throws UncheckedIOException if the spilled positions can't be read
+     */
+    boolean isLatest(MessageId id) {
+        checkState(finished, "The key index is not finished");
+        MessageIdImpl position = (MessageIdImpl) id;
+        long ledgerId = position.getLedgerId();
+        long entryId = position.getEntryId();
+        long batchIndex = batchIndex(id);
+        try {
+            while (!latestPositions.isEmpty()) {
+                long[] head = latestPositions.peek().record;
+                int cmp = compare(head[0], head[1], head[2], ledgerId, entryId, batchIndex);
+                if (cmp > 0) {
+                    return false;
+                } else if (cmp == 0) {
+                    return true;
+                }
+                advance(latestPositions, latestPositions.poll());
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of keys with a message to keep, once the index is finished
+     */
+    long size() {
+        return liveKeys;
+    }
+
+    long getPeakMemoryBytes() {
+        return peakMemoryBytes;
+    }
+
+    long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    @Override
+    public void close() {
+        table = null;
+        if (latestPositions != null) {
+            latestPositions.forEach(RunReader::close);
+            latestPositions = null;
+        }
+        for (Path file : spillFiles) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete compaction key index file {}", file, e);
+            }
+        }
+        spillFiles.clear();
+    }
+
+    private long[] newTable(int capacity) {
+        long[] newTable = new long[capacity * KEY_RECORD_SIZE];
+        Arrays.fill(newTable, EMPTY);
+        peakMemoryBytes = Math.max(peakMemoryBytes, (long) newTable.length * Long.BYTES);
+        return newTable;
+    }
+
+    private Run spill(long[] records, int recordSize, int count) throws IOException {
+        Path file = Files.createTempFile(spillDirectory, "compaction-index-", ".run");
+        spillFiles.add(file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER_SIZE))) {
+            for (int i = 0; i < count * recordSize; i++) {
+                out.writeLong(records[i]);
+            }
+        }
+        spilledBytes += (long) count * recordSize * Long.BYTES;
+        return new Run(file, count);
+    }
+
+    private PriorityQueue<RunReader> openRuns(List<Run> runs, int keySize) throws IOException {
+        // Among equal keys, the reader of the newest run comes first
+        Comparator<RunReader> comparator = (r1, r2) -> {
+            for (int i = 0; i < keySize; i++) {
+                int cmp = Long.compare(r1.record[i], r2.record[i]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return Integer.compare(r2.order, r1.order);
+        };
+        PriorityQueue<RunReader> readers = new PriorityQueue<>(Math.max(1, runs.size()), comparator);
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = runs.get(i).open(i, keySize == FINGERPRINT_SIZE ? KEY_RECORD_SIZE : POSITION_SIZE);
+                advance(readers, reader);
+            }
+        } catch (IOException e) {
+            readers.forEach(RunReader::close);
+            throw e;
+        }
+        return readers;
+    }
+
+    private static void advance(PriorityQueue<RunReader> readers, RunReader reader) throws IOException {
+        if (reader.next()) {
+            readers.add(reader);
+        } else {
+            reader.close();
+        }
+    }
+
+    private static long batchIndex(MessageId id) {
+        return id instanceof BatchMessageIdImpl ? ((BatchMessageIdImpl) id).getBatchIndex() : -1;
+    }
+
+    private static int compare(long ledgerId1, long entryId1, long batchIndex1,
+                               long ledgerId2, long entryId2, long batchIndex2) {
+        int cmp = Long.compare(ledgerId1, ledgerId2);
+        if (cmp == 0) {
+            cmp = Long.compare(entryId1, entryId2);
+        }
+        if (cmp == 0) {
+            cmp = Long.compare(batchIndex1, batchIndex2);
+        }
+        return cmp;
+    }
+
+    private static int compare(long[] records, int offset1, int offset2, int keySize) {
+        for (int i = 0; i < keySize; i++) {
+            int cmp = Long.compare(records[offset1 + i], records[offset2 + i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static void swap(long[] records, int recordSize, int i, int j) {
+        int offset1 = i * recordSize;
+        int offset2 = j * recordSize;
+        for (int k = 0; k < recordSize; k++) {
+            long tmp = records[offset1 + k];
+            records[offset1 + k] = records[offset2 + k];
+            records[offset2 + k] = tmp;
+        }
+    }
+
+    /**
+     * Sort the records between the indexes {@code low} and {@code high} (inclusive) on their first {@code keySize}
+     * values, without allocating a record object or a permutation array.
+     */
+    static void sort(long[] records, int recordSize, int keySize, int low, int high) {
+        while (high - low > 16) {
+            // Keep the pivot out of the array, since partitioning moves the records around
+            long[] pivotKey = Arrays.copyOfRange(records, ((low + high) >>> 1) * recordSize,
+                    ((low + high) >>> 1) * recordSize + keySize);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compareToKey(records, i * recordSize, pivotKey) < 0) {
+                    i++;
+                }
+                while (compareToKey(records, j * recordSize, pivotKey) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(records, recordSize, i++, j--);
+                }
+            }
+            // Recurse on the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sort(records, recordSize, keySize, low, j);
+                low = i;
+            } else {
+                sort(records, recordSize, keySize, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(records, (j - 1) * recordSize, j * recordSize, keySize) > 0; j--) {
+                swap(records, recordSize, j - 1, j);
+            }
+        }
+    }
+
+    private static int compareToKey(long[] records, int offset, long[] key) {
+        for (int i = 0; i < key.length; i++) {
+            int cmp = Long.compare(records[offset + i], key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A sorted run of records, either spilled to a file or held in memory.
+     */
+    private static class Run {
+        final Path file;
+        final long[] records;
+        final long count;
+
+        Run(Path file, long count) {
+            this.file = file;
+            this.records = null;
+            this.count = count;
+        }
+
+        Run(long[] records, long count) {
+            this.file = null;
+            this.records = records;
+            this.count = count;
+        }
+
+        RunReader open(int order, int recordSize) throws IOException {
+            DataInputStream in = file == null ? null
+                    : new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE));
+            return new RunReader(this, in, order, recordSize);
+        }
+    }
+
+    private static class RunReader {
+        final Run run;
+        final DataInputStream in;
+        final int order;
+        final long[] record;
+        long remaining;
+        int offset = 0;
+
+        RunReader(Run run, DataInputStream in, int order, int recordSize) {
+            this.run = run;
+            this.in = in;
+            this.order = order;
+            this.record = new long[recordSize];
+            this.remaining = run.count;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            if (in == null) {
+                System.arraycopy(run.records, offset, record, 0, record.length);
+                offset += record.length;
+            } else {
+                for (int i = 0; i < record.length; i++) {
+                    record[i] = in.readLong();
+                }
+            }
+            return true;
+        }
+
+        void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close compaction key index run", e);
+                }
+            }
+        }
+    }
+}
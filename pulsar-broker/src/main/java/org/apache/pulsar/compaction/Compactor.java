@@ -22,12 +22,15 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
 
 import org.apache.bookkeeper.client.BookKeeper;
 
 import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.RawReader;
+import org.apache.pulsar.common.util.FutureUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +42,8 @@ public abstract class Compactor {
     private static final Logger log = LoggerFactory.getLogger(Compactor.class);
     public static final String COMPACTION_SUBSCRIPTION = "__compaction";
     public static final String COMPACTED_TOPIC_LEDGER_PROPERTY = "CompactedTopicLedger";
+    // Set on the acknowledgment of an incremental compaction, whose ledger is appended to the compacted segments
+    public static final String COMPACTED_TOPIC_SEGMENT_PROPERTY = "CompactedTopicSegment";
     static BookKeeper.DigestType COMPACTED_TOPIC_LEDGER_DIGEST_TYPE = BookKeeper.DigestType.CRC32;
     static byte[] COMPACTED_TOPIC_LEDGER_PASSWORD = "".getBytes(UTF_8);
 
@@ -59,12 +64,41 @@ public abstract class Compactor {
 
     public CompletableFuture<Long> compact(String topic) {
         return RawReader.create(pulsar, topic, COMPACTION_SUBSCRIPTION).thenComposeAsync(
-                this::compactAndCloseReader, scheduler);
+                (reader) -> compactAndCloseReader(reader, (r) -> doCompaction(r, bk)), scheduler);
     }
 
-    private CompletableFuture<Long> compactAndCloseReader(RawReader reader) {
+    /**
+     * Compact the messages written after the compaction horizon into a new compacted segment, without reading the
+     * previous segments again. The deletions are kept in the segment, so that they hide the older values of their
+     * keys in the previous segments.
+     *
+     * <p>The readers of the compacted topic find the keys of the segment through its index. When they cannot be
+     * indexed, eg. because they exceed the memory budget of the index, the segment is not published and the topic is
+     * compacted fully instead.
+     *
+     * @param topic the topic to compact
+     * @param horizon the horizon of the last compaction of the topic
+     * @return the id of the ledger of the new segment, or -1 if there was nothing to compact
+     */
+    public CompletableFuture<Long> compactIncrementally(String topic, MessageId horizon) {
+        return RawReader.create(pulsar, topic, COMPACTION_SUBSCRIPTION, false).thenComposeAsync(
+                (reader) -> compactAndCloseReader(reader, (r) -> doIncrementalCompaction(r, horizon, bk)),
+                scheduler)
+                .handle((ledgerId, exception) -> {
+                    if (exception == null) {
+                        return CompletableFuture.completedFuture(ledgerId);
+                    } else if (FutureUtil.unwrapCompletionException(exception) instanceof KeysNotIndexedException) {
+                        log.warn("Compacting {} fully: {}", topic, exception.getMessage());
+                        return compact(topic);
+                    }
+                    return FutureUtil.<Long>failedFuture(exception);
+                }).thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Long> compactAndCloseReader(RawReader reader,
+                                                          Function<RawReader, CompletableFuture<Long>> compaction) {
         CompletableFuture<Long> promise = new CompletableFuture<>();
-        doCompaction(reader, bk).whenComplete(
+        compaction.apply(reader).whenComplete(
                 (ledgerId, exception) -> {
                     reader.closeAsync().whenComplete((v, exception2) -> {
                             if (exception2 != null) {
@@ -82,5 +116,21 @@ public abstract class Compactor {
     }
 
     protected abstract CompletableFuture<Long> doCompaction(RawReader reader, BookKeeper bk);
+
+    protected CompletableFuture<Long> doIncrementalCompaction(RawReader reader, MessageId horizon, BookKeeper bk) {
+        return FutureUtil.failedFuture(new UnsupportedOperationException(
+                getClass().getSimpleName() + " does not support incremental compaction"));
+    }
+
+    /**
+     * Thrown when the keys of an incremental compaction cannot be indexed, so its segment cannot be published.
+     */
+    static class KeysNotIndexedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        KeysNotIndexedException(String message) {
+            super(message);
+        }
+    }
 }
 
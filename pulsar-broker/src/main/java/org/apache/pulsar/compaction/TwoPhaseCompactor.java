@@ -18,12 +18,20 @@
  */
 package org.apache.pulsar.compaction;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 
 import io.netty.buffer.ByteBuf;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -37,6 +45,7 @@ import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.client.LedgerHandle;
 import org.apache.bookkeeper.mledger.impl.LedgerMetadataUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.broker.ServiceConfiguration;
@@ -59,13 +68,29 @@ import org.slf4j.LoggerFactory;
  *
  * <p>The two passes are required to avoid holding the payloads of each of
  * the latest values in memory, as the payload can be many orders of
- * magnitude larger than a message id.
+ * magnitude larger than a message id. The latest offsets are kept in a
+ * {@link CompactionKeyIndex}, which spills to local disk past its memory
+ * budget.
 */
 public class TwoPhaseCompactor extends Compactor {
     private static final Logger log = LoggerFactory.getLogger(TwoPhaseCompactor.class);
     private static final int MAX_OUTSTANDING = 500;
     private static final String COMPACTED_TOPIC_LEDGER_PROPERTY = "CompactedTopicLedger";
 
+    private static final Counter ENTRIES_READ = Counter
+            .build("pulsar_compaction_entries_read", "Entries read by the compaction, over both phases")
+            .register();
+    private static final Counter ENTRIES_WRITTEN = Counter
+            .build("pulsar_compaction_entries_written", "Entries written to the compacted ledgers")
+            .register();
+    private static final Gauge KEY_INDEX_PEAK_MEMORY = Gauge
+            .build("pulsar_compaction_key_index_peak_memory_bytes",
+                    "Peak memory used by the key index of the last compaction")
+            .register();
+    private static final Counter KEY_INDEX_SPILLED_BYTES = Counter
+            .build("pulsar_compaction_key_index_spilled_bytes", "Bytes of key index spilled to local disk")
+            .register();
+
     public TwoPhaseCompactor(ServiceConfiguration conf,
                              PulsarClient pulsar,
                              BookKeeper bk,
@@ -78,8 +103,7 @@ public class TwoPhaseCompactor extends Compactor {
         return reader.hasMessageAvailableAsync()
                 .thenCompose(available -> {
                     if (available) {
-                        return phaseOne(reader).thenCompose(
-                                (r) -> phaseTwo(reader, r.from, r.to, r.lastReadId, r.latestForKey, bk));
+                        return compact(reader, false, bk);
                     } else {
                         log.info("Skip compaction of the empty topic {}", reader.getTopic());
                         return CompletableFuture.completedFuture(-1L);
@@ -87,8 +111,59 @@ public class TwoPhaseCompactor extends Compactor {
                 });
     }
 
-    private CompletableFuture<PhaseOneResult> phaseOne(RawReader reader) {
-        Map<String,MessageId> latestForKey = new HashMap<>();
+    @Override
+    protected CompletableFuture<Long> doIncrementalCompaction(RawReader reader, MessageId horizon, BookKeeper bk) {
+        if (!conf.isCompactedTopicIndexEnabled()) {
+            return FutureUtil.failedFuture(new KeysNotIndexedException(
+                    "the compacted topic index is disabled, so the keys of a new segment cannot be indexed"));
+        }
+        // The reader resumes after the horizon, so only the messages written since then are read
+        return reader.getLastMessageIdAsync()
+                .thenCompose(lastMessageId -> {
+                    MessageIdImpl last = (MessageIdImpl) lastMessageId;
+                    MessageIdImpl from = (MessageIdImpl) horizon;
+                    if (last.getLedgerId() > from.getLedgerId()
+                            || (last.getLedgerId() == from.getLedgerId() && last.getEntryId() > from.getEntryId())) {
+                        return compact(reader, true, bk);
+                    } else {
+                        log.info("Skip incremental compaction of {}, no message after {}", reader.getTopic(), horizon);
+                        return CompletableFuture.completedFuture(-1L);
+                    }
+                });
+    }
+
+    /**
+     * @param retainDeletes whether to keep the deletions in the compacted ledger, which is needed when the ledger is
+     *                      a segment appended after older segments
+     */
+    private CompletableFuture<Long> compact(RawReader reader, boolean retainDeletes, BookKeeper bk) {
+        CompactionKeyIndex latestForKey = newKeyIndex();
+        return phaseOne(reader, latestForKey, retainDeletes).thenCompose(
+                (r) -> phaseTwo(reader, r.from, r.to, r.lastReadId, r.latestForKey, retainDeletes, bk))
+                .whenComplete((ledgerId, exception) -> {
+                    KEY_INDEX_PEAK_MEMORY.set(latestForKey.getPeakMemoryBytes());
+                    KEY_INDEX_SPILLED_BYTES.inc(latestForKey.getSpilledBytes());
+                    latestForKey.close();
+                });
+    }
+
+    private CompactionKeyIndex newKeyIndex() {
+        Path spillDirectory = StringUtils.isBlank(conf.getCompactionKeyIndexSpillDirectory())
+                ? Paths.get(System.getProperty("java.io.tmpdir"))
+                : Paths.get(conf.getCompactionKeyIndexSpillDirectory());
+        return new CompactionKeyIndex(conf.getCompactionKeyIndexMaxMemoryMB() * 1024L * 1024L, spillDirectory);
+    }
+
+    @VisibleForTesting
+    CompactedTopicIndex.Builder newIndexBuilder() {
+        return conf.isCompactedTopicIndexEnabled()
+                ? new CompactedTopicIndex.Builder(conf.getCompactedTopicIndexInterval(),
+                        conf.getCompactionKeyIndexMaxMemoryMB() * 1024L * 1024L)
+                : null;
+    }
+
+    private CompletableFuture<PhaseOneResult> phaseOne(RawReader reader, CompactionKeyIndex latestForKey,
+                                                       boolean retainDeletes) {
         CompletableFuture<PhaseOneResult> loopPromise = new CompletableFuture<>();
 
         reader.getLastMessageIdAsync().whenComplete(
@@ -102,7 +177,7 @@ public class TwoPhaseCompactor extends Compactor {
                         MessageIdImpl lastImpl = (MessageIdImpl) lastMessageId;
                         MessageIdImpl lastEntryMessageId = new MessageIdImpl(lastImpl.getLedgerId(), lastImpl.getEntryId(), lastImpl.getPartitionIndex());
                         phaseOneLoop(reader, Optional.empty(), Optional.empty(), lastEntryMessageId, latestForKey,
-                                loopPromise);
+                                retainDeletes, loopPromise);
                     }
                 });
         return loopPromise;
@@ -112,7 +187,8 @@ public class TwoPhaseCompactor extends Compactor {
                               Optional<MessageId> firstMessageId,
                               Optional<MessageId> toMessageId,
                               MessageId lastMessageId,
-                              Map<String,MessageId> latestForKey,
+                              CompactionKeyIndex latestForKey,
+                              boolean retainDeletes,
                               CompletableFuture<PhaseOneResult> loopPromise) {
         if (loopPromise.isDone()) {
             return;
@@ -126,29 +202,32 @@ public class TwoPhaseCompactor extends Compactor {
                             loopPromise.completeExceptionally(exception);
                             return;
                         }
+                        ENTRIES_READ.inc();
                         MessageId id = m.getMessageId();
                         boolean deletedMessage = false;
                         if (RawBatchConverter.isReadableBatch(m)) {
+                            List<ImmutableTriple<MessageId, String, Integer>> idsAndKeysAndSize =
+                                    Collections.emptyList();
                             try {
-                                for (ImmutableTriple<MessageId, String, Integer> e :
-                                        RawBatchConverter.extractIdsAndKeysAndSize(m)) {
-                                    if (e != null) {
-                                        if (e.getRight() > 0) {
-                                            latestForKey.put(e.getMiddle(), e.getLeft());
-                                        } else {
-                                            deletedMessage = true;
-                                            latestForKey.remove(e.getMiddle());
-                                        }
-                                    }
-                                }
+                                idsAndKeysAndSize = RawBatchConverter.extractIdsAndKeysAndSize(m);
                             } catch (IOException ioe) {
                                 log.info("Error decoding batch for message {}. Whole batch will be included in output",
                                          id, ioe);
                             }
+                            for (ImmutableTriple<MessageId, String, Integer> e : idsAndKeysAndSize) {
+                                if (e != null) {
+                                    if (e.getRight() > 0 || retainDeletes) {
+                                        latestForKey.put(e.getMiddle(), e.getLeft());
+                                    } else {
+                                        deletedMessage = true;
+                                        latestForKey.remove(e.getMiddle());
+                                    }
+                                }
+                            }
                         } else {
                             Pair<String,Integer> keyAndSize = extractKeyAndSize(m);
                             if (keyAndSize != null) {
-                                if(keyAndSize.getRight() > 0) {
+                                if(keyAndSize.getRight() > 0 || retainDeletes) {
                                     latestForKey.put(keyAndSize.getLeft(), id);
                                 } else {
                                     deletedMessage = true;
@@ -160,6 +239,7 @@ public class TwoPhaseCompactor extends Compactor {
                         MessageId first = firstMessageId.orElse(deletedMessage ? null : id);
                         MessageId to = deletedMessage ? toMessageId.orElse(null) : id;
                         if (id.compareTo(lastMessageId) == 0) {
+                            latestForKey.finish();
                             loopPromise.complete(new PhaseOneResult(first == null ? id : first, to == null ? id : to,
                                     lastMessageId, latestForKey));
                         } else {
@@ -167,8 +247,11 @@ public class TwoPhaseCompactor extends Compactor {
                                          Optional.ofNullable(first),
                                          Optional.ofNullable(to),
                                          lastMessageId,
-                                         latestForKey, loopPromise);
+                                         latestForKey, retainDeletes, loopPromise);
                         }
+                    } catch (IOException ioe) {
+                        log.error("Failed to update the key index of the compaction of {}", reader.getTopic(), ioe);
+                        loopPromise.completeExceptionally(ioe);
                     } finally {
                         m.close();
                     }
@@ -185,29 +268,63 @@ public class TwoPhaseCompactor extends Compactor {
     }
 
     private CompletableFuture<Long> phaseTwo(RawReader reader, MessageId from, MessageId to, MessageId lastReadId,
-            Map<String, MessageId> latestForKey, BookKeeper bk) {
-        Map<String, byte[]> metadata = LedgerMetadataUtils.buildMetadataForCompactedLedger(reader.getTopic(), to.toByteArray());
-        return createLedger(bk, metadata).thenCompose((ledger) -> {
-            log.info("Commencing phase two of compaction for {}, from {} to {}, compacting {} keys to ledger {}",
-                    reader.getTopic(), from, to, latestForKey.size(), ledger.getId());
-            return phaseTwoSeekThenLoop(reader, from, to, lastReadId, latestForKey, bk, ledger);
-        });
+            CompactionKeyIndex latestForKey, boolean retainDeletes, BookKeeper bk) {
+        CompactedTopicIndex.Builder index = newIndexBuilder();
+        if (index == null) {
+            Map<String, byte[]> metadata = LedgerMetadataUtils.buildMetadataForCompactedLedger(reader.getTopic(),
+                    to.toByteArray());
+            return createLedger(bk, metadata).thenCompose((ledger) -> {
+                log.info("Commencing phase two of compaction for {}, from {} to {}, compacting {} keys to ledger {}",
+                        reader.getTopic(), from, to, latestForKey.size(), ledger.getId());
+                return phaseTwoSeekThenLoop(reader, from, to, lastReadId, latestForKey, retainDeletes, bk, ledger,
+                        null, null);
+            });
+        }
+        // The compacted ledger refers to its index ledger, so the index ledger is created first
+        return createLedger(bk, LedgerMetadataUtils.buildMetadataForCompactedLedgerIndex(reader.getTopic()))
+                .thenCompose((indexLedger) -> {
+                    Map<String, byte[]> metadata = LedgerMetadataUtils.buildMetadataForCompactedLedger(
+                            reader.getTopic(), to.toByteArray(), indexLedger.getId());
+                    return createLedger(bk, metadata).whenComplete((ledger, exception) -> {
+                        if (exception != null) {
+                            deleteLedger(bk, indexLedger);
+                        }
+                    }).thenCompose((ledger) -> {
+                        log.info("Commencing phase two of compaction for {}, from {} to {}, compacting {} keys to"
+                                        + " ledger {} indexed in ledger {}", reader.getTopic(), from, to,
+                                latestForKey.size(), ledger.getId(), indexLedger.getId());
+                        return phaseTwoSeekThenLoop(reader, from, to, lastReadId, latestForKey, retainDeletes, bk,
+                                ledger, indexLedger, index);
+                    });
+                });
     }
 
     private CompletableFuture<Long> phaseTwoSeekThenLoop(RawReader reader, MessageId from, MessageId to,
-            MessageId lastReadId, Map<String, MessageId> latestForKey, BookKeeper bk, LedgerHandle ledger) {
+            MessageId lastReadId, CompactionKeyIndex latestForKey, boolean retainDeletes, BookKeeper bk,
+            LedgerHandle ledger, LedgerHandle indexLedger, CompactedTopicIndex.Builder index) {
         CompletableFuture<Long> promise = new CompletableFuture<>();
+        // A segment with the deletions is appended to the previous compacted ledgers instead of replacing them
+        Map<String, Long> properties = retainDeletes
+                ? ImmutableMap.of(COMPACTED_TOPIC_LEDGER_PROPERTY, ledger.getId(), COMPACTED_TOPIC_SEGMENT_PROPERTY, 1L)
+                : ImmutableMap.of(COMPACTED_TOPIC_LEDGER_PROPERTY, ledger.getId());
 
         reader.seekAsync(from).thenCompose((v) -> {
             Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
             CompletableFuture<Void> loopPromise = new CompletableFuture<Void>();
-            phaseTwoLoop(reader, to, latestForKey, ledger, outstanding, loopPromise);
+            phaseTwoLoop(reader, to, latestForKey, retainDeletes, ledger, index, outstanding, loopPromise);
             return loopPromise;
         }).thenCompose((v) -> closeLedger(ledger))
-                .thenCompose((v) -> reader.acknowledgeCumulativeAsync(lastReadId,
-                        ImmutableMap.of(COMPACTED_TOPIC_LEDGER_PROPERTY, ledger.getId())))
+                .thenCompose((v) -> index == null ? CompletableFuture.<Void>completedFuture(null)
+                        : writeIndex(reader.getTopic(), indexLedger, index, retainDeletes))
+                .thenCompose((v) -> reader.acknowledgeCumulativeAsync(lastReadId, properties))
                 .whenComplete((res, exception) -> {
                     if (exception != null) {
+                        if (indexLedger != null) {
+                            deleteLedger(bk, indexLedger).exceptionally((exception2) -> {
+                                log.warn("Cleanup of index ledger {} failed", indexLedger, exception2);
+                                return null;
+                            });
+                        }
                         deleteLedger(bk, ledger).whenComplete((res2, exception2) -> {
                             if (exception2 != null) {
                                 log.warn("Cleanup of ledger {} for failed", ledger, exception2);
@@ -222,8 +339,9 @@ public class TwoPhaseCompactor extends Compactor {
         return promise;
     }
 
-    private void phaseTwoLoop(RawReader reader, MessageId to, Map<String, MessageId> latestForKey,
-                              LedgerHandle lh, Semaphore outstanding, CompletableFuture<Void> promise) {
+    private void phaseTwoLoop(RawReader reader, MessageId to, CompactionKeyIndex latestForKey, boolean retainDeletes,
+                              LedgerHandle lh, CompactedTopicIndex.Builder index, Semaphore outstanding,
+                              CompletableFuture<Void> promise) {
         if (promise.isDone()) {
             return;
         }
@@ -237,29 +355,36 @@ public class TwoPhaseCompactor extends Compactor {
                         return;
                     }
                     try {
+                        ENTRIES_READ.inc();
                         MessageId id = m.getMessageId();
                         Optional<RawMessage> messageToAdd = Optional.empty();
+                        List<String> keys = new ArrayList<>();
                         if (RawBatchConverter.isReadableBatch(m)) {
                             try {
-                                messageToAdd = RawBatchConverter.rebatchMessage(
-                                        m, (key, subid) -> subid.equals(latestForKey.get(key)));
+                                messageToAdd = RawBatchConverter.rebatchMessage(m, (key, subid) -> {
+                                    if (latestForKey.isLatest(subid)) {
+                                        keys.add(key);
+                                        return true;
+                                    }
+                                    return false;
+                                });
                             } catch (IOException ioe) {
                                 log.info("Error decoding batch for message {}. Whole batch will be included in output",
                                         id, ioe);
+                                keys.clear();
                                 messageToAdd = Optional.of(m);
                             }
                         } else {
                             Pair<String,Integer> keyAndSize = extractKeyAndSize(m);
-                            MessageId msg;
                             if (keyAndSize == null) { // pass through messages without a key
                                 messageToAdd = Optional.of(m);
-                            } else if ((msg = latestForKey.get(keyAndSize.getLeft())) != null
-                                    && msg.equals(id)) { // consider message only if present into latestForKey map
-                                if (keyAndSize.getRight() <= 0) {
+                            } else if (latestForKey.isLatest(id)) { // consider message only if latest of its key
+                                if (keyAndSize.getRight() <= 0 && !retainDeletes) {
                                     promise.completeExceptionally(new IllegalArgumentException(
                                             "Compaction phase found empty record from sorted key-map"));
                                 }
                                 messageToAdd = Optional.of(m);
+                                keys.add(keyAndSize.getLeft());
                             }
                         }
 
@@ -267,7 +392,8 @@ public class TwoPhaseCompactor extends Compactor {
                             RawMessage message = messageToAdd.get();
                             try {
                                 outstanding.acquire();
-                                CompletableFuture<Void> addFuture = addToCompactedLedger(lh, message)
+                                ENTRIES_WRITTEN.inc();
+                                CompletableFuture<Void> addFuture = addToCompactedLedger(lh, message, index, keys)
                                         .whenComplete((res, exception2) -> {
                                             outstanding.release();
                                             if (exception2 != null) {
@@ -302,7 +428,10 @@ public class TwoPhaseCompactor extends Compactor {
                             }
                             return;
                         }
-                        phaseTwoLoop(reader, to, latestForKey, lh, outstanding, promise);
+                        phaseTwoLoop(reader, to, latestForKey, retainDeletes, lh, index, outstanding, promise);
+                    } catch (UncheckedIOException uioe) {
+                        log.error("Failed to read the key index of the compaction of {}", reader.getTopic(), uioe);
+                        promise.completeExceptionally(uioe.getCause());
                     } finally {
                         m.close();
                     }
@@ -357,20 +486,61 @@ public class TwoPhaseCompactor extends Compactor {
         return bkf;
     }
 
-    private CompletableFuture<Void> addToCompactedLedger(LedgerHandle lh, RawMessage m) {
+    private CompletableFuture<Void> addToCompactedLedger(LedgerHandle lh, RawMessage m,
+                                                         CompactedTopicIndex.Builder index, List<String> keys) {
         CompletableFuture<Void> bkf = new CompletableFuture<>();
+        long messageLedgerId = m.getMessageIdData().getLedgerId();
+        long messageEntryId = m.getMessageIdData().getEntryId();
         ByteBuf serialized = m.serialize();
         lh.asyncAddEntry(serialized,
                          (rc, ledger, eid, ctx) -> {
                              if (rc != BKException.Code.OK) {
                                  bkf.completeExceptionally(BKException.create(rc));
                              } else {
+                                 if (index != null) {
+                                     index.add(eid, messageLedgerId, messageEntryId, keys);
+                                 }
                                  bkf.complete(null);
                              }
                          }, null);
         return bkf;
     }
 
+    /**
+     * @param requireKeys whether the keys must be indexed, which is the case of the segments appended after older
+     *                    segments, whose readers look up the keys in the newer segments to skip their older values
+     */
+    private CompletableFuture<Void> writeIndex(String topic, LedgerHandle indexLedger,
+                                               CompactedTopicIndex.Builder index, boolean requireKeys) {
+        if (!index.hasKeys() && requireKeys) {
+            return FutureUtil.failedFuture(new KeysNotIndexedException(
+                    "the keys of the new segment of " + topic + " exceed the memory budget of the index"));
+        } else if (!index.hasKeys()) {
+            log.warn("The keys of the compaction of {} exceed the memory budget, only indexing the message ids",
+                    topic);
+        }
+        List<byte[]> entries;
+        try {
+            entries = index.build();
+        } catch (IOException e) {
+            return FutureUtil.failedFuture(e);
+        }
+        List<CompletableFuture<Void>> adds = new ArrayList<>(entries.size());
+        for (byte[] entry : entries) {
+            CompletableFuture<Void> bkf = new CompletableFuture<>();
+            indexLedger.asyncAddEntry(entry,
+                    (rc, ledger, eid, ctx) -> {
+                        if (rc != BKException.Code.OK) {
+                            bkf.completeExceptionally(BKException.create(rc));
+                        } else {
+                            bkf.complete(null);
+                        }
+                    }, null);
+            adds.add(bkf);
+        }
+        return FutureUtil.waitForAll(adds).thenCompose((v) -> closeLedger(indexLedger));
+    }
+
     private static Pair<String,Integer> extractKeyAndSize(RawMessage m) {
         ByteBuf headersAndPayload = m.getHeadersAndPayload();
         MessageMetadata msgMetadata = Commands.parseMessageMetadata(headersAndPayload);
@@ -393,9 +563,9 @@ public class TwoPhaseCompactor extends Compactor {
         final MessageId from;
         final MessageId to; // last undeleted messageId
         final MessageId lastReadId; // last read messageId
-        final Map<String,MessageId> latestForKey;
+        final CompactionKeyIndex latestForKey;
 
-        PhaseOneResult(MessageId from, MessageId to, MessageId lastReadId, Map<String,MessageId> latestForKey) {
+        PhaseOneResult(MessageId from, MessageId to, MessageId lastReadId, CompactionKeyIndex latestForKey) {
             this.from = from;
             this.to = to;
             this.lastReadId = lastReadId;
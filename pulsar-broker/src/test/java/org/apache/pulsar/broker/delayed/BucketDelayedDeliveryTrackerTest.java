@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+
+import io.netty.util.Timer;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.bookkeeper.mledger.AsyncCallbacks.MarkDeleteCallback;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BucketDelayedDeliveryTrackerTest {
+
+    private static final String BUCKET_KEY = "#pulsar.internal.delayed.bucket_1_1";
+
+    private PersistentDispatcherMultipleConsumers dispatcher;
+    private Map<String, Long> cursorProperties;
+    private MemoryBucketSnapshotStorage storage;
+    private Timer timer;
+    private AtomicLong clockTime;
+    private Clock clock;
+
+    static class MemoryBucketSnapshotStorage implements BucketSnapshotStorage {
+        private final AtomicLong nextId = new AtomicLong();
+        final Map<Long, List<byte[]>> snapshots = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<Long> createBucketSnapshot(List<byte[]> entries, String topicName,
+                                                            String subscriptionName) {
+            long id = nextId.incrementAndGet();
+            snapshots.put(id, entries);
+            return CompletableFuture.completedFuture(id);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getBucketSnapshotEntry(long bucketId, long entryId) {
+            List<byte[]> entries = snapshots.get(bucketId);
+            if (entries == null) {
+                return FutureUtil.failedFuture(new IllegalArgumentException("No snapshot " + bucketId));
+            }
+            return CompletableFuture.completedFuture(entries.get((int) entryId));
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteBucketSnapshot(long bucketId) {
+            snapshots.remove(bucketId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @BeforeMethod
+    public void setup() {
+        cursorProperties = new ConcurrentHashMap<>();
+        ManagedCursor cursor = mock(ManagedCursor.class);
+        when(cursor.getName()).thenReturn("sub");
+        when(cursor.getProperties()).then(x -> cursorProperties);
+        when(cursor.getMarkDeletedPosition()).thenReturn(PositionImpl.earliest);
+        doAnswer(invocation -> {
+            Map<String, Long> properties = invocation.getArgument(1);
+            cursorProperties = new ConcurrentHashMap<>(properties);
+            invocation.getArgument(2, MarkDeleteCallback.class).markDeleteComplete(null);
+            return null;
+        }).when(cursor).asyncMarkDelete(any(), anyMap(), any(), any());
+
+        PersistentTopic topic = mock(PersistentTopic.class);
+        when(topic.getName()).thenReturn("persistent://public/default/topic");
+
+        dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        when(dispatcher.getCursor()).thenReturn(cursor);
+        when(dispatcher.getTopic()).thenReturn(topic);
+        when(dispatcher.getName()).thenReturn("dispatcher");
+
+        storage = new MemoryBucketSnapshotStorage();
+        timer = mock(Timer.class);
+        clockTime = new AtomicLong();
+        clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+    }
+
+    private BucketDelayedDeliveryTracker newTracker() {
+        return new BucketDelayedDeliveryTracker(dispatcher, timer, 1, storage, 4, 2, clock);
+    }
+
+    private void addAndSealBucket(BucketDelayedDeliveryTracker tracker) {
+        assertTrue(tracker.addMessage(1, 1, 40));
+        assertTrue(tracker.addMessage(1, 2, 10));
+        assertTrue(tracker.addMessage(1, 3, 30));
+        assertTrue(tracker.addMessage(1, 4, 20));
+        // Moving to a new ledger seals the bucket of ledger 1
+        assertTrue(tracker.addMessage(2, 1, 50));
+    }
+
+    @Test
+    public void testSealAndDeliver() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addAndSealBucket(tracker);
+
+        assertEquals(tracker.getNumberOfDelayedMessages(), 5);
+        assertEquals(storage.snapshots.size(), 1);
+        long bucketId = storage.snapshots.keySet().iterator().next();
+        // Metadata and 2 segments
+        assertEquals(storage.snapshots.get(bucketId).size(), 3);
+        assertEquals(cursorProperties.get(BUCKET_KEY), Long.valueOf(bucketId));
+
+        assertFalse(tracker.hasMessageAvailable());
+        clockTime.set(25);
+        assertTrue(tracker.hasMessageAvailable());
+        assertEquals(tracker.getScheduledMessages(10),
+                Sets.newHashSet(new PositionImpl(1, 2), new PositionImpl(1, 4)));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 3);
+
+        // The second segment is loaded and delivered along with the mutable bucket
+        clockTime.set(100);
+        assertEquals(tracker.getScheduledMessages(10),
+                Sets.newHashSet(new PositionImpl(1, 1), new PositionImpl(1, 3), new PositionImpl(2, 1)));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+        assertFalse(tracker.hasMessageAvailable());
+
+        // The bucket is deleted once all its messages are delivered
+        assertTrue(storage.snapshots.isEmpty());
+        assertFalse(cursorProperties.containsKey(BUCKET_KEY));
+        tracker.close();
+    }
+
+    @Test
+    public void testRecoverFromSnapshot() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addAndSealBucket(tracker);
+        tracker.close();
+
+        // The messages of the mutable bucket are lost, the ones of the sealed bucket are recovered
+        tracker = newTracker();
+        assertEquals(tracker.getNumberOfDelayedMessages(), 4);
+
+        // Messages read again from the backlog are not tracked twice
+        assertTrue(tracker.addMessage(1, 3, 30));
+        assertTrue(tracker.addMessage(2, 1, 50));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 5);
+
+        clockTime.set(100);
+        assertEquals(tracker.getScheduledMessages(10).size(), 5);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+        assertTrue(storage.snapshots.isEmpty());
+        tracker.close();
+    }
+
+    @Test
+    public void testDeliveredMessageCanBeTrackedAgain() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addAndSealBucket(tracker);
+
+        clockTime.set(15);
+        assertEquals(tracker.getScheduledMessages(10), Sets.newHashSet(new PositionImpl(1, 2)));
+
+        // The message is not part of the sealed bucket anymore, so it is tracked again
+        assertTrue(tracker.addMessage(1, 2, 60));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 5);
+        tracker.close();
+    }
+
+    @Test
+    public void testAsynchronousRecovery() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addAndSealBucket(tracker);
+        tracker.close();
+
+        // The snapshot reads complete only once the gate is opened
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        MemoryBucketSnapshotStorage persistedStorage = storage;
+        storage = new MemoryBucketSnapshotStorage() {
+            @Override
+            public CompletableFuture<byte[]> getBucketSnapshotEntry(long bucketId, long entryId) {
+                return gate.thenCompose(v -> persistedStorage.getBucketSnapshotEntry(bucketId, entryId));
+            }
+        };
+
+        tracker = newTracker();
+        clockTime.set(100);
+        // Nothing is delivered until the buckets are recovered, the messages read meanwhile are kept aside
+        assertFalse(tracker.hasMessageAvailable());
+        assertTrue(tracker.getScheduledMessages(10).isEmpty());
+        assertTrue(tracker.addMessage(1, 3, 130));
+        assertTrue(tracker.addMessage(2, 1, 150));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 2);
+        verify(dispatcher, never()).readMoreEntries();
+
+        gate.complete(null);
+        verify(dispatcher).readMoreEntries();
+        // The message of the recovered bucket is not tracked twice
+        assertEquals(tracker.getNumberOfDelayedMessages(), 5);
+
+        clockTime.set(200);
+        assertEquals(tracker.getScheduledMessages(10).size(), 5);
+        tracker.close();
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Cleanup;
+
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.testng.annotations.Test;
+
+public class TimingWheelDeliveryTrackerTest {
+
+    @Test
+    public void test() throws Exception {
+        PersistentDispatcherMultipleConsumers dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+
+        Timer timer = mock(Timer.class);
+
+        AtomicLong clockTime = new AtomicLong();
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+
+        @Cleanup
+        TimingWheelDelayedDeliveryTracker tracker = new TimingWheelDelayedDeliveryTracker(dispatcher, timer, 1, 4,
+                clock);
+
+        assertFalse(tracker.hasMessageAvailable());
+
+        assertTrue(tracker.addMessage(2, 2, 20));
+        assertTrue(tracker.addMessage(1, 1, 10));
+        assertTrue(tracker.addMessage(3, 3, 30));
+        assertTrue(tracker.addMessage(5, 5, 50));
+        assertTrue(tracker.addMessage(4, 4, 40));
+
+        assertFalse(tracker.hasMessageAvailable());
+        assertEquals(tracker.getNumberOfDelayedMessages(), 5);
+
+        assertEquals(tracker.getScheduledMessages(10), Collections.emptySet());
+
+        // Move time forward
+        clockTime.set(15);
+
+        // Message is rejected by tracker since it's already ready to send
+        assertFalse(tracker.addMessage(6, 6, 10));
+
+        assertEquals(tracker.getNumberOfDelayedMessages(), 5);
+        assertTrue(tracker.hasMessageAvailable());
+        Set<PositionImpl> scheduled = tracker.getScheduledMessages(10);
+        assertEquals(scheduled, Collections.singleton(new PositionImpl(1, 1)));
+
+        // Move time forward
+        clockTime.set(60);
+
+        assertEquals(tracker.getNumberOfDelayedMessages(), 4);
+        assertTrue(tracker.hasMessageAvailable());
+        scheduled = tracker.getScheduledMessages(1);
+        assertEquals(scheduled, Collections.singleton(new PositionImpl(2, 2)));
+
+        assertEquals(tracker.getNumberOfDelayedMessages(), 3);
+        assertTrue(tracker.hasMessageAvailable());
+        scheduled = tracker.getScheduledMessages(3);
+        assertEquals(scheduled.size(), 3);
+
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+        assertFalse(tracker.hasMessageAvailable());
+        assertEquals(tracker.getScheduledMessages(10), Collections.emptySet());
+    }
+
+    @Test
+    public void testWithTimer() throws Exception {
+        PersistentDispatcherMultipleConsumers dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        Timer timer = mock(Timer.class);
+
+        AtomicLong clockTime = new AtomicLong();
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+
+        NavigableMap<Long, TimerTask> tasks = new TreeMap<>();
+
+        when(timer.newTimeout(any(), anyLong(), any())).then(invocation -> {
+            TimerTask task = invocation.getArgument(0, TimerTask.class);
+            long timeout = invocation.getArgument(1, Long.class);
+            TimeUnit unit = invocation.getArgument(2, TimeUnit.class);
+            long scheduleAt = clockTime.get() + unit.toMillis(timeout);
+            tasks.put(scheduleAt, task);
+
+            Timeout t = mock(Timeout.class);
+            when(t.cancel()).then(i -> {
+                tasks.remove(scheduleAt, task);
+                return null;
+            });
+            return t;
+        });
+
+        @Cleanup
+        TimingWheelDelayedDeliveryTracker tracker = new TimingWheelDelayedDeliveryTracker(dispatcher, timer, 10, 4,
+                clock);
+
+        // Many messages due within the same tick
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(tracker.addMessage(1, i, 100 + i % 10));
+        }
+        assertTrue(tracker.addMessage(2, 0, 250));
+        assertEquals(tasks.size(), 1);
+        // With 4 slots of 10ms, the messages are first kept in the second level, which is cascaded at 80ms
+        assertEquals(tasks.firstKey().longValue(), 80);
+
+        clockTime.set(80);
+
+        TimerTask task = tasks.pollFirstEntry().getValue();
+        Timeout cancelledTimeout = mock(Timeout.class);
+        when(cancelledTimeout.isCancelled()).thenReturn(true);
+        task.run(cancelledTimeout);
+        verifyZeroInteractions(dispatcher);
+
+        // Ticks that don't expire anything don't wake up the dispatcher
+        task.run(mock(Timeout.class));
+        verifyZeroInteractions(dispatcher);
+        assertEquals(tasks.firstKey().longValue(), 100);
+
+        // A single wake up for the whole tick
+        clockTime.set(100);
+        tasks.pollFirstEntry().getValue().run(mock(Timeout.class));
+        verify(dispatcher, times(1)).readMoreEntries();
+        assertEquals(tracker.getScheduledMessages(2000).size(), 1000);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 1);
+
+        // The remaining message is cascaded down to the first level before being expired
+        for (long tick : new long[] { 160, 240 }) {
+            assertEquals(tasks.firstKey().longValue(), tick);
+            clockTime.set(tick);
+            tasks.pollFirstEntry().getValue().run(mock(Timeout.class));
+            verify(dispatcher, times(1)).readMoreEntries();
+        }
+
+        assertEquals(tasks.firstKey().longValue(), 250);
+        clockTime.set(250);
+        tasks.pollFirstEntry().getValue().run(mock(Timeout.class));
+        verify(dispatcher, times(2)).readMoreEntries();
+        assertEquals(tracker.getScheduledMessages(10), Collections.singleton(new PositionImpl(2, 0)));
+        assertTrue(tasks.isEmpty());
+    }
+
+    /**
+     * Messages spread across several levels of the wheel are delivered in order and not before their tick.
+     */
+    @Test
+    public void testCascading() throws Exception {
+        PersistentDispatcherMultipleConsumers dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        Timer timer = mock(Timer.class);
+
+        AtomicLong clockTime = new AtomicLong(3);
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+
+        @Cleanup
+        TimingWheelDelayedDeliveryTracker tracker = new TimingWheelDelayedDeliveryTracker(dispatcher, timer, 10, 4,
+                clock);
+
+        Random random = new Random(0);
+        NavigableMap<Long, List<Long>> expected = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            // Up to 4 levels: 40, 160, 640 and 2560 ms
+            long deliverAt = 20 + random.nextInt(2000);
+            assertTrue(tracker.addMessage(deliverAt, i, deliverAt));
+            expected.computeIfAbsent(deliverAt, k -> new ArrayList<>()).add((long) i);
+        }
+        assertEquals(tracker.getNumberOfDelayedMessages(), 500);
+
+        int delivered = 0;
+        for (long now = 3; now <= 2100; now += 7) {
+            clockTime.set(now);
+            for (PositionImpl position : tracker.getScheduledMessages(1000)) {
+                long deliverAt = position.getLedgerId();
+                // Messages are extracted up to one tick early, never late
+                assertTrue(deliverAt < now - now % 10 + 10, "deliverAt " + deliverAt + " now " + now);
+                long previous = now - 7;
+                assertTrue(deliverAt >= previous - previous % 10 + 10, "deliverAt " + deliverAt + " now " + now);
+                assertTrue(expected.get(deliverAt).remove(position.getEntryId()));
+                delivered++;
+            }
+        }
+        assertEquals(delivered, 500);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+    }
+
+    @Test
+    public void testResetTickTime() throws Exception {
+        PersistentDispatcherMultipleConsumers dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        Timer timer = mock(Timer.class);
+
+        AtomicLong clockTime = new AtomicLong();
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+
+        @Cleanup
+        TimingWheelDelayedDeliveryTracker tracker = new TimingWheelDelayedDeliveryTracker(dispatcher, timer, 1, 4,
+                clock);
+
+        assertTrue(tracker.addMessage(1, 1, 50));
+        assertTrue(tracker.addMessage(2, 2, 500));
+
+        tracker.resetTickTime(100);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 2);
+        assertTrue(tracker.hasMessageAvailable());
+        assertEquals(tracker.getScheduledMessages(10), Collections.singleton(new PositionImpl(1, 1)));
+
+        clockTime.set(499);
+        assertFalse(tracker.hasMessageAvailable());
+        clockTime.set(500);
+        assertEquals(tracker.getScheduledMessages(10), Collections.singleton(new PositionImpl(2, 2)));
+    }
+}
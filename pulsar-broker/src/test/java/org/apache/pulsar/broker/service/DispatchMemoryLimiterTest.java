@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.testng.annotations.Test;
+
+public class DispatchMemoryLimiterTest {
+
+    private static List<Entry> entries(int count, int size) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(EntryImpl.create(0, i, new byte[size]));
+        }
+        return entries;
+    }
+
+    @Test
+    public void testDisabled() {
+        DispatchMemoryLimiter.Handle handle = DispatchMemoryLimiter.DISABLED.newHandle(() -> {});
+        assertFalse(DispatchMemoryLimiter.DISABLED.isEnabled());
+        assertEquals(handle.tryReserveRead(100, 1024), 0);
+
+        DispatchMemoryLimiter.Reservation reservation = handle.readComplete(0, entries(10, 100));
+        assertEquals(reservation.getBytes(), 0);
+        assertEquals(DispatchMemoryLimiter.DISABLED.getUsedBytes(), 0);
+        reservation.release();
+        assertEquals(DispatchMemoryLimiter.DISABLED.getUsedBytes(), 0);
+    }
+
+    @Test
+    public void testReserveAndRelease() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(1000);
+        DispatchMemoryLimiter.Handle handle = limiter.newHandle(() -> {});
+
+        // nothing is known about the entry size before the first read
+        assertEquals(handle.tryReserveRead(2, 1024), 0);
+        DispatchMemoryLimiter.Reservation reservation = handle.readComplete(0, entries(2, 100));
+        assertEquals(reservation.getBytes(), 200);
+        assertEquals(limiter.getUsedBytes(), 200);
+        assertEquals(handle.getUsedBytes(), 200);
+
+        // the next reads are estimated from the size of the previous entries, up to the max read size
+        assertEquals(handle.tryReserveRead(3, 1024), 300);
+        assertEquals(limiter.getUsedBytes(), 500);
+        handle.releaseRead(300);
+        assertEquals(handle.tryReserveRead(30, 400), 400);
+        reservation.release();
+        assertEquals(limiter.getUsedBytes(), 400);
+
+        handle.readComplete(400, entries(1, 100)).release();
+        assertEquals(limiter.getUsedBytes(), 0);
+        assertEquals(handle.getUsedBytes(), 0);
+    }
+
+    @Test
+    public void testReservationIsHeldUntilWritten() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(1000);
+        DispatchMemoryLimiter.Handle handle = limiter.newHandle(() -> {});
+
+        DispatchMemoryLimiter.Reservation reservation = handle.readComplete(0, entries(2, 100));
+        assertEquals(reservation.releaseOnWrite(null), null);
+        reservation.release();
+        assertEquals(limiter.getUsedBytes(), 0);
+    }
+
+    @Test
+    public void testPauseAndResume() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(300);
+        List<String> resumed = new ArrayList<>();
+        DispatchMemoryLimiter.Handle handle = limiter.newHandle(() -> resumed.add("handle"));
+
+        DispatchMemoryLimiter.Reservation reservation = handle.readComplete(0, entries(2, 100));
+        assertEquals(handle.tryReserveRead(2, 1024), -1);
+        assertTrue(handle.isPaused());
+        assertEquals(limiter.getPausedDispatchers(), 1);
+        assertEquals(limiter.getPausedReads(), 1);
+        assertTrue(resumed.isEmpty());
+
+        reservation.release();
+        assertEquals(resumed.size(), 1);
+        assertFalse(handle.isPaused());
+        assertEquals(limiter.getPausedDispatchers(), 0);
+        assertEquals(handle.tryReserveRead(2, 1024), 200);
+    }
+
+    @Test
+    public void testEntriesLargerThanBudget() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(300);
+        DispatchMemoryLimiter.Handle handle = limiter.newHandle(() -> {});
+
+        handle.readComplete(0, entries(1, 500)).release();
+        // a read is allowed when nothing else is in flight, or the dispatcher would never make progress
+        assertEquals(handle.tryReserveRead(1, 1024), 500);
+        assertEquals(handle.tryReserveRead(1, 1024), -1);
+    }
+
+    @Test
+    public void testFairShare() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(1000);
+        List<String> resumed = new ArrayList<>();
+        DispatchMemoryLimiter.Handle greedy = limiter.newHandle(() -> resumed.add("greedy"));
+        DispatchMemoryLimiter.Handle other = limiter.newHandle(() -> resumed.add("other"));
+
+        DispatchMemoryLimiter.Reservation greedyReservation = greedy.readComplete(0, entries(8, 100));
+        DispatchMemoryLimiter.Reservation otherReservation = other.readComplete(0, entries(1, 100));
+        assertEquals(other.tryReserveRead(2, 1024), -1);
+
+        // there is room for the read, but the dispatcher holds more than its share while another one is waiting
+        assertEquals(greedy.tryReserveRead(1, 1024), -1);
+        assertTrue(greedy.isPaused());
+        assertEquals(limiter.getPausedDispatchers(), 2);
+
+        // dispatchers are resumed in the order they were paused
+        otherReservation.release();
+        assertEquals(resumed.size(), 2);
+        assertEquals(resumed.get(0), "other");
+        assertEquals(resumed.get(1), "greedy");
+        greedyReservation.release();
+        assertEquals(limiter.getUsedBytes(), 0);
+    }
+
+    @Test
+    public void testClose() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(300);
+        List<String> resumed = new ArrayList<>();
+        DispatchMemoryLimiter.Handle handle = limiter.newHandle(() -> resumed.add("handle"));
+
+        DispatchMemoryLimiter.Reservation reservation = handle.readComplete(0, entries(3, 100));
+        assertEquals(handle.tryReserveRead(1, 1024), -1);
+        handle.close();
+        assertFalse(handle.isPaused());
+        assertEquals(limiter.getPausedDispatchers(), 0);
+
+        // the memory still held by a closed dispatcher is released as its writes complete
+        reservation.release();
+        assertEquals(limiter.getUsedBytes(), 0);
+        assertTrue(resumed.isEmpty());
+    }
+}
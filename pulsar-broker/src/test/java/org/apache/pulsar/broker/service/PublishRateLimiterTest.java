@@ -20,11 +20,17 @@ package org.apache.pulsar.broker.service;
 
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.PublishRate;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
@@ -37,17 +43,25 @@ public class PublishRateLimiterTest {
 
     private PrecisPublishLimiter precisPublishLimiter;
     private PublishRateLimiterImpl publishRateLimiter;
+    private ScheduledExecutorService executor;
+    private CountDownLatch resumed;
 
 
     @BeforeMethod
     public void setup() throws Exception {
         policies.publishMaxMessageRate = new HashMap<>();
         policies.publishMaxMessageRate.put(CLUSTER_NAME, publishRate);
-        precisPublishLimiter = new PrecisPublishLimiter(policies, CLUSTER_NAME,
-                () -> System.out.print("Refresh permit"));
+        executor = Executors.newSingleThreadScheduledExecutor();
+        resumed = new CountDownLatch(1);
+        precisPublishLimiter = new PrecisPublishLimiter(policies, CLUSTER_NAME, () -> resumed.countDown(), executor);
         publishRateLimiter = new PublishRateLimiterImpl(policies, CLUSTER_NAME);
     }
 
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
     @Test
     public void testPublishRateLimiterImplExceed() throws Exception {
         // increment not exceed
@@ -109,4 +123,31 @@ public class PublishRateLimiterTest {
         // tryAcquire not exceeded
         assertTrue(precisPublishLimiter.tryAcquire(10, 100));
     }
+
+    @Test
+    public void testPublishRateLimiterImplStaysThrottledUntilOvershootIsPaidBack() throws Exception {
+        publishRateLimiter.incrementPublishCount(20, 50);
+        publishRateLimiter.checkPublishRate();
+        assertTrue(publishRateLimiter.isPublishRateExceeded());
+
+        // twice the rate has been published, so the next period is still throttled
+        assertFalse(publishRateLimiter.resetPublishCount());
+        assertTrue(publishRateLimiter.isPublishRateExceeded());
+        assertTrue(publishRateLimiter.getThrottledTimeNanos() > 0);
+    }
+
+    @Test
+    public void testPrecisePublishRateLimiterResumesOnceRefilled() throws Exception {
+        assertTrue(precisPublishLimiter.tryAcquire(10, 100));
+        assertFalse(precisPublishLimiter.tryAcquire(1, 10));
+        // a single permit refills in 100ms
+        assertTrue(resumed.await(1, TimeUnit.SECONDS));
+        assertTrue(precisPublishLimiter.tryAcquire(1, 10));
+        assertTrue(precisPublishLimiter.getThrottledTimeNanos() > 0);
+    }
+
+    @Test
+    public void testDisabledPublishRateLimiterThrottledTime() {
+        assertEquals(PublishRateLimiter.DISABLED_RATE_LIMITER.getThrottledTimeNanos(), 0);
+    }
 }
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertEquals;
+
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.testng.annotations.Test;
+
+public class AdaptiveReadBatchSizerTest {
+
+    private static List<Entry> entries(int count, int size) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(EntryImpl.create(1, i, Unpooled.wrappedBuffer(new byte[size])));
+        }
+        return entries;
+    }
+
+    private static void release(List<Entry> entries) {
+        entries.forEach(Entry::release);
+    }
+
+    @Test
+    public void testDefaultBatchSizeBeforeFirstRead() {
+        AdaptiveReadBatchSizer sizer = new AdaptiveReadBatchSizer(1024 * 1024, 1);
+        assertEquals(sizer.getReadBatchSize(100), 100);
+
+        sizer.recordRead(Collections.emptyList());
+        assertEquals(sizer.getReadBatchSize(100), 100);
+    }
+
+    @Test
+    public void testBatchSizeFollowsEntrySize() {
+        AdaptiveReadBatchSizer sizer = new AdaptiveReadBatchSizer(1024 * 1024, 1);
+
+        List<Entry> small = entries(10, 1024);
+        sizer.recordRead(small);
+        release(small);
+        assertEquals(sizer.getAvgEntrySize(), 1024.0);
+        assertEquals(sizer.getReadBatchSize(100), 1024);
+
+        // Entries get larger, the batch size converges towards target / entry size
+        for (int i = 0; i < 100; i++) {
+            List<Entry> large = entries(2, 512 * 1024);
+            sizer.recordRead(large);
+            release(large);
+        }
+        assertEquals(sizer.getReadBatchSize(100), 2);
+    }
+
+    @Test
+    public void testMinBatchSize() {
+        AdaptiveReadBatchSizer sizer = new AdaptiveReadBatchSizer(1024, 5);
+        List<Entry> large = entries(1, 1024 * 1024);
+        sizer.recordRead(large);
+        release(large);
+        assertEquals(sizer.getReadBatchSize(100), 5);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DeduplicationSnapshotStoreTest {
+
+    private static final String TOPIC = "persistent://prop/ns/dedup-snapshot";
+
+    private ExecutorService executor;
+    private PulsarMockBookKeeper bookKeeper;
+    private ServiceConfiguration config;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        bookKeeper = new PulsarMockBookKeeper(null, executor);
+        config = new ServiceConfiguration();
+        config.setBrokerDeduplicationSnapshotCompactionThreshold(3);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() throws Exception {
+        bookKeeper.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        Map<String, Long> sequenceIds = new HashMap<>();
+        for (int i = 0; i < 2500; i++) {
+            sequenceIds.put("producer-" + i, (long) i);
+        }
+        List<byte[]> entries = DeduplicationSnapshotStore.encode(sequenceIds);
+        assertEquals(entries.size(), 3);
+
+        Map<String, Long> decoded = new HashMap<>();
+        entries.forEach(entry -> DeduplicationSnapshotStore.decode(entry, decoded));
+        assertEquals(decoded, sequenceIds);
+
+        // Removed producers are dropped from the state
+        Map<String, Long> changes = new HashMap<>();
+        changes.put("producer-1", DeduplicationSnapshotStore.REMOVED);
+        changes.put("producer-2", 100L);
+        DeduplicationSnapshotStore.encode(changes).forEach(entry -> DeduplicationSnapshotStore.decode(entry, decoded));
+        assertEquals(decoded.size(), 2499);
+        assertFalse(decoded.containsKey("producer-1"));
+        assertEquals(decoded.get("producer-2").longValue(), 100L);
+    }
+
+    @Test
+    public void testCompactAndRecover() throws Exception {
+        DeduplicationSnapshotStore store = new DeduplicationSnapshotStore(bookKeeper, config, TOPIC);
+        assertFalse(store.hasLedgers());
+        assertTrue(store.needsCompaction());
+
+        Map<String, Long> state = new HashMap<>();
+        state.put("producer-1", 10L);
+        state.put("producer-2", 20L);
+        assertTrue(store.compact(state).get().isEmpty());
+        assertTrue(store.hasLedgers());
+        assertFalse(store.needsCompaction());
+        assertEquals(bookKeeper.getLedgers().size(), 2);
+
+        Map<String, Long> changes = new HashMap<>();
+        changes.put("producer-1", 11L);
+        changes.put("producer-3", 30L);
+        store.appendChanges(changes).get();
+        state.putAll(changes);
+
+        changes.clear();
+        changes.put("producer-2", DeduplicationSnapshotStore.REMOVED);
+        store.appendChanges(changes).get();
+        state.remove("producer-2");
+
+        Map<String, Long> properties = store.getCursorProperties();
+        assertTrue(DeduplicationSnapshotStore.hasSnapshot(properties));
+
+        // A new owner of the topic reads the state back
+        DeduplicationSnapshotStore recovered = new DeduplicationSnapshotStore(bookKeeper, config, TOPIC);
+        assertEquals(recovered.recover(properties).get(), state);
+        // The recovered delta ledger can't be appended to
+        assertTrue(recovered.needsCompaction());
+
+        List<Long> previousLedgers = recovered.compact(state).get();
+        assertEquals(previousLedgers.size(), 2);
+        recovered.deleteLedgers(previousLedgers).get();
+        assertEquals(bookKeeper.getLedgers().size(), 2);
+        for (long ledgerId : previousLedgers) {
+            assertFalse(bookKeeper.getLedgers().contains(ledgerId));
+        }
+
+        // The delta ledger is compacted once it reaches the threshold
+        for (int i = 0; i < 3; i++) {
+            assertFalse(recovered.needsCompaction());
+            changes.clear();
+            changes.put("producer-1", 12L + i);
+            recovered.appendChanges(changes).get();
+        }
+        assertTrue(recovered.needsCompaction());
+
+        recovered.delete().get();
+        assertFalse(recovered.hasLedgers());
+        assertTrue(bookKeeper.getLedgers().isEmpty());
+    }
+}
@@ -18,7 +18,9 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
+import com.google.common.collect.Sets;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
@@ -33,7 +35,16 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.pulsar.common.protocol.Commands.serializeMetadataAndPayload;
 import static org.mockito.ArgumentMatchers.any;
@@ -310,6 +321,101 @@ public class MessageDuplicationTest {
 
     }
 
+    @Test
+    public void testMaxNumberOfTrackedProducers() {
+        PulsarService pulsarService = mock(PulsarService.class);
+        ServiceConfiguration serviceConfiguration = new ServiceConfiguration();
+        serviceConfiguration.setBrokerDeduplicationMaxNumberOfProducers(1);
+        doReturn(serviceConfiguration).when(pulsarService).getConfiguration();
+
+        // By default, disconnected producers are only discarded after the inactivity timeout
+        MessageDeduplication messageDeduplication = new MessageDeduplication(pulsarService,
+                mock(PersistentTopic.class), mock(ManagedLedger.class));
+        for (int i = 0; i < 3; i++) {
+            messageDeduplication.highestSequencedPushed.put("producer" + i, (long) i);
+            messageDeduplication.producerRemoved("producer" + i);
+        }
+        assertEquals(messageDeduplication.highestSequencedPushed.size(), 3);
+
+        // The producers inactive for the longest time are discarded first
+        serviceConfiguration.setBrokerDeduplicationMaxNumberOfTrackedProducers(2);
+        messageDeduplication = new MessageDeduplication(pulsarService, mock(PersistentTopic.class),
+                mock(ManagedLedger.class));
+        for (int i = 0; i < 3; i++) {
+            messageDeduplication.highestSequencedPushed.put("producer" + i, (long) i);
+            messageDeduplication.producerRemoved("producer" + i);
+        }
+        assertEquals(messageDeduplication.highestSequencedPushed.keySet(), Sets.newHashSet("producer1", "producer2"));
+    }
+
+    @Test
+    public void testIsDuplicateConcurrently() throws Exception {
+        PulsarService pulsarService = mock(PulsarService.class);
+        ServiceConfiguration serviceConfiguration = new ServiceConfiguration();
+        serviceConfiguration.setBrokerDeduplicationEntriesInterval(BROKER_DEDUPLICATION_ENTRIES_INTERVAL);
+        serviceConfiguration.setBrokerDeduplicationMaxNumberOfProducers(BROKER_DEDUPLICATION_MAX_NUMBER_PRODUCERS);
+        serviceConfiguration.setReplicatorPrefix(REPLICATOR_PREFIX);
+
+        doReturn(serviceConfiguration).when(pulsarService).getConfiguration();
+        PersistentTopic persistentTopic = mock(PersistentTopic.class);
+        ManagedLedger managedLedger = mock(ManagedLedger.class);
+        MessageDeduplication messageDeduplication = spy(new MessageDeduplication(pulsarService, persistentTopic, managedLedger));
+        doReturn(true).when(messageDeduplication).isEnabled();
+
+        // Several threads race to publish the same sequence ids for the same producer, each sequence id must be
+        // accepted at most once and the highest one must win
+        final String producerName = "producer1";
+        final int numThreads = 8;
+        final int numMessages = 10000;
+        Set<Long> accepted = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    for (long seqId = 0; seqId < numMessages; seqId++) {
+                        MessageDeduplication.MessageDupStatus status = messageDeduplication
+                                .isDuplicate(newPublishContext(producerName, seqId), Unpooled.EMPTY_BUFFER);
+                        if (status == MessageDeduplication.MessageDupStatus.NotDup && !accepted.add(seqId)) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(duplicates.get(), 0);
+        assertTrue(accepted.contains((long) numMessages - 1));
+        assertEquals(messageDeduplication.highestSequencedPushed.get(producerName).longValue(), numMessages - 1);
+    }
+
+    private static Topic.PublishContext newPublishContext(String producerName, long seqId) {
+        return new Topic.PublishContext() {
+            @Override
+            public String getProducerName() {
+                return producerName;
+            }
+
+            @Override
+            public long getSequenceId() {
+                return seqId;
+            }
+
+            @Override
+            public void completed(Exception e, long ledgerId, long entryId) {
+            }
+        };
+    }
+
     public ByteBuf getMessage(String producerName, long seqId) {
         PulsarApi.MessageMetadata messageMetadata = PulsarApi.MessageMetadata.newBuilder()
                 .setProducerName(producerName).setSequenceId(seqId)
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.pulsar.common.protocol.Commands.serializeMetadataAndPayload;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.Consumer;
+import org.apache.pulsar.broker.service.EntryBatchIndexesAcks;
+import org.apache.pulsar.broker.service.EntryBatchSizes;
+import org.apache.pulsar.broker.service.RedeliveryTracker;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PersistentNonBlockingDispatcherMultipleConsumersTest {
+
+    private OrderedExecutor executor;
+    private ManagedCursorImpl cursorMock;
+    private Consumer consumerMock;
+    private PersistentNonBlockingDispatcherMultipleConsumers dispatcher;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        executor = OrderedExecutor.newBuilder().numThreads(2).name("test-dispatcher").build();
+
+        ServiceConfiguration config = new ServiceConfiguration();
+        PulsarService pulsarMock = mock(PulsarService.class);
+        doReturn(config).when(pulsarMock).getConfiguration();
+
+        BrokerService brokerMock = mock(BrokerService.class);
+        doReturn(pulsarMock).when(brokerMock).pulsar();
+        doReturn(executor).when(brokerMock).getTopicOrderedExecutor();
+
+        PersistentTopic topicMock = mock(PersistentTopic.class);
+        doReturn(brokerMock).when(topicMock).getBrokerService();
+        doReturn("persistent://public/default/testTopic").when(topicMock).getName();
+
+        cursorMock = mock(ManagedCursorImpl.class);
+        doReturn("testSubscription").when(cursorMock).getName();
+
+        consumerMock = mock(Consumer.class);
+        doReturn("consumer1").when(consumerMock).consumerName();
+        doReturn(10_000).when(consumerMock).getAvailablePermits();
+        doReturn(true).when(consumerMock).isWritable();
+
+        dispatcher = new PersistentNonBlockingDispatcherMultipleConsumers(topicMock, cursorMock,
+                mock(PersistentSubscription.class));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentConsumerFlow() throws Exception {
+        dispatcher.addConsumer(consumerMock);
+
+        final int threads = 8;
+        final int flowsPerThread = 1000;
+        ExecutorService flowExecutor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int j = 0; j < flowsPerThread; j++) {
+                    dispatcher.consumerFlow(consumerMock, 1);
+                }
+            }, flowExecutor));
+        }
+        start.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        flowExecutor.shutdown();
+
+        assertEquals(dispatcher.totalAvailablePermits, threads * flowsPerThread);
+        // The read stays pending, so all the flow commands are served by a single read
+        verify(cursorMock, timeout(5000).times(1)).asyncReadEntriesOrWait(anyInt(), anyLong(), eq(dispatcher),
+                eq(PersistentDispatcherMultipleConsumers.ReadType.Normal));
+    }
+
+    @Test
+    public void testFlowFromDisconnectedConsumerIsIgnored() throws Exception {
+        dispatcher.addConsumer(consumerMock);
+        dispatcher.removeConsumer(consumerMock);
+        dispatcher.consumerFlow(consumerMock, 100);
+
+        assertEquals(dispatcher.totalAvailablePermits, 0);
+    }
+
+    @Test
+    public void testReadEntriesCompleteDispatchesOnExecutor() throws Exception {
+        List<Thread> sendingThreads = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            sendingThreads.add(Thread.currentThread());
+            return null;
+        }).when(consumerMock).sendMessages(anyList(), any(EntryBatchSizes.class), any(EntryBatchIndexesAcks.class),
+                anyInt(), anyLong(), anyLong(), any(RedeliveryTracker.class));
+
+        dispatcher.addConsumer(consumerMock);
+        dispatcher.consumerFlow(consumerMock, 1000);
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            entries.add(EntryImpl.create(1, i, createMessage("message-" + i, i)));
+        }
+        dispatcher.readEntriesComplete(entries, PersistentDispatcherMultipleConsumers.ReadType.Normal);
+
+        verify(consumerMock, timeout(5000).times(1)).sendMessages(anyList(), any(EntryBatchSizes.class),
+                any(EntryBatchIndexesAcks.class), eq(3), anyLong(), anyLong(), any(RedeliveryTracker.class));
+        assertEquals(sendingThreads.size(), 1);
+        assertNotEquals(sendingThreads.get(0), Thread.currentThread());
+    }
+
+    private static ByteBuf createMessage(String message, int sequenceId) {
+        MessageMetadata.Builder messageMetadata = MessageMetadata.newBuilder();
+        messageMetadata.setSequenceId(sequenceId);
+        messageMetadata.setProducerName("testProducer");
+        messageMetadata.setPublishTime(System.currentTimeMillis());
+        return serializeMetadataAndPayload(Commands.ChecksumType.Crc32c, messageMetadata.build(),
+                Unpooled.copiedBuffer(message.getBytes(UTF_8)));
+    }
+}
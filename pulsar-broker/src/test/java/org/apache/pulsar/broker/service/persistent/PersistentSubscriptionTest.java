@@ -22,10 +22,12 @@ import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.createMo
 import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.createMockZooKeeper;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -43,6 +45,8 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.common.util.SafeRunnable;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactory;
@@ -287,4 +291,36 @@ public class PersistentSubscriptionTest {
 
         persistentSubscription.acknowledgeMessage(txnID2, positions, AckType.Individual);
     }
+
+    @Test
+    public void testBatchedIndividualAcks() {
+        pulsarMock.getConfiguration().setAcknowledgmentBatchingEnabled(true);
+        // Flushes are triggered by hand
+        OrderedExecutor executorMock = mock(OrderedExecutor.class);
+        doReturn(executorMock).when(brokerMock).getTopicOrderedExecutor();
+        PersistentSubscription subscription = new PersistentSubscription(topic, subName, cursorMock, false);
+
+        List<Position> flushed = new ArrayList<>();
+        doAnswer((invocationOnMock) -> {
+            flushed.addAll((List<Position>) invocationOnMock.getArguments()[0]);
+            return null;
+        }).when(cursorMock).asyncDelete(any(List.class), any(AsyncCallbacks.DeleteCallback.class), any());
+
+        subscription.acknowledgeMessage(Arrays.asList(new PositionImpl(1, 3), new PositionImpl(1, 1)),
+                AckType.Individual, Collections.emptyMap());
+        subscription.acknowledgeMessage(Collections.singletonList(new PositionImpl(1, 2)), AckType.Individual,
+                Collections.emptyMap());
+
+        // The acks are applied with a single cursor update, scheduled once
+        verify(executorMock, times(1)).executeOrdered(eq(topic.getName()), any(SafeRunnable.class));
+        verify(cursorMock, never()).asyncDelete(any(List.class), any(AsyncCallbacks.DeleteCallback.class), any());
+        subscription.flushPendingIndividualAcks();
+        verify(cursorMock, times(1)).asyncDelete(any(List.class), any(AsyncCallbacks.DeleteCallback.class), any());
+        assertEquals(flushed, Arrays.asList(new PositionImpl(1, 3), new PositionImpl(1, 1), new PositionImpl(1, 2)));
+
+        // A new ack schedules a new flush
+        subscription.acknowledgeMessage(Collections.singletonList(new PositionImpl(1, 4)), AckType.Individual,
+                Collections.emptyMap());
+        verify(executorMock, times(2)).executeOrdered(eq(topic.getName()), any(SafeRunnable.class));
+    }
 }
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.testng.annotations.Test;
+
+public class CompactedSegmentTest {
+
+    @Test
+    public void testNeverCompacted() {
+        assertTrue(CompactedSegment.fromProperties(Collections.emptyMap(), PositionImpl.get(1, 1)).isEmpty());
+    }
+
+    @Test
+    public void testSingleSegmentKeepsLegacyProperties() {
+        PositionImpl horizon = PositionImpl.get(3, 10);
+        List<CompactedSegment> segments = Collections.singletonList(new CompactedSegment(42, horizon));
+
+        Map<String, Long> properties = CompactedSegment.toProperties(segments);
+        assertEquals(properties, ImmutableMap.of(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY, 42L));
+        assertEquals(CompactedSegment.fromProperties(properties, horizon), segments);
+    }
+
+    @Test
+    public void testSegmentsRoundTrip() {
+        PositionImpl horizon = PositionImpl.get(5, 2);
+        List<CompactedSegment> segments = Arrays.asList(
+                new CompactedSegment(42, PositionImpl.get(3, 10)),
+                new CompactedSegment(43, PositionImpl.get(4, 7)),
+                new CompactedSegment(44, horizon));
+
+        Map<String, Long> properties = CompactedSegment.toProperties(segments);
+        assertEquals(properties.get(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY), Long.valueOf(42));
+        assertEquals(CompactedSegment.fromProperties(properties, horizon), segments);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.testng.annotations.Test;
+
+public class CompactedTopicIndexTest {
+
+    private static CompactedTopicIndex load(List<byte[]> entries) throws Exception {
+        return CompactedTopicIndex.load(42, entries.size() - 1,
+                (entryId) -> CompletableFuture.completedFuture(Unpooled.wrappedBuffer(entries.get((int) entryId))))
+                .get();
+    }
+
+    @Test
+    public void testFindStartRange() throws Exception {
+        CompactedTopicIndex.Builder builder = new CompactedTopicIndex.Builder(4, 1024 * 1024);
+        // entry i of the compacted ledger holds the message 1:2i
+        for (int i = 0; i < 10; i++) {
+            builder.add(i, 1, i * 2, Collections.singletonList("key-" + i));
+        }
+        CompactedTopicIndex index = load(builder.build());
+        assertEquals(index.getIndexLedgerId(), 42);
+
+        assertEquals(index.findStartRange(PositionImpl.get(0, 5), 9), new long[] { 0, 0 });
+        assertEquals(index.findStartRange(PositionImpl.get(1, 0), 9), new long[] { 0, 0 });
+        assertEquals(index.findStartRange(PositionImpl.get(1, 1), 9), new long[] { 1, 4 });
+        assertEquals(index.findStartRange(PositionImpl.get(1, 8), 9), new long[] { 1, 4 });
+        assertEquals(index.findStartRange(PositionImpl.get(1, 9), 9), new long[] { 5, 8 });
+        assertEquals(index.findStartRange(PositionImpl.get(1, 17), 9), new long[] { 9, 9 });
+        assertEquals(index.findStartRange(PositionImpl.get(2, 0), 9), new long[] { 9, 9 });
+        assertNull(index.findStartRange(PositionImpl.get(2, 0), 8));
+    }
+
+    @Test
+    public void testFindEntries() throws Exception {
+        CompactedTopicIndex.Builder builder = new CompactedTopicIndex.Builder(16, 1024 * 1024);
+        // enough keys to span several blocks, with two keys in the batches of the even entries
+        int entries = 10000;
+        for (int i = 0; i < entries; i++) {
+            builder.add(i, 3, i, i % 2 == 0 ? Arrays.asList("key-" + i, "other-" + i)
+                    : Collections.singletonList("key-" + i));
+        }
+        CompactedTopicIndex index = load(builder.build());
+        assertTrue(index.hasKeys());
+
+        for (int i = 0; i < entries; i++) {
+            assertEquals(index.findEntries("key-" + i).get(), Collections.singletonList((long) i));
+        }
+        assertEquals(index.findEntries("other-10").get(), Collections.singletonList(10L));
+        assertTrue(index.findEntries("other-11").get().isEmpty());
+        assertTrue(index.findEntries("missing").get().isEmpty());
+    }
+
+    @Test
+    public void testKeysOverMemoryBudget() throws Exception {
+        // room for 4 keys only
+        CompactedTopicIndex.Builder builder = new CompactedTopicIndex.Builder(2, 64);
+        for (int i = 0; i < 6; i++) {
+            builder.add(i, 1, i, Collections.singletonList("key-" + i));
+        }
+        assertFalse(builder.hasKeys());
+
+        CompactedTopicIndex index = load(builder.build());
+        assertFalse(index.hasKeys());
+        assertEquals(index.findStartRange(PositionImpl.get(1, 3), 5), new long[] { 3, 4 });
+    }
+
+    @Test
+    public void testEmptyIndex() throws Exception {
+        CompactedTopicIndex index = load(new CompactedTopicIndex.Builder(4, 1024).build());
+        assertTrue(index.hasKeys());
+        assertTrue(index.findEntries("key").get().isEmpty());
+        assertEquals(index.findStartRange(PositionImpl.get(1, 1), -1), new long[] { 0, 0 });
+    }
+
+    @Test
+    public void testLoadNotAnIndex() throws Exception {
+        try {
+            load(Collections.singletonList(new byte[20]));
+            fail("Should not load a ledger without an index footer");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
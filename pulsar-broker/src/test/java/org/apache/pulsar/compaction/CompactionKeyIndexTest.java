@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.BatchMessageIdImpl;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CompactionKeyIndexTest {
+
+    private static final long MIN_MEMORY = 1024 * 5 * Long.BYTES;
+
+    private Path spillDirectory;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        spillDirectory = Files.createTempDirectory("compaction-key-index-test");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() throws Exception {
+        try (Stream<Path> files = Files.walk(spillDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testLatestInMemory() throws Exception {
+        try (CompactionKeyIndex index = new CompactionKeyIndex(64 * 1024 * 1024, spillDirectory)) {
+            index.put("a", new MessageIdImpl(1, 0, -1));
+            index.put("b", new MessageIdImpl(1, 1, -1));
+            index.put("a", new BatchMessageIdImpl(1, 2, -1, 0));
+            index.put("c", new BatchMessageIdImpl(1, 2, -1, 1));
+            index.remove("b");
+            index.put("d", new MessageIdImpl(2, 0, -1));
+            index.finish();
+
+            assertEquals(index.size(), 3);
+            assertEquals(index.getSpilledBytes(), 0);
+            assertFalse(index.isLatest(new MessageIdImpl(1, 0, -1)));
+            assertFalse(index.isLatest(new MessageIdImpl(1, 1, -1)));
+            assertTrue(index.isLatest(new BatchMessageIdImpl(1, 2, -1, 0)));
+            assertTrue(index.isLatest(new BatchMessageIdImpl(1, 2, -1, 1)));
+            assertFalse(index.isLatest(new MessageIdImpl(1, 3, -1)));
+            assertTrue(index.isLatest(new MessageIdImpl(2, 0, -1)));
+            assertFalse(index.isLatest(new MessageIdImpl(2, 1, -1)));
+        }
+    }
+
+    @Test
+    public void testGrowWithinBudget() throws Exception {
+        Map<String, Integer> latest = new HashMap<>();
+        try (CompactionKeyIndex index = new CompactionKeyIndex(64 * 1024 * 1024, spillDirectory)) {
+            verifyAgainstMap(index, 100_000, 20_000, latest);
+            assertEquals(index.getSpilledBytes(), 0);
+            assertTrue(index.getPeakMemoryBytes() > MIN_MEMORY);
+            assertTrue(index.getPeakMemoryBytes() <= 64 * 1024 * 1024);
+        }
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        Map<String, Integer> latest = new HashMap<>();
+        CompactionKeyIndex index = new CompactionKeyIndex(MIN_MEMORY, spillDirectory);
+        try {
+            verifyAgainstMap(index, 100_000, 20_000, latest);
+            assertTrue(index.getSpilledBytes() > 0);
+            assertEquals(index.getPeakMemoryBytes(), MIN_MEMORY);
+            assertTrue(spillDirectory.toFile().list().length > 1);
+        } finally {
+            index.close();
+        }
+        // Spilled runs are removed when the index is closed
+        assertEquals(spillDirectory.toFile().list().length, 0);
+    }
+
+    @Test
+    public void testSpilledKeysOverriddenInMemory() throws Exception {
+        try (CompactionKeyIndex index = new CompactionKeyIndex(MIN_MEMORY, spillDirectory)) {
+            // Enough distinct keys to spill "key-0" and "key-1", which are then updated and deleted from memory
+            int entryId = 0;
+            for (; entryId < 5000; entryId++) {
+                index.put("key-" + entryId, new MessageIdImpl(1, entryId, -1));
+            }
+            assertTrue(index.getSpilledBytes() > 0);
+            index.put("key-0", new MessageIdImpl(1, entryId++, -1));
+            index.remove("key-1");
+            index.finish();
+
+            assertEquals(index.size(), 4999);
+            assertFalse(index.isLatest(new MessageIdImpl(1, 0, -1)));
+            assertFalse(index.isLatest(new MessageIdImpl(1, 1, -1)));
+            assertTrue(index.isLatest(new MessageIdImpl(1, 2, -1)));
+            assertTrue(index.isLatest(new MessageIdImpl(1, 5000, -1)));
+        }
+    }
+
+    @Test
+    public void testSort() {
+        Random random = new Random(1);
+        for (int count : new int[] { 0, 1, 10, 17, 1000, 10_000 }) {
+            long[] records = new long[count * 3];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = random.nextInt(50);
+            }
+            CompactionKeyIndex.sort(records, 3, 2, 0, count - 1);
+            for (int i = 1; i < count; i++) {
+                long[] previous = Arrays.copyOfRange(records, (i - 1) * 3, (i - 1) * 3 + 2);
+                long[] current = Arrays.copyOfRange(records, i * 3, i * 3 + 2);
+                assertTrue(previous[0] < current[0] || (previous[0] == current[0] && previous[1] <= current[1]));
+            }
+        }
+    }
+
+    /**
+     * Add messages with random keys, one out of ten being a deletion, then check every message against the latest
+     * message of each key.
+     */
+    private static void verifyAgainstMap(CompactionKeyIndex index, int numMessages, int numKeys,
+                                         Map<String, Integer> latest) throws Exception {
+        Random random = new Random(0);
+        String[] keys = new String[numMessages];
+        for (int i = 0; i < numMessages; i++) {
+            keys[i] = "key-" + random.nextInt(numKeys);
+            if (random.nextInt(10) == 0) {
+                keys[i] = null;
+            }
+        }
+        for (int i = 0; i < numMessages; i++) {
+            String key = keys[i] != null ? keys[i] : "key-" + (i % numKeys);
+            if (keys[i] != null) {
+                index.put(key, messageId(i));
+                latest.put(key, i);
+            } else {
+                index.remove(key);
+                latest.remove(key);
+            }
+        }
+        index.finish();
+
+        assertEquals(index.size(), latest.size());
+        for (int i = 0; i < numMessages; i++) {
+            String key = keys[i] != null ? keys[i] : "key-" + (i % numKeys);
+            boolean expected = keys[i] != null && Integer.valueOf(i).equals(latest.get(key));
+            assertEquals(index.isLatest(messageId(i)), expected, "message " + i);
+        }
+    }
+
+    private static MessageId messageId(int i) {
+        // Increasing positions, which cover every part of the position
+        return i % 3 == 0 ? new MessageIdImpl(i / 100, i / 3, -1) : new BatchMessageIdImpl(i / 100, i / 3, -1, i % 3);
+    }
+}
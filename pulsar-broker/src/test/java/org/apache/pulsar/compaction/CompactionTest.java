@@ -51,6 +51,7 @@ import org.apache.bookkeeper.client.api.OpenBuilder;
 import org.apache.bookkeeper.mledger.ManagedLedgerInfo;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest;
+import org.apache.pulsar.broker.service.persistent.CompactorSubscription;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.api.CompressionType;
 import org.apache.pulsar.client.api.Consumer;
@@ -1655,4 +1656,104 @@ public class CompactionTest extends MockedPulsarServiceBaseTest {
             assertNull(none);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIncrementalCompactionSkipsSupersededValues() throws Exception {
+        String topic = "persistent://my-property/use/my-ns/my-topic-incremental";
+        conf.setCompactedTopicIndexEnabled(true);
+
+        Producer<byte[]> producer = pulsarClient.newProducer()
+                .topic(topic)
+                .enableBatching(false)
+                .messageRoutingMode(MessageRoutingMode.SinglePartition)
+                .create();
+
+        pulsarClient.newConsumer().topic(topic).subscriptionName("sub1").readCompacted(true).subscribe().close();
+
+        MessageId horizon = null;
+        for (int i = 0; i < 10; i++) {
+            horizon = producer.newMessage().key("key" + i).value(("first-" + i).getBytes()).send();
+        }
+        Compactor compactor = new TwoPhaseCompactor(conf, pulsarClient, bk, compactionScheduler);
+        compactor.compact(topic).get();
+
+        // update half of the keys and delete another one, in a second segment
+        for (int i = 0; i < 5; i++) {
+            producer.newMessage().key("key" + i).value(("second-" + i).getBytes()).send();
+        }
+        producer.newMessage().key("key9").value("".getBytes()).send();
+        compactor.compactIncrementally(topic, horizon).get();
+
+        Map<String, String> received = new HashMap<>();
+        try (Consumer<byte[]> consumer = pulsarClient.newConsumer().topic(topic)
+                .subscriptionName("sub1").readCompacted(true).subscribe()) {
+            Message<byte[]> m;
+            while ((m = consumer.receive(2, TimeUnit.SECONDS)) != null) {
+                // the values of the first segment superseded in the second one are skipped
+                assertNull(received.put(m.getKey(), new String(m.getData())), "Key received twice: " + m.getKey());
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(received.get("key" + i), "second-" + i);
+        }
+        for (int i = 5; i < 9; i++) {
+            assertEquals(received.get("key" + i), "first-" + i);
+        }
+        Assert.assertNotEquals(received.get("key9"), "first-9");
+    }
+
+    @Test
+    public void testIncrementalCompactionWithUnindexedKeysIsDoneFully() throws Exception {
+        String topic = "persistent://my-property/use/my-ns/my-topic-incremental-unindexed";
+        conf.setCompactedTopicIndexEnabled(true);
+
+        Producer<byte[]> producer = pulsarClient.newProducer()
+                .topic(topic)
+                .enableBatching(false)
+                .messageRoutingMode(MessageRoutingMode.SinglePartition)
+                .create();
+
+        pulsarClient.newConsumer().topic(topic).subscriptionName("sub1").readCompacted(true).subscribe().close();
+
+        MessageId horizon = null;
+        for (int i = 0; i < 10; i++) {
+            horizon = producer.newMessage().key("key" + i).value(("first-" + i).getBytes()).send();
+        }
+        // a key budget of 4 keys, so the keys of the segments are never indexed
+        Compactor compactor = new TwoPhaseCompactor(conf, pulsarClient, bk, compactionScheduler) {
+            @Override
+            CompactedTopicIndex.Builder newIndexBuilder() {
+                return new CompactedTopicIndex.Builder(conf.getCompactedTopicIndexInterval(), 4 * 2 * Long.BYTES);
+            }
+        };
+        compactor.compact(topic).get();
+
+        for (int i = 0; i < 5; i++) {
+            producer.newMessage().key("key" + i).value(("second-" + i).getBytes()).send();
+        }
+        producer.newMessage().key("key9").value("".getBytes()).send();
+        compactor.compactIncrementally(topic, horizon).get();
+
+        // the incremental compaction is redone as a full one instead of publishing a segment without keys
+        PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topic).get();
+        CompactorSubscription compactorSubscription =
+                (CompactorSubscription) persistentTopic.getSubscription(Compactor.COMPACTION_SUBSCRIPTION);
+        assertEquals(compactorSubscription.getSegments().size(), 1);
+
+        Map<String, String> received = new HashMap<>();
+        try (Consumer<byte[]> consumer = pulsarClient.newConsumer().topic(topic)
+                .subscriptionName("sub1").readCompacted(true).subscribe()) {
+            Message<byte[]> m;
+            while ((m = consumer.receive(2, TimeUnit.SECONDS)) != null) {
+                assertNull(received.put(m.getKey(), new String(m.getData())), "Key received twice: " + m.getKey());
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(received.get("key" + i), "second-" + i);
+        }
+        for (int i = 5; i < 9; i++) {
+            assertEquals(received.get("key" + i), "first-" + i);
+        }
+        assertNull(received.get("key9"));
+    }
+}
@@ -1178,6 +1178,33 @@ public interface Topics {
      */
     CompletableFuture<Message<byte[]>> getMessageByIdAsync(String topic, long ledgerId, long entryId);
 
+    /**
+     * Get the latest message of a key in the compacted view of a topic.
+     * <p/>
+     * The compacted view only covers the messages up to the last compaction of the topic, and the broker must have
+     * written a key index with the compacted data.
+     *
+     * @param topic
+     *            Topic name
+     * @param key
+     *            Key of the message
+     * @return the latest message of the key, or null if the key is not in the compacted view or was deleted
+     * @throws PulsarAdminException
+     *            Unexpected error
+     */
+    Message<byte[]> getLatestCompactedMessage(String topic, String key) throws PulsarAdminException;
+
+    /**
+     * Get the latest message of a key in the compacted view of a topic asynchronously.
+     *
+     * @param topic
+     *            Topic name
+     * @param key
+     *            Key of the message
+     * @return a future that can be used to track when the message is returned
+     */
+    CompletableFuture<Message<byte[]>> getLatestCompactedMessageAsync(String topic, String key);
+
     /**
      * Create a new subscription on a topic.
      *
@@ -1071,6 +1071,58 @@ public class TopicsImpl extends BaseResource implements Topics {
         }
     }
 
+    @Override
+    public CompletableFuture<Message<byte[]>> getLatestCompactedMessageAsync(String topic, String key) {
+        TopicName topicName = validateTopic(topic);
+        WebTarget path = topicPath(topicName, "compactedMessage").queryParam("key", key);
+        final CompletableFuture<Message<byte[]>> future = new CompletableFuture<>();
+        asyncGetRequest(path,
+                new InvocationCallback<Response>() {
+                    @Override
+                    public void completed(Response response) {
+                        try {
+                            // The broker returns the whole batch holding the message of the key
+                            Message<byte[]> latest = null;
+                            List<Message<byte[]>> messages = getMessagesFromHttpResponse(topicName.toString(),
+                                    response);
+                            for (Message<byte[]> message : messages) {
+                                if (key.equals(message.getKey())) {
+                                    latest = message;
+                                }
+                            }
+                            future.complete(latest);
+                        } catch (Exception e) {
+                            future.completeExceptionally(getApiException(e));
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        PulsarAdminException exception = getApiException(throwable.getCause());
+                        if (exception instanceof NotFoundException) {
+                            future.complete(null);
+                        } else {
+                            future.completeExceptionally(exception);
+                        }
+                    }
+                });
+        return future;
+    }
+
+    @Override
+    public Message<byte[]> getLatestCompactedMessage(String topic, String key) throws PulsarAdminException {
+        try {
+            return getLatestCompactedMessageAsync(topic, key).get(this.readTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (PulsarAdminException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PulsarAdminException(e);
+        } catch (TimeoutException e) {
+            throw new PulsarAdminException.TimeoutException(e);
+        }
+    }
+
     @Override
     public void createSubscription(String topic, String subscriptionName, MessageId messageId)
             throws PulsarAdminException {
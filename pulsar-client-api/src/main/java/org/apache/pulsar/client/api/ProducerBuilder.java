@@ -266,6 +266,25 @@ public interface ProducerBuilder<T> extends Cloneable {
      */
     ProducerBuilder<T> compressionType(CompressionType compressionType);
 
+    /**
+     * Compress messages with a dictionary trained from the messages of the topic. <i>default: disabled</i>
+     *
+     * <p>Only applies to {@link CompressionType#ZSTD}. Topics with small and repetitive messages, like JSON or Avro
+     * records, get a much better compression ratio with a dictionary, without having to build large batches.
+     *
+     * <p>The producer reuses the latest dictionary stored for the topic. If there is none, it samples the first
+     * messages it publishes, trains a dictionary and stores it as a new version for the topic. Messages are
+     * compressed without a dictionary until one is available. Consumers fetch the dictionary version referenced by
+     * each message.
+     *
+     * <p>Consumer applications must be in a version supporting compression dictionaries to read such messages.
+     *
+     * @param enableCompressionDictionary
+     *            whether to compress messages with a dictionary
+     * @return the producer builder instance
+     */
+    ProducerBuilder<T> enableCompressionDictionary(boolean enableCompressionDictionary);
+
     /**
      * Set a custom message routing policy by passing an implementation of MessageRouter.
      *
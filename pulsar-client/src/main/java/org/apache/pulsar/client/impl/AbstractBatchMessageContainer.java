@@ -19,7 +19,6 @@
 package org.apache.pulsar.client.impl;
 
 import org.apache.pulsar.common.api.proto.PulsarApi;
-import org.apache.pulsar.common.compression.CompressionCodec;
 import org.apache.pulsar.common.compression.CompressionCodecProvider;
 
 import java.io.IOException;
@@ -31,7 +30,6 @@ import java.util.List;
 public abstract class AbstractBatchMessageContainer implements BatchMessageContainerBase {
 
     protected PulsarApi.CompressionType compressionType;
-    protected CompressionCodec compressor;
     protected String topicName;
     protected String producerName;
     protected ProducerImpl producer;
@@ -89,7 +87,6 @@ public abstract class AbstractBatchMessageContainer implements BatchMessageConta
         this.producerName = producer.getProducerName();
         this.compressionType = CompressionCodecProvider
                 .convertToWireProtocol(producer.getConfiguration().getCompressionType());
-        this.compressor = CompressionCodecProvider.getCompressionCodec(compressionType);
         this.maxNumMessagesInBatch = producer.getConfiguration().getBatchingMaxMessages();
         this.maxBytesInBatch = producer.getConfiguration().getBatchingMaxBytes();
     }
@@ -121,7 +121,7 @@ class BatchMessageContainerImpl extends AbstractBatchMessageContainer {
             msg.getMessageBuilder().recycle();
         }
         int uncompressedSize = batchedMessageMetadataAndPayload.readableBytes();
-        ByteBuf compressedPayload = compressor.encode(batchedMessageMetadataAndPayload);
+        ByteBuf compressedPayload = producer.compress(batchedMessageMetadataAndPayload, messageMetadata);
         batchedMessageMetadataAndPayload.release();
         if (compressionType != PulsarApi.CompressionType.NONE) {
             messageMetadata.setCompression(compressionType);
@@ -25,7 +25,6 @@ import io.netty.util.ReferenceCountUtil;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
 import org.apache.pulsar.common.api.proto.PulsarApi;
-import org.apache.pulsar.common.compression.CompressionCodec;
 import org.apache.pulsar.common.protocol.ByteBufPair;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.shaded.com.google.protobuf.v241.ByteString;
@@ -67,7 +66,7 @@ class BatchMessageKeyBasedContainer extends AbstractBatchMessageContainer {
             part = new KeyedBatch();
             part.addMsg(msg, callback);
             part.compressionType = compressionType;
-            part.compressor = compressor;
+            part.producer = producer;
             part.maxBatchSize = maxBatchSize;
             part.topicName = topicName;
             part.producerName = producerName;
@@ -176,7 +175,7 @@ class BatchMessageKeyBasedContainer extends AbstractBatchMessageContainer {
         private List<MessageImpl<?>> messages = Lists.newArrayList();
         private SendCallback previousCallback = null;
         private PulsarApi.CompressionType compressionType;
-        private CompressionCodec compressor;
+        private ProducerImpl<?> producer;
         private int maxBatchSize;
         private String topicName;
         private String producerName;
@@ -192,7 +191,7 @@ class BatchMessageKeyBasedContainer extends AbstractBatchMessageContainer {
                 msgBuilder.recycle();
             }
             int uncompressedSize = batchedMessageMetadataAndPayload.readableBytes();
-            ByteBuf compressedPayload = compressor.encode(batchedMessageMetadataAndPayload);
+            ByteBuf compressedPayload = producer.compress(batchedMessageMetadataAndPayload, messageMetadata);
             batchedMessageMetadataAndPayload.release();
             if (compressionType != PulsarApi.CompressionType.NONE) {
                 messageMetadata.setCompression(compressionType);
@@ -36,6 +36,7 @@ import io.netty.util.concurrent.Promise;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.List;
 import java.util.Optional;
@@ -61,6 +62,7 @@ import org.apache.pulsar.client.impl.BinaryProtoLookupService.LookupDataResult;
 import org.apache.pulsar.client.impl.conf.ClientConfigurationData;
 import org.apache.pulsar.client.impl.tls.TlsHostnameVerifier;
 import org.apache.pulsar.common.api.AuthData;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 import org.apache.pulsar.common.api.proto.PulsarApi;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.protocol.PulsarHandler;
@@ -807,6 +809,29 @@ public class ClientCnx extends PulsarHandler {
         });
     }
 
+    /**
+     * Fetch a Zstd compression dictionary stored for a topic. The response is converted before returning since
+     * the underlying command is recycled as soon as the handler completes.
+     */
+    public CompletableFuture<Optional<CompressionCodecZstdDictionary>> sendGetCompressionDictionary(ByteBuf request,
+            long requestId) {
+        return sendGetRawSchema(request, requestId).thenCompose(response -> {
+            if (response.hasErrorCode()) {
+                ServerError rc = response.getErrorCode();
+                if (rc == ServerError.TopicNotFound) {
+                    return CompletableFuture.completedFuture(Optional.empty());
+                } else {
+                    return FutureUtil.failedFuture(getPulsarClientException(rc, response.getErrorMessage()));
+                }
+            } else {
+                long dictionaryId = ByteBuffer.wrap(response.getSchemaVersion().toByteArray()).getLong();
+                byte[] dictionary = response.getSchema().getSchemaData().toByteArray();
+                return CompletableFuture.completedFuture(
+                        Optional.of(new CompressionCodecZstdDictionary(dictionaryId, dictionary)));
+            }
+        });
+    }
+
     public CompletableFuture<CommandGetSchemaResponse> sendGetRawSchema(ByteBuf request, long requestId) {
         CompletableFuture<CommandGetSchemaResponse> future = new CompletableFuture<>();
 
@@ -34,6 +34,7 @@ import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
@@ -96,7 +97,9 @@ import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.api.proto.PulsarApi.ProtocolVersion;
 import org.apache.pulsar.common.compression.CompressionCodec;
 import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.protocol.schema.BytesSchemaVersion;
 import org.apache.pulsar.common.schema.SchemaInfo;
 import org.apache.pulsar.common.schema.SchemaType;
 import org.apache.pulsar.common.util.FutureUtil;
@@ -173,6 +176,10 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
     protected volatile boolean paused;
 
     protected ConcurrentOpenHashMap<String, ChunkedMessageCtx> chunkedMessagesMap = new ConcurrentOpenHashMap<>();
+
+    // Zstd dictionaries used by the producers of the topic, and the messages held back while fetching one
+    private final Map<Long, CompressionCodecZstdDictionary> compressionDictionaries = new ConcurrentHashMap<>();
+    private volatile CompletableFuture<Void> pendingCompressionDictionaries = null;
     private int pendingChunckedMessageCount = 0;
     protected long expireTimeOfIncompleteChunkedMessageMillis = 0;
     private boolean expireChunkMessageTaskScheduled = false;
@@ -1065,11 +1072,17 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
     }
 
     void messageReceived(MessageIdData messageId, int redeliveryCount, List<Long> ackSet, ByteBuf headersAndPayload, ClientCnx cnx) {
+        messageReceived(messageId, redeliveryCount, ackSet, headersAndPayload, cnx, true);
+    }
+
+    private void messageReceived(MessageIdData messageId, int redeliveryCount, List<Long> ackSet,
+            ByteBuf headersAndPayload, ClientCnx cnx, boolean canDefer) {
         if (log.isDebugEnabled()) {
             log.debug("[{}][{}] Received message: {}/{}", topic, subscription, messageId.getLedgerId(),
                     messageId.getEntryId());
         }
 
+        final int readerIndex = headersAndPayload.readerIndex();
         if (!verifyChecksum(headersAndPayload, messageId)) {
             // discard message with checksum error
             discardCorruptedMessage(messageId, cnx, ValidationError.ChecksumMismatch);
@@ -1084,6 +1097,11 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
             return;
         }
 
+        if (canDefer && deferUntilCompressionDictionaryLoaded(messageId, redeliveryCount, ackSet, headersAndPayload,
+                readerIndex, msgMetadata, cnx)) {
+            return;
+        }
+
         final int numMessages = msgMetadata.getNumMessagesInBatch();
         final boolean isChunkedMessage = msgMetadata.getNumChunksFromMsg() > 1 && conf.getSubscriptionType() != SubscriptionType.Shared;
 
@@ -1609,10 +1627,96 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
         return null;
     }
 
+    /**
+     * Hold back a message compressed with a dictionary that is not loaded yet, along with every message received
+     * after it, until the dictionary has been fetched from the broker so that the ordering is preserved.
+     *
+     * @return whether the message was deferred
+     */
+    private boolean deferUntilCompressionDictionaryLoaded(MessageIdData messageId, int redeliveryCount,
+            List<Long> ackSet, ByteBuf headersAndPayload, int readerIndex, MessageMetadata msgMetadata,
+            ClientCnx cnx) {
+        boolean missingDictionary = msgMetadata.hasCompressionDictionaryId()
+                && !compressionDictionaries.containsKey(msgMetadata.getCompressionDictionaryId());
+        CompletableFuture<Void> pending = pendingCompressionDictionaries;
+        if (pending == null) {
+            if (!missingDictionary) {
+                return false;
+            }
+            pending = CompletableFuture.completedFuture(null);
+        }
+        if (missingDictionary) {
+            long dictionaryId = msgMetadata.getCompressionDictionaryId();
+            pending = pending.thenCompose(v -> loadCompressionDictionary(dictionaryId, cnx));
+        }
+
+        MessageIdData.Builder builder = MessageIdData.newBuilder(messageId);
+        MessageIdData deferredMessageId = builder.build();
+        builder.recycle();
+        List<Long> deferredAckSet = new ArrayList<>(ackSet);
+        headersAndPayload.retain().readerIndex(readerIndex);
+        msgMetadata.recycle();
+
+        CompletableFuture<Void> processed = new CompletableFuture<>();
+        pendingCompressionDictionaries = processed;
+        pending.whenComplete((v, e) -> cnx.ctx().executor().execute(() -> {
+            try {
+                if (pendingCompressionDictionaries == processed) {
+                    pendingCompressionDictionaries = null;
+                }
+                // Messages received on a connection that has been replaced will be redelivered on the new one
+                if (cnx == cnx()) {
+                    messageReceived(deferredMessageId, redeliveryCount, deferredAckSet, headersAndPayload, cnx,
+                            false);
+                }
+            } finally {
+                headersAndPayload.release();
+                deferredMessageId.recycle();
+                processed.complete(null);
+            }
+        }));
+        return true;
+    }
+
+    private CompletableFuture<Void> loadCompressionDictionary(long dictionaryId, ClientCnx cnx) {
+        if (compressionDictionaries.containsKey(dictionaryId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!Commands.peerSupportsCompressionDictionary(cnx.getRemoteEndpointProtocolVersion())) {
+            // an older broker would return the topic schema instead of the dictionary
+            log.warn("[{}][{}] Broker protocol version {} does not support compression dictionaries, cannot load"
+                    + " dictionary {}", topic, subscription, cnx.getRemoteEndpointProtocolVersion(), dictionaryId);
+            return CompletableFuture.completedFuture(null);
+        }
+        long requestId = client.newRequestId();
+        byte[] version = ByteBuffer.allocate(Long.BYTES).putLong(dictionaryId).array();
+        return cnx.sendGetCompressionDictionary(Commands.newGetCompressionDictionary(requestId, topic,
+                Optional.of(BytesSchemaVersion.of(version))), requestId).thenAccept(dictionary -> {
+                    if (dictionary.isPresent()) {
+                        compressionDictionaries.put(dictionaryId, dictionary.get());
+                    } else {
+                        log.warn("[{}][{}] Compression dictionary {} not found", topic, subscription, dictionaryId);
+                    }
+                }).exceptionally(e -> {
+                    log.warn("[{}][{}] Failed to load compression dictionary {}: {}", topic, subscription,
+                            dictionaryId, e.getMessage());
+                    return null;
+                });
+    }
+
     private ByteBuf uncompressPayloadIfNeeded(MessageIdData messageId, MessageMetadata msgMetadata, ByteBuf payload,
             ClientCnx currentCnx, boolean checkMaxMessageSize) {
         CompressionType compressionType = msgMetadata.getCompression();
         CompressionCodec codec = CompressionCodecProvider.getCompressionCodec(compressionType);
+        if (msgMetadata.hasCompressionDictionaryId()) {
+            codec = compressionDictionaries.get(msgMetadata.getCompressionDictionaryId());
+            if (codec == null) {
+                log.error("[{}][{}] Missing compression dictionary {} for message at {}", topic, subscription,
+                        msgMetadata.getCompressionDictionaryId(), messageId);
+                discardCorruptedMessage(messageId, currentCnx, ValidationError.DecompressionError);
+                return null;
+            }
+        }
         int uncompressedSize = msgMetadata.getUncompressedSize();
         int payloadSize = payload.readableBytes();
         if (checkMaxMessageSize && payloadSize > ClientCnx.getMaxMessageSize()) {
@@ -171,6 +171,12 @@ public class ProducerBuilderImpl<T> implements ProducerBuilder<T> {
         return this;
     }
 
+    @Override
+    public ProducerBuilder<T> enableCompressionDictionary(boolean compressionDictionaryEnabled) {
+        conf.setCompressionDictionaryEnabled(compressionDictionaryEnabled);
+        return this;
+    }
+
     @Override
     public ProducerBuilder<T> hashingScheme(@NonNull HashingScheme hashingScheme) {
         conf.setHashingScheme(hashingScheme);
@@ -41,6 +41,7 @@ import io.netty.util.TimerTask;
 import io.netty.util.concurrent.ScheduledFuture;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -51,6 +52,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import org.apache.commons.lang3.StringUtils;
@@ -74,6 +76,8 @@ import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata.Builder;
 import org.apache.pulsar.common.api.proto.PulsarApi.ProtocolVersion;
 import org.apache.pulsar.common.compression.CompressionCodec;
 import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
+import org.apache.pulsar.common.compression.ZstdDictionaryTrainer;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.protocol.ByteBufPair;
 import org.apache.pulsar.common.protocol.Commands;
@@ -113,7 +117,16 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
 
     private final ProducerStatsRecorder stats;
 
-    private final CompressionCodec compressor;
+    private volatile CompressionCodec compressor;
+
+    private static final int COMPRESSION_DICTIONARY_SIZE = 16 * 1024;
+    private static final int COMPRESSION_DICTIONARY_MAX_SAMPLES = 1000;
+    private static final int COMPRESSION_DICTIONARY_MAX_SAMPLE_BYTES = 1024 * 1024;
+
+    // Collects payload samples to train a Zstd dictionary, null unless dictionary compression is enabled
+    private final ZstdDictionaryTrainer dictionaryTrainer;
+    private final AtomicBoolean dictionaryTrainingStarted = new AtomicBoolean(false);
+    private volatile byte[] trainedDictionary = null;
 
     static final AtomicLongFieldUpdater<ProducerImpl> LAST_SEQ_ID_PUBLISHED_UPDATER = AtomicLongFieldUpdater
             .newUpdater(ProducerImpl.class, "lastSequenceIdPublished");
@@ -155,6 +168,12 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         this.semaphore = new Semaphore(conf.getMaxPendingMessages(), true);
 
         this.compressor = CompressionCodecProvider.getCompressionCodec(conf.getCompressionType());
+        if (conf.isCompressionDictionaryEnabled() && conf.getCompressionType() == CompressionType.ZSTD) {
+            this.dictionaryTrainer = new ZstdDictionaryTrainer(COMPRESSION_DICTIONARY_SIZE,
+                    COMPRESSION_DICTIONARY_MAX_SAMPLES, COMPRESSION_DICTIONARY_MAX_SAMPLE_BYTES);
+        } else {
+            this.dictionaryTrainer = null;
+        }
 
         if (conf.getInitialSequenceId() != null) {
             long initialSequenceId = conf.getInitialSequenceId();
@@ -367,10 +386,13 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         // If compression is enabled, we are compressing, otherwise it will simply use the same buffer
         int uncompressedSize = payload.readableBytes();
         ByteBuf compressedPayload = payload;
+        if (dictionaryTrainer != null) {
+            sampleForCompressionDictionary(payload);
+        }
         // Batch will be compressed when closed
         // If a message has a delayed delivery time, we'll always send it individually
         if (!isBatchMessagingEnabled() || msgMetadataBuilder.hasDeliverAtTime()) {
-            compressedPayload = compressor.encode(payload);
+            compressedPayload = compress(payload, msgMetadataBuilder);
             payload.release();
 
             // validate msg-size (For batching this will be check at the batch completion size)
@@ -1160,6 +1182,96 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         };
     }
 
+    /**
+     * Compress a payload with the current codec, recording the dictionary used, if any, in the message metadata.
+     */
+    ByteBuf compress(ByteBuf payload, MessageMetadata.Builder msgMetadataBuilder) {
+        CompressionCodec codec = compressor;
+        if (codec instanceof CompressionCodecZstdDictionary) {
+            msgMetadataBuilder.setCompressionDictionaryId(((CompressionCodecZstdDictionary) codec).getDictionaryId());
+        }
+        return codec.encode(payload);
+    }
+
+    private void sampleForCompressionDictionary(ByteBuf payload) {
+        if (compressor instanceof CompressionCodecZstdDictionary || dictionaryTrainingStarted.get()) {
+            return;
+        }
+        if (dictionaryTrainer.addSample(payload) && dictionaryTrainingStarted.compareAndSet(false, true)) {
+            client.externalExecutorProvider().getExecutor().execute(() -> {
+                int samples = dictionaryTrainer.getSampleCount();
+                try {
+                    trainedDictionary = dictionaryTrainer.train();
+                } catch (IllegalStateException e) {
+                    log.warn("[{}] [{}] Failed to train compression dictionary, keep using plain ZSTD: {}", topic,
+                            producerName, e.getMessage());
+                    return;
+                } finally {
+                    dictionaryTrainer.clear();
+                }
+                log.info("[{}] [{}] Trained compression dictionary of {} bytes from {} samples", topic, producerName,
+                        trainedDictionary.length, samples);
+                ClientCnx cnx = cnx();
+                if (cnx != null) {
+                    storeCompressionDictionary(cnx, trainedDictionary);
+                }
+            });
+        }
+    }
+
+    private void loadCompressionDictionary(ClientCnx cnx) {
+        if (compressor instanceof CompressionCodecZstdDictionary || !brokerSupportsCompressionDictionary(cnx)) {
+            return;
+        }
+        long requestId = client.newRequestId();
+        cnx.sendGetCompressionDictionary(Commands.newGetCompressionDictionary(requestId, topic, Optional.empty()),
+                requestId).thenAccept(dictionary -> dictionary.ifPresent(this::installCompressionDictionary))
+                .exceptionally(e -> {
+                    log.warn("[{}] [{}] Failed to load compression dictionary: {}", topic, producerName,
+                            e.getMessage());
+                    return null;
+                });
+    }
+
+    private void storeCompressionDictionary(ClientCnx cnx, byte[] dictionary) {
+        if (compressor instanceof CompressionCodecZstdDictionary || !brokerSupportsCompressionDictionary(cnx)) {
+            return;
+        }
+        long requestId = client.newRequestId();
+        cnx.sendGetOrCreateSchema(Commands.newGetOrCreateCompressionDictionary(requestId, topic, dictionary),
+                requestId).thenAccept(version -> {
+                    trainedDictionary = null;
+                    if (version.length == Long.BYTES) {
+                        installCompressionDictionary(
+                                new CompressionCodecZstdDictionary(ByteBuffer.wrap(version).getLong(), dictionary));
+                    }
+                }).exceptionally(e -> {
+                    // Do not retry on reconnection, the broker is not going to accept it either
+                    trainedDictionary = null;
+                    log.warn("[{}] [{}] Failed to store compression dictionary, keep using plain ZSTD: {}", topic,
+                            producerName, e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Older brokers ignore the compression dictionary flag of the schema commands, and would return the topic schema
+     * as a dictionary, or register the dictionary as the topic schema.
+     */
+    private boolean brokerSupportsCompressionDictionary(ClientCnx cnx) {
+        if (Commands.peerSupportsCompressionDictionary(cnx.getRemoteEndpointProtocolVersion())) {
+            return true;
+        }
+        log.warn("[{}] [{}] Broker protocol version {} does not support compression dictionaries, keep using plain"
+                + " ZSTD", topic, producerName, cnx.getRemoteEndpointProtocolVersion());
+        return false;
+    }
+
+    private void installCompressionDictionary(CompressionCodecZstdDictionary codec) {
+        log.info("[{}] [{}] Compressing messages with dictionary {}", topic, producerName, codec.getDictionaryId());
+        compressor = codec;
+    }
+
     @Override
     public void connectionOpened(final ClientCnx cnx) {
         // we set the cnx reference before registering the producer on the cnx, so if the cnx breaks before creating the
@@ -1256,6 +1368,14 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
                         }
                         resendMessages(cnx);
                     }
+
+                    if (dictionaryTrainer != null) {
+                        if (trainedDictionary != null) {
+                            storeCompressionDictionary(cnx, trainedDictionary);
+                        } else {
+                            loadCompressionDictionary(cnx);
+                        }
+                    }
                 }).exceptionally((e) -> {
                     Throwable cause = e.getCause();
                     cnx.removeProducer(producerId);
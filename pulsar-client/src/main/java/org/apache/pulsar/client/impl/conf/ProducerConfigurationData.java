@@ -90,6 +90,8 @@ public class ProducerConfigurationData implements Serializable, Cloneable {
 
     private CompressionType compressionType = CompressionType.NONE;
 
+    private boolean compressionDictionaryEnabled = false;
+
     // Cannot use Optional<Long> since it's not serializable
     private Long initialSequenceId = null;
 
@@ -224,6 +224,7 @@ public final class PulsarApi {
     v13(13, 13),
     v14(14, 14),
     v15(15, 15),
+    v16(16, 16),
     ;
     
     public static final int v0_VALUE = 0;
@@ -242,6 +243,7 @@ public final class PulsarApi {
     public static final int v13_VALUE = 13;
     public static final int v14_VALUE = 14;
     public static final int v15_VALUE = 15;
+    public static final int v16_VALUE = 16;
     
     
     public final int getNumber() { return value; }
@@ -264,6 +266,7 @@ public final class PulsarApi {
         case 13: return v13;
         case 14: return v14;
         case 15: return v15;
+        case 16: return v16;
         default: return null;
       }
     }
@@ -3746,6 +3749,10 @@ public final class PulsarApi {
     // optional bool null_partition_key = 30 [default = false];
     boolean hasNullPartitionKey();
     boolean getNullPartitionKey();
+    
+    // optional uint64 compression_dictionary_id = 31;
+    boolean hasCompressionDictionaryId();
+    long getCompressionDictionaryId();
   }
   public static final class MessageMetadata extends
       org.apache.pulsar.shaded.com.google.protobuf.v241.GeneratedMessageLite
@@ -4198,6 +4205,16 @@ public final class PulsarApi {
       return nullPartitionKey_;
     }
     
+    // optional uint64 compression_dictionary_id = 31;
+    public static final int COMPRESSION_DICTIONARY_ID_FIELD_NUMBER = 31;
+    private long compressionDictionaryId_;
+    public boolean hasCompressionDictionaryId() {
+      return ((bitField0_ & 0x02000000) == 0x02000000);
+    }
+    public long getCompressionDictionaryId() {
+      return compressionDictionaryId_;
+    }
+    
     private void initFields() {
       producerName_ = "";
       sequenceId_ = 0L;
@@ -4227,6 +4244,7 @@ public final class PulsarApi {
       totalChunkMsgSize_ = 0;
       chunkId_ = 0;
       nullPartitionKey_ = false;
+      compressionDictionaryId_ = 0L;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -4353,6 +4371,9 @@ public final class PulsarApi {
       if (((bitField0_ & 0x01000000) == 0x01000000)) {
         output.writeBool(30, nullPartitionKey_);
       }
+      if (((bitField0_ & 0x02000000) == 0x02000000)) {
+        output.writeUInt64(31, compressionDictionaryId_);
+      }
     }
     
     private int memoizedSerializedSize = -1;
@@ -4478,6 +4499,10 @@ public final class PulsarApi {
         size += org.apache.pulsar.shaded.com.google.protobuf.v241.CodedOutputStream
           .computeBoolSize(30, nullPartitionKey_);
       }
+      if (((bitField0_ & 0x02000000) == 0x02000000)) {
+        size += org.apache.pulsar.shaded.com.google.protobuf.v241.CodedOutputStream
+          .computeUInt64Size(31, compressionDictionaryId_);
+      }
       memoizedSerializedSize = size;
       return size;
     }
@@ -4647,6 +4672,8 @@ public final class PulsarApi {
         bitField0_ = (bitField0_ & ~0x04000000);
         nullPartitionKey_ = false;
         bitField0_ = (bitField0_ & ~0x08000000);
+        compressionDictionaryId_ = 0L;
+        bitField0_ = (bitField0_ & ~0x10000000);
         return this;
       }
       
@@ -4796,6 +4823,10 @@ public final class PulsarApi {
           to_bitField0_ |= 0x01000000;
         }
         result.nullPartitionKey_ = nullPartitionKey_;
+        if (((from_bitField0_ & 0x10000000) == 0x10000000)) {
+          to_bitField0_ |= 0x02000000;
+        }
+        result.compressionDictionaryId_ = compressionDictionaryId_;
         result.bitField0_ = to_bitField0_;
         return result;
       }
@@ -4907,6 +4938,9 @@ public final class PulsarApi {
         if (other.hasNullPartitionKey()) {
           setNullPartitionKey(other.getNullPartitionKey());
         }
+        if (other.hasCompressionDictionaryId()) {
+          setCompressionDictionaryId(other.getCompressionDictionaryId());
+        }
         return this;
       }
       
@@ -5106,6 +5140,11 @@ public final class PulsarApi {
               nullPartitionKey_ = input.readBool();
               break;
             }
+            case 248: {
+              bitField0_ |= 0x10000000;
+              compressionDictionaryId_ = input.readUInt64();
+              break;
+            }
           }
         }
       }
@@ -5958,6 +5997,27 @@ public final class PulsarApi {
         return this;
       }
       
+      // optional uint64 compression_dictionary_id = 31;
+      private long compressionDictionaryId_ ;
+      public boolean hasCompressionDictionaryId() {
+        return ((bitField0_ & 0x10000000) == 0x10000000);
+      }
+      public long getCompressionDictionaryId() {
+        return compressionDictionaryId_;
+      }
+      public Builder setCompressionDictionaryId(long value) {
+        bitField0_ |= 0x10000000;
+        compressionDictionaryId_ = value;
+        
+        return this;
+      }
+      public Builder clearCompressionDictionaryId() {
+        bitField0_ = (bitField0_ & ~0x10000000);
+        compressionDictionaryId_ = 0L;
+        
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:pulsar.proto.MessageMetadata)
     }
     
@@ -29452,6 +29512,10 @@ public final class PulsarApi {
     // optional bytes schema_version = 3;
     boolean hasSchemaVersion();
     org.apache.pulsar.shaded.com.google.protobuf.v241.ByteString getSchemaVersion();
+    
+    // optional bool compression_dictionary = 4 [default = false];
+    boolean hasCompressionDictionary();
+    boolean getCompressionDictionary();
   }
   public static final class CommandGetSchema extends
       org.apache.pulsar.shaded.com.google.protobuf.v241.GeneratedMessageLite
@@ -29540,10 +29604,21 @@ public final class PulsarApi {
       return schemaVersion_;
     }
     
+    // optional bool compression_dictionary = 4 [default = false];
+    public static final int COMPRESSION_DICTIONARY_FIELD_NUMBER = 4;
+    private boolean compressionDictionary_;
+    public boolean hasCompressionDictionary() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    public boolean getCompressionDictionary() {
+      return compressionDictionary_;
+    }
+    
     private void initFields() {
       requestId_ = 0L;
       topic_ = "";
       schemaVersion_ = org.apache.pulsar.shaded.com.google.protobuf.v241.ByteString.EMPTY;
+      compressionDictionary_ = false;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -29579,6 +29654,9 @@ public final class PulsarApi {
       if (((bitField0_ & 0x00000004) == 0x00000004)) {
         output.writeBytes(3, schemaVersion_);
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBool(4, compressionDictionary_);
+      }
     }
     
     private int memoizedSerializedSize = -1;
@@ -29599,6 +29677,10 @@ public final class PulsarApi {
         size += org.apache.pulsar.shaded.com.google.protobuf.v241.CodedOutputStream
           .computeBytesSize(3, schemaVersion_);
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += org.apache.pulsar.shaded.com.google.protobuf.v241.CodedOutputStream
+          .computeBoolSize(4, compressionDictionary_);
+      }
       memoizedSerializedSize = size;
       return size;
     }
@@ -29718,6 +29800,8 @@ public final class PulsarApi {
         bitField0_ = (bitField0_ & ~0x00000002);
         schemaVersion_ = org.apache.pulsar.shaded.com.google.protobuf.v241.ByteString.EMPTY;
         bitField0_ = (bitField0_ & ~0x00000004);
+        compressionDictionary_ = false;
+        bitField0_ = (bitField0_ & ~0x00000008);
         return this;
       }
       
@@ -29763,6 +29847,10 @@ public final class PulsarApi {
           to_bitField0_ |= 0x00000004;
         }
         result.schemaVersion_ = schemaVersion_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.compressionDictionary_ = compressionDictionary_;
         result.bitField0_ = to_bitField0_;
         return result;
       }
@@ -29778,6 +29866,9 @@ public final class PulsarApi {
         if (other.hasSchemaVersion()) {
           setSchemaVersion(other.getSchemaVersion());
         }
+        if (other.hasCompressionDictionary()) {
+          setCompressionDictionary(other.getCompressionDictionary());
+        }
         return this;
       }
       
@@ -29830,6 +29921,11 @@ public final class PulsarApi {
               schemaVersion_ = input.readBytes();
               break;
             }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              compressionDictionary_ = input.readBool();
+              break;
+            }
           }
         }
       }
@@ -29917,6 +30013,27 @@ public final class PulsarApi {
         return this;
       }
       
+      // optional bool compression_dictionary = 4 [default = false];
+      private boolean compressionDictionary_ ;
+      public boolean hasCompressionDictionary() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      public boolean getCompressionDictionary() {
+        return compressionDictionary_;
+      }
+      public Builder setCompressionDictionary(boolean value) {
+        bitField0_ |= 0x00000008;
+        compressionDictionary_ = value;
+        
+        return this;
+      }
+      public Builder clearCompressionDictionary() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        compressionDictionary_ = false;
+        
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:pulsar.proto.CommandGetSchema)
     }
     
@@ -30584,6 +30701,10 @@ public final class PulsarApi {
     // required .pulsar.proto.Schema schema = 3;
     boolean hasSchema();
     org.apache.pulsar.common.api.proto.PulsarApi.Schema getSchema();
+    
+    // optional bool compression_dictionary = 4 [default = false];
+    boolean hasCompressionDictionary();
+    boolean getCompressionDictionary();
   }
   public static final class CommandGetOrCreateSchema extends
       org.apache.pulsar.shaded.com.google.protobuf.v241.GeneratedMessageLite
@@ -30672,10 +30793,21 @@ public final class PulsarApi {
       return schema_;
     }
     
+    // optional bool compression_dictionary = 4 [default = false];
+    public static final int COMPRESSION_DICTIONARY_FIELD_NUMBER = 4;
+    private boolean compressionDictionary_;
+    public boolean hasCompressionDictionary() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    public boolean getCompressionDictionary() {
+      return compressionDictionary_;
+    }
+    
     private void initFields() {
       requestId_ = 0L;
       topic_ = "";
       schema_ = org.apache.pulsar.common.api.proto.PulsarApi.Schema.getDefaultInstance();
+      compressionDictionary_ = false;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -30719,6 +30851,9 @@ public final class PulsarApi {
       if (((bitField0_ & 0x00000004) == 0x00000004)) {
         output.writeMessage(3, schema_);
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBool(4, compressionDictionary_);
+      }
     }
     
     private int memoizedSerializedSize = -1;
@@ -30739,6 +30874,10 @@ public final class PulsarApi {
         size += org.apache.pulsar.shaded.com.google.protobuf.v241.CodedOutputStream
           .computeMessageSize(3, schema_);
       }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += org.apache.pulsar.shaded.com.google.protobuf.v241.CodedOutputStream
+          .computeBoolSize(4, compressionDictionary_);
+      }
       memoizedSerializedSize = size;
       return size;
     }
@@ -30858,6 +30997,8 @@ public final class PulsarApi {
         bitField0_ = (bitField0_ & ~0x00000002);
         schema_ = org.apache.pulsar.common.api.proto.PulsarApi.Schema.getDefaultInstance();
         bitField0_ = (bitField0_ & ~0x00000004);
+        compressionDictionary_ = false;
+        bitField0_ = (bitField0_ & ~0x00000008);
         return this;
       }
       
@@ -30903,6 +31044,10 @@ public final class PulsarApi {
           to_bitField0_ |= 0x00000004;
         }
         result.schema_ = schema_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.compressionDictionary_ = compressionDictionary_;
         result.bitField0_ = to_bitField0_;
         return result;
       }
@@ -30918,6 +31063,9 @@ public final class PulsarApi {
         if (other.hasSchema()) {
           mergeSchema(other.getSchema());
         }
+        if (other.hasCompressionDictionary()) {
+          setCompressionDictionary(other.getCompressionDictionary());
+        }
         return this;
       }
       
@@ -30983,6 +31131,11 @@ public final class PulsarApi {
               subBuilder.recycle();
               break;
             }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              compressionDictionary_ = input.readBool();
+              break;
+            }
           }
         }
       }
@@ -31089,6 +31242,27 @@ public final class PulsarApi {
         return this;
       }
       
+      // optional bool compression_dictionary = 4 [default = false];
+      private boolean compressionDictionary_ ;
+      public boolean hasCompressionDictionary() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      public boolean getCompressionDictionary() {
+        return compressionDictionary_;
+      }
+      public Builder setCompressionDictionary(boolean value) {
+        bitField0_ |= 0x00000008;
+        compressionDictionary_ = value;
+        
+        return this;
+      }
+      public Builder clearCompressionDictionary() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        compressionDictionary_ = false;
+        
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:pulsar.proto.CommandGetOrCreateSchema)
     }
     
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+
+/**
+ * Zstandard compression with a pre-trained dictionary.
+ *
+ * <p>Unlike the other codecs, an instance is bound to one version of a topic compression dictionary. The version is
+ * carried in the message metadata so that consumers can find the same dictionary to decompress the payload.
+ */
+public class CompressionCodecZstdDictionary implements CompressionCodec {
+
+    private static final int ZSTD_COMPRESSION_LEVEL = 3;
+
+    private final long dictionaryId;
+    private final ZstdDictCompress compressDictionary;
+    private final ZstdDictDecompress decompressDictionary;
+
+    public CompressionCodecZstdDictionary(long dictionaryId, byte[] dictionary) {
+        this.dictionaryId = dictionaryId;
+        this.compressDictionary = new ZstdDictCompress(dictionary, ZSTD_COMPRESSION_LEVEL);
+        this.decompressDictionary = new ZstdDictDecompress(dictionary);
+    }
+
+    public long getDictionaryId() {
+        return dictionaryId;
+    }
+
+    @Override
+    public ByteBuf encode(ByteBuf source) {
+        int uncompressedLength = source.readableBytes();
+        int maxLength = (int) Zstd.compressBound(uncompressedLength);
+
+        ByteBuf target = PulsarByteBufAllocator.DEFAULT.directBuffer(maxLength, maxLength);
+        ByteBuf directSource = toDirect(source);
+        try {
+            int compressedLength = Zstd.compress(target.nioBuffer(0, maxLength),
+                    directSource.nioBuffer(directSource.readerIndex(), uncompressedLength), compressDictionary);
+            target.writerIndex(compressedLength);
+            return target;
+        } catch (ZstdException e) {
+            target.release();
+            throw e;
+        } finally {
+            if (directSource != source) {
+                directSource.release();
+            }
+        }
+    }
+
+    @Override
+    public ByteBuf decode(ByteBuf encoded, int uncompressedLength) throws IOException {
+        ByteBuf uncompressed = PulsarByteBufAllocator.DEFAULT.directBuffer(uncompressedLength, uncompressedLength);
+        ByteBuf directEncoded = toDirect(encoded);
+        try {
+            Zstd.decompress(uncompressed.nioBuffer(0, uncompressedLength),
+                    directEncoded.nioBuffer(directEncoded.readerIndex(), directEncoded.readableBytes()),
+                    decompressDictionary);
+            uncompressed.writerIndex(uncompressedLength);
+            return uncompressed;
+        } catch (ZstdException e) {
+            uncompressed.release();
+            throw new IOException("Failed to decompress with compression dictionary " + dictionaryId, e);
+        } finally {
+            if (directEncoded != encoded) {
+                directEncoded.release();
+            }
+        }
+    }
+
+    /**
+     * The JNI binding only accepts direct buffers made of a single memory region.
+     */
+    private static ByteBuf toDirect(ByteBuf buf) {
+        if (buf.isDirect() && buf.nioBufferCount() == 1) {
+            return buf;
+        }
+        ByteBuf copy = PulsarByteBufAllocator.DEFAULT.directBuffer(buf.readableBytes());
+        copy.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        return copy;
+    }
+}
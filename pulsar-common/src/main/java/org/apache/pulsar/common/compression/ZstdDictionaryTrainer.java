@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.github.luben.zstd.Zstd;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects sample payloads and trains a Zstandard dictionary out of them.
+ *
+ * <p>Dictionaries pay off for topics with small and repetitive messages, where each batch alone does not give the
+ * compressor enough context to find the common structure.
+ */
+public class ZstdDictionaryTrainer {
+
+    private final int dictionarySize;
+    private final int maxSamples;
+    private final int maxSampleBytes;
+
+    private final List<byte[]> samples = new ArrayList<>();
+    private int sampleBytes = 0;
+
+    /**
+     * Create a trainer.
+     *
+     * @param dictionarySize
+     *            the maximum size of the dictionary, in bytes
+     * @param maxSamples
+     *            the number of samples after which the trainer is ready
+     * @param maxSampleBytes
+     *            the total size of the samples after which the trainer is ready
+     */
+    public ZstdDictionaryTrainer(int dictionarySize, int maxSamples, int maxSampleBytes) {
+        checkArgument(dictionarySize > 0);
+        checkArgument(maxSamples > 0);
+        checkArgument(maxSampleBytes > 0);
+        this.dictionarySize = dictionarySize;
+        this.maxSamples = maxSamples;
+        this.maxSampleBytes = maxSampleBytes;
+    }
+
+    /**
+     * Copy the readable bytes of the payload as a new sample, unless the trainer is already ready.
+     *
+     * @return whether the trainer has enough samples to train a dictionary
+     */
+    public synchronized boolean addSample(ByteBuf payload) {
+        if (isReady()) {
+            return true;
+        }
+        int length = Math.min(payload.readableBytes(), maxSampleBytes - sampleBytes);
+        if (length > 0) {
+            byte[] sample = new byte[length];
+            payload.getBytes(payload.readerIndex(), sample);
+            samples.add(sample);
+            sampleBytes += length;
+        }
+        return isReady();
+    }
+
+    public synchronized boolean isReady() {
+        return samples.size() >= maxSamples || sampleBytes >= maxSampleBytes;
+    }
+
+    public synchronized int getSampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * Train a dictionary with the samples collected so far.
+     *
+     * @return the dictionary
+     * @throws IllegalStateException
+     *             if the samples are not suitable to train a dictionary, for instance because they are too few
+     */
+    public synchronized byte[] train() {
+        byte[] dictionary = new byte[dictionarySize];
+        long size = Zstd.trainFromBuffer(samples.toArray(new byte[samples.size()][]), dictionary);
+        if (Zstd.isError(size)) {
+            throw new IllegalStateException("Failed to train compression dictionary from " + samples.size()
+                    + " samples: " + Zstd.getErrorName(size));
+        }
+        return Arrays.copyOf(dictionary, (int) size);
+    }
+
+    /**
+     * Drop the samples collected so far.
+     */
+    public synchronized void clear() {
+        samples.clear();
+        sampleBytes = 0;
+    }
+}
@@ -41,6 +41,10 @@ public class OffloadPolicies implements Serializable {
     public final static int DEFAULT_READ_BUFFER_SIZE_IN_BYTES = 1024 * 1024;      // 1MB
     public final static int DEFAULT_OFFLOAD_MAX_THREADS = 2;
     public final static int DEFAULT_OFFLOAD_MAX_PREFETCH_ROUNDS = 1;
+    public final static int DEFAULT_OFFLOAD_MAX_CONCURRENT_UPLOADS = 1;
+    public final static long DEFAULT_OFFLOAD_MAX_PIPELINE_MEMORY_IN_BYTES = 256 * 1024 * 1024L; // 256MB
+    public final static long DEFAULT_OFFLOAD_READ_CACHE_SIZE_IN_BYTES = 1024 * 1024 * 1024L;     // 1GB
+    public final static int DEFAULT_OFFLOAD_READ_CACHE_PREFETCH_CHUNKS = 2;
     public final static String[] DRIVER_NAMES = {"S3", "aws-s3", "google-cloud-storage", "filesystem"};
     public final static String DEFAULT_OFFLOADER_DIRECTORY = "./offloaders";
     public final static long DEFAULT_OFFLOAD_THRESHOLD_IN_BYTES = -1;
@@ -51,6 +55,11 @@ public class OffloadPolicies implements Serializable {
     private String managedLedgerOffloadDriver = null;
     private int managedLedgerOffloadMaxThreads = DEFAULT_OFFLOAD_MAX_THREADS;
     private int managedLedgerOffloadPrefetchRounds = DEFAULT_OFFLOAD_MAX_PREFETCH_ROUNDS;
+    private int managedLedgerOffloadMaxConcurrentUploads = DEFAULT_OFFLOAD_MAX_CONCURRENT_UPLOADS;
+    private long managedLedgerOffloadMaxPipelineMemoryInBytes = DEFAULT_OFFLOAD_MAX_PIPELINE_MEMORY_IN_BYTES;
+    private String managedLedgerOffloadReadCacheDirectory = null;
+    private long managedLedgerOffloadReadCacheSizeInBytes = DEFAULT_OFFLOAD_READ_CACHE_SIZE_IN_BYTES;
+    private int managedLedgerOffloadReadCachePrefetchChunks = DEFAULT_OFFLOAD_READ_CACHE_PREFETCH_CHUNKS;
     private long managedLedgerOffloadThresholdInBytes = DEFAULT_OFFLOAD_THRESHOLD_IN_BYTES;
     private Long managedLedgerOffloadDeletionLagInMillis = DEFAULT_OFFLOAD_DELETION_LAG_IN_MILLIS;
 
@@ -167,6 +176,11 @@ public class OffloadPolicies implements Serializable {
                 managedLedgerOffloadDriver,
                 managedLedgerOffloadMaxThreads,
                 managedLedgerOffloadPrefetchRounds,
+                managedLedgerOffloadMaxConcurrentUploads,
+                managedLedgerOffloadMaxPipelineMemoryInBytes,
+                managedLedgerOffloadReadCacheDirectory,
+                managedLedgerOffloadReadCacheSizeInBytes,
+                managedLedgerOffloadReadCachePrefetchChunks,
                 managedLedgerOffloadThresholdInBytes,
                 managedLedgerOffloadDeletionLagInMillis,
                 s3ManagedLedgerOffloadRegion,
@@ -197,6 +211,16 @@ public class OffloadPolicies implements Serializable {
         return Objects.equals(managedLedgerOffloadDriver, other.getManagedLedgerOffloadDriver())
                 && Objects.equals(managedLedgerOffloadMaxThreads, other.getManagedLedgerOffloadMaxThreads())
                 && Objects.equals(managedLedgerOffloadPrefetchRounds, other.getManagedLedgerOffloadPrefetchRounds())
+                && Objects.equals(managedLedgerOffloadMaxConcurrentUploads,
+                    other.getManagedLedgerOffloadMaxConcurrentUploads())
+                && Objects.equals(managedLedgerOffloadMaxPipelineMemoryInBytes,
+                    other.getManagedLedgerOffloadMaxPipelineMemoryInBytes())
+                && Objects.equals(managedLedgerOffloadReadCacheDirectory,
+                    other.getManagedLedgerOffloadReadCacheDirectory())
+                && Objects.equals(managedLedgerOffloadReadCacheSizeInBytes,
+                    other.getManagedLedgerOffloadReadCacheSizeInBytes())
+                && Objects.equals(managedLedgerOffloadReadCachePrefetchChunks,
+                    other.getManagedLedgerOffloadReadCachePrefetchChunks())
                 && Objects.equals(managedLedgerOffloadThresholdInBytes,
                     other.getManagedLedgerOffloadThresholdInBytes())
                 && Objects.equals(managedLedgerOffloadDeletionLagInMillis,
@@ -230,6 +254,11 @@ public class OffloadPolicies implements Serializable {
                 .add("managedLedgerOffloadDriver", managedLedgerOffloadDriver)
                 .add("managedLedgerOffloadMaxThreads", managedLedgerOffloadMaxThreads)
                 .add("managedLedgerOffloadPrefetchRounds", managedLedgerOffloadPrefetchRounds)
+                .add("managedLedgerOffloadMaxConcurrentUploads", managedLedgerOffloadMaxConcurrentUploads)
+                .add("managedLedgerOffloadMaxPipelineMemoryInBytes", managedLedgerOffloadMaxPipelineMemoryInBytes)
+                .add("managedLedgerOffloadReadCacheDirectory", managedLedgerOffloadReadCacheDirectory)
+                .add("managedLedgerOffloadReadCacheSizeInBytes", managedLedgerOffloadReadCacheSizeInBytes)
+                .add("managedLedgerOffloadReadCachePrefetchChunks", managedLedgerOffloadReadCachePrefetchChunks)
                 .add("managedLedgerOffloadThresholdInBytes", managedLedgerOffloadThresholdInBytes)
                 .add("managedLedgerOffloadDeletionLagInMillis", managedLedgerOffloadDeletionLagInMillis)
                 .add("s3ManagedLedgerOffloadRegion", s3ManagedLedgerOffloadRegion)
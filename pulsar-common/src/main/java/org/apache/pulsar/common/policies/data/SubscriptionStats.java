@@ -73,6 +73,15 @@ public class SubscriptionStats {
     /** Last message expire execution timestamp. */
     public long lastExpireTimestamp;
 
+    /** Number of entries the dispatcher asks for in its next read. */
+    public int readBatchSize;
+
+    /** Average size of the entries read, when the dispatcher sizes its reads adaptively (bytes). */
+    public double avgReadEntrySize;
+
+    /** Total time during which dispatching has been throttled by the subscription dispatch rate (ms). */
+    public long dispatchThrottledTimeMs;
+
     /** Last received consume flow command timestamp. */
     public long lastConsumedFlowTimestamp;
 
@@ -106,6 +115,7 @@ public class SubscriptionStats {
         unackedMessages = 0;
         msgRateExpired = 0;
         lastExpireTimestamp = 0L;
+        dispatchThrottledTimeMs = 0;
         consumers.clear();
     }
 
@@ -118,6 +128,7 @@ public class SubscriptionStats {
         this.bytesOutCounter += stats.bytesOutCounter;
         this.msgOutCounter += stats.msgOutCounter;
         this.msgRateRedeliver += stats.msgRateRedeliver;
+        this.dispatchThrottledTimeMs += stats.dispatchThrottledTimeMs;
         this.msgBacklog += stats.msgBacklog;
         this.msgBacklogNoDelayed += stats.msgBacklogNoDelayed;
         this.unackedMessages += stats.unackedMessages;
@@ -67,6 +67,12 @@ public class TopicStats {
     /** Get estimated total unconsumed or backlog size in bytes. */
     public long backlogSize;
 
+    /** Total time during which publishing has been throttled by the topic publish rate (ms). */
+    public long publishThrottledTimeMs;
+
+    /** Total time during which dispatching has been throttled by the topic dispatch rate (ms). */
+    public long dispatchThrottledTimeMs;
+
     /** List of connected publishers on this topic w/ their stats. */
     public List<PublisherStats> publishers;
 
@@ -93,6 +99,8 @@ public class TopicStats {
         this.averageMsgSize = 0;
         this.storageSize = 0;
         this.backlogSize = 0;
+        this.publishThrottledTimeMs = 0;
+        this.dispatchThrottledTimeMs = 0;
         this.bytesInCounter = 0;
         this.msgInCounter = 0;
         this.bytesOutCounter = 0;
@@ -120,6 +128,8 @@ public class TopicStats {
         this.averageMsgSize = newAverageMsgSize;
         this.storageSize += stats.storageSize;
         this.backlogSize += stats.backlogSize;
+        this.publishThrottledTimeMs += stats.publishThrottledTimeMs;
+        this.dispatchThrottledTimeMs += stats.dispatchThrottledTimeMs;
         if (this.publishers.size() != stats.publishers.size()) {
             for (int i = 0; i < stats.publishers.size(); i++) {
                 PublisherStats publisherStats = new PublisherStats();
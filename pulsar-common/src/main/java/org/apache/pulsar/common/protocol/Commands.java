@@ -28,6 +28,7 @@ import com.google.common.annotations.VisibleForTesting;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.FastThreadLocal;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -96,7 +97,6 @@ import org.apache.pulsar.common.api.proto.PulsarApi.CommandProducerSuccess;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandReachedEndOfTopic;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandRedeliverUnacknowledgedMessages;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSeek;
-import org.apache.pulsar.common.api.proto.PulsarApi.CommandSend;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSendError;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSendReceipt;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe;
@@ -141,6 +141,23 @@ public class Commands {
     public static final short magicCrc32c = 0x0e01;
     private static final int checksumSize = 4;
 
+    // Flyweights used to serialize the commands on the publish and dispatch paths
+    private static final FastThreadLocal<LightCommandSend> LIGHT_COMMAND_SEND =
+            new FastThreadLocal<LightCommandSend>() {
+        @Override
+        protected LightCommandSend initialValue() {
+            return new LightCommandSend();
+        }
+    };
+
+    private static final FastThreadLocal<LightCommandMessage> LIGHT_COMMAND_MESSAGE =
+            new FastThreadLocal<LightCommandMessage>() {
+        @Override
+        protected LightCommandMessage initialValue() {
+            return new LightCommandMessage();
+        }
+    };
+
     public static ByteBuf newConnect(String authMethodName, String authData, String libVersion) {
         return newConnect(authMethodName, authData, getCurrentProtocolVersion(), libVersion, null /* target broker */,
                 null /* originalPrincipal */, null /* Client Auth Data */, null /* Client Auth Method */);
@@ -444,6 +461,11 @@ public class Commands {
 
     public static ByteBufPair newMessage(long consumerId, MessageIdData messageId, int redeliveryCount,
         ByteBuf metadataAndPayload, long[] ackSet) {
+        if (messageId.getAckSetCount() == 0) {
+            return newMessage(consumerId, messageId.getLedgerId(), messageId.getEntryId(), messageId.getPartition(),
+                    messageId.getBatchIndex(), redeliveryCount, metadataAndPayload, ackSet);
+        }
+
         CommandMessage.Builder msgBuilder = CommandMessage.newBuilder();
         msgBuilder.setConsumerId(consumerId);
         msgBuilder.setMessageId(messageId);
@@ -465,6 +487,46 @@ public class Commands {
         return res;
     }
 
+    /**
+     * Create a MESSAGE command without going through the generated protobuf classes.
+     *
+     * <p>{@code partition} and {@code batchIndex} are only serialized when they are not negative.
+     */
+    public static ByteBufPair newMessage(long consumerId, long ledgerId, long entryId, int partition, int batchIndex,
+        int redeliveryCount, ByteBuf metadataAndPayload, long[] ackSet) {
+        LightCommandMessage msg = LIGHT_COMMAND_MESSAGE.get().clear();
+        msg.setConsumerId(consumerId);
+        msg.setMessageId(ledgerId, entryId);
+        if (partition >= 0) {
+            msg.setPartition(partition);
+        }
+        if (batchIndex >= 0) {
+            msg.setBatchIndex(batchIndex);
+        }
+        if (redeliveryCount > 0) {
+            msg.setRedeliveryCount(redeliveryCount);
+        }
+        if (ackSet != null) {
+            msg.setAckSet(ackSet);
+        }
+
+        // / Wire format
+        // [TOTAL_SIZE] [CMD_SIZE][CMD] [MAGIC_NUMBER][CHECKSUM] [METADATA_SIZE][METADATA] [PAYLOAD]
+        //
+        // metadataAndPayload contains from magic-number to the payload included
+        int cmdSize = msg.getBaseCommandSerializedSize();
+        int totalSize = 4 + cmdSize + metadataAndPayload.readableBytes();
+        int headersSize = 4 + 4 + cmdSize;
+
+        ByteBuf headers = PulsarByteBufAllocator.DEFAULT.buffer(headersSize, headersSize);
+        headers.writeInt(totalSize); // External frame
+        headers.writeInt(cmdSize);
+        msg.writeBaseCommandTo(headers);
+        msg.clear();
+
+        return ByteBufPair.get(headers, metadataAndPayload);
+    }
+
     public static ByteBufPair newSend(long producerId, long sequenceId, int numMessaegs, ChecksumType checksumType,
                                       MessageMetadata messageMetadata, ByteBuf payload) {
         return newSend(producerId, sequenceId, numMessaegs,
@@ -484,55 +546,39 @@ public class Commands {
     public static ByteBufPair newSend(long producerId, long sequenceId, int numMessages,
                                       long txnIdLeastBits, long txnIdMostBits, ChecksumType checksumType,
             MessageMetadata messageData, ByteBuf payload) {
-        CommandSend.Builder sendBuilder = CommandSend.newBuilder();
-        sendBuilder.setProducerId(producerId);
-        sendBuilder.setSequenceId(sequenceId);
-        if (numMessages > 1) {
-            sendBuilder.setNumMessages(numMessages);
-        }
-        if (txnIdLeastBits >= 0) {
-            sendBuilder.setTxnidLeastBits(txnIdLeastBits);
-        }
-        if (txnIdMostBits >= 0) {
-            sendBuilder.setTxnidMostBits(txnIdMostBits);
-        }
-        if (messageData.hasTotalChunkMsgSize() && messageData.getTotalChunkMsgSize() > 1) {
-            sendBuilder.setIsChunk(true);
-        }
-        CommandSend send = sendBuilder.build();
-
-        ByteBufPair res = serializeCommandSendWithSize(BaseCommand.newBuilder().setType(Type.SEND).setSend(send),
-                checksumType, messageData, payload);
-        send.recycle();
-        sendBuilder.recycle();
-        return res;
+        LightCommandSend send = LIGHT_COMMAND_SEND.get().clear();
+        send.setProducerId(producerId);
+        send.setSequenceId(sequenceId);
+        return newSend(send, numMessages, txnIdLeastBits, txnIdMostBits, checksumType, messageData, payload);
     }
 
     public static ByteBufPair newSend(long producerId, long lowestSequenceId, long highestSequenceId, int numMessages,
           long txnIdLeastBits, long txnIdMostBits, ChecksumType checksumType,
           MessageMetadata messageData, ByteBuf payload) {
-        CommandSend.Builder sendBuilder = CommandSend.newBuilder();
-        sendBuilder.setProducerId(producerId);
-        sendBuilder.setSequenceId(lowestSequenceId);
-        sendBuilder.setHighestSequenceId(highestSequenceId);
+        LightCommandSend send = LIGHT_COMMAND_SEND.get().clear();
+        send.setProducerId(producerId);
+        send.setSequenceId(lowestSequenceId);
+        send.setHighestSequenceId(highestSequenceId);
+        return newSend(send, numMessages, txnIdLeastBits, txnIdMostBits, checksumType, messageData, payload);
+    }
+
+    private static ByteBufPair newSend(LightCommandSend send, int numMessages, long txnIdLeastBits,
+            long txnIdMostBits, ChecksumType checksumType, MessageMetadata messageData, ByteBuf payload) {
         if (numMessages > 1) {
-            sendBuilder.setNumMessages(numMessages);
+            send.setNumMessages(numMessages);
         }
         if (txnIdLeastBits >= 0) {
-            sendBuilder.setTxnidLeastBits(txnIdLeastBits);
+            send.setTxnidLeastBits(txnIdLeastBits);
         }
         if (txnIdMostBits >= 0) {
-            sendBuilder.setTxnidMostBits(txnIdMostBits);
+            send.setTxnidMostBits(txnIdMostBits);
         }
         if (messageData.hasTotalChunkMsgSize() && messageData.getTotalChunkMsgSize() > 1) {
-            sendBuilder.setIsChunk(true);
+            send.setIsChunk(true);
         }
-        CommandSend send = sendBuilder.build();
 
-        ByteBufPair res = serializeCommandSendWithSize(BaseCommand.newBuilder().setType(Type.SEND).setSend(send),
-                checksumType, messageData, payload);
-        send.recycle();
-        sendBuilder.recycle();
+        ByteBufPair res = serializeCommandSendWithSize(send, checksumType, messageData, payload);
+        send.clear();
         return res;
     }
 
@@ -1162,6 +1208,22 @@ public class Commands {
         return res;
     }
 
+    public static ByteBuf newGetCompressionDictionary(long requestId, String topic, Optional<SchemaVersion> version) {
+        CommandGetSchema.Builder schema = CommandGetSchema.newBuilder()
+            .setRequestId(requestId)
+            .setTopic(topic)
+            .setCompressionDictionary(true);
+        version.ifPresent(schemaVersion -> schema.setSchemaVersion(ByteString.copyFrom(schemaVersion.bytes())));
+
+        CommandGetSchema getSchema = schema.build();
+
+        ByteBuf res = serializeWithSize(BaseCommand.newBuilder()
+            .setType(Type.GET_SCHEMA)
+            .setGetSchema(getSchema));
+        schema.recycle();
+        return res;
+    }
+
     public static ByteBuf newGetSchemaResponse(long requestId, CommandGetSchemaResponse response) {
         CommandGetSchemaResponse.Builder schemaResponseBuilder = CommandGetSchemaResponse.newBuilder(response)
             .setRequestId(requestId);
@@ -1212,6 +1274,25 @@ public class Commands {
         return res;
     }
 
+    public static ByteBuf newGetOrCreateCompressionDictionary(long requestId, String topic, byte[] dictionary) {
+        Schema.Builder schemaBuilder = Schema.newBuilder()
+            .setName(topic)
+            .setSchemaData(copyFrom(dictionary))
+            .setType(Schema.Type.None);
+        CommandGetOrCreateSchema getOrCreateSchema =
+                CommandGetOrCreateSchema.newBuilder()
+                                        .setRequestId(requestId)
+                                        .setTopic(topic)
+                                        .setSchema(schemaBuilder.build())
+                                        .setCompressionDictionary(true).build();
+        schemaBuilder.recycle();
+        ByteBuf res = serializeWithSize(BaseCommand.newBuilder()
+                                                   .setType(Type.GET_OR_CREATE_SCHEMA)
+                                                   .setGetOrCreateSchema(getOrCreateSchema));
+        getOrCreateSchema.recycle();
+        return res;
+    }
+
     public static ByteBuf newGetOrCreateSchemaResponse(long requestId, SchemaVersion schemaVersion) {
         CommandGetOrCreateSchemaResponse.Builder schemaResponse =
                 CommandGetOrCreateSchemaResponse.newBuilder()
@@ -1528,13 +1609,12 @@ public class Commands {
         return buf;
     }
 
-    private static ByteBufPair serializeCommandSendWithSize(BaseCommand.Builder cmdBuilder, ChecksumType checksumType,
+    private static ByteBufPair serializeCommandSendWithSize(LightCommandSend send, ChecksumType checksumType,
             MessageMetadata msgMetadata, ByteBuf payload) {
         // / Wire format
         // [TOTAL_SIZE] [CMD_SIZE][CMD] [MAGIC_NUMBER][CHECKSUM] [METADATA_SIZE][METADATA] [PAYLOAD]
 
-        BaseCommand cmd = cmdBuilder.build();
-        int cmdSize = cmd.getSerializedSize();
+        int cmdSize = send.getBaseCommandSerializedSize();
         int msgMetadataSize = msgMetadata.getSerializedSize();
         int payloadSize = payload.readableBytes();
         int magicAndChecksumLength = ChecksumType.Crc32c.equals(checksumType) ? (2 + 4 /* magic + checksumLength*/) : 0;
@@ -1553,11 +1633,7 @@ public class Commands {
         try {
             // Write cmd
             headers.writeInt(cmdSize);
-
-            ByteBufCodedOutputStream outStream = ByteBufCodedOutputStream.get(headers);
-            cmd.writeTo(outStream);
-            cmd.recycle();
-            cmdBuilder.recycle();
+            send.writeBaseCommandTo(headers);
 
             //Create checksum placeholder
             if (includeChecksum) {
@@ -1568,6 +1644,7 @@ public class Commands {
 
             // Write metadata
             headers.writeInt(msgMetadataSize);
+            ByteBufCodedOutputStream outStream = ByteBufCodedOutputStream.get(headers);
             msgMetadata.writeTo(outStream);
             outStream.recycle();
         } catch (IOException e) {
@@ -1839,4 +1916,8 @@ public class Commands {
     public static boolean peerSupportsGetOrCreateSchema(int peerVersion) {
         return peerVersion >= ProtocolVersion.v15.getNumber();
     }
+
+    public static boolean peerSupportsCompressionDictionary(int peerVersion) {
+        return peerVersion >= ProtocolVersion.v16.getNumber();
+    }
 }
@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import static org.apache.pulsar.common.protocol.LightProtoCodec.WIRETYPE_LENGTH_DELIMITED;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.WIRETYPE_VARINT;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.computeSignedVarIntSize;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.computeVarInt64Size;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.computeVarIntSize;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.makeTag;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.writeSignedVarInt;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.writeVarInt;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.writeVarInt64;
+
+import io.netty.buffer.ByteBuf;
+
+import org.apache.pulsar.common.api.proto.PulsarApi.BaseCommand;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandMessage;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
+
+/**
+ * Reusable flyweight to serialize {@code CommandMessage}, with the same wire format as the generated class.
+ *
+ * <p>The ack set of the nested {@code MessageIdData} is not supported. This class is not thread safe: an instance
+ * is meant to be reused by a single thread.
+ */
+public final class LightCommandMessage {
+
+    private static final int CONSUMER_ID_TAG = makeTag(CommandMessage.CONSUMER_ID_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int MESSAGE_ID_TAG = makeTag(CommandMessage.MESSAGE_ID_FIELD_NUMBER,
+            WIRETYPE_LENGTH_DELIMITED);
+    private static final int REDELIVERY_COUNT_TAG = makeTag(CommandMessage.REDELIVERY_COUNT_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int ACK_SET_TAG = makeTag(CommandMessage.ACK_SET_FIELD_NUMBER, WIRETYPE_VARINT);
+
+    private static final int LEDGER_ID_TAG = makeTag(MessageIdData.LEDGERID_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int ENTRY_ID_TAG = makeTag(MessageIdData.ENTRYID_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int PARTITION_TAG = makeTag(MessageIdData.PARTITION_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int BATCH_INDEX_TAG = makeTag(MessageIdData.BATCH_INDEX_FIELD_NUMBER, WIRETYPE_VARINT);
+
+    private long consumerId;
+    private long ledgerId;
+    private long entryId;
+    private boolean hasPartition;
+    private int partition;
+    private boolean hasBatchIndex;
+    private int batchIndex;
+    private boolean hasRedeliveryCount;
+    private int redeliveryCount;
+    private long[] ackSet;
+
+    public LightCommandMessage clear() {
+        consumerId = 0;
+        ledgerId = 0;
+        entryId = 0;
+        hasPartition = false;
+        partition = -1;
+        hasBatchIndex = false;
+        batchIndex = -1;
+        hasRedeliveryCount = false;
+        redeliveryCount = 0;
+        ackSet = null;
+        return this;
+    }
+
+    public LightCommandMessage setConsumerId(long consumerId) {
+        this.consumerId = consumerId;
+        return this;
+    }
+
+    public LightCommandMessage setMessageId(long ledgerId, long entryId) {
+        this.ledgerId = ledgerId;
+        this.entryId = entryId;
+        return this;
+    }
+
+    public LightCommandMessage setPartition(int partition) {
+        this.partition = partition;
+        this.hasPartition = true;
+        return this;
+    }
+
+    public LightCommandMessage setBatchIndex(int batchIndex) {
+        this.batchIndex = batchIndex;
+        this.hasBatchIndex = true;
+        return this;
+    }
+
+    public LightCommandMessage setRedeliveryCount(int redeliveryCount) {
+        this.redeliveryCount = redeliveryCount;
+        this.hasRedeliveryCount = true;
+        return this;
+    }
+
+    /**
+     * Set the ack set of the batch. The array is not copied and must not be modified until the command is written.
+     */
+    public LightCommandMessage setAckSet(long[] ackSet) {
+        this.ackSet = ackSet;
+        return this;
+    }
+
+    private int getMessageIdSerializedSize() {
+        int size = computeVarIntSize(LEDGER_ID_TAG) + computeVarInt64Size(ledgerId)
+                + computeVarIntSize(ENTRY_ID_TAG) + computeVarInt64Size(entryId);
+        if (hasPartition) {
+            size += computeVarIntSize(PARTITION_TAG) + computeSignedVarIntSize(partition);
+        }
+        if (hasBatchIndex) {
+            size += computeVarIntSize(BATCH_INDEX_TAG) + computeSignedVarIntSize(batchIndex);
+        }
+        return size;
+    }
+
+    public int getSerializedSize() {
+        int messageIdSize = getMessageIdSerializedSize();
+        int size = computeVarIntSize(CONSUMER_ID_TAG) + computeVarInt64Size(consumerId)
+                + computeVarIntSize(MESSAGE_ID_TAG) + computeVarIntSize(messageIdSize) + messageIdSize;
+        if (hasRedeliveryCount) {
+            size += computeVarIntSize(REDELIVERY_COUNT_TAG) + computeVarIntSize(redeliveryCount);
+        }
+        if (ackSet != null) {
+            // Not packed, each item has its own tag
+            for (long value : ackSet) {
+                size += computeVarIntSize(ACK_SET_TAG) + computeVarInt64Size(value);
+            }
+        }
+        return size;
+    }
+
+    public void writeTo(ByteBuf b) {
+        writeVarInt(b, CONSUMER_ID_TAG);
+        writeVarInt64(b, consumerId);
+
+        writeVarInt(b, MESSAGE_ID_TAG);
+        writeVarInt(b, getMessageIdSerializedSize());
+        writeVarInt(b, LEDGER_ID_TAG);
+        writeVarInt64(b, ledgerId);
+        writeVarInt(b, ENTRY_ID_TAG);
+        writeVarInt64(b, entryId);
+        if (hasPartition) {
+            writeVarInt(b, PARTITION_TAG);
+            writeSignedVarInt(b, partition);
+        }
+        if (hasBatchIndex) {
+            writeVarInt(b, BATCH_INDEX_TAG);
+            writeSignedVarInt(b, batchIndex);
+        }
+
+        if (hasRedeliveryCount) {
+            writeVarInt(b, REDELIVERY_COUNT_TAG);
+            writeVarInt(b, redeliveryCount);
+        }
+        if (ackSet != null) {
+            for (long value : ackSet) {
+                writeVarInt(b, ACK_SET_TAG);
+                writeVarInt64(b, value);
+            }
+        }
+    }
+
+    /**
+     * Size of the {@code BaseCommand} wrapping this command.
+     */
+    public int getBaseCommandSerializedSize() {
+        return LightProtoCodec.computeBaseCommandSize(BaseCommand.Type.MESSAGE_VALUE,
+                BaseCommand.MESSAGE_FIELD_NUMBER, getSerializedSize());
+    }
+
+    /**
+     * Write this command wrapped in a {@code BaseCommand}.
+     */
+    public void writeBaseCommandTo(ByteBuf b) {
+        LightProtoCodec.writeBaseCommandHeader(b, BaseCommand.Type.MESSAGE_VALUE, BaseCommand.MESSAGE_FIELD_NUMBER,
+                getSerializedSize());
+        writeTo(b);
+    }
+}
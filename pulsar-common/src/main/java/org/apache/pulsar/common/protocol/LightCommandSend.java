@@ -0,0 +1,341 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.WIRETYPE_VARINT;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.computeSignedVarIntSize;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.computeVarInt64Size;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.computeVarIntSize;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.getFieldId;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.makeTag;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.readVarInt;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.readVarInt64;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.skipUnknownField;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.writeSignedVarInt;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.writeVarInt;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.writeVarInt64;
+
+import io.netty.buffer.ByteBuf;
+
+import org.apache.pulsar.common.api.proto.PulsarApi.BaseCommand;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandSend;
+
+/**
+ * Reusable flyweight for {@code CommandSend}, with the same wire format as the generated class.
+ *
+ * <p>This class is not thread safe: an instance is meant to be reused by a single connection or thread.
+ */
+public final class LightCommandSend {
+
+    private static final int PRODUCER_ID_TAG = makeTag(CommandSend.PRODUCER_ID_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int SEQUENCE_ID_TAG = makeTag(CommandSend.SEQUENCE_ID_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int NUM_MESSAGES_TAG = makeTag(CommandSend.NUM_MESSAGES_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int TXNID_LEAST_BITS_TAG = makeTag(CommandSend.TXNID_LEAST_BITS_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int TXNID_MOST_BITS_TAG = makeTag(CommandSend.TXNID_MOST_BITS_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int HIGHEST_SEQUENCE_ID_TAG = makeTag(CommandSend.HIGHEST_SEQUENCE_ID_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int IS_CHUNK_TAG = makeTag(CommandSend.IS_CHUNK_FIELD_NUMBER, WIRETYPE_VARINT);
+
+    private static final int HAS_PRODUCER_ID = 1;
+    private static final int HAS_SEQUENCE_ID = 1 << 1;
+    private static final int HAS_NUM_MESSAGES = 1 << 2;
+    private static final int HAS_TXNID_LEAST_BITS = 1 << 3;
+    private static final int HAS_TXNID_MOST_BITS = 1 << 4;
+    private static final int HAS_HIGHEST_SEQUENCE_ID = 1 << 5;
+    private static final int HAS_IS_CHUNK = 1 << 6;
+
+    private int bitField;
+    private long producerId;
+    private long sequenceId;
+    private int numMessages = 1;
+    private long txnidLeastBits;
+    private long txnidMostBits;
+    private long highestSequenceId;
+    private boolean isChunk;
+
+    public LightCommandSend clear() {
+        bitField = 0;
+        producerId = 0;
+        sequenceId = 0;
+        numMessages = 1;
+        txnidLeastBits = 0;
+        txnidMostBits = 0;
+        highestSequenceId = 0;
+        isChunk = false;
+        return this;
+    }
+
+    public boolean hasProducerId() {
+        return (bitField & HAS_PRODUCER_ID) != 0;
+    }
+
+    public long getProducerId() {
+        return producerId;
+    }
+
+    public LightCommandSend setProducerId(long producerId) {
+        this.producerId = producerId;
+        bitField |= HAS_PRODUCER_ID;
+        return this;
+    }
+
+    public boolean hasSequenceId() {
+        return (bitField & HAS_SEQUENCE_ID) != 0;
+    }
+
+    public long getSequenceId() {
+        return sequenceId;
+    }
+
+    public LightCommandSend setSequenceId(long sequenceId) {
+        this.sequenceId = sequenceId;
+        bitField |= HAS_SEQUENCE_ID;
+        return this;
+    }
+
+    public boolean hasNumMessages() {
+        return (bitField & HAS_NUM_MESSAGES) != 0;
+    }
+
+    public int getNumMessages() {
+        return numMessages;
+    }
+
+    public LightCommandSend setNumMessages(int numMessages) {
+        this.numMessages = numMessages;
+        bitField |= HAS_NUM_MESSAGES;
+        return this;
+    }
+
+    public boolean hasTxnidLeastBits() {
+        return (bitField & HAS_TXNID_LEAST_BITS) != 0;
+    }
+
+    public long getTxnidLeastBits() {
+        return txnidLeastBits;
+    }
+
+    public LightCommandSend setTxnidLeastBits(long txnidLeastBits) {
+        this.txnidLeastBits = txnidLeastBits;
+        bitField |= HAS_TXNID_LEAST_BITS;
+        return this;
+    }
+
+    public boolean hasTxnidMostBits() {
+        return (bitField & HAS_TXNID_MOST_BITS) != 0;
+    }
+
+    public long getTxnidMostBits() {
+        return txnidMostBits;
+    }
+
+    public LightCommandSend setTxnidMostBits(long txnidMostBits) {
+        this.txnidMostBits = txnidMostBits;
+        bitField |= HAS_TXNID_MOST_BITS;
+        return this;
+    }
+
+    public boolean hasHighestSequenceId() {
+        return (bitField & HAS_HIGHEST_SEQUENCE_ID) != 0;
+    }
+
+    public long getHighestSequenceId() {
+        return highestSequenceId;
+    }
+
+    public LightCommandSend setHighestSequenceId(long highestSequenceId) {
+        this.highestSequenceId = highestSequenceId;
+        bitField |= HAS_HIGHEST_SEQUENCE_ID;
+        return this;
+    }
+
+    public boolean hasIsChunk() {
+        return (bitField & HAS_IS_CHUNK) != 0;
+    }
+
+    public boolean getIsChunk() {
+        return isChunk;
+    }
+
+    public LightCommandSend setIsChunk(boolean isChunk) {
+        this.isChunk = isChunk;
+        bitField |= HAS_IS_CHUNK;
+        return this;
+    }
+
+    /**
+     * Copy the fields of a command decoded with the generated classes.
+     */
+    public LightCommandSend copyFrom(CommandSend send) {
+        clear();
+        setProducerId(send.getProducerId());
+        setSequenceId(send.getSequenceId());
+        if (send.hasNumMessages()) {
+            setNumMessages(send.getNumMessages());
+        }
+        if (send.hasTxnidLeastBits()) {
+            setTxnidLeastBits(send.getTxnidLeastBits());
+        }
+        if (send.hasTxnidMostBits()) {
+            setTxnidMostBits(send.getTxnidMostBits());
+        }
+        if (send.hasHighestSequenceId()) {
+            setHighestSequenceId(send.getHighestSequenceId());
+        }
+        if (send.hasIsChunk()) {
+            setIsChunk(send.getIsChunk());
+        }
+        return this;
+    }
+
+    public int getSerializedSize() {
+        int size = 0;
+        if (hasProducerId()) {
+            size += computeVarIntSize(PRODUCER_ID_TAG) + computeVarInt64Size(producerId);
+        }
+        if (hasSequenceId()) {
+            size += computeVarIntSize(SEQUENCE_ID_TAG) + computeVarInt64Size(sequenceId);
+        }
+        if (hasNumMessages()) {
+            size += computeVarIntSize(NUM_MESSAGES_TAG) + computeSignedVarIntSize(numMessages);
+        }
+        if (hasTxnidLeastBits()) {
+            size += computeVarIntSize(TXNID_LEAST_BITS_TAG) + computeVarInt64Size(txnidLeastBits);
+        }
+        if (hasTxnidMostBits()) {
+            size += computeVarIntSize(TXNID_MOST_BITS_TAG) + computeVarInt64Size(txnidMostBits);
+        }
+        if (hasHighestSequenceId()) {
+            size += computeVarIntSize(HIGHEST_SEQUENCE_ID_TAG) + computeVarInt64Size(highestSequenceId);
+        }
+        if (hasIsChunk()) {
+            size += computeVarIntSize(IS_CHUNK_TAG) + 1;
+        }
+        return size;
+    }
+
+    public void writeTo(ByteBuf b) {
+        checkArgument(hasProducerId() && hasSequenceId(), "Missing required fields in CommandSend");
+        writeVarInt(b, PRODUCER_ID_TAG);
+        writeVarInt64(b, producerId);
+        writeVarInt(b, SEQUENCE_ID_TAG);
+        writeVarInt64(b, sequenceId);
+        if (hasNumMessages()) {
+            writeVarInt(b, NUM_MESSAGES_TAG);
+            writeSignedVarInt(b, numMessages);
+        }
+        if (hasTxnidLeastBits()) {
+            writeVarInt(b, TXNID_LEAST_BITS_TAG);
+            writeVarInt64(b, txnidLeastBits);
+        }
+        if (hasTxnidMostBits()) {
+            writeVarInt(b, TXNID_MOST_BITS_TAG);
+            writeVarInt64(b, txnidMostBits);
+        }
+        if (hasHighestSequenceId()) {
+            writeVarInt(b, HIGHEST_SEQUENCE_ID_TAG);
+            writeVarInt64(b, highestSequenceId);
+        }
+        if (hasIsChunk()) {
+            writeVarInt(b, IS_CHUNK_TAG);
+            writeVarInt(b, isChunk ? 1 : 0);
+        }
+    }
+
+    /**
+     * Size of the {@code BaseCommand} wrapping this command.
+     */
+    public int getBaseCommandSerializedSize() {
+        return LightProtoCodec.computeBaseCommandSize(BaseCommand.Type.SEND_VALUE, BaseCommand.SEND_FIELD_NUMBER,
+                getSerializedSize());
+    }
+
+    /**
+     * Write this command wrapped in a {@code BaseCommand}.
+     */
+    public void writeBaseCommandTo(ByteBuf b) {
+        LightProtoCodec.writeBaseCommandHeader(b, BaseCommand.Type.SEND_VALUE, BaseCommand.SEND_FIELD_NUMBER,
+                getSerializedSize());
+        writeTo(b);
+    }
+
+    /**
+     * Parse the {@code CommandSend} nested in the serialized {@code BaseCommand} of {@code cmdSize} bytes starting
+     * at the reader index. The reader index is moved to the end of the command.
+     */
+    public LightCommandSend parseFromBaseCommand(ByteBuf buffer, int cmdSize) {
+        clear();
+        int endIdx = buffer.readerIndex() + cmdSize;
+        boolean found = false;
+        while (buffer.readerIndex() < endIdx) {
+            int tag = readVarInt(buffer);
+            if (tag == makeTag(BaseCommand.SEND_FIELD_NUMBER, LightProtoCodec.WIRETYPE_LENGTH_DELIMITED)) {
+                int size = readVarInt(buffer);
+                parseFrom(buffer, size);
+                found = true;
+            } else {
+                skipUnknownField(tag, buffer);
+            }
+        }
+        checkArgument(found, "Missing CommandSend in BaseCommand");
+        checkArgument(buffer.readerIndex() == endIdx, "Malformed BaseCommand");
+        return this;
+    }
+
+    /**
+     * Parse a serialized {@code CommandSend} of {@code size} bytes starting at the reader index.
+     */
+    public LightCommandSend parseFrom(ByteBuf buffer, int size) {
+        clear();
+        int endIdx = buffer.readerIndex() + size;
+        while (buffer.readerIndex() < endIdx) {
+            int tag = readVarInt(buffer);
+            if (tag == PRODUCER_ID_TAG) {
+                setProducerId(readVarInt64(buffer));
+            } else if (tag == SEQUENCE_ID_TAG) {
+                setSequenceId(readVarInt64(buffer));
+            } else if (tag == NUM_MESSAGES_TAG) {
+                setNumMessages(readVarInt(buffer));
+            } else if (tag == TXNID_LEAST_BITS_TAG) {
+                setTxnidLeastBits(readVarInt64(buffer));
+            } else if (tag == TXNID_MOST_BITS_TAG) {
+                setTxnidMostBits(readVarInt64(buffer));
+            } else if (tag == HIGHEST_SEQUENCE_ID_TAG) {
+                setHighestSequenceId(readVarInt64(buffer));
+            } else if (tag == IS_CHUNK_TAG) {
+                setIsChunk(readVarInt(buffer) != 0);
+            } else if (getFieldId(tag) == 0) {
+                throw new IllegalArgumentException("Invalid tag in CommandSend: " + tag);
+            } else {
+                skipUnknownField(tag, buffer);
+            }
+        }
+        checkArgument(hasProducerId() && hasSequenceId(), "Missing required fields in CommandSend");
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandSend(producerId=" + producerId + ", sequenceId=" + sequenceId + ", numMessages=" + numMessages
+                + ", highestSequenceId=" + highestSequenceId + ", isChunk=" + isChunk + ")";
+    }
+}
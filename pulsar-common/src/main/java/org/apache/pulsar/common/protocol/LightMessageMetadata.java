@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import static org.apache.pulsar.common.protocol.LightProtoCodec.WIRETYPE_LENGTH_DELIMITED;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.WIRETYPE_VARINT;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.makeTag;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.readVarInt;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.readVarInt64;
+import static org.apache.pulsar.common.protocol.LightProtoCodec.skipUnknownField;
+
+import io.netty.buffer.ByteBuf;
+
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+
+/**
+ * Reusable flyweight that reads the fields of a serialized {@code MessageMetadata} needed to dispatch an entry,
+ * without allocating a generated {@link MessageMetadata} and without decoding its strings and properties.
+ *
+ * <p>The dispatcher of every subscription peeks the metadata of every entry it sends. Reading only these fields
+ * keeps the cost of a topic with many subscriptions close to the cost of writing the MESSAGE commands, while the
+ * payload buffer itself is shared by all the subscriptions. This class is not thread safe: an instance is meant to be
+ * reused by a single thread.
+ */
+public final class LightMessageMetadata {
+
+    private static final int PRODUCER_NAME_TAG = makeTag(MessageMetadata.PRODUCER_NAME_FIELD_NUMBER,
+            WIRETYPE_LENGTH_DELIMITED);
+    private static final int SEQUENCE_ID_TAG = makeTag(MessageMetadata.SEQUENCE_ID_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int PUBLISH_TIME_TAG = makeTag(MessageMetadata.PUBLISH_TIME_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int NUM_MESSAGES_IN_BATCH_TAG = makeTag(MessageMetadata.NUM_MESSAGES_IN_BATCH_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int DELIVER_AT_TIME_TAG = makeTag(MessageMetadata.DELIVER_AT_TIME_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int MARKER_TYPE_TAG = makeTag(MessageMetadata.MARKER_TYPE_FIELD_NUMBER, WIRETYPE_VARINT);
+    private static final int TXNID_LEAST_BITS_TAG = makeTag(MessageMetadata.TXNID_LEAST_BITS_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int TXNID_MOST_BITS_TAG = makeTag(MessageMetadata.TXNID_MOST_BITS_FIELD_NUMBER,
+            WIRETYPE_VARINT);
+    private static final int CHUNK_ID_TAG = makeTag(MessageMetadata.CHUNK_ID_FIELD_NUMBER, WIRETYPE_VARINT);
+
+    private int numMessagesInBatch;
+    private boolean hasDeliverAtTime;
+    private long deliverAtTime;
+    private boolean hasMarkerType;
+    private int markerType;
+    private long txnidLeastBits;
+    private long txnidMostBits;
+    private boolean hasChunkId;
+
+    public LightMessageMetadata clear() {
+        numMessagesInBatch = 1;
+        hasDeliverAtTime = false;
+        deliverAtTime = 0;
+        hasMarkerType = false;
+        markerType = 0;
+        txnidLeastBits = 0;
+        txnidMostBits = 0;
+        hasChunkId = false;
+        return this;
+    }
+
+    /**
+     * Read the metadata of an entry, skipping the checksum if present. The reader index of the buffer is left
+     * unchanged.
+     *
+     * @throws IllegalArgumentException if the metadata is malformed or misses a required field
+     */
+    public LightMessageMetadata parseFrom(ByteBuf metadataAndPayload) {
+        clear();
+        int readerIndex = metadataAndPayload.readerIndex();
+        try {
+            Commands.skipChecksumIfPresent(metadataAndPayload);
+            int metadataSize = (int) metadataAndPayload.readUnsignedInt();
+            int end = metadataAndPayload.readerIndex() + metadataSize;
+            if (metadataSize < 0 || end > metadataAndPayload.writerIndex()) {
+                throw new IllegalArgumentException("Invalid metadata size " + metadataSize);
+            }
+
+            boolean hasProducerName = false;
+            boolean hasSequenceId = false;
+            boolean hasPublishTime = false;
+            while (metadataAndPayload.readerIndex() < end) {
+                int tag = readVarInt(metadataAndPayload);
+                if (tag == PRODUCER_NAME_TAG) {
+                    hasProducerName = true;
+                    metadataAndPayload.skipBytes(readVarInt(metadataAndPayload));
+                } else if (tag == SEQUENCE_ID_TAG) {
+                    hasSequenceId = true;
+                    readVarInt64(metadataAndPayload);
+                } else if (tag == PUBLISH_TIME_TAG) {
+                    hasPublishTime = true;
+                    readVarInt64(metadataAndPayload);
+                } else if (tag == NUM_MESSAGES_IN_BATCH_TAG) {
+                    numMessagesInBatch = readVarInt(metadataAndPayload);
+                } else if (tag == DELIVER_AT_TIME_TAG) {
+                    hasDeliverAtTime = true;
+                    deliverAtTime = readVarInt64(metadataAndPayload);
+                } else if (tag == MARKER_TYPE_TAG) {
+                    hasMarkerType = true;
+                    markerType = readVarInt(metadataAndPayload);
+                } else if (tag == TXNID_LEAST_BITS_TAG) {
+                    txnidLeastBits = readVarInt64(metadataAndPayload);
+                } else if (tag == TXNID_MOST_BITS_TAG) {
+                    txnidMostBits = readVarInt64(metadataAndPayload);
+                } else if (tag == CHUNK_ID_TAG) {
+                    hasChunkId = true;
+                    readVarInt(metadataAndPayload);
+                } else {
+                    skipUnknownField(tag, metadataAndPayload);
+                }
+            }
+
+            if (metadataAndPayload.readerIndex() != end) {
+                throw new IllegalArgumentException("Metadata fields overrun the metadata size " + metadataSize);
+            }
+            if (!hasProducerName || !hasSequenceId || !hasPublishTime) {
+                throw new IllegalArgumentException("Metadata is missing required fields");
+            }
+            return this;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated metadata", e);
+        } finally {
+            metadataAndPayload.readerIndex(readerIndex);
+        }
+    }
+
+    public int getNumMessagesInBatch() {
+        return numMessagesInBatch;
+    }
+
+    public boolean hasDeliverAtTime() {
+        return hasDeliverAtTime;
+    }
+
+    public long getDeliverAtTime() {
+        return deliverAtTime;
+    }
+
+    public boolean hasMarkerType() {
+        return hasMarkerType;
+    }
+
+    public int getMarkerType() {
+        return markerType;
+    }
+
+    public long getTxnidLeastBits() {
+        return txnidLeastBits;
+    }
+
+    public long getTxnidMostBits() {
+        return txnidMostBits;
+    }
+
+    public boolean hasChunkId() {
+        return hasChunkId;
+    }
+}
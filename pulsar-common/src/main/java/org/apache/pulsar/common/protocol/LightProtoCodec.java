@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Helpers to read and write the protobuf wire format directly on a {@link ByteBuf}.
+ *
+ * <p>Used by the flyweight commands ({@link LightCommandSend}, {@link LightCommandMessage}) that replace the
+ * generated builders on the publish and dispatch hot paths.
+ */
+public final class LightProtoCodec {
+
+    static final int WIRETYPE_VARINT = 0;
+    static final int WIRETYPE_FIXED64 = 1;
+    static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    static final int WIRETYPE_FIXED32 = 5;
+
+    private static final int TAG_TYPE_BITS = 3;
+    private static final int TAG_TYPE_MASK = (1 << TAG_TYPE_BITS) - 1;
+
+    // BaseCommand.type
+    private static final int BASE_COMMAND_TYPE_TAG = makeTag(1, WIRETYPE_VARINT);
+
+    private LightProtoCodec() {
+    }
+
+    static int makeTag(int fieldNumber, int wireType) {
+        return (fieldNumber << TAG_TYPE_BITS) | wireType;
+    }
+
+    static int getTagType(int tag) {
+        return tag & TAG_TYPE_MASK;
+    }
+
+    static int getFieldId(int tag) {
+        return tag >>> TAG_TYPE_BITS;
+    }
+
+    static void writeVarInt(ByteBuf b, int n) {
+        while (true) {
+            if ((n & ~0x7F) == 0) {
+                b.writeByte(n);
+                return;
+            } else {
+                b.writeByte((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+        }
+    }
+
+    static void writeVarInt64(ByteBuf b, long value) {
+        while (true) {
+            if ((value & ~0x7FL) == 0) {
+                b.writeByte((int) value);
+                return;
+            } else {
+                b.writeByte(((int) value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+        }
+    }
+
+    /**
+     * Write an int32 field value, negative values are sign-extended to 10 bytes as protobuf does.
+     */
+    static void writeSignedVarInt(ByteBuf b, int n) {
+        if (n >= 0) {
+            writeVarInt(b, n);
+        } else {
+            writeVarInt64(b, n);
+        }
+    }
+
+    static int computeVarIntSize(int value) {
+        if ((value & (0xffffffff << 7)) == 0) {
+            return 1;
+        } else if ((value & (0xffffffff << 14)) == 0) {
+            return 2;
+        } else if ((value & (0xffffffff << 21)) == 0) {
+            return 3;
+        } else if ((value & (0xffffffff << 28)) == 0) {
+            return 4;
+        }
+        return 5;
+    }
+
+    static int computeVarInt64Size(long value) {
+        int n = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    static int computeSignedVarIntSize(int value) {
+        return value >= 0 ? computeVarIntSize(value) : 10;
+    }
+
+    static int readVarInt(ByteBuf buf) {
+        byte tmp = buf.readByte();
+        if (tmp >= 0) {
+            return tmp;
+        }
+        int result = tmp & 0x7f;
+        if ((tmp = buf.readByte()) >= 0) {
+            result |= tmp << 7;
+        } else {
+            result |= (tmp & 0x7f) << 7;
+            if ((tmp = buf.readByte()) >= 0) {
+                result |= tmp << 14;
+            } else {
+                result |= (tmp & 0x7f) << 14;
+                if ((tmp = buf.readByte()) >= 0) {
+                    result |= tmp << 21;
+                } else {
+                    result |= (tmp & 0x7f) << 21;
+                    result |= (tmp = buf.readByte()) << 28;
+                    if (tmp < 0) {
+                        // Discard upper 32 bits, int32 values are encoded as sign-extended 64 bits varints
+                        for (int i = 0; i < 5; i++) {
+                            if (buf.readByte() >= 0) {
+                                return result;
+                            }
+                        }
+                        throw new IllegalArgumentException("Encountered a malformed varint.");
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    static long readVarInt64(ByteBuf buf) {
+        int shift = 0;
+        long result = 0;
+        while (shift < 64) {
+            final byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+        throw new IllegalArgumentException("Encountered a malformed varint.");
+    }
+
+    static void skipUnknownField(int tag, ByteBuf buffer) {
+        int tagType = getTagType(tag);
+        switch (tagType) {
+        case WIRETYPE_VARINT:
+            readVarInt64(buffer);
+            break;
+        case WIRETYPE_FIXED64:
+            buffer.skipBytes(8);
+            break;
+        case WIRETYPE_LENGTH_DELIMITED:
+            int len = readVarInt(buffer);
+            buffer.skipBytes(len);
+            break;
+        case WIRETYPE_FIXED32:
+            buffer.skipBytes(4);
+            break;
+        default:
+            throw new IllegalArgumentException("Invalid unknown tag type: " + tagType);
+        }
+    }
+
+    /**
+     * Return the type of the serialized {@code BaseCommand} starting at the reader index, without moving it.
+     *
+     * <p>The type is always the first field written by the Pulsar encoders. Returns -1 if the command doesn't
+     * start with it.
+     */
+    static int peekCommandType(ByteBuf buffer, int cmdSize) {
+        if (cmdSize < 2) {
+            return -1;
+        }
+        int readerIndex = buffer.readerIndex();
+        try {
+            if (readVarInt(buffer) != BASE_COMMAND_TYPE_TAG) {
+                return -1;
+            }
+            return readVarInt(buffer);
+        } finally {
+            buffer.readerIndex(readerIndex);
+        }
+    }
+
+    /**
+     * Size of a {@code BaseCommand} containing only the type and one nested command.
+     */
+    static int computeBaseCommandSize(int type, int commandFieldNumber, int commandSize) {
+        return computeVarIntSize(BASE_COMMAND_TYPE_TAG) + computeVarIntSize(type)
+                + computeVarIntSize(makeTag(commandFieldNumber, WIRETYPE_LENGTH_DELIMITED))
+                + computeVarIntSize(commandSize) + commandSize;
+    }
+
+    /**
+     * Write the fields of a {@code BaseCommand} that precede the content of its nested command.
+     */
+    static void writeBaseCommandHeader(ByteBuf b, int type, int commandFieldNumber, int commandSize) {
+        writeVarInt(b, BASE_COMMAND_TYPE_TAG);
+        writeVarInt(b, type);
+        writeVarInt(b, makeTag(commandFieldNumber, WIRETYPE_LENGTH_DELIMITED));
+        writeVarInt(b, commandSize);
+    }
+}
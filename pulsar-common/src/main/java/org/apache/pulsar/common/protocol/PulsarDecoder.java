@@ -83,6 +83,9 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class PulsarDecoder extends ChannelInboundHandlerAdapter {
 
+    // Reused for all the SEND commands received on this connection
+    private final LightCommandSend lightCommandSend = new LightCommandSend();
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         // Get a buffer that contains the full frame
@@ -93,6 +96,18 @@ public abstract class PulsarDecoder extends ChannelInboundHandlerAdapter {
         try {
             // De-serialize the command
             int cmdSize = (int) buffer.readUnsignedInt();
+            if (isLightCommandSendSupported()
+                    && LightProtoCodec.peekCommandType(buffer, cmdSize) == BaseCommand.Type.SEND_VALUE) {
+                // Fast path for the publish requests, without materializing the generated command objects
+                lightCommandSend.parseFromBaseCommand(buffer, cmdSize);
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Received cmd {}", ctx.channel().remoteAddress(), BaseCommand.Type.SEND);
+                }
+                messageReceived();
+                handleSend(lightCommandSend, buffer.markReaderIndex());
+                return;
+            }
+
             int writerIndex = buffer.writerIndex();
             buffer.writerIndex(buffer.readerIndex() + cmdSize);
             ByteBufCodedInputStream cmdInputStream = ByteBufCodedInputStream.get(buffer);
@@ -432,6 +447,14 @@ public abstract class PulsarDecoder extends ChannelInboundHandlerAdapter {
         //No-op
     }
 
+    /**
+     * Whether the SEND commands can be passed to {@link #handleSend(LightCommandSend, ByteBuf)} instead of being
+     * decoded with the generated classes. When enabled, {@link #onCommand(BaseCommand)} is not invoked for them.
+     */
+    protected boolean isLightCommandSendSupported() {
+        return false;
+    }
+
     protected void handlePartitionMetadataRequest(CommandPartitionedTopicMetadata response) {
         throw new UnsupportedOperationException();
     }
@@ -468,6 +491,10 @@ public abstract class PulsarDecoder extends ChannelInboundHandlerAdapter {
         throw new UnsupportedOperationException();
     }
 
+    protected void handleSend(LightCommandSend send, ByteBuf headersAndPayload) {
+        throw new UnsupportedOperationException();
+    }
+
     protected void handleSendReceipt(CommandSendReceipt sendReceipt) {
         throw new UnsupportedOperationException();
     }
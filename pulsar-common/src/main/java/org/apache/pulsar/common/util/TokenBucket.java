@@ -0,0 +1,333 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A lock-free token bucket which hands out a configured number of permits per rate-period.
+ *
+ * <p>Unlike {@link RateLimiter}, permits are not released all at once at the beginning of every period by a scheduled
+ * task. The bucket refills continuously, lazily computing the refill from the elapsed time whenever it is used, and
+ * holds at most one period worth of permits. This avoids the bursts at window boundaries of a fixed-window limiter
+ * and does not need any thread or scheduled task per bucket.
+ *
+ * <p>The whole state of the bucket is a single timestamp: the time at which the bucket would have been drained of all
+ * the permits handed out so far. Acquiring permits moves that timestamp forward with a single CAS.
+ *
+ * <p>An acquisition is granted as long as at least one permit is available, even if it asks for more permits than
+ * are left, or than the bucket can hold. The bucket then goes into debt and the following acquisitions are refused
+ * until the debt has been paid back, which keeps the average rate precise.
+ *
+ * <p>A bucket may have a parent bucket, eg. a subscription bucket under a topic bucket. Permits are only granted if
+ * they can be acquired both from the bucket and from all its ancestors. The parent is looked up on every use, so that
+ * the owner of the parent bucket can replace or remove it when its rate is updated.
+ */
+public class TokenBucket {
+
+    private final Supplier<TokenBucket> parent;
+    private final LongSupplier clock;
+    private volatile Rate rate;
+    // permitUpdater helps to update permit-rate at runtime, it is polled once per rate-period
+    private volatile LongSupplier permitUpdater;
+    private final AtomicLong nextPermitUpdateNanos = new AtomicLong();
+    // time at which all the permits handed out so far have been refilled
+    private final AtomicLong drainedAtNanos;
+
+    // the end of the last recorded throttled interval, to avoid counting overlapping intervals twice
+    private final AtomicLong throttledUntilNanos;
+    private final LongAdder throttledTimeNanos = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+
+    public TokenBucket(long permits, long ratePeriod, TimeUnit unit) {
+        this(permits, ratePeriod, unit, null, null);
+    }
+
+    public TokenBucket(long permits, long ratePeriod, TimeUnit unit, Supplier<TokenBucket> parent) {
+        this(permits, ratePeriod, unit, parent, null);
+    }
+
+    public TokenBucket(long permits, long ratePeriod, TimeUnit unit, Supplier<TokenBucket> parent,
+                       LongSupplier permitUpdater) {
+        this(permits, ratePeriod, unit, parent, permitUpdater, System::nanoTime);
+    }
+
+    @VisibleForTesting
+    TokenBucket(long permits, long ratePeriod, TimeUnit unit, Supplier<TokenBucket> parent,
+                LongSupplier permitUpdater, LongSupplier clock) {
+        this.rate = new Rate(permits, ratePeriod, unit);
+        this.parent = parent;
+        this.permitUpdater = permitUpdater;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        // start with a full bucket
+        this.drainedAtNanos = new AtomicLong(now - rate.periodNanos);
+        this.throttledUntilNanos = new AtomicLong(now);
+        this.nextPermitUpdateNanos.set(now + rate.periodNanos);
+    }
+
+    /**
+     * Acquires permits from this bucket, and its ancestors, if at least one permit is available in each of them.
+     *
+     * @param acquirePermits
+     *            the number of permits to acquire
+     * @return {@code true} if the permits were acquired, {@code false} otherwise
+     */
+    public boolean tryAcquire(long acquirePermits) {
+        if (acquirePermits <= 0) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        Rate rate = currentRate(now);
+        long cost = rate.cost(acquirePermits);
+        while (true) {
+            long drainedAt = drainedAtNanos.get();
+            long base = Math.max(drainedAt, now - rate.periodNanos);
+            if (now - base < rate.nanosPerPermit) {
+                recordThrottled(now, base + (long) Math.ceil(rate.nanosPerPermit));
+                return false;
+            }
+            long next = base + cost;
+            if (drainedAtNanos.compareAndSet(drainedAt, next)) {
+                TokenBucket parent = getParent();
+                if (parent != null && !parent.tryAcquire(acquirePermits)) {
+                    // the refused acquisition must not be charged to this bucket
+                    giveBack(cost, next, rate);
+                    return false;
+                }
+                recordIfDrained(now, next, rate);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back the permits of an acquisition which moved the drained timestamp to {@code chargedUntil}.
+     *
+     * <p>Only the part of the charge which is still within the last rate-period is given back: the acquisitions made
+     * in the meantime either included the whole charge in their own, or started from a full bucket and did not
+     * include it at all, in which case there is nothing left to give back.
+     */
+    private void giveBack(long cost, long chargedUntil, Rate rate) {
+        while (true) {
+            long drainedAt = drainedAtNanos.get();
+            long refund = Math.min(cost, chargedUntil - (clock.getAsLong() - rate.periodNanos));
+            if (refund <= 0 || drainedAtNanos.compareAndSet(drainedAt, drainedAt - refund)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes permits from this bucket, and its ancestors, whether they are available or not. It is meant to account
+     * for work which has already been done, eg. messages which have already been dispatched, and can put the bucket
+     * into debt.
+     *
+     * @param permits
+     *            the number of permits to take
+     */
+    public void consume(long permits) {
+        if (permits <= 0) {
+            return;
+        }
+        long now = clock.getAsLong();
+        Rate rate = currentRate(now);
+        long cost = rate.cost(permits);
+        long next;
+        while (true) {
+            long drainedAt = drainedAtNanos.get();
+            next = Math.max(drainedAt, now - rate.periodNanos) + cost;
+            if (drainedAtNanos.compareAndSet(drainedAt, next)) {
+                break;
+            }
+        }
+        recordIfDrained(now, next, rate);
+        TokenBucket parent = getParent();
+        if (parent != null) {
+            parent.consume(permits);
+        }
+    }
+
+    /**
+     * Returns the number of permits currently available in this bucket, without looking at its ancestors.
+     *
+     * @return the available permits, 0 if the bucket is empty or in debt
+     */
+    public long getAvailablePermits() {
+        return Math.max(0, getBalance());
+    }
+
+    /**
+     * Returns the number of permits currently available in this bucket, which is negative if the bucket is in debt.
+     *
+     * @return the available permits, or the debt as a negative number
+     */
+    public long getBalance() {
+        long now = clock.getAsLong();
+        Rate rate = currentRate(now);
+        long base = Math.max(drainedAtNanos.get(), now - rate.periodNanos);
+        return (long) Math.floor((now - base) / rate.nanosPerPermit);
+    }
+
+    /**
+     * Returns how long it takes for the given number of permits to be available in this bucket, capped to the
+     * configured rate.
+     *
+     * @param permits
+     *            the number of permits
+     * @return the time in nanoseconds, 0 if the permits are already available
+     */
+    public long getNanosUntilAvailable(long permits) {
+        long now = clock.getAsLong();
+        Rate rate = currentRate(now);
+        long base = Math.max(drainedAtNanos.get(), now - rate.periodNanos);
+        long availableAt = base + rate.cost(Math.max(1, Math.min(permits, rate.permits)));
+        return Math.max(0, availableAt - now);
+    }
+
+    /**
+     * Refills the bucket, forgiving any debt.
+     */
+    public void reset() {
+        long now = clock.getAsLong();
+        drainedAtNanos.set(now - rate.periodNanos);
+    }
+
+    /**
+     * Resets new rate with new permits and rate-period. Permits acquired so far are kept, so the available permits
+     * are capped to the new rate.
+     *
+     * @param permits
+     * @param ratePeriod
+     * @param unit
+     * @param permitUpdater
+     */
+    public void setRate(long permits, long ratePeriod, TimeUnit unit, LongSupplier permitUpdater) {
+        Rate newRate = new Rate(permits, ratePeriod, unit);
+        this.rate = newRate;
+        this.permitUpdater = permitUpdater;
+        this.nextPermitUpdateNanos.set(clock.getAsLong() + newRate.periodNanos);
+    }
+
+    /**
+     * Returns configured permit rate per rate-period.
+     *
+     * @return rate
+     */
+    public long getRate() {
+        return currentRate(clock.getAsLong()).permits;
+    }
+
+    public long getRatePeriodNanos() {
+        return rate.periodNanos;
+    }
+
+    public TokenBucket getParent() {
+        return parent != null ? parent.get() : null;
+    }
+
+    /**
+     * Returns the total time during which this bucket has had less than one permit available because of
+     * acquisitions, ie. the time during which it throttled its users.
+     *
+     * @return the throttled time in nanoseconds
+     */
+    public long getThrottledTimeNanos() {
+        return throttledTimeNanos.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions which were refused or which drained the bucket.
+     *
+     * @return the number of throttling events
+     */
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    private Rate currentRate(long now) {
+        LongSupplier updater = this.permitUpdater;
+        if (updater != null) {
+            long nextUpdate = nextPermitUpdateNanos.get();
+            if (now - nextUpdate >= 0
+                    && nextPermitUpdateNanos.compareAndSet(nextUpdate, now + rate.periodNanos)) {
+                long newPermits = updater.getAsLong();
+                if (newPermits > 0 && newPermits != rate.permits) {
+                    rate = new Rate(newPermits, rate.periodNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        return rate;
+    }
+
+    private void recordIfDrained(long now, long drainedAt, Rate rate) {
+        long availableAt = drainedAt + (long) Math.ceil(rate.nanosPerPermit);
+        if (availableAt > now) {
+            recordThrottled(now, availableAt);
+        }
+    }
+
+    private void recordThrottled(long now, long until) {
+        throttledCount.increment();
+        while (true) {
+            long throttledUntil = throttledUntilNanos.get();
+            if (until <= throttledUntil) {
+                return;
+            }
+            if (throttledUntilNanos.compareAndSet(throttledUntil, until)) {
+                throttledTimeNanos.add(until - Math.max(now, throttledUntil));
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        Rate rate = this.rate;
+        return MoreObjects.toStringHelper(this).add("permits", rate.permits).add("ratePeriodNanos", rate.periodNanos)
+                .add("availablePermits", getBalance()).toString();
+    }
+
+    private static final class Rate {
+        private final long permits;
+        private final long periodNanos;
+        private final double nanosPerPermit;
+
+        Rate(long permits, long ratePeriod, TimeUnit unit) {
+            checkArgument(permits > 0, "rate must be > 0");
+            checkArgument(ratePeriod > 0, "Renew permit time must be > 0");
+            this.permits = permits;
+            this.periodNanos = unit.toNanos(ratePeriod);
+            this.nanosPerPermit = (double) periodNanos / permits;
+        }
+
+        long cost(long permits) {
+            return Math.round(permits * nanosPerPermit);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.netty;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Measures the latency of the event loops of a group, that is how long a task submitted to an event loop waits behind
+ * the IO and the other tasks of the loop before running.
+ *
+ * <p>A probe task is scheduled periodically on each event loop and records how late it runs compared to its deadline.
+ * The probes run on the event loops themselves, so no thread is added.
+ */
+public class EventLoopLatencyProbe implements AutoCloseable {
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param periodMillis
+     *            interval between two probes of the same event loop
+     * @param latencyNanosRecorder
+     *            called on the probed event loop with the latency, in nanoseconds
+     */
+    public EventLoopLatencyProbe(EventLoopGroup group, long periodMillis, LongConsumer latencyNanosRecorder) {
+        checkArgument(periodMillis > 0, "periodMillis must be positive");
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        for (EventExecutor executor : group) {
+            new Probe(executor, periodNanos, latencyNanosRecorder).schedule();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private class Probe implements Runnable {
+        private final EventExecutor executor;
+        private final long periodNanos;
+        private final LongConsumer latencyNanosRecorder;
+        private long deadlineNanos;
+
+        Probe(EventExecutor executor, long periodNanos, LongConsumer latencyNanosRecorder) {
+            this.executor = executor;
+            this.periodNanos = periodNanos;
+            this.latencyNanosRecorder = latencyNanosRecorder;
+        }
+
+        void schedule() {
+            if (closed || executor.isShuttingDown()) {
+                return;
+            }
+            deadlineNanos = System.nanoTime() + periodNanos;
+            executor.schedule(this, periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            latencyNanosRecorder.accept(Math.max(0, System.nanoTime() - deadlineNanos));
+            schedule();
+        }
+    }
+}
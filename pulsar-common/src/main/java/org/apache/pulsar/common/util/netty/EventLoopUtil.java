@@ -35,10 +35,27 @@ import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @SuppressWarnings("checkstyle:JavadocType")
 public class EventLoopUtil {
 
+    private static final Logger log = LoggerFactory.getLogger(EventLoopUtil.class);
+
+    // The io_uring transport is an optional dependency, it's used when its jar is added to the classpath
+    private static final String IO_URING_PACKAGE = "io.netty.incubator.channel.uring.";
+    private static final boolean IO_URING_AVAILABLE = isIoUringAvailable();
+
+    private static boolean isIoUringAvailable() {
+        try {
+            Class<?> ioUring = Class.forName(IO_URING_PACKAGE + "IOUring");
+            return (Boolean) ioUring.getMethod("isAvailable").invoke(null);
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
     /**
      * @return an EventLoopGroup suitable for the current platform
      */
@@ -51,6 +68,40 @@ public class EventLoopUtil {
         }
     }
 
+    /**
+     * @param enableIoUring
+     *            use the io_uring transport if it's on the classpath and supported by the kernel, otherwise fallback to
+     *            epoll and then to NIO
+     * @return an EventLoopGroup suitable for the current platform
+     */
+    public static EventLoopGroup newEventLoopGroup(int nThreads, boolean enableIoUring, ThreadFactory threadFactory) {
+        if (enableIoUring) {
+            if (IO_URING_AVAILABLE) {
+                try {
+                    return (EventLoopGroup) Class.forName(IO_URING_PACKAGE + "IOUringEventLoopGroup")
+                            .getConstructor(int.class, ThreadFactory.class).newInstance(nThreads, threadFactory);
+                } catch (ReflectiveOperationException e) {
+                    log.warn("Failed to create an io_uring event loop group, falling back to epoll", e);
+                }
+            } else {
+                log.warn("The io_uring transport is not available, falling back to epoll");
+            }
+        }
+        return newEventLoopGroup(nThreads, threadFactory);
+    }
+
+    public static boolean isIoUring(EventLoopGroup eventLoopGroup) {
+        return eventLoopGroup.getClass().getName().startsWith(IO_URING_PACKAGE);
+    }
+
+    private static <T> Class<? extends T> getIoUringChannelClass(String name, Class<T> type) {
+        try {
+            return Class.forName(IO_URING_PACKAGE + name).asSubclass(type);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("io_uring channel " + name + " is not on the classpath", e);
+        }
+    }
+
     /**
      * Return a SocketChannel class suitable for the given EventLoopGroup implementation.
      *
@@ -58,7 +109,9 @@ public class EventLoopUtil {
      * @return
      */
     public static Class<? extends SocketChannel> getClientSocketChannelClass(EventLoopGroup eventLoopGroup) {
-        if (eventLoopGroup instanceof EpollEventLoopGroup) {
+        if (isIoUring(eventLoopGroup)) {
+            return getIoUringChannelClass("IOUringSocketChannel", SocketChannel.class);
+        } else if (eventLoopGroup instanceof EpollEventLoopGroup) {
             return EpollSocketChannel.class;
         } else {
             return NioSocketChannel.class;
@@ -66,7 +119,9 @@ public class EventLoopUtil {
     }
 
     public static Class<? extends ServerSocketChannel> getServerSocketChannelClass(EventLoopGroup eventLoopGroup) {
-        if (eventLoopGroup instanceof EpollEventLoopGroup) {
+        if (isIoUring(eventLoopGroup)) {
+            return getIoUringChannelClass("IOUringServerSocketChannel", ServerSocketChannel.class);
+        } else if (eventLoopGroup instanceof EpollEventLoopGroup) {
             return EpollServerSocketChannel.class;
         } else {
             return NioServerSocketChannel.class;
@@ -74,15 +129,23 @@ public class EventLoopUtil {
     }
 
     public static Class<? extends DatagramChannel> getDatagramChannelClass(EventLoopGroup eventLoopGroup) {
-        if (eventLoopGroup instanceof EpollEventLoopGroup) {
+        if (isIoUring(eventLoopGroup)) {
+            return getIoUringChannelClass("IOUringDatagramChannel", DatagramChannel.class);
+        } else if (eventLoopGroup instanceof EpollEventLoopGroup) {
             return EpollDatagramChannel.class;
         } else {
             return NioDatagramChannel.class;
         }
     }
 
+    /**
+     * Use the level-triggered mode on the epoll channels of the bootstrap. The groups of the bootstrap must have been
+     * set, the option is only applied when the child group is an epoll one since other transports don't know it.
+     *
+     * @param bootstrap
+     */
     public static void enableTriggeredMode(ServerBootstrap bootstrap) {
-        if (Epoll.isAvailable()) {
+        if (bootstrap.config().childGroup() instanceof EpollEventLoopGroup) {
             bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
         }
     }
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.apache.pulsar.common.api.proto.PulsarApi.CompressionType;
+import org.testng.annotations.Test;
+
+public class CompressionCodecZstdDictionaryTest {
+
+    private static byte[] sample(int i) {
+        return String.format("{\"id\":%d,\"user\":\"user-%d\",\"event\":\"page_view\",\"country\":\"%s\","
+                + "\"device\":\"mobile\",\"timestamp\":%d}", i, i % 97, i % 2 == 0 ? "US" : "DE", 1600000000000L + i)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] trainDictionary() {
+        ZstdDictionaryTrainer trainer = new ZstdDictionaryTrainer(4 * 1024, 2000, 1024 * 1024);
+        boolean ready = false;
+        for (int i = 0; !ready; i++) {
+            ready = trainer.addSample(Unpooled.wrappedBuffer(sample(i)));
+        }
+        assertEquals(trainer.getSampleCount(), 2000);
+        return trainer.train();
+    }
+
+    @Test
+    public void testTrainerReadiness() {
+        ZstdDictionaryTrainer trainer = new ZstdDictionaryTrainer(1024, 3, 1024);
+        assertFalse(trainer.addSample(Unpooled.wrappedBuffer(sample(0))));
+        assertFalse(trainer.addSample(Unpooled.wrappedBuffer(sample(1))));
+        assertTrue(trainer.addSample(Unpooled.wrappedBuffer(sample(2))));
+        assertTrue(trainer.isReady());
+        assertEquals(trainer.getSampleCount(), 3);
+
+        trainer.clear();
+        assertFalse(trainer.isReady());
+        assertEquals(trainer.getSampleCount(), 0);
+
+        // The byte budget alone makes the trainer ready
+        trainer = new ZstdDictionaryTrainer(1024, 1000, 100);
+        ByteBuf payload = Unpooled.wrappedBuffer(new byte[150]);
+        assertTrue(trainer.addSample(payload));
+        assertEquals(trainer.getSampleCount(), 1);
+        assertEquals(payload.readableBytes(), 150);
+    }
+
+    @Test
+    public void testTrainWithoutEnoughSamples() {
+        ZstdDictionaryTrainer trainer = new ZstdDictionaryTrainer(1024, 1, 1024);
+        trainer.addSample(Unpooled.wrappedBuffer(sample(0)));
+        try {
+            trainer.train();
+            fail("Should have failed to train a dictionary out of a single sample");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCompressDecompress() throws IOException {
+        byte[] dictionary = trainDictionary();
+        CompressionCodecZstdDictionary codec = new CompressionCodecZstdDictionary(7, dictionary);
+        assertEquals(codec.getDictionaryId(), 7);
+
+        byte[] data = sample(123456);
+        ByteBuf heap = Unpooled.wrappedBuffer(data);
+        ByteBuf direct = PulsarByteBufAllocator.DEFAULT.directBuffer();
+        direct.writeBytes(data);
+
+        for (ByteBuf raw : new ByteBuf[] { heap, direct }) {
+            ByteBuf compressed = codec.encode(raw);
+            assertEquals(raw.readableBytes(), data.length);
+
+            ByteBuf uncompressed = new CompressionCodecZstdDictionary(7, dictionary).decode(compressed, data.length);
+            assertEquals(uncompressed, raw);
+
+            compressed.release();
+            uncompressed.release();
+        }
+        direct.release();
+    }
+
+    @Test
+    public void testDictionaryImprovesRatioOnSmallMessages() {
+        CompressionCodec plain = CompressionCodecProvider.getCompressionCodec(CompressionType.ZSTD);
+        CompressionCodec codec = new CompressionCodecZstdDictionary(1, trainDictionary());
+
+        ByteBuf raw = Unpooled.wrappedBuffer(sample(98765));
+        ByteBuf plainCompressed = plain.encode(raw);
+        ByteBuf dictionaryCompressed = codec.encode(raw);
+        assertTrue(dictionaryCompressed.readableBytes() < plainCompressed.readableBytes());
+
+        plainCompressed.release();
+        dictionaryCompressed.release();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testDecompressWithWrongDictionary() throws IOException {
+        byte[] dictionary = trainDictionary();
+        CompressionCodec codec = new CompressionCodecZstdDictionary(1, dictionary);
+        CompressionCodec other = new CompressionCodecZstdDictionary(2, new byte[dictionary.length]);
+
+        byte[] data = sample(42);
+        ByteBuf compressed = codec.encode(Unpooled.wrappedBuffer(data));
+        other.decode(compressed, data.length);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.apache.pulsar.common.api.proto.PulsarApi.KeyValue;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.api.proto.PulsarMarkers.MarkerType;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.testng.annotations.Test;
+
+public class LightMessageMetadataTest {
+
+    private static ByteBuf serialize(MessageMetadata.Builder builder, ChecksumType checksumType) {
+        MessageMetadata metadata = builder.build();
+        ByteBuf buffer = Commands.serializeMetadataAndPayload(checksumType, metadata,
+                Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 }));
+        metadata.recycle();
+        builder.recycle();
+        return buffer;
+    }
+
+    private static MessageMetadata.Builder newMetadata() {
+        return MessageMetadata.newBuilder()
+                .setProducerName("producer")
+                .setSequenceId(10)
+                .setPublishTime(1000)
+                .addProperties(KeyValue.newBuilder().setKey("key").setValue("value").build())
+                .setPartitionKey("partition-key");
+    }
+
+    @Test
+    public void testDefaults() {
+        for (ChecksumType checksumType : ChecksumType.values()) {
+            ByteBuf buffer = serialize(newMetadata(), checksumType);
+            int readerIndex = buffer.readerIndex();
+
+            LightMessageMetadata metadata = new LightMessageMetadata().parseFrom(buffer);
+            assertEquals(buffer.readerIndex(), readerIndex);
+            assertEquals(metadata.getNumMessagesInBatch(), 1);
+            assertFalse(metadata.hasDeliverAtTime());
+            assertFalse(metadata.hasMarkerType());
+            assertFalse(metadata.hasChunkId());
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testDispatchFields() {
+        ByteBuf buffer = serialize(newMetadata()
+                .setNumMessagesInBatch(20)
+                .setDeliverAtTime(123456789L)
+                .setMarkerType(MarkerType.TXN_COMMIT_VALUE)
+                .setTxnidLeastBits(5)
+                .setTxnidMostBits(Long.MAX_VALUE)
+                .setChunkId(0)
+                .setCompressionDictionaryId(7), ChecksumType.Crc32c);
+
+        LightMessageMetadata metadata = new LightMessageMetadata().parseFrom(buffer);
+        assertEquals(metadata.getNumMessagesInBatch(), 20);
+        assertTrue(metadata.hasDeliverAtTime());
+        assertEquals(metadata.getDeliverAtTime(), 123456789L);
+        assertTrue(metadata.hasMarkerType());
+        assertEquals(metadata.getMarkerType(), MarkerType.TXN_COMMIT_VALUE);
+        assertEquals(metadata.getTxnidLeastBits(), 5);
+        assertEquals(metadata.getTxnidMostBits(), Long.MAX_VALUE);
+        assertTrue(metadata.hasChunkId());
+
+        // Reusing the instance resets the fields
+        ByteBuf other = serialize(newMetadata(), ChecksumType.None);
+        metadata.parseFrom(other);
+        assertEquals(metadata.getNumMessagesInBatch(), 1);
+        assertFalse(metadata.hasMarkerType());
+
+        buffer.release();
+        other.release();
+    }
+
+    @Test
+    public void testMalformedMetadata() {
+        ByteBuf buffer = serialize(newMetadata(), ChecksumType.None);
+        // Cut the buffer in the middle of the metadata
+        ByteBuf truncated = buffer.slice(buffer.readerIndex(), 10);
+        try {
+            new LightMessageMetadata().parseFrom(truncated);
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(truncated.readerIndex(), 0);
+        buffer.release();
+
+        // Required fields are missing
+        ByteBuf empty = Unpooled.buffer();
+        empty.writeInt(0);
+        try {
+            new LightMessageMetadata().parseFrom(empty);
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import org.apache.pulsar.common.api.proto.PulsarApi.BaseCommand;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandMessage;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandSend;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.apache.pulsar.common.util.SafeCollectionUtils;
+import org.apache.pulsar.common.util.protobuf.ByteBufCodedInputStream;
+import org.apache.pulsar.common.util.protobuf.ByteBufCodedOutputStream;
+import org.testng.annotations.Test;
+
+public class LightProtoCodecTest {
+
+    private static BaseCommand parseBaseCommand(ByteBuf headers) throws Exception {
+        headers.skipBytes(4); // total size
+        int cmdSize = (int) headers.readUnsignedInt();
+        int writerIndex = headers.writerIndex();
+        headers.writerIndex(headers.readerIndex() + cmdSize);
+        ByteBufCodedInputStream inputStream = ByteBufCodedInputStream.get(headers);
+        BaseCommand.Builder builder = BaseCommand.newBuilder();
+        BaseCommand cmd = builder.mergeFrom(inputStream, null).build();
+        inputStream.recycle();
+        builder.recycle();
+        headers.writerIndex(writerIndex);
+        return cmd;
+    }
+
+    @Test
+    public void testNewSend() throws Exception {
+        MessageMetadata metadata = MessageMetadata.newBuilder()
+                .setProducerName("producer")
+                .setSequenceId(10)
+                .setPublishTime(1000)
+                .build();
+        ByteBuf payload = Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 });
+
+        ByteBufPair pair = Commands.newSend(1, 10, 15, 5, 3, 4, ChecksumType.Crc32c, metadata, payload);
+        ByteBuf headers = pair.getFirst();
+        assertEquals(headers.getInt(0), pair.readableBytes() - 4);
+
+        BaseCommand cmd = parseBaseCommand(headers);
+        assertEquals(cmd.getType(), BaseCommand.Type.SEND);
+        CommandSend send = cmd.getSend();
+        assertEquals(send.getProducerId(), 1);
+        assertEquals(send.getSequenceId(), 10);
+        assertEquals(send.getHighestSequenceId(), 15);
+        assertEquals(send.getNumMessages(), 5);
+        assertEquals(send.getTxnidLeastBits(), 3);
+        assertEquals(send.getTxnidMostBits(), 4);
+        assertFalse(send.hasIsChunk());
+
+        // The metadata and the checksum follow the command
+        assertTrue(Commands.hasChecksum(headers));
+        Commands.readChecksum(headers);
+        MessageMetadata parsedMetadata = Commands.parseMessageMetadata(headers);
+        assertEquals(parsedMetadata.getProducerName(), "producer");
+        assertEquals(parsedMetadata.getSequenceId(), 10);
+
+        send.recycle();
+        cmd.recycle();
+        parsedMetadata.recycle();
+        metadata.recycle();
+        pair.release();
+    }
+
+    @Test
+    public void testParseGeneratedSend() throws Exception {
+        CommandSend.Builder sendBuilder = CommandSend.newBuilder()
+                .setProducerId(Long.MAX_VALUE)
+                .setSequenceId(0)
+                .setNumMessages(-1)
+                .setTxnidLeastBits(1)
+                .setTxnidMostBits(2)
+                .setHighestSequenceId(3)
+                .setIsChunk(true);
+        ByteBuf buf = Commands.serializeWithSize(BaseCommand.newBuilder()
+                .setType(BaseCommand.Type.SEND)
+                .setSend(sendBuilder));
+        buf.skipBytes(4);
+        int cmdSize = (int) buf.readUnsignedInt();
+
+        assertEquals(LightProtoCodec.peekCommandType(buf, cmdSize), BaseCommand.Type.SEND_VALUE);
+        LightCommandSend send = new LightCommandSend().parseFromBaseCommand(buf, cmdSize);
+        assertEquals(buf.readableBytes(), 0);
+        assertEquals(send.getProducerId(), Long.MAX_VALUE);
+        assertEquals(send.getSequenceId(), 0);
+        assertEquals(send.getNumMessages(), -1);
+        assertEquals(send.getTxnidLeastBits(), 1);
+        assertEquals(send.getTxnidMostBits(), 2);
+        assertTrue(send.hasHighestSequenceId());
+        assertEquals(send.getHighestSequenceId(), 3);
+        assertTrue(send.getIsChunk());
+
+        // Defaults of the optional fields
+        buf.release();
+        buf = Commands.serializeWithSize(BaseCommand.newBuilder()
+                .setType(BaseCommand.Type.SEND)
+                .setSend(CommandSend.newBuilder().setProducerId(1).setSequenceId(2)));
+        buf.skipBytes(4);
+        cmdSize = (int) buf.readUnsignedInt();
+        send.parseFromBaseCommand(buf, cmdSize);
+        assertEquals(send.getNumMessages(), 1);
+        assertFalse(send.hasHighestSequenceId());
+        assertFalse(send.hasTxnidLeastBits());
+        assertFalse(send.getIsChunk());
+        buf.release();
+    }
+
+    @Test
+    public void testNewMessage() throws Exception {
+        long[] ackSet = new long[] { -1L, 3L, 1L << 40 };
+        ByteBuf metadataAndPayload = Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 });
+
+        ByteBufPair pair = Commands.newMessage(7, 1000, 2000, 3, 4, 5, metadataAndPayload, ackSet);
+        ByteBuf headers = pair.getFirst();
+        assertEquals(headers.getInt(0), pair.readableBytes() - 4);
+
+        // Same bytes as the generated classes
+        MessageIdData.Builder messageIdBuilder = MessageIdData.newBuilder()
+                .setLedgerId(1000)
+                .setEntryId(2000)
+                .setPartition(3)
+                .setBatchIndex(4);
+        CommandMessage.Builder messageBuilder = CommandMessage.newBuilder()
+                .setConsumerId(7)
+                .setMessageId(messageIdBuilder)
+                .setRedeliveryCount(5)
+                .addAllAckSet(SafeCollectionUtils.longArrayToList(ackSet));
+        BaseCommand expectedCmd = BaseCommand.newBuilder()
+                .setType(BaseCommand.Type.MESSAGE)
+                .setMessage(messageBuilder)
+                .build();
+        ByteBuf expected = Unpooled.buffer();
+        ByteBufCodedOutputStream outputStream = ByteBufCodedOutputStream.get(expected);
+        expectedCmd.writeTo(outputStream);
+        outputStream.recycle();
+
+        assertEquals(headers.getInt(4), expected.readableBytes());
+        assertEquals(ByteBufUtil.getBytes(headers, 8, headers.readableBytes() - 8), ByteBufUtil.getBytes(expected));
+
+        BaseCommand cmd = parseBaseCommand(headers);
+        CommandMessage message = cmd.getMessage();
+        assertEquals(message.getConsumerId(), 7);
+        assertEquals(message.getMessageId().getLedgerId(), 1000);
+        assertEquals(message.getMessageId().getEntryId(), 2000);
+        assertEquals(message.getMessageId().getPartition(), 3);
+        assertEquals(message.getMessageId().getBatchIndex(), 4);
+        assertEquals(message.getRedeliveryCount(), 5);
+        assertEquals(SafeCollectionUtils.longListToArray(message.getAckSetList()), ackSet);
+        message.getMessageId().recycle();
+        message.recycle();
+        cmd.recycle();
+        expectedCmd.recycle();
+        pair.release();
+    }
+
+    @Test
+    public void testNewMessageDefaults() throws Exception {
+        ByteBufPair pair = Commands.newMessage(1, 2, 3, -1, -1, 0, Unpooled.EMPTY_BUFFER, null);
+        BaseCommand cmd = parseBaseCommand(pair.getFirst());
+        CommandMessage message = cmd.getMessage();
+        assertEquals(message.getMessageId().getPartition(), -1);
+        assertEquals(message.getMessageId().getBatchIndex(), -1);
+        assertFalse(message.hasRedeliveryCount());
+        assertEquals(message.getAckSetCount(), 0);
+        message.getMessageId().recycle();
+        message.recycle();
+        cmd.recycle();
+        pair.release();
+    }
+
+    @Test
+    public void testVarInt() {
+        ByteBuf buf = Unpooled.buffer();
+        int[] ints = new int[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+        for (int value : ints) {
+            buf.clear();
+            LightProtoCodec.writeSignedVarInt(buf, value);
+            assertEquals(buf.readableBytes(), LightProtoCodec.computeSignedVarIntSize(value));
+            assertEquals(LightProtoCodec.readVarInt(buf), value);
+            assertEquals(buf.readableBytes(), 0);
+        }
+
+        long[] longs = new long[] { 0, 1, 1L << 35, Long.MAX_VALUE, -1L, Long.MIN_VALUE };
+        for (long value : longs) {
+            buf.clear();
+            LightProtoCodec.writeVarInt64(buf, value);
+            assertEquals(buf.readableBytes(), LightProtoCodec.computeVarInt64Size(value));
+            assertEquals(LightProtoCodec.readVarInt64(buf), value);
+        }
+    }
+}
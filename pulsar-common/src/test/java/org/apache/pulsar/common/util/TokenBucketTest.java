@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+public class TokenBucketTest {
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    private TokenBucket newBucket(long permits, TokenBucket parent) {
+        return new TokenBucket(permits, 1, TimeUnit.SECONDS, parent != null ? () -> parent : null, null, clock::get);
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void testInvalidRate() {
+        try {
+            new TokenBucket(0, 1, TimeUnit.SECONDS);
+            fail("should have thrown exception: invalid rate, must be > 0");
+        } catch (IllegalArgumentException ie) {
+            // Ok
+        }
+        try {
+            new TokenBucket(10, 0, TimeUnit.SECONDS);
+            fail("should have thrown exception: invalid rate period, must be > 0");
+        } catch (IllegalArgumentException ie) {
+            // Ok
+        }
+    }
+
+    @Test
+    public void testRefillsContinuously() {
+        TokenBucket bucket = newBucket(10, null);
+        assertEquals(bucket.getAvailablePermits(), 10);
+        assertTrue(bucket.tryAcquire(10));
+        assertEquals(bucket.getAvailablePermits(), 0);
+        assertFalse(bucket.tryAcquire(1));
+
+        // one permit every 100ms instead of all of them at the end of the period
+        advance(100);
+        assertEquals(bucket.getAvailablePermits(), 1);
+        assertTrue(bucket.tryAcquire(1));
+        assertFalse(bucket.tryAcquire(1));
+
+        // never holds more than one period worth of permits
+        advance(5000);
+        assertEquals(bucket.getAvailablePermits(), 10);
+    }
+
+    @Test
+    public void testAcquireGoesIntoDebt() {
+        TokenBucket bucket = newBucket(10, null);
+        assertTrue(bucket.tryAcquire(5));
+        // granted as long as one permit is left, like RateLimiter
+        assertTrue(bucket.tryAcquire(8));
+        assertEquals(bucket.getBalance(), -3);
+        assertEquals(bucket.getAvailablePermits(), 0);
+
+        // the debt is paid back before permits are handed out again
+        advance(300);
+        assertFalse(bucket.tryAcquire(1));
+        assertEquals(bucket.getNanosUntilAvailable(1), TimeUnit.MILLISECONDS.toNanos(100));
+        advance(100);
+        assertTrue(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testAcquireMoreThanRate() {
+        TokenBucket bucket = newBucket(10, null);
+        // granted as long as one permit is left, the debt spans more than one period
+        assertTrue(bucket.tryAcquire(25));
+        assertEquals(bucket.getBalance(), -15);
+        assertFalse(bucket.tryAcquire(1));
+        advance(1500);
+        assertFalse(bucket.tryAcquire(1));
+        advance(100);
+        assertTrue(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testConsume() {
+        TokenBucket bucket = newBucket(10, null);
+        bucket.consume(25);
+        assertEquals(bucket.getBalance(), -15);
+        advance(1500);
+        assertEquals(bucket.getBalance(), 0);
+        advance(100);
+        assertEquals(bucket.getBalance(), 1);
+
+        bucket.consume(5);
+        bucket.reset();
+        assertEquals(bucket.getBalance(), 10);
+    }
+
+    @Test
+    public void testParent() {
+        TokenBucket broker = newBucket(10, null);
+        TokenBucket topic1 = newBucket(8, broker);
+        TokenBucket topic2 = newBucket(8, broker);
+
+        assertTrue(topic1.tryAcquire(8));
+        assertEquals(broker.getAvailablePermits(), 2);
+        assertTrue(topic2.tryAcquire(2));
+        assertFalse(topic2.tryAcquire(1));
+        // refused by the parent, so the permit is given back to the child
+        assertEquals(topic2.getAvailablePermits(), 6);
+
+        topic2.consume(4);
+        assertEquals(broker.getBalance(), -4);
+    }
+
+    @Test
+    public void testParentIsLookedUpOnEveryUse() {
+        AtomicReference<TokenBucket> topic = new AtomicReference<>();
+        TokenBucket subscription = new TokenBucket(10, 1, TimeUnit.SECONDS, topic::get, null, clock::get);
+        assertTrue(subscription.tryAcquire(5));
+
+        // a parent set up later applies to the following acquisitions
+        topic.set(newBucket(2, null));
+        assertTrue(subscription.tryAcquire(2));
+        assertFalse(subscription.tryAcquire(1));
+        assertEquals(subscription.getAvailablePermits(), 3);
+
+        // and stops applying once it is removed
+        topic.set(null);
+        assertTrue(subscription.tryAcquire(3));
+    }
+
+    @Test
+    public void testRefusedByParentIsNotCharged() {
+        TokenBucket topic = newBucket(1, null);
+        TokenBucket subscription = newBucket(10, topic);
+        assertTrue(topic.tryAcquire(1));
+        assertFalse(subscription.tryAcquire(4));
+        // the refused acquisition is not charged to the subscription
+        assertEquals(subscription.getAvailablePermits(), 10);
+    }
+
+    @Test
+    public void testSetRateAndPermitUpdater() {
+        AtomicLong updatedRate = new AtomicLong(20);
+        TokenBucket bucket = new TokenBucket(10, 1, TimeUnit.SECONDS, null, null, clock::get);
+        bucket.setRate(10, 1, TimeUnit.SECONDS, updatedRate::get);
+        assertEquals(bucket.getRate(), 10);
+
+        // the permit updater is polled once per rate period
+        advance(1000);
+        assertEquals(bucket.getRate(), 20);
+        updatedRate.set(30);
+        advance(500);
+        assertEquals(bucket.getRate(), 20);
+        advance(500);
+        assertEquals(bucket.getRate(), 30);
+
+        // non positive rates are ignored
+        updatedRate.set(0);
+        advance(1000);
+        assertEquals(bucket.getRate(), 30);
+    }
+
+    @Test
+    public void testThrottledTime() {
+        TokenBucket bucket = newBucket(10, null);
+        assertTrue(bucket.tryAcquire(9));
+        assertEquals(bucket.getThrottledTimeNanos(), 0);
+
+        // drains the bucket: throttled until the next permit is refilled
+        assertTrue(bucket.tryAcquire(1));
+        assertEquals(bucket.getThrottledTimeNanos(), TimeUnit.MILLISECONDS.toNanos(100));
+        // refused acquisitions within the same interval are not counted twice
+        advance(50);
+        assertFalse(bucket.tryAcquire(1));
+        assertEquals(bucket.getThrottledTimeNanos(), TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(bucket.getThrottledCount(), 2);
+    }
+
+    @Test
+    public void testConcurrentAcquire() throws Exception {
+        TokenBucket bucket = newBucket(1000, null);
+        int threads = 8;
+        AtomicLong acquired = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 500; j++) {
+                    if (bucket.tryAcquire(1)) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // the clock does not move, so exactly the content of the bucket is handed out
+        assertEquals(acquired.get(), 1000);
+        assertEquals(bucket.getAvailablePermits(), 0);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.netty;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class EventLoopUtilTest {
+
+    @Test
+    public void testIoUringFallback() {
+        // The io_uring transport is not on the test classpath
+        EventLoopGroup defaultGroup = EventLoopUtil.newEventLoopGroup(1, new DefaultThreadFactory("test-default"));
+        EventLoopGroup group = EventLoopUtil.newEventLoopGroup(1, true, new DefaultThreadFactory("test-io-uring"));
+        try {
+            assertFalse(EventLoopUtil.isIoUring(group));
+            assertEquals(group.getClass(), defaultGroup.getClass());
+            assertEquals(EventLoopUtil.getServerSocketChannelClass(group),
+                    EventLoopUtil.getServerSocketChannelClass(defaultGroup));
+            assertEquals(EventLoopUtil.getClientSocketChannelClass(group),
+                    EventLoopUtil.getClientSocketChannelClass(defaultGroup));
+        } finally {
+            group.shutdownGracefully();
+            defaultGroup.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testTriggeredModeOnlyForEpoll() {
+        EventLoopGroup group = new NioEventLoopGroup(1, new DefaultThreadFactory("test-triggered-mode"));
+        try {
+            ServerBootstrap bootstrap = new ServerBootstrap().group(group, group);
+            EventLoopUtil.enableTriggeredMode(bootstrap);
+            assertFalse(bootstrap.config().childOptions().containsKey(EpollChannelOption.EPOLL_MODE));
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testEventLoopLatencyProbe() throws Exception {
+        EventLoopGroup group = new NioEventLoopGroup(1, new DefaultThreadFactory("test-probe"));
+        CountDownLatch probed = new CountDownLatch(3);
+        AtomicLong maxLatencyNanos = new AtomicLong();
+        EventLoopLatencyProbe probe = new EventLoopLatencyProbe(group, 10, latency -> {
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            probed.countDown();
+        });
+        try {
+            assertTrue(probed.await(10, TimeUnit.SECONDS));
+
+            // A task blocking the event loop delays the next probe
+            group.execute(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (maxLatencyNanos.get() < TimeUnit.MILLISECONDS.toNanos(100) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(maxLatencyNanos.get() >= TimeUnit.MILLISECONDS.toNanos(100));
+        } finally {
+            probe.close();
+            group.shutdownGracefully();
+        }
+    }
+}
@@ -181,6 +181,21 @@ public class ProxyConfiguration implements PulsarConfiguration {
     )
     private String statusFilePath;
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Use the io_uring Netty transport for the proxy IO threads."
+            + " It requires the netty-incubator-transport-native-io_uring jar in the classpath and a kernel"
+            + " supporting io_uring, otherwise the proxy falls back to epoll, and then to NIO."
+    )
+    private boolean nettyIoUringEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Interval in milliseconds between two probes of the latency of each Netty IO thread, exposed as the"
+            + " pulsar_proxy_event_loop_latency_ms metric. Use 0 to disable the probes."
+    )
+    private long eventLoopLatencyProbeIntervalMs = 1000;
+
     @FieldContext(
         category = CATEGORY_AUTHORIZATION,
         doc = "A list of role names (a comma-separated list of strings) that are treated as"
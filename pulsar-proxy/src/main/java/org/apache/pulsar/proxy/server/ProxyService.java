@@ -29,6 +29,7 @@ import io.netty.channel.EventLoopGroup;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.Summary;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -53,6 +54,7 @@ import org.apache.pulsar.broker.authorization.AuthorizationService;
 import org.apache.pulsar.broker.cache.ConfigurationCacheService;
 import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
 import org.apache.pulsar.common.configuration.PulsarConfigurationLoader;
+import org.apache.pulsar.common.util.netty.EventLoopLatencyProbe;
 import org.apache.pulsar.common.util.netty.EventLoopUtil;
 import org.apache.pulsar.proxy.stats.TopicStats;
 import org.apache.pulsar.zookeeper.ZooKeeperClientFactory;
@@ -115,6 +117,18 @@ public class ProxyService implements Closeable {
     static final Counter bytesCounter = Counter
             .build("pulsar_proxy_binary_bytes", "Counter of proxy bytes").create().register();
 
+    static final Summary eventLoopLatency = Summary
+            .build("pulsar_proxy_event_loop_latency_ms", "Delay of the tasks run by the proxy IO threads")
+            .quantile(0.50, 0.01)
+            .quantile(0.95, 0.005)
+            .quantile(0.99, 0.001)
+            .quantile(0.999, 0.0001)
+            .quantile(1.0, 0.0)
+            .create()
+            .register();
+
+    private final EventLoopLatencyProbe eventLoopLatencyProbe;
+
     @Getter
     private final Set<ProxyConnection> clientCnxs;
     @Getter
@@ -135,8 +149,14 @@ public class ProxyService implements Closeable {
         } else {
             proxyLogLevel = 0;
         }
-        this.acceptorGroup = EventLoopUtil.newEventLoopGroup(1, acceptorThreadFactory);
-        this.workerGroup = EventLoopUtil.newEventLoopGroup(numThreads, workersThreadFactory);
+        this.acceptorGroup = EventLoopUtil.newEventLoopGroup(1, proxyConfig.isNettyIoUringEnabled(),
+                acceptorThreadFactory);
+        this.workerGroup = EventLoopUtil.newEventLoopGroup(numThreads, proxyConfig.isNettyIoUringEnabled(),
+                workersThreadFactory);
+        this.eventLoopLatencyProbe = proxyConfig.getEventLoopLatencyProbeIntervalMs() > 0
+                ? new EventLoopLatencyProbe(workerGroup, proxyConfig.getEventLoopLatencyProbeIntervalMs(),
+                        latency -> eventLoopLatency.observe(latency / (double) TimeUnit.MILLISECONDS.toNanos(1)))
+                : null;
         this.authenticationService = authenticationService;
 
         statsExecutor = Executors
@@ -234,6 +254,9 @@ public class ProxyService implements Closeable {
         if (statsExecutor != null) {
             statsExecutor.shutdown();
         }
+        if (eventLoopLatencyProbe != null) {
+            eventLoopLatencyProbe.close();
+        }
         acceptorGroup.shutdownGracefully();
         workerGroup.shutdownGracefully();
     }
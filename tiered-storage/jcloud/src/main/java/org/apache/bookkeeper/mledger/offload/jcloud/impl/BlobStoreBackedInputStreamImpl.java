@@ -40,14 +40,29 @@ public class BlobStoreBackedInputStreamImpl extends BackedInputStream {
     private final ByteBuf buffer;
     private final long objectLen;
     private final int bufferSize;
+    // with a read cache, the buffer is refilled with chunks of the buffer size, aligned on the buffer size
+    private final OffloadReadCache cache;
+    private final int prefetchChunks;
 
     private long cursor;
     private long bufferOffsetStart;
     private long bufferOffsetEnd;
+    private long lastChunk = -1;
 
     public BlobStoreBackedInputStreamImpl(BlobStore blobStore, String bucket, String key,
                                           VersionCheck versionCheck,
                                           long objectLen, int bufferSize) {
+        this(blobStore, bucket, key, versionCheck, objectLen, bufferSize, null, 0);
+    }
+
+    /**
+     * @param cache the read cache shared by the read handles of the offloader, or null
+     * @param prefetchChunks the number of chunks prefetched into the cache after each chunk read sequentially
+     */
+    BlobStoreBackedInputStreamImpl(BlobStore blobStore, String bucket, String key,
+                                   VersionCheck versionCheck,
+                                   long objectLen, int bufferSize,
+                                   OffloadReadCache cache, int prefetchChunks) {
         this.blobStore = blobStore;
         this.bucket = bucket;
         this.key = key;
@@ -55,6 +70,8 @@ public class BlobStoreBackedInputStreamImpl extends BackedInputStream {
         this.buffer = PulsarByteBufAllocator.DEFAULT.buffer(bufferSize, bufferSize);
         this.objectLen = objectLen;
         this.bufferSize = bufferSize;
+        this.cache = cache;
+        this.prefetchChunks = prefetchChunks;
         this.cursor = 0;
         this.bufferOffsetStart = this.bufferOffsetEnd = -1;
     }
@@ -68,30 +85,80 @@ public class BlobStoreBackedInputStreamImpl extends BackedInputStream {
             if (cursor >= objectLen) {
                 return false;
             }
+            if (cache != null) {
+                refillBufferFromCache();
+                return true;
+            }
             long startRange = cursor;
             long endRange = Math.min(cursor + bufferSize - 1,
                                      objectLen - 1);
 
-            try {
-                Blob blob = blobStore.getBlob(bucket, key, new GetOptions().range(startRange, endRange));
-                versionCheck.check(key, blob);
-
-                try (InputStream stream = blob.getPayload().openStream()) {
-                    buffer.clear();
-                    bufferOffsetStart = startRange;
-                    bufferOffsetEnd = endRange;
-                    long bytesRead = endRange - startRange + 1;
-                    int bytesToCopy = (int) bytesRead;
-                    while (bytesToCopy > 0) {
-                        bytesToCopy -= buffer.writeBytes(stream, bytesToCopy);
+            buffer.clear();
+            readRange(startRange, endRange, buffer);
+            bufferOffsetStart = startRange;
+            bufferOffsetEnd = endRange;
+            cursor += buffer.readableBytes();
+        }
+        return true;
+    }
+
+    /**
+     * Refill the buffer with the chunk containing the cursor, from the read cache if it is cached.
+     */
+    private void refillBufferFromCache() throws IOException {
+        long chunk = cursor / bufferSize;
+        long startRange = chunk * bufferSize;
+        long endRange = Math.min(startRange + bufferSize - 1, objectLen - 1);
+        int chunkLength = (int) (endRange - startRange + 1);
+
+        buffer.clear();
+        if (!cache.read(key, chunk, buffer) || buffer.readableBytes() != chunkLength) {
+            buffer.clear();
+            readRange(startRange, endRange, buffer);
+            cache.write(key, chunk, buffer);
+        }
+        bufferOffsetStart = startRange;
+        bufferOffsetEnd = endRange;
+        buffer.readerIndex((int) (cursor - startRange));
+        cursor = endRange + 1;
+
+        if (prefetchChunks > 0 && lastChunk >= 0 && chunk == lastChunk + 1) {
+            // read sequentially, fetch the next chunks before they are read
+            long lastChunkOfObject = (objectLen - 1) / bufferSize;
+            for (long next = chunk + 1; next <= Math.min(chunk + prefetchChunks, lastChunkOfObject); next++) {
+                long nextStartRange = next * bufferSize;
+                long nextEndRange = Math.min(nextStartRange + bufferSize - 1, objectLen - 1);
+                cache.prefetch(key, next, () -> {
+                    int length = (int) (nextEndRange - nextStartRange + 1);
+                    ByteBuf data = PulsarByteBufAllocator.DEFAULT.buffer(length, length);
+                    try {
+                        readRange(nextStartRange, nextEndRange, data);
+                        return data;
+                    } catch (IOException e) {
+                        data.release();
+                        throw e;
                     }
-                    cursor += buffer.readableBytes();
+                });
+            }
+        }
+        lastChunk = chunk;
+    }
+
+    private void readRange(long startRange, long endRange, ByteBuf dst) throws IOException {
+        try {
+            Blob blob = blobStore.getBlob(bucket, key, new GetOptions().range(startRange, endRange));
+            versionCheck.check(key, blob);
+
+            try (InputStream stream = blob.getPayload().openStream()) {
+                long bytesRead = endRange - startRange + 1;
+                int bytesToCopy = (int) bytesRead;
+                while (bytesToCopy > 0) {
+                    bytesToCopy -= dst.writeBytes(stream, bytesToCopy);
                 }
-            } catch (Throwable e) {
-                throw new IOException("Error reading from BlobStore", e);
             }
+        } catch (Throwable e) {
+            throw new IOException("Error reading from BlobStore", e);
         }
-        return true;
     }
 
     @Override
@@ -192,6 +192,15 @@ public class BlobStoreBackedReadHandleImpl implements ReadHandle {
                                   VersionCheck versionCheck,
                                   long ledgerId, int readBufferSize)
             throws IOException {
+        return open(executor, blobStore, bucket, key, indexKey, versionCheck, ledgerId, readBufferSize, null, 0);
+    }
+
+    static ReadHandle open(ScheduledExecutorService executor,
+                           BlobStore blobStore, String bucket, String key, String indexKey,
+                           VersionCheck versionCheck,
+                           long ledgerId, int readBufferSize,
+                           OffloadReadCache readCache, int readCachePrefetchChunks)
+            throws IOException {
         Blob blob = blobStore.getBlob(bucket, indexKey);
         versionCheck.check(indexKey, blob);
         OffloadIndexBlockBuilder indexBuilder = OffloadIndexBlockBuilder.create();
@@ -200,7 +209,9 @@ public class BlobStoreBackedReadHandleImpl implements ReadHandle {
         BackedInputStream inputStream = new BlobStoreBackedInputStreamImpl(blobStore, bucket, key,
             versionCheck,
             index.getDataObjectLength(),
-            readBufferSize);
+            readBufferSize,
+            readCache,
+            readCachePrefetchChunks);
         return new BlobStoreBackedReadHandleImpl(ledgerId, index, inputStream, executor);
     }
 }
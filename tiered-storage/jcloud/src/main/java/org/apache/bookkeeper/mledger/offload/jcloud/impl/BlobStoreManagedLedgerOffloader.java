@@ -28,8 +28,12 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Summary;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
@@ -39,6 +43,9 @@ import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import lombok.Data;
 import org.apache.bookkeeper.client.api.ReadHandle;
 import org.apache.bookkeeper.common.util.OrderedScheduler;
@@ -89,6 +96,14 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
     static final String METADATA_FORMAT_VERSION_KEY = "S3ManagedLedgerOffloaderFormatVersion";
     static final String CURRENT_VERSION = String.valueOf(1);
 
+    private static final Counter OFFLOADED_BYTES = Counter
+            .build("pulsar_offload_bytes", "Bytes of data blocks offloaded to the blob store")
+            .register();
+    private static final Summary OFFLOAD_THROUGHPUT = Summary
+            .build("pulsar_offload_throughput_bytes_per_second",
+                    "Throughput of the data block upload of each offloaded ledger")
+            .register();
+
     public static boolean driverSupported(String driver) {
         return Arrays.stream(DRIVER_NAMES).anyMatch(d -> d.equalsIgnoreCase(driver));
     }
@@ -184,6 +199,16 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
 
     private static OffloadPolicies offloadPolicies;
 
+    // offloads upload the data blocks sequentially, unless more than one concurrent upload is allowed
+    private int maxConcurrentUploads = 1;
+    private int readAheadRounds = 1;
+    private long pipelineMaxMemoryInBytes = OffloadPolicies.DEFAULT_OFFLOAD_MAX_PIPELINE_MEMORY_IN_BYTES;
+    private ExecutorService uploadExecutor;
+
+    // the read handles fetch the data objects from the blob store, unless a local read cache is configured
+    private OffloadReadCache readCache;
+    private int readCachePrefetchChunks = 0;
+
     @VisibleForTesting
     static BlobStoreManagedLedgerOffloader create(OffloadPolicies conf,
                                                   OrderedScheduler scheduler) throws IOException {
@@ -233,7 +258,50 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
         Supplier<Credentials> credentials = getCredentials(driver, conf);
 
         return new BlobStoreManagedLedgerOffloader(driver, bucket, scheduler,
-            maxBlockSize, readBufferSize, endpoint, region, credentials, userMetadata);
+            maxBlockSize, readBufferSize, endpoint, region, credentials, userMetadata)
+            .withPipeline(conf.getManagedLedgerOffloadMaxConcurrentUploads(),
+                conf.getManagedLedgerOffloadPrefetchRounds(),
+                conf.getManagedLedgerOffloadMaxPipelineMemoryInBytes())
+            .withReadCache(conf.getManagedLedgerOffloadReadCacheDirectory(),
+                conf.getManagedLedgerOffloadReadCacheSizeInBytes(),
+                conf.getManagedLedgerOffloadReadCachePrefetchChunks());
+    }
+
+    /**
+     * Upload the data blocks of each ledger through a {@link PipelinedDataBlockUploader} when more than one
+     * concurrent upload is allowed.
+     *
+     * @param maxConcurrentUploads the number of parts of a ledger uploaded concurrently
+     * @param readAheadRounds the number of outstanding reads from BookKeeper of a pipelined offload
+     * @param maxMemoryInBytes the memory budget for the data blocks of a pipelined offload
+     */
+    BlobStoreManagedLedgerOffloader withPipeline(int maxConcurrentUploads, int readAheadRounds,
+                                                 long maxMemoryInBytes) {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.readAheadRounds = readAheadRounds;
+        this.pipelineMaxMemoryInBytes = maxMemoryInBytes;
+        if (maxConcurrentUploads > 1 && uploadExecutor == null) {
+            // the uploads are blocking calls, they can't run on the scheduler running the offloads
+            uploadExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("offload-upload-%d").setDaemon(true).build());
+        }
+        return this;
+    }
+
+    /**
+     * Cache the data objects read from the blob store on local disk when a cache directory is configured.
+     *
+     * @param directory the directory of the read cache, or empty to disable the cache
+     * @param maxSizeInBytes the capacity of the read cache
+     * @param prefetchChunks the number of chunks prefetched into the cache for the sequential reads
+     */
+    BlobStoreManagedLedgerOffloader withReadCache(String directory, long maxSizeInBytes, int prefetchChunks)
+            throws IOException {
+        if (!Strings.isNullOrEmpty(directory) && readCache == null) {
+            readCache = new OffloadReadCache(new File(directory), maxSizeInBytes);
+            readCachePrefetchChunks = prefetchChunks;
+        }
+        return this;
     }
 
     public static Supplier<Credentials> getCredentials(String driver,
@@ -399,6 +467,7 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
                                            Map<String, String> extraMetadata) {
         CompletableFuture<Void> promise = new CompletableFuture<>();
         scheduler.chooseThread(readHandle.getId()).submit(() -> {
+            long startTimeNanos = System.nanoTime();
             if (readHandle.getLength() == 0 || !readHandle.isClosed() || readHandle.getLastAddConfirmed() < 0) {
                 promise.completeExceptionally(
                         new IllegalArgumentException("An empty or open ledger should never be offloaded"));
@@ -427,37 +496,9 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
             long dataObjectLength = 0;
             // start multi part upload for data block.
             try {
-                long startEntry = 0;
-                int partId = 1;
-                long entryBytesWritten = 0;
-                while (startEntry <= readHandle.getLastAddConfirmed()) {
-                    int blockSize = BlockAwareSegmentInputStreamImpl
-                        .calculateBlockSize(maxBlockSize, readHandle, startEntry, entryBytesWritten);
-
-                    try (BlockAwareSegmentInputStream blockStream = new BlockAwareSegmentInputStreamImpl(
-                        readHandle, startEntry, blockSize)) {
-
-                        Payload partPayload = Payloads.newInputStreamPayload(blockStream);
-                        partPayload.getContentMetadata().setContentLength((long)blockSize);
-                        partPayload.getContentMetadata().setContentType("application/octet-stream");
-                        parts.add(writeBlobStore.uploadMultipartPart(mpu, partId, partPayload));
-                        log.debug("UploadMultipartPart. container: {}, blobName: {}, partId: {}, mpu: {}",
-                            writeBucket, dataBlockKey, partId, mpu.id());
-
-                        indexBuilder.addBlock(startEntry, partId, blockSize);
-
-                        if (blockStream.getEndEntryId() != -1) {
-                            startEntry = blockStream.getEndEntryId() + 1;
-                        } else {
-                            // could not read entry from ledger.
-                            break;
-                        }
-                        entryBytesWritten += blockStream.getBlockEntryBytesCount();
-                        partId++;
-                    }
-
-                    dataObjectLength += blockSize;
-                }
+                dataObjectLength = maxConcurrentUploads > 1
+                    ? uploadDataBlocksPipelined(readHandle, mpu, dataBlockKey, indexBuilder, parts)
+                    : uploadDataBlocks(readHandle, mpu, dataBlockKey, indexBuilder, parts);
 
                 writeBlobStore.completeMultipartUpload(mpu, parts);
                 mpu = null;
@@ -490,6 +531,12 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
                     .build();
 
                 writeBlobStore.putBlob(writeBucket, blob);
+
+                double elapsedSeconds = (System.nanoTime() - startTimeNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+                OFFLOADED_BYTES.inc(dataObjectLength);
+                OFFLOAD_THROUGHPUT.observe(dataObjectLength / Math.max(elapsedSeconds, 1e-9));
+                log.info("Offloaded {} bytes of ledger {} in {} seconds", dataObjectLength, readHandle.getId(),
+                    String.format("%.3f", elapsedSeconds));
                 promise.complete(null);
             } catch (Throwable t) {
                 try {
@@ -505,6 +552,62 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
         return promise;
     }
 
+    // upload the data blocks one after the other, streaming each of them from the ledger
+    private long uploadDataBlocks(ReadHandle readHandle, MultipartUpload mpu, String dataBlockKey,
+                                  OffloadIndexBlockBuilder indexBuilder, List<MultipartPart> parts)
+            throws Exception {
+        long dataObjectLength = 0;
+        long startEntry = 0;
+        int partId = 1;
+        long entryBytesWritten = 0;
+        while (startEntry <= readHandle.getLastAddConfirmed()) {
+            int blockSize = BlockAwareSegmentInputStreamImpl
+                .calculateBlockSize(maxBlockSize, readHandle, startEntry, entryBytesWritten);
+
+            try (BlockAwareSegmentInputStream blockStream = new BlockAwareSegmentInputStreamImpl(
+                readHandle, startEntry, blockSize)) {
+
+                parts.add(uploadDataBlock(mpu, dataBlockKey, partId, blockStream, blockSize));
+
+                indexBuilder.addBlock(startEntry, partId, blockSize);
+
+                if (blockStream.getEndEntryId() != -1) {
+                    startEntry = blockStream.getEndEntryId() + 1;
+                } else {
+                    // could not read entry from ledger.
+                    break;
+                }
+                entryBytesWritten += blockStream.getBlockEntryBytesCount();
+                partId++;
+            }
+
+            dataObjectLength += blockSize;
+        }
+        return dataObjectLength;
+    }
+
+    // upload the data blocks concurrently, while reading the next ones from the ledger
+    private long uploadDataBlocksPipelined(ReadHandle readHandle, MultipartUpload mpu, String dataBlockKey,
+                                           OffloadIndexBlockBuilder indexBuilder, List<MultipartPart> parts)
+            throws Exception {
+        PipelinedDataBlockUploader uploader = new PipelinedDataBlockUploader(readHandle, maxBlockSize,
+            readAheadRounds, maxConcurrentUploads, pipelineMaxMemoryInBytes, uploadExecutor,
+            (partId, block, blockSize) -> uploadDataBlock(mpu, dataBlockKey, partId, block, blockSize));
+        parts.addAll(uploader.upload(indexBuilder));
+        return uploader.getDataObjectLength();
+    }
+
+    private MultipartPart uploadDataBlock(MultipartUpload mpu, String dataBlockKey, int partId, InputStream block,
+                                          int blockSize) {
+        Payload partPayload = Payloads.newInputStreamPayload(block);
+        partPayload.getContentMetadata().setContentLength((long) blockSize);
+        partPayload.getContentMetadata().setContentType("application/octet-stream");
+        MultipartPart part = writeBlobStore.uploadMultipartPart(mpu, partId, partPayload);
+        log.debug("UploadMultipartPart. container: {}, blobName: {}, partId: {}, mpu: {}",
+            writeBucket, dataBlockKey, partId, mpu.id());
+        return part;
+    }
+
     String getReadRegion(Map<String, String> offloadDriverMetadata) {
         return offloadDriverMetadata.getOrDefault(METADATA_FIELD_REGION, writeRegion);
     }
@@ -557,7 +660,8 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
                                                                  readBlobstore,
                                                                  readBucket, key, indexKey,
                                                                  VERSION_CHECK,
-                                                                 ledgerId, readBufferSize));
+                                                                 ledgerId, readBufferSize,
+                                                                 readCache, readCachePrefetchChunks));
                 } catch (Throwable t) {
                     log.error("Failed readOffloaded: ", t);
                     promise.completeExceptionally(t);
@@ -577,6 +681,9 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
         CompletableFuture<Void> promise = new CompletableFuture<>();
         scheduler.chooseThread(ledgerId).submit(() -> {
             try {
+                if (readCache != null) {
+                    readCache.invalidate(dataBlockOffloadKey(ledgerId, uid));
+                }
                 readBlobstore.removeBlobs(readBucket,
                     ImmutableList.of(dataBlockOffloadKey(ledgerId, uid), indexBlockOffloadKey(ledgerId, uid)));
                 promise.complete(null);
@@ -600,6 +707,12 @@ public class BlobStoreManagedLedgerOffloader implements LedgerOffloader {
 
     @Override
     public void close() {
+        if (uploadExecutor != null) {
+            uploadExecutor.shutdown();
+        }
+        if (readCache != null) {
+            readCache.close();
+        }
         if (writeBlobStore != null) {
             writeBlobStore.getContext().close();
         }
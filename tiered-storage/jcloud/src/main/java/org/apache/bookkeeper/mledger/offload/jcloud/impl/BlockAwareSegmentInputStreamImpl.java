@@ -64,7 +64,7 @@ public class BlockAwareSegmentInputStreamImpl extends BlockAwareSegmentInputStre
     private final InputStream dataBlockHeaderStream;
 
     // how many entries want to read from ReadHandle each time.
-    private static final int ENTRIES_PER_READ = 100;
+    static final int ENTRIES_PER_READ = 100;
     // buf the entry size and entry id.
     static final int ENTRY_HEADER_SIZE = 4 /* entry size */ + 8 /* entry id */;
     // Keep a list of all entries ByteBuf, each ByteBuf contains 2 buf: entry header and entry content.
@@ -208,6 +208,14 @@ public class BlockAwareSegmentInputStreamImpl extends BlockAwareSegmentInputStre
         return dataBlockFullOffset - DataBlockHeaderImpl.getDataStartOffset() - ENTRY_HEADER_SIZE * blockEntryCount;
     }
 
+    // Pad a data block assembled in memory up to its size, the same way as it is read out of this InputStream
+    static void writePadding(ByteBuf block, int blockSize) {
+        int dataBlockFullOffset = block.writerIndex();
+        while (block.writerIndex() < blockSize) {
+            block.writeByte(BLOCK_END_PADDING[(block.writerIndex() - dataBlockFullOffset) % BLOCK_END_PADDING.length]);
+        }
+    }
+
     public static long getHeaderSize() {
         return DataBlockHeaderImpl.getDataStartOffset();
     }
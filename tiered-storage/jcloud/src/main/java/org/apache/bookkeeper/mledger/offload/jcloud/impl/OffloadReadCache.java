@@ -0,0 +1,411 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.offload.jcloud.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.buffer.ByteBuf;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache on local disk of the data objects of offloaded ledgers, shared by the read handles of an offloader.
+ *
+ * <p>The data objects are cached in chunks of the read buffer size, aligned on the chunk size, each chunk being
+ * stored in its own file. The cache is a segmented LRU: the chunks are admitted in a probationary segment and only
+ * promoted to the protected segment when they are read again, so a single scan over tiered data, e.g. by Pulsar SQL,
+ * only evicts the chunks which were read once.
+ *
+ * <p>The chunks following the ones read sequentially can be prefetched in the background.
+ */
+class OffloadReadCache implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(OffloadReadCache.class);
+
+    private static final Counter HITS = Counter
+            .build("pulsar_offload_read_cache_hits", "Reads of offloaded ledgers served by the local read cache")
+            .register();
+    private static final Counter MISSES = Counter
+            .build("pulsar_offload_read_cache_misses", "Reads of offloaded ledgers not served by the local read cache")
+            .register();
+    private static final Counter PREFETCHES = Counter
+            .build("pulsar_offload_read_cache_prefetches", "Chunks prefetched into the local read cache")
+            .register();
+    private static final Counter EVICTIONS = Counter
+            .build("pulsar_offload_read_cache_evictions", "Chunks evicted from the local read cache")
+            .register();
+    private static final Gauge SIZE = Gauge
+            .build("pulsar_offload_read_cache_size_bytes", "Bytes of offloaded ledgers held by the local read caches")
+            .register();
+
+    // share of the capacity which can be used by the chunks read more than once
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final Path directory;
+    private final long maxSizeInBytes;
+    private final long maxProtectedSizeInBytes;
+    private final ExecutorService prefetchExecutor;
+
+    // access ordered, the least recently used chunk first
+    private final LinkedHashMap<Key, CachedChunk> probationSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, CachedChunk> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long protectedSize = 0;
+    private long nextFileId = 0;
+    private boolean closed = false;
+
+    private final ConcurrentMap<Key, CompletableFuture<Void>> prefetching = new ConcurrentHashMap<>();
+
+    /**
+     * @param parentDirectory the directory in which the cache creates its own directory
+     * @param maxSizeInBytes the capacity of the cache
+     */
+    OffloadReadCache(File parentDirectory, long maxSizeInBytes) throws IOException {
+        checkArgument(maxSizeInBytes > 0, "The size of the offload read cache must be positive");
+        Files.createDirectories(parentDirectory.toPath());
+        this.directory = Files.createTempDirectory(parentDirectory.toPath(), "offload-read-cache-");
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.maxProtectedSizeInBytes = (long) (maxSizeInBytes * PROTECTED_RATIO);
+        this.prefetchExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("offload-read-prefetch-%d").setDaemon(true).build());
+        log.info("Created offload read cache of {} bytes in {}", maxSizeInBytes, directory);
+    }
+
+    /**
+     * Read a chunk of a data object from the cache.
+     *
+     * @param dataKey the key of the data object
+     * @param chunk the index of the chunk in the data object
+     * @param buffer the buffer the chunk is written into
+     * @return true if the chunk was cached and written into the buffer, false otherwise
+     */
+    boolean read(String dataKey, long chunk, ByteBuf buffer) {
+        Key key = new Key(dataKey, chunk);
+        CompletableFuture<Void> prefetch = prefetching.get(key);
+        if (prefetch != null) {
+            // rather wait for the chunk being prefetched than fetch it a second time
+            prefetch.join();
+        }
+        CachedChunk cached = lookup(key);
+        if (cached != null) {
+            int writerIndex = buffer.writerIndex();
+            try {
+                readFile(cached, buffer);
+                HITS.inc();
+                return true;
+            } catch (IOException e) {
+                // the chunk was evicted after the lookup
+                log.debug("Failed to read chunk {} of {} from {}", chunk, dataKey, cached.file, e);
+                buffer.writerIndex(writerIndex);
+            }
+        }
+        MISSES.inc();
+        return false;
+    }
+
+    /**
+     * Write a chunk of a data object to the cache, unless it is already cached. The chunk is admitted in the
+     * probationary segment, evicting the least recently used chunks if needed.
+     *
+     * @param dataKey the key of the data object
+     * @param chunk the index of the chunk in the data object
+     * @param data the readable bytes of the chunk, which are not consumed
+     */
+    void write(String dataKey, long chunk, ByteBuf data) {
+        int length = data.readableBytes();
+        if (length > maxSizeInBytes) {
+            return;
+        }
+        Key key = new Key(dataKey, chunk);
+        Path file;
+        synchronized (this) {
+            if (closed || probationSegment.containsKey(key) || protectedSegment.containsKey(key)) {
+                return;
+            }
+            file = directory.resolve((nextFileId++) + ".chunk");
+        }
+
+        try {
+            writeFile(file, data);
+        } catch (IOException e) {
+            log.warn("Failed to write chunk {} of {} to {}", chunk, dataKey, file, e);
+            deleteFile(file);
+            return;
+        }
+
+        List<CachedChunk> evicted = new ArrayList<>();
+        boolean admitted = false;
+        synchronized (this) {
+            if (!closed && !probationSegment.containsKey(key) && !protectedSegment.containsKey(key)) {
+                probationSegment.put(key, new CachedChunk(file, length));
+                size += length;
+                SIZE.inc(length);
+                admitted = true;
+                while (size > maxSizeInBytes) {
+                    evicted.add(evictEldest());
+                }
+            }
+        }
+        if (!admitted) {
+            deleteFile(file);
+        }
+        EVICTIONS.inc(evicted.size());
+        evicted.forEach(cached -> deleteFile(cached.file));
+    }
+
+    /**
+     * Prefetch a chunk of a data object in the background, unless it is already cached or being prefetched.
+     *
+     * @param dataKey the key of the data object
+     * @param chunk the index of the chunk in the data object
+     * @param loader fetches the chunk from the blob store, the returned buffer is released once cached
+     */
+    void prefetch(String dataKey, long chunk, Callable<ByteBuf> loader) {
+        Key key = new Key(dataKey, chunk);
+        if (contains(key)) {
+            return;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (prefetching.putIfAbsent(key, future) != null) {
+            return;
+        }
+        try {
+            prefetchExecutor.execute(() -> {
+                ByteBuf data = null;
+                try {
+                    data = loader.call();
+                    write(dataKey, chunk, data);
+                    PREFETCHES.inc();
+                } catch (Throwable t) {
+                    log.warn("Failed to prefetch chunk {} of {}", chunk, dataKey, t);
+                } finally {
+                    if (data != null) {
+                        data.release();
+                    }
+                    prefetching.remove(key, future);
+                    future.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the cache is closed
+            prefetching.remove(key, future);
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Remove all the chunks of a data object from the cache.
+     */
+    void invalidate(String dataKey) {
+        List<CachedChunk> removed = new ArrayList<>();
+        synchronized (this) {
+            removeAll(probationSegment, dataKey, removed);
+            protectedSize -= removeAll(protectedSegment, dataKey, removed);
+        }
+        removed.forEach(cached -> deleteFile(cached.file));
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized boolean contains(String dataKey, long chunk) {
+        return contains(new Key(dataKey, chunk));
+    }
+
+    @Override
+    public void close() {
+        List<CachedChunk> removed = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            removed.addAll(probationSegment.values());
+            removed.addAll(protectedSegment.values());
+            probationSegment.clear();
+            protectedSegment.clear();
+            SIZE.dec(size);
+            size = 0;
+            protectedSize = 0;
+        }
+        prefetchExecutor.shutdownNow();
+        removed.forEach(cached -> deleteFile(cached.file));
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(OffloadReadCache::deleteFile);
+        } catch (IOException e) {
+            log.warn("Failed to delete the offload read cache in {}", directory, e);
+        }
+    }
+
+    private synchronized boolean contains(Key key) {
+        return probationSegment.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    private synchronized CachedChunk lookup(Key key) {
+        CachedChunk cached = protectedSegment.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        cached = probationSegment.remove(key);
+        if (cached != null) {
+            // read a second time, promote the chunk to the protected segment
+            protectedSegment.put(key, cached);
+            protectedSize += cached.length;
+            while (protectedSize > maxProtectedSizeInBytes) {
+                // demote the least recently used protected chunk, as the most recently used probationary one
+                Map.Entry<Key, CachedChunk> eldest = protectedSegment.entrySet().iterator().next();
+                protectedSegment.remove(eldest.getKey());
+                protectedSize -= eldest.getValue().length;
+                probationSegment.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+        return cached;
+    }
+
+    private CachedChunk evictEldest() {
+        boolean fromProbation = !probationSegment.isEmpty();
+        Iterator<CachedChunk> eldest = (fromProbation ? probationSegment : protectedSegment).values().iterator();
+        CachedChunk cached = eldest.next();
+        eldest.remove();
+        size -= cached.length;
+        SIZE.dec(cached.length);
+        if (!fromProbation) {
+            protectedSize -= cached.length;
+        }
+        return cached;
+    }
+
+    private long removeAll(Map<Key, CachedChunk> segment, String dataKey, List<CachedChunk> removed) {
+        long removedSize = 0;
+        Iterator<Map.Entry<Key, CachedChunk>> iterator = segment.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, CachedChunk> entry = iterator.next();
+            if (entry.getKey().dataKey.equals(dataKey)) {
+                iterator.remove();
+                removed.add(entry.getValue());
+                removedSize += entry.getValue().length;
+            }
+        }
+        size -= removedSize;
+        SIZE.dec(removedSize);
+        return removedSize;
+    }
+
+    private static void writeFile(Path file, ByteBuf data) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int index = data.readerIndex();
+            int remaining = data.readableBytes();
+            long position = 0;
+            while (remaining > 0) {
+                int written = data.getBytes(index, channel, position, remaining);
+                index += written;
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    private static void readFile(CachedChunk cached, ByteBuf buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(cached.file, StandardOpenOption.READ)) {
+            int remaining = cached.length;
+            long position = 0;
+            while (remaining > 0) {
+                int read = buffer.writeBytes(channel, position, remaining);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of " + cached.file);
+                }
+                position += read;
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}", file, e);
+        }
+    }
+
+    private static final class Key {
+        private final String dataKey;
+        private final long chunk;
+
+        Key(String dataKey, long chunk) {
+            this.dataKey = dataKey;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return chunk == other.chunk && dataKey.equals(other.dataKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dataKey, chunk);
+        }
+    }
+
+    private static final class CachedChunk {
+        private final Path file;
+        private final int length;
+
+        CachedChunk(Path file, int length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+}
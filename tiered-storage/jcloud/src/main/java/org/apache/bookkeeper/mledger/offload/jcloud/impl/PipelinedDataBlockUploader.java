@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.offload.jcloud.impl;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.prometheus.client.Gauge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.offload.jcloud.OffloadIndexBlockBuilder;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads the data blocks of a ledger as the parts of a multipart upload, overlapping the reads from BookKeeper with
+ * the uploads.
+ *
+ * <p>The entries are read ahead with several outstanding reads and assembled in memory into data blocks, with the
+ * same layout as {@link BlockAwareSegmentInputStreamImpl}, which are uploaded concurrently. The blocks held in memory,
+ * being assembled or uploaded, are bounded by a memory budget: once it is exhausted, the assembly waits for uploads
+ * to complete.
+ */
+class PipelinedDataBlockUploader {
+    private static final Logger log = LoggerFactory.getLogger(PipelinedDataBlockUploader.class);
+
+    private static final Gauge BUFFERED_BYTES = Gauge
+            .build("pulsar_offload_buffered_bytes", "Bytes of data blocks held in memory by the pipelined offloads")
+            .register();
+
+    /**
+     * Uploads a data block as a part of the multipart upload.
+     */
+    interface PartUploader {
+        MultipartPart upload(int partId, InputStream block, int blockSize) throws Exception;
+    }
+
+    private final ReadHandle readHandle;
+    private final int maxBlockSize;
+    private final int readAheadRounds;
+    private final Executor uploadExecutor;
+    private final PartUploader uploader;
+    private final int memoryPermits;
+    private final Semaphore memory;
+    private final Semaphore uploads;
+
+    private final Deque<CompletableFuture<LedgerEntries>> reads = new ArrayDeque<>();
+    private long nextReadEntry = 0;
+    private final List<CompletableFuture<MultipartPart>> parts = new ArrayList<>();
+    private final AtomicReference<Throwable> uploadFailure = new AtomicReference<>();
+    private long dataObjectLength = 0;
+
+    /**
+     * @param readAheadRounds the number of outstanding reads from BookKeeper
+     * @param maxConcurrentUploads the number of parts uploaded concurrently
+     * @param maxMemoryInBytes the memory budget for the data blocks
+     */
+    PipelinedDataBlockUploader(ReadHandle readHandle, int maxBlockSize, int readAheadRounds,
+                               int maxConcurrentUploads, long maxMemoryInBytes, Executor uploadExecutor,
+                               PartUploader uploader) {
+        this.readHandle = readHandle;
+        this.maxBlockSize = maxBlockSize;
+        this.readAheadRounds = Math.max(readAheadRounds, 1);
+        this.uploadExecutor = uploadExecutor;
+        this.uploader = uploader;
+        this.memoryPermits = (int) Math.min(Math.max(maxMemoryInBytes, 1), Integer.MAX_VALUE);
+        this.memory = new Semaphore(memoryPermits);
+        this.uploads = new Semaphore(Math.max(maxConcurrentUploads, 1));
+    }
+
+    /**
+     * Upload the data blocks of the ledger, blocking until all of them are uploaded.
+     *
+     * @return the uploaded parts, ordered by part number
+     */
+    List<MultipartPart> upload(OffloadIndexBlockBuilder indexBuilder) throws Exception {
+        long entryBytesWritten = 0;
+        int partId = 1;
+        ByteBuf block = null;
+        int blockSize = 0;
+        long blockFirstEntry = 0;
+        long blockEntryBytes = 0;
+        try {
+            LedgerEntries entries;
+            while ((entries = nextEntries()) != null) {
+                try {
+                    for (LedgerEntry entry : entries) {
+                        checkUploads();
+                        ByteBuf data = entry.getEntryBuffer();
+                        if (block != null && block.writerIndex() + BlockAwareSegmentInputStreamImpl.ENTRY_HEADER_SIZE
+                                + data.readableBytes() > blockSize) {
+                            submit(partId, block, blockSize);
+                            block = null;
+                            indexBuilder.addBlock(blockFirstEntry, partId++, blockSize);
+                            dataObjectLength += blockSize;
+                            entryBytesWritten += blockEntryBytes;
+                        }
+                        if (block == null) {
+                            blockFirstEntry = entry.getEntryId();
+                            blockSize = BlockAwareSegmentInputStreamImpl.calculateBlockSize(maxBlockSize,
+                                    readHandle, blockFirstEntry, entryBytesWritten);
+                            block = newBlock(blockSize, blockFirstEntry);
+                            blockEntryBytes = 0;
+                            if (block.writerIndex() + BlockAwareSegmentInputStreamImpl.ENTRY_HEADER_SIZE
+                                    + data.readableBytes() > blockSize) {
+                                throw new IOException(String.format("Entry %d of ledger %d with %d bytes does not"
+                                        + " fit in a data block of %d bytes", entry.getEntryId(), readHandle.getId(),
+                                        data.readableBytes(), blockSize));
+                            }
+                        }
+                        block.writeInt(data.readableBytes()).writeLong(entry.getEntryId());
+                        block.writeBytes(data, data.readerIndex(), data.readableBytes());
+                        blockEntryBytes += data.readableBytes();
+                    }
+                } finally {
+                    entries.close();
+                }
+            }
+            if (block != null) {
+                submit(partId, block, blockSize);
+                block = null;
+                indexBuilder.addBlock(blockFirstEntry, partId, blockSize);
+                dataObjectLength += blockSize;
+            }
+            CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).get();
+        } catch (ExecutionException e) {
+            // report the failure of an upload rather than its wrapper
+            checkUploads();
+            throw e;
+        } finally {
+            if (block != null) {
+                release(block);
+            }
+            reads.forEach(read -> read.thenAccept(LedgerEntries::close));
+            reads.clear();
+            // wait for the uploads in progress, so their blocks are released before the upload is aborted
+            parts.forEach(part -> part.exceptionally(t -> null).join());
+        }
+        List<MultipartPart> uploaded = new ArrayList<>(parts.size());
+        parts.forEach(part -> uploaded.add(part.join()));
+        uploaded.sort(Comparator.comparingInt(MultipartPart::partNumber));
+        return uploaded;
+    }
+
+    long getDataObjectLength() {
+        return dataObjectLength;
+    }
+
+    private LedgerEntries nextEntries() throws Exception {
+        long lastAddConfirmed = readHandle.getLastAddConfirmed();
+        while (reads.size() < readAheadRounds && nextReadEntry <= lastAddConfirmed) {
+            long end = Math.min(nextReadEntry + BlockAwareSegmentInputStreamImpl.ENTRIES_PER_READ - 1,
+                    lastAddConfirmed);
+            reads.add(readHandle.readAsync(nextReadEntry, end));
+            nextReadEntry = end + 1;
+        }
+        CompletableFuture<LedgerEntries> read = reads.poll();
+        return read == null ? null : read.get();
+    }
+
+    private ByteBuf newBlock(int blockSize, long firstEntryId) throws IOException, InterruptedException {
+        memory.acquire(memoryPermits(blockSize));
+        BUFFERED_BYTES.inc(blockSize);
+        ByteBuf block = PulsarByteBufAllocator.DEFAULT.buffer(blockSize, blockSize);
+        try (InputStream header = DataBlockHeaderImpl.of(blockSize, firstEntryId).toStream()) {
+            block.writeBytes(header, DataBlockHeaderImpl.getDataStartOffset());
+        }
+        checkState(block.writerIndex() == DataBlockHeaderImpl.getDataStartOffset());
+        return block;
+    }
+
+    private void release(ByteBuf block) {
+        int blockSize = block.capacity();
+        block.release();
+        BUFFERED_BYTES.dec(blockSize);
+        memory.release(memoryPermits(blockSize));
+    }
+
+    private int memoryPermits(int blockSize) {
+        // a block larger than the whole budget is uploaded alone
+        return Math.min(blockSize, memoryPermits);
+    }
+
+    private void submit(int partId, ByteBuf block, int blockSize) throws InterruptedException {
+        BlockAwareSegmentInputStreamImpl.writePadding(block, blockSize);
+        uploads.acquire();
+        parts.add(CompletableFuture.supplyAsync(() -> {
+            try (InputStream stream = new ByteBufInputStream(block.retainedDuplicate(), true)) {
+                return uploader.upload(partId, stream, blockSize);
+            } catch (Exception e) {
+                log.error("Failed to upload part {} of ledger {}", partId, readHandle.getId(), e);
+                uploadFailure.compareAndSet(null, e);
+                throw new IllegalStateException(e);
+            } finally {
+                release(block);
+                uploads.release();
+            }
+        }, uploadExecutor));
+    }
+
+    private void checkUploads() throws Exception {
+        Throwable failure = uploadFailure.get();
+        if (failure != null) {
+            throw failure instanceof Exception ? (Exception) failure : new IOException(failure);
+        }
+    }
+}
@@ -29,8 +29,10 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSSessionCredentials;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -61,7 +63,10 @@ import org.apache.zookeeper.MockZooKeeper;
 import org.apache.zookeeper.data.ACL;
 import org.jclouds.aws.domain.SessionCredentials;
 import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.domain.Credentials;
 import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
@@ -315,6 +320,127 @@ public class BlobStoreManagedLedgerOffloaderTest extends BlobStoreTestBase {
         }
     }
 
+    @Test
+    public void testPipelinedOffloadAndRead() throws Exception {
+        ReadHandle toWrite = buildReadHandle(DEFAULT_BLOCK_SIZE, 5);
+        BlobStoreManagedLedgerOffloader sequential = new BlobStoreManagedLedgerOffloader(blobStore, BUCKET,
+                scheduler, DEFAULT_BLOCK_SIZE, DEFAULT_READ_BUFFER_SIZE);
+        // a budget of two blocks, so the reads wait for the uploads
+        BlobStoreManagedLedgerOffloader pipelined = new BlobStoreManagedLedgerOffloader(blobStore, BUCKET,
+                scheduler, DEFAULT_BLOCK_SIZE, DEFAULT_READ_BUFFER_SIZE)
+                .withPipeline(4, 2, 2 * DEFAULT_BLOCK_SIZE);
+        UUID sequentialUuid = UUID.randomUUID();
+        UUID pipelinedUuid = UUID.randomUUID();
+        sequential.offload(toWrite, sequentialUuid, new HashMap<>()).get();
+        pipelined.offload(toWrite, pipelinedUuid, new HashMap<>()).get();
+
+        // both offloads write the same data object
+        Assert.assertEquals(
+                readBlob(BlobStoreManagedLedgerOffloader.dataBlockOffloadKey(toWrite.getId(), pipelinedUuid)),
+                readBlob(BlobStoreManagedLedgerOffloader.dataBlockOffloadKey(toWrite.getId(), sequentialUuid)));
+
+        ReadHandle toTest = pipelined.readOffloaded(toWrite.getId(), pipelinedUuid, Collections.emptyMap()).get();
+        Assert.assertEquals(toTest.getLastAddConfirmed(), toWrite.getLastAddConfirmed());
+
+        try (LedgerEntries toWriteEntries = toWrite.read(0, toWrite.getLastAddConfirmed());
+             LedgerEntries toTestEntries = toTest.read(0, toTest.getLastAddConfirmed())) {
+            Iterator<LedgerEntry> toWriteIter = toWriteEntries.iterator();
+            Iterator<LedgerEntry> toTestIter = toTestEntries.iterator();
+
+            while (toWriteIter.hasNext() && toTestIter.hasNext()) {
+                LedgerEntry toWriteEntry = toWriteIter.next();
+                LedgerEntry toTestEntry = toTestIter.next();
+
+                Assert.assertEquals(toWriteEntry.getEntryId(), toTestEntry.getEntryId());
+                Assert.assertEquals(toWriteEntry.getEntryBuffer(), toTestEntry.getEntryBuffer());
+            }
+            Assert.assertFalse(toWriteIter.hasNext());
+            Assert.assertFalse(toTestIter.hasNext());
+        }
+    }
+
+    @Test
+    public void testPipelinedOffloadFailDataBlockPartUpload() throws Exception {
+        ReadHandle readHandle = buildReadHandle(DEFAULT_BLOCK_SIZE, 3);
+        UUID uuid = UUID.randomUUID();
+        String failureString = "fail DataBlockPartUpload";
+
+        BlobStore spiedBlobStore = mock(BlobStore.class, delegatesTo(blobStore));
+        Mockito
+            .doAnswer(delegatesTo(blobStore))
+            .doThrow(new RuntimeException(failureString))
+            .when(spiedBlobStore).uploadMultipartPart(any(), anyInt(), any());
+
+        BlobStoreManagedLedgerOffloader offloader = new BlobStoreManagedLedgerOffloader(spiedBlobStore, BUCKET,
+                scheduler, DEFAULT_BLOCK_SIZE, DEFAULT_READ_BUFFER_SIZE)
+                .withPipeline(4, 2, 2 * DEFAULT_BLOCK_SIZE);
+        try {
+            offloader.offload(readHandle, uuid, new HashMap<>()).get();
+            Assert.fail("Should throw exception for when uploadPart");
+        } catch (ExecutionException e) {
+            // expected
+            Assert.assertTrue(e.getCause() instanceof RuntimeException);
+            Assert.assertTrue(e.getCause().getMessage().contains(failureString));
+            Mockito.verify(spiedBlobStore).abortMultipartUpload(any());
+            Assert.assertFalse(blobStore.blobExists(BUCKET,
+                    BlobStoreManagedLedgerOffloader.dataBlockOffloadKey(readHandle.getId(), uuid)));
+            Assert.assertFalse(blobStore.blobExists(BUCKET,
+                    BlobStoreManagedLedgerOffloader.indexBlockOffloadKey(readHandle.getId(), uuid)));
+        }
+    }
+
+    @Test
+    public void testOffloadReadWithReadCache() throws Exception {
+        ReadHandle toWrite = buildReadHandle(DEFAULT_BLOCK_SIZE, 3);
+        UUID uuid = UUID.randomUUID();
+        String dataKey = BlobStoreManagedLedgerOffloader.dataBlockOffloadKey(toWrite.getId(), uuid);
+        File cacheDirectory = Files.createTempDirectory("offload-read-cache").toFile();
+
+        BlobStore spiedBlobStore = mock(BlobStore.class, delegatesTo(blobStore));
+        // keep the context of the test blob store open when closing the offloader
+        Mockito.doReturn(mock(BlobStoreContext.class)).when(spiedBlobStore).getContext();
+        BlobStoreManagedLedgerOffloader offloader = new BlobStoreManagedLedgerOffloader(spiedBlobStore, BUCKET,
+                scheduler, DEFAULT_BLOCK_SIZE, DEFAULT_READ_BUFFER_SIZE)
+                .withReadCache(cacheDirectory.getAbsolutePath(), 64 * 1024 * 1024, 0);
+        offloader.offload(toWrite, uuid, new HashMap<>()).get();
+
+        for (int i = 0; i < 2; i++) {
+            // the data object is only read from the blob store by the first read handle
+            ReadHandle toTest = offloader.readOffloaded(toWrite.getId(), uuid, Collections.emptyMap()).get();
+            try (LedgerEntries toWriteEntries = toWrite.read(0, toWrite.getLastAddConfirmed());
+                 LedgerEntries toTestEntries = toTest.read(0, toTest.getLastAddConfirmed())) {
+                Iterator<LedgerEntry> toWriteIter = toWriteEntries.iterator();
+                Iterator<LedgerEntry> toTestIter = toTestEntries.iterator();
+
+                while (toWriteIter.hasNext() && toTestIter.hasNext()) {
+                    LedgerEntry toWriteEntry = toWriteIter.next();
+                    LedgerEntry toTestEntry = toTestIter.next();
+
+                    Assert.assertEquals(toWriteEntry.getEntryId(), toTestEntry.getEntryId());
+                    Assert.assertEquals(toWriteEntry.getEntryBuffer(), toTestEntry.getEntryBuffer());
+                }
+                Assert.assertFalse(toWriteIter.hasNext());
+                Assert.assertFalse(toTestIter.hasNext());
+            }
+            toTest.close();
+            Mockito.clearInvocations(spiedBlobStore);
+        }
+        Mockito.verify(spiedBlobStore, Mockito.never()).getBlob(any(), Mockito.eq(dataKey), any(GetOptions.class));
+
+        offloader.deleteOffloaded(toWrite.getId(), uuid, Collections.emptyMap()).get();
+        offloader.close();
+        Assert.assertTrue(cacheDirectory.delete());
+    }
+
+    private byte[] readBlob(String key) throws IOException {
+        Blob blob = blobStore.getBlob(BUCKET, key);
+        byte[] bytes = new byte[blob.getMetadata().getContentMetadata().getContentLength().intValue()];
+        try (DataInputStream stream = new DataInputStream(blob.getPayload().openStream())) {
+            stream.readFully(bytes);
+        }
+        return bytes;
+    }
+
     @Test
     public void testOffloadFailInitDataBlockUpload() throws Exception {
         ReadHandle readHandle = buildReadHandle();
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.offload.jcloud.impl;
+
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.mledger.offload.jcloud.BackedInputStream;
+import org.apache.bookkeeper.mledger.offload.jcloud.BlobStoreTestBase;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class OffloadReadCacheTest extends BlobStoreTestBase {
+
+    private File cacheDirectory;
+
+    @BeforeMethod
+    public void setupCacheDirectory() throws Exception {
+        cacheDirectory = Files.createTempDirectory("offload-read-cache-test").toFile();
+    }
+
+    @AfterMethod
+    public void deleteCacheDirectory() {
+        cacheDirectory.delete();
+    }
+
+    private static ByteBuf chunk(int length, int value) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) value;
+        }
+        return Unpooled.wrappedBuffer(bytes);
+    }
+
+    private byte[] putObject(String objectKey, int objectSize) {
+        byte[] bytes = new byte[objectSize];
+        new Random(0).nextBytes(bytes);
+        Payload payload = Payloads.newByteArrayPayload(bytes);
+        payload.getContentMetadata().setContentLength((long) objectSize);
+        Blob blob = blobStore.blobBuilder(objectKey)
+            .payload(payload)
+            .contentLength((long) objectSize)
+            .build();
+        blobStore.putBlob(BUCKET, blob);
+        return bytes;
+    }
+
+    private static void assertStreamMatches(InputStream stream, byte[] expected) throws Exception {
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(stream.read(), expected[i] & 0xFF, "byte " + i);
+        }
+        Assert.assertEquals(stream.read(), -1);
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        OffloadReadCache cache = new OffloadReadCache(cacheDirectory, 1000);
+        try {
+            ByteBuf data = chunk(100, 1);
+            cache.write("object", 0, data);
+            Assert.assertEquals(data.readableBytes(), 100);
+            Assert.assertEquals(cache.getSize(), 100);
+
+            ByteBuf buffer = Unpooled.buffer(100);
+            Assert.assertTrue(cache.read("object", 0, buffer));
+            Assert.assertEquals(buffer, data);
+
+            buffer.clear();
+            Assert.assertFalse(cache.read("object", 1, buffer));
+            Assert.assertFalse(cache.read("other-object", 0, buffer));
+            Assert.assertEquals(buffer.readableBytes(), 0);
+        } finally {
+            cache.close();
+        }
+        Assert.assertEquals(cacheDirectory.list().length, 0);
+    }
+
+    @Test
+    public void testScanDoesNotEvictChunksReadTwice() throws Exception {
+        OffloadReadCache cache = new OffloadReadCache(cacheDirectory, 1000);
+        try {
+            cache.write("hot", 0, chunk(100, 1));
+            Assert.assertTrue(cache.read("hot", 0, Unpooled.buffer(100)));
+
+            // a scan over more chunks than the cache can hold
+            for (int i = 0; i < 20; i++) {
+                cache.write("scanned", i, chunk(100, i));
+                Assert.assertTrue(cache.getSize() <= 1000);
+            }
+            Assert.assertTrue(cache.contains("hot", 0));
+            Assert.assertFalse(cache.contains("scanned", 0));
+            Assert.assertTrue(cache.contains("scanned", 19));
+
+            cache.invalidate("scanned");
+            Assert.assertFalse(cache.contains("scanned", 19));
+            Assert.assertEquals(cache.getSize(), 100);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testReadThroughCache() throws Exception {
+        String objectKey = "testReadThroughCache";
+        int objectSize = 12345;
+        byte[] bytes = putObject(objectKey, objectSize);
+
+        OffloadReadCache cache = new OffloadReadCache(cacheDirectory, 1024 * 1024);
+        try {
+            BackedInputStream toTest = new BlobStoreBackedInputStreamImpl(blobStore, BUCKET, objectKey,
+                (key, md) -> {}, objectSize, 1000, cache, 0);
+            assertStreamMatches(toTest, bytes);
+            toTest.close();
+            Assert.assertEquals(cache.getSize(), objectSize);
+
+            // the chunks are read from the cache, wherever the stream seeks to
+            BlobStore spiedBlobStore = mock(BlobStore.class, delegatesTo(blobStore));
+            toTest = new BlobStoreBackedInputStreamImpl(spiedBlobStore, BUCKET, objectKey,
+                (key, md) -> {}, objectSize, 1000, cache, 0);
+            toTest.seek(5432);
+            Assert.assertEquals(toTest.read(), bytes[5432] & 0xFF);
+            toTest.seek(123);
+            Assert.assertEquals(toTest.read(), bytes[123] & 0xFF);
+            toTest.seek(0);
+            assertStreamMatches(toTest, bytes);
+            toTest.close();
+            verify(spiedBlobStore, never()).getBlob(anyString(), anyString(), any(GetOptions.class));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testPrefetchSequentialReads() throws Exception {
+        String objectKey = "testPrefetchSequentialReads";
+        int objectSize = 3000;
+        byte[] bytes = putObject(objectKey, objectSize);
+
+        // record the threads fetching each range of the object
+        Map<String, String> fetchingThreads = new ConcurrentHashMap<>();
+        BlobStore spiedBlobStore = mock(BlobStore.class, delegatesTo(blobStore));
+        Mockito.doAnswer(invocation -> {
+            GetOptions options = invocation.getArgument(2);
+            fetchingThreads.put(options.getRanges().get(0), Thread.currentThread().getName());
+            return blobStore.getBlob(invocation.getArgument(0), invocation.getArgument(1), options);
+        }).when(spiedBlobStore).getBlob(anyString(), anyString(), any(GetOptions.class));
+
+        OffloadReadCache cache = new OffloadReadCache(cacheDirectory, 1024 * 1024);
+        try {
+            BackedInputStream toTest = new BlobStoreBackedInputStreamImpl(spiedBlobStore, BUCKET, objectKey,
+                (key, md) -> {}, objectSize, 1000, cache, 1);
+            assertStreamMatches(toTest, bytes);
+            toTest.close();
+
+            // reading the second chunk sequentially prefetched the third one
+            Assert.assertEquals(fetchingThreads.size(), 3);
+            Assert.assertTrue(fetchingThreads.get("2000-2999").startsWith("offload-read-prefetch"));
+        } finally {
+            cache.close();
+        }
+    }
+}